@@ -85,6 +85,7 @@ import com.bbn.map.hifi.simulation.SimRequest;
 import com.bbn.map.hifi.simulation.SimResponse;
 import com.bbn.map.hifi.simulation.SimResponseStatus;
 import com.bbn.map.hifi.util.AbsoluteClock;
+import com.bbn.map.hifi.util.DnsResultCache;
 import com.bbn.map.hifi.util.DnsUtils;
 import com.bbn.map.simulator.ClientLoad;
 import com.bbn.map.utils.JsonUtils;
@@ -193,6 +194,20 @@ public final class ClientDriver {
          */
         public String dockerRegistryHostname;
 
+        /**
+         * Number of names to keep in the DNS result cache.
+         * 
+         * @see HiFiAgent#DNS_RESULT_CACHE_SIZE_KEY
+         */
+        public int dnsResultCacheSize = 0;
+
+        /**
+         * Seconds to remember names that do not exist.
+         * 
+         * @see HiFiAgent#DNS_RESULT_CACHE_NEGATIVE_TTL_KEY
+         */
+        public int dnsResultCacheNegativeTtl = 0;
+
     }
     // CHECKSTYLE:ON
 
@@ -250,6 +265,8 @@ public final class ClientDriver {
                     System.exit(1);
                 }
 
+                DnsUtils.enableResultCache(parameters.dnsResultCacheSize, parameters.dnsResultCacheNegativeTtl);
+
                 final ClientDriver driver = new ClientDriver(parameters);
                 outputVersionInformation();
 
@@ -259,6 +276,11 @@ public final class ClientDriver {
                 LOGGER.info("Shutting down the scenario");
                 driver.shutdownScenario();
 
+                final DnsResultCache.Statistics dnsCacheStatistics = DnsUtils.getResultCacheStatistics();
+                if (null != dnsCacheStatistics) {
+                    LOGGER.info("DNS result cache: {}", dnsCacheStatistics);
+                }
+
                 LOGGER.info("Exiting...");
                 System.exit(0);
             } catch (final IOException e) {
@@ -339,6 +361,11 @@ public final class ClientDriver {
             return null;
         }
 
+        parameters.dnsResultCacheSize = Integer
+                .parseInt(globalProps.getProperty(HiFiAgent.DNS_RESULT_CACHE_SIZE_KEY, "0"));
+        parameters.dnsResultCacheNegativeTtl = Integer
+                .parseInt(globalProps.getProperty(HiFiAgent.DNS_RESULT_CACHE_NEGATIVE_TTL_KEY, "0"));
+
         return parameters;
     }
 
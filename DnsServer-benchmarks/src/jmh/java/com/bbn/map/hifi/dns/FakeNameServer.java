@@ -0,0 +1,146 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * In-process stand-in for a delegate (region) DNS server. Every A query is
+ * answered authoritatively with the same address, other queries get
+ * NOTIMP. This allows the delegation path of
+ * {@link WeightedRoundRobinResolver} to be measured without a network of real
+ * DNS servers.
+ * 
+ * @author jschewe
+ *
+ */
+public final class FakeNameServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FakeNameServer.class);
+
+    private static final int MAX_PACKET_SIZE = 512;
+
+    private final DatagramSocket socket;
+    private final InetAddress answer;
+    private final long ttl;
+    private final Thread thread;
+
+    /**
+     * Start the server listening on a free port on the loopback address.
+     * 
+     * @param answer
+     *            the address returned for every A query
+     * @param ttl
+     *            the TTL of the returned records
+     * @throws SocketException
+     *             if the socket cannot be created
+     */
+    public FakeNameServer(final InetAddress answer, final long ttl) throws SocketException {
+        this.answer = answer;
+        this.ttl = ttl;
+        this.socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        this.thread = new Thread(this::run, "Fake name server " + getPort());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 
+     * @return the port that the server is listening on
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    private void run() {
+        final byte[] buffer = new byte[MAX_PACKET_SIZE];
+        while (!socket.isClosed()) {
+            try {
+                final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+
+                final Message query = new Message(packet.getData());
+                final byte[] reply = createReply(query).toWire(MAX_PACKET_SIZE);
+                socket.send(new DatagramPacket(reply, reply.length, packet.getSocketAddress()));
+            } catch (final IOException e) {
+                if (!socket.isClosed()) {
+                    LOGGER.warn("Error handling query, ignoring", e);
+                }
+            }
+        }
+    }
+
+    private Message createReply(final Message query) {
+        final Message response = new Message(query.getHeader().getID());
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.AA);
+
+        final Record question = query.getQuestion();
+        if (null == question) {
+            response.getHeader().setRcode(Rcode.FORMERR);
+            return response;
+        }
+
+        response.addRecord(question, Section.QUESTION);
+        if (Type.A == question.getType()) {
+            response.addRecord(new ARecord(question.getName(), question.getDClass(), ttl, answer), Section.ANSWER);
+        } else {
+            response.getHeader().setRcode(Rcode.NOTIMP);
+        }
+        return response;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+        try {
+            thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
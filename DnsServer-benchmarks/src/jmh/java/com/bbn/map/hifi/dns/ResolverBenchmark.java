@@ -0,0 +1,190 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Zone;
+
+import se.unlogic.eagledns.Request;
+
+/**
+ * Measure the query path of {@link WeightedRoundRobinResolver}.
+ * {@link #generateReply(ThreadState)} covers the response cache, the weighted
+ * CNAME chain and, when {@link #delegate} is set, delegation to a
+ * {@link FakeNameServer}. Set {@link #delegationCacheSize} to 0 to send every
+ * delegated query to the fake server.
+ * 
+ * @author jschewe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = ResolverBenchmark.MEASUREMENT_ITERATIONS, time = 2)
+@Fork(1)
+public class ResolverBenchmark {
+
+    /**
+     * Number of measurement iterations used by the resolver benchmarks.
+     */
+    /* package */ static final int MEASUREMENT_ITERATIONS = 5;
+
+    /**
+     * Number of services.
+     */
+    @Param({ "10", "100" })
+    private int services;
+
+    /**
+     * Number of regions that each service runs in.
+     */
+    @Param({ "3", "10" })
+    private int regions;
+
+    /**
+     * Number of weighted names between a service name and the region names.
+     */
+    @Param({ "1", "3" })
+    private int chainDepth;
+
+    /**
+     * If true the region names are delegated to a {@link FakeNameServer}.
+     */
+    @Param({ "false", "true" })
+    private boolean delegate;
+
+    /**
+     * Passed to
+     * {@link WeightedRoundRobinResolver#setDelegationCacheSize(int)}.
+     */
+    @Param({ "1000" })
+    private int delegationCacheSize;
+
+    private static final long DELEGATE_TTL = 60;
+
+    private FakeNameServer nameServer;
+    private WeightedRoundRobinResolver resolver;
+    private List<Request> requests;
+    private List<Name> names;
+
+    /**
+     * Per-thread position in the list of queries.
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int next = 0;
+
+        /* package */ int next(final int size) {
+            final int index = next;
+            next = (next + 1) % size;
+            return index;
+        }
+    }
+
+    /**
+     * Create the zone, the resolver and the fake delegate server.
+     * 
+     * @throws IOException
+     *             if the fake server cannot be started
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final SyntheticZone zone = new SyntheticZone(services, regions, chainDepth, delegate);
+
+        nameServer = new FakeNameServer(InetAddress.getLoopbackAddress(), DELEGATE_TTL);
+
+        resolver = zone.createResolver();
+        resolver.setDelegationPort(nameServer.getPort());
+        resolver.setDelegationCacheSize(delegationCacheSize);
+        resolver.setWeightedRecords(zone.createUpdate(0));
+
+        requests = new ArrayList<>();
+        names = new ArrayList<>();
+        for (final Message query : zone.getQueries()) {
+            requests.add(SyntheticZone.createRequest(query, InetAddress.getLoopbackAddress()));
+            names.add(query.getQuestion().getName());
+        }
+    }
+
+    /**
+     * Stop the resolver and the fake delegate server.
+     */
+    @TearDown(Level.Trial)
+    public void teardown() {
+        resolver.shutdown();
+        nameServer.close();
+    }
+
+    /**
+     * @param state
+     *            which query to send
+     * @return the response
+     * @throws Exception
+     *             from the resolver
+     */
+    @Benchmark
+    public Message generateReply(final ThreadState state) throws Exception {
+        return resolver.generateReply(requests.get(state.next(requests.size())));
+    }
+
+    /**
+     * @param state
+     *            which name to look up
+     * @return the zone for the name
+     */
+    @Benchmark
+    public Zone findBestZone(final ThreadState state) {
+        return resolver.findBestZone(names.get(state.next(names.size())));
+    }
+
+}
@@ -0,0 +1,234 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+
+import se.unlogic.eagledns.Request;
+
+/**
+ * Measure weighted record updates in {@link WeightedRoundRobinResolver} and
+ * their effect on queries. The {@code queryDuringUpdates} group runs queries
+ * on 3 threads while a fourth thread applies full updates every
+ * {@link #updateIntervalMicros} microseconds.
+ * 
+ * @author jschewe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = ResolverBenchmark.MEASUREMENT_ITERATIONS, time = 2)
+@Fork(1)
+public class ResolverUpdateBenchmark {
+
+    /**
+     * Number of services.
+     */
+    @Param({ "10", "100" })
+    private int services;
+
+    /**
+     * Number of regions that each service runs in.
+     */
+    @Param({ "3", "10" })
+    private int regions;
+
+    /**
+     * Number of weighted names between a service name and the region names.
+     */
+    @Param({ "1", "3" })
+    private int chainDepth;
+
+    /**
+     * Time between updates in the {@code queryDuringUpdates} group, 0 for
+     * updates as fast as possible.
+     */
+    @Param({ "0", "1000" })
+    private long updateIntervalMicros;
+
+    private static final int NUM_GENERATIONS = 2;
+
+    private SyntheticZone zone;
+    private WeightedRoundRobinResolver resolver;
+    private List<RecordUpdateMessage> updates;
+    private List<Request> requests;
+    private List<RecordDeltaMessage.HostnameDelta> deltaChanges;
+    private List<Name> deltaNames;
+
+    /**
+     * Per-thread position in the lists of updates and queries.
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int next = 0;
+
+        /* package */ int next(final int size) {
+            final int index = next;
+            next = (next + 1) % size;
+            return index;
+        }
+    }
+
+    /**
+     * Create the zone and the resolver.
+     * 
+     * @throws IOException
+     *             if the zone cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        zone = new SyntheticZone(services, regions, chainDepth, false);
+        resolver = zone.createResolver();
+
+        updates = new ArrayList<>();
+        for (int generation = 0; generation < NUM_GENERATIONS; ++generation) {
+            updates.add(zone.createUpdate(generation));
+        }
+        resolver.setWeightedRecords(updates.get(0));
+
+        // for each service, change the weight of the first region and then
+        // change it back
+        deltaChanges = new ArrayList<>();
+        deltaNames = new ArrayList<>();
+        for (final RecordUpdateMessage.AliasRecordMessage alias : updates.get(0).getAliasMessages()) {
+            final RecordUpdateMessage.Resolution first = alias.getResolutionTargets().iterator().next();
+            if (alias.getResolutionTargets().size() == regions) {
+                for (final double weight : new double[] { first.getWeight() + 1, first.getWeight() }) {
+                    deltaChanges.add(new RecordDeltaMessage.HostnameDelta(alias.getHostname(),
+                            WeightedRecordSnapshot.NO_VERSION, updates.get(0).getTtl(), false,
+                            Collections.singletonList(new RecordUpdateMessage.Resolution(first.getTarget(), weight)),
+                            null));
+                    deltaNames.add(Name.fromString(alias.getHostname() + "."));
+                }
+            }
+        }
+
+        requests = new ArrayList<>();
+        for (final Message query : zone.getQueries()) {
+            requests.add(SyntheticZone.createRequest(query, InetAddress.getLoopbackAddress()));
+        }
+    }
+
+    /**
+     * Stop the resolver.
+     */
+    @TearDown(Level.Trial)
+    public void teardown() {
+        resolver.shutdown();
+    }
+
+    /**
+     * Apply a full update of all services.
+     * 
+     * @param state
+     *            which update to apply
+     * @return the new snapshot
+     */
+    @Benchmark
+    public WeightedRecordSnapshot setWeightedRecords(final ThreadState state) {
+        return resolver.setWeightedRecords(updates.get(state.next(updates.size())));
+    }
+
+    /**
+     * Change the weight of one target of one service.
+     * 
+     * @param state
+     *            which service to change
+     * @return the new snapshot
+     */
+    @Benchmark
+    public WeightedRecordSnapshot applyDelta(final ThreadState state) {
+        final int index = state.next(deltaChanges.size());
+        final RecordDeltaMessage.HostnameDelta template = deltaChanges.get(index);
+        final long baseVersion = resolver.getWeightedRecords().getNameVersion(deltaNames.get(index));
+        final RecordDeltaMessage.HostnameDelta change = new RecordDeltaMessage.HostnameDelta(template.getHostname(),
+                baseVersion, template.getTtl(), false, template.getSetTargets(), template.getRemoveTargets());
+        return resolver.applyDelta(new RecordDeltaMessage(Collections.singletonList(change)));
+    }
+
+    /**
+     * @param state
+     *            which query to send
+     * @return the response
+     * @throws Exception
+     *             from the resolver
+     */
+    @Benchmark
+    @Group("queryDuringUpdates")
+    @GroupThreads(3)
+    public Message query(final ThreadState state) throws Exception {
+        return resolver.generateReply(requests.get(state.next(requests.size())));
+    }
+
+    /**
+     * @param state
+     *            which update to apply
+     * @return the new snapshot
+     */
+    @Benchmark
+    @Group("queryDuringUpdates")
+    @GroupThreads(1)
+    public WeightedRecordSnapshot update(final ThreadState state) {
+        final WeightedRecordSnapshot snapshot = resolver.setWeightedRecords(updates.get(state.next(updates.size())));
+        if (updateIntervalMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(updateIntervalMicros));
+        }
+        return snapshot;
+    }
+
+}
@@ -0,0 +1,300 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.NSRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.Zone;
+
+import se.unlogic.eagledns.Request;
+import se.unlogic.eagledns.SystemInterface;
+import se.unlogic.eagledns.zoneproviders.ZoneProvider;
+
+/**
+ * A synthetic MAP DNS layout for benchmarking. There is a single zone,
+ * {@link #ZONE_NAME}, with a weighted name for each service. Each weighted
+ * name is the head of a chain of weighted CNAMEs, the last link of the chain
+ * points to the service in each region. Region names are either A records in
+ * the zone or are delegated to a {@link FakeNameServer}.
+ * 
+ * <p>
+ * For service 0 with a chain depth of 2 and 2 regions the names are:
+ * </p>
+ * <ul>
+ * <li>svc0.map.dcomp -&gt; svc0-1.map.dcomp</li>
+ * <li>svc0-1.map.dcomp -&gt; svc0.r0.map.dcomp, svc0.r1.map.dcomp</li>
+ * </ul>
+ * 
+ * @author jschewe
+ *
+ */
+public final class SyntheticZone {
+
+    /**
+     * The zone that all names are in.
+     */
+    public static final String ZONE_NAME = "map.dcomp";
+
+    private static final long TTL = 60;
+    private static final int TARGET_TTL = 0;
+    private static final int ADDRESS_BYTES = 4;
+    private static final int BYTE_MASK = 0xff;
+    private static final int BITS_PER_BYTE = 8;
+
+    private final int numServices;
+    private final int numRegions;
+    private final int chainDepth;
+    private final Zone zone;
+    private final List<Message> queries;
+
+    /**
+     * 
+     * @param numServices
+     *            the number of services
+     * @param numRegions
+     *            the number of regions each service runs in
+     * @param chainDepth
+     *            the number of weighted names that are followed to get from
+     *            the service name to a region name, at least 1
+     * @param delegate
+     *            if true the region names are delegated to the name server
+     *            at 127.0.0.1, otherwise they are A records in the zone
+     * @throws IOException
+     *             if there is an error creating the records
+     */
+    public SyntheticZone(final int numServices, final int numRegions, final int chainDepth, final boolean delegate)
+            throws IOException {
+        if (chainDepth < 1) {
+            throw new IllegalArgumentException("Chain depth must be at least 1");
+        }
+        this.numServices = numServices;
+        this.numRegions = numRegions;
+        this.chainDepth = chainDepth;
+
+        final Name origin = Name.fromString(ZONE_NAME + ".");
+        final Name ns = Name.fromString("ns." + ZONE_NAME + ".");
+
+        final List<Record> records = new ArrayList<>();
+        records.add(new SOARecord(origin, DClass.IN, TTL, ns, Name.fromString("admin." + ZONE_NAME + "."), 1, TTL,
+                TTL, TTL, TTL));
+        records.add(new NSRecord(origin, DClass.IN, TTL, ns));
+        records.add(new ARecord(ns, DClass.IN, TTL, InetAddress.getLoopbackAddress()));
+
+        final Name delegateServer = Name.fromString(InetAddress.getLoopbackAddress().getHostAddress() + ".");
+        int hostIndex = 0;
+        for (int region = 0; region < numRegions; ++region) {
+            if (delegate) {
+                records.add(new NSRecord(Name.fromString(regionZone(region) + "."), DClass.IN, TTL, delegateServer));
+            } else {
+                for (int service = 0; service < numServices; ++service) {
+                    records.add(new ARecord(Name.fromString(regionName(service, region) + "."), DClass.IN, TTL,
+                            address(hostIndex++)));
+                }
+            }
+        }
+
+        this.zone = new Zone(origin, records.toArray(new Record[records.size()]));
+
+        final List<Message> q = new ArrayList<>(numServices);
+        for (int service = 0; service < numServices; ++service) {
+            q.add(Message.newQuery(Record.newRecord(Name.fromString(chainName(service, 0) + "."), Type.A, DClass.IN)));
+        }
+        this.queries = Collections.unmodifiableList(q);
+    }
+
+    /**
+     * 
+     * @return the zone holding the static records
+     */
+    public Zone getZone() {
+        return zone;
+    }
+
+    /**
+     * 
+     * @return one query for the head of each service chain
+     */
+    public List<Message> getQueries() {
+        return queries;
+    }
+
+    /**
+     * Create the weighted records for all services. Every target gets the
+     * weight {@code 1 + generation % numRegions} offset by its index so that
+     * successive generations have different weights.
+     * 
+     * @param generation
+     *            used to vary the weights between updates
+     * @return the message to pass to
+     *         {@link WeightedRoundRobinResolver#setWeightedRecords(RecordUpdateMessage)}
+     */
+    public RecordUpdateMessage createUpdate(final int generation) {
+        final List<RecordUpdateMessage.AliasRecordMessage> aliases = new ArrayList<>();
+        for (int service = 0; service < numServices; ++service) {
+            for (int link = 0; link < chainDepth - 1; ++link) {
+                aliases.add(new RecordUpdateMessage.AliasRecordMessage(chainName(service, link), Collections
+                        .singletonList(new RecordUpdateMessage.Resolution(chainName(service, link + 1), 1))));
+            }
+
+            final List<RecordUpdateMessage.Resolution> targets = new ArrayList<>(numRegions);
+            for (int region = 0; region < numRegions; ++region) {
+                final double weight = 1 + (generation + region) % numRegions;
+                targets.add(new RecordUpdateMessage.Resolution(regionName(service, region), weight));
+            }
+            aliases.add(new RecordUpdateMessage.AliasRecordMessage(chainName(service, chainDepth - 1), targets));
+        }
+        return new RecordUpdateMessage(TARGET_TTL, aliases);
+    }
+
+    /**
+     * @return a zone provider with {@code zone} as the only primary zone
+     */
+    private static ZoneProvider createZoneProvider(final Zone zone) {
+        return (ZoneProvider) Proxy.newProxyInstance(ZoneProvider.class.getClassLoader(),
+                new Class<?>[] { ZoneProvider.class }, (proxy, method, args) -> {
+                    if ("getPrimaryZones".equals(method.getName())) {
+                        return Collections.singletonList(zone);
+                    } else {
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Create a resolver that serves this zone.
+     * 
+     * @return the new resolver, {@link #createUpdate(int)} has not been
+     *         applied
+     */
+    public WeightedRoundRobinResolver createResolver() {
+        final SystemInterface systemInterface = (SystemInterface) Proxy.newProxyInstance(
+                SystemInterface.class.getClassLoader(), new Class<?>[] { SystemInterface.class },
+                (proxy, method, args) -> {
+                    if ("getZone".equals(method.getName())) {
+                        return zone.getOrigin().equals(args[0]) ? zone : null;
+                    } else if ("primaryZoneCount".equals(method.getName())) {
+                        return 1;
+                    } else if ("secondaryZoneCount".equals(method.getName())) {
+                        return 0;
+                    } else if ("getZoneProviders".equals(method.getName())) {
+                        return Collections.singletonMap("test", createZoneProvider(zone)).entrySet();
+                    } else {
+                        return null;
+                    }
+                });
+
+        final WeightedRoundRobinResolver resolver = new WeightedRoundRobinResolver();
+        resolver.setSystemInterface(systemInterface);
+        return resolver;
+    }
+
+    /**
+     * 
+     * @param query
+     *            the query to wrap
+     * @param clientAddress
+     *            the address that the query appears to come from
+     * @return a request for the resolver
+     */
+    public static Request createRequest(final Message query, final InetAddress clientAddress) {
+        final byte[] raw = query.toWire();
+        final SocketAddress client = new InetSocketAddress(clientAddress, 0);
+        return new Request() {
+            @Override
+            public Message getQuery() {
+                return query;
+            }
+
+            @Override
+            public byte[] getRawQuery() {
+                return raw;
+            }
+
+            @Override
+            public int getRawQueryLength() {
+                return raw.length;
+            }
+
+            @Override
+            public Socket getSocket() {
+                return null;
+            }
+
+            @Override
+            public SocketAddress getSocketAddress() {
+                return client;
+            }
+        };
+    }
+
+    private static String chainName(final int service, final int link) {
+        if (0 == link) {
+            return String.format("svc%d.%s", service, ZONE_NAME);
+        } else {
+            return String.format("svc%d-%d.%s", service, link, ZONE_NAME);
+        }
+    }
+
+    private static String regionZone(final int region) {
+        return String.format("r%d.%s", region, ZONE_NAME);
+    }
+
+    private static String regionName(final int service, final int region) {
+        return String.format("svc%d.%s", service, regionZone(region));
+    }
+
+    private static InetAddress address(final int index) throws IOException {
+        final byte[] bytes = new byte[ADDRESS_BYTES];
+        bytes[0] = (byte) 10;
+        bytes[1] = (byte) ((index >> (2 * BITS_PER_BYTE)) & BYTE_MASK);
+        bytes[2] = (byte) ((index >> BITS_PER_BYTE) & BYTE_MASK);
+        bytes[3] = (byte) (index & BYTE_MASK);
+        return InetAddress.getByAddress(bytes);
+    }
+
+}
@@ -0,0 +1,301 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRset;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * Bounded cache of responses from delegate name servers. Positive answers are
+ * cached for the smallest TTL in the answer section. NXDOMAIN and empty
+ * answers are cached based on the SOA record in the authority section as
+ * described in RFC 2308. Responses without a usable TTL are not cached. When
+ * the cache is full the least recently used entry is removed.
+ * 
+ * This class is thread safe.
+ * 
+ * @author jschewe
+ *
+ */
+public final class DelegationCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DelegationCache.class);
+
+    private final Object lock = new Object();
+    private final ResponseCache cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * 
+     * @param maxEntries
+     *            the maximum number of responses to store, if zero or less
+     *            nothing is cached
+     */
+    public DelegationCache(final int maxEntries) {
+        this.cache = new ResponseCache(Math.max(0, maxEntries));
+    }
+
+    /**
+     * Find a cached response.
+     * 
+     * @param name
+     *            the name in the query
+     * @param type
+     *            the type of the query
+     * @param dclass
+     *            the class of the query
+     * @return a copy of the response from the delegate with the TTLs reduced
+     *         by the time that it has been cached or null if there is no
+     *         unexpired response
+     */
+    public Message get(@Nonnull final Name name, final int type, final int dclass) {
+        final Key key = new Key(name, type, dclass);
+        final long now = System.currentTimeMillis();
+
+        synchronized (lock) {
+            final Entry entry = cache.get(key);
+            if (null == entry) {
+                misses.increment();
+                return null;
+            } else if (entry.expiration <= now) {
+                cache.remove(key);
+                misses.increment();
+                return null;
+            } else {
+                hits.increment();
+                return withAge(entry.response, TimeUnit.MILLISECONDS.toSeconds(now - entry.created));
+            }
+        }
+    }
+
+    /**
+     * Store a response. If the response doesn't have a TTL greater than zero
+     * it is not stored.
+     * 
+     * @param name
+     *            the name in the query
+     * @param type
+     *            the type of the query
+     * @param dclass
+     *            the class of the query
+     * @param response
+     *            the response from the delegate, this must not be modified
+     *            after it is stored
+     */
+    public void put(@Nonnull final Name name, final int type, final int dclass, @Nonnull final Message response) {
+        if (cache.getMaxEntries() <= 0) {
+            return;
+        }
+
+        final long ttlSeconds = computeTtl(response);
+        if (ttlSeconds <= 0) {
+            LOGGER.trace("Not caching response for {} with TTL {}", name, ttlSeconds);
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final Entry entry = new Entry(response, now, now + TimeUnit.SECONDS.toMillis(ttlSeconds));
+        synchronized (lock) {
+            cache.put(new Key(name, type, dclass), entry);
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        synchronized (lock) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * 
+     * @return the number of lookups that found an unexpired response
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * 
+     * @return the number of lookups that did not find an unexpired response
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Determine how long a response can be cached.
+     * 
+     * @param response
+     *            the response from the delegate
+     * @return the number of seconds that the response can be cached, zero or
+     *         less if it should not be cached
+     */
+    /* package */ static long computeTtl(@Nonnull final Message response) {
+        final int rcode = response.getRcode();
+        if (Rcode.NOERROR != rcode && Rcode.NXDOMAIN != rcode) {
+            return 0;
+        }
+
+        final RRset[] answers = response.getSectionRRsets(Section.ANSWER);
+        if (Rcode.NOERROR == rcode && answers.length > 0) {
+            long ttl = Long.MAX_VALUE;
+            for (final RRset rrset : answers) {
+                ttl = Math.min(ttl, rrset.getTTL());
+            }
+            return ttl;
+        } else {
+            // negative response, use the SOA
+            for (final Record record : response.getSectionArray(Section.AUTHORITY)) {
+                if (record instanceof SOARecord) {
+                    final SOARecord soa = (SOARecord) record;
+                    return Math.min(soa.getTTL(), soa.getMinimum());
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Copy a response and reduce the TTLs of the records.
+     * 
+     * @param response
+     *            the response to copy, not modified
+     * @param ageSeconds
+     *            how long the response has been cached
+     * @return the copy
+     */
+    /* package */ static Message withAge(@Nonnull final Message response, final long ageSeconds) {
+        final Message copy = (Message) response.clone();
+        if (ageSeconds <= 0) {
+            return copy;
+        }
+
+        for (final int section : new int[] { Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL }) {
+            final Record[] records = response.getSectionArray(section);
+            copy.removeAllRecords(section);
+            for (final Record record : records) {
+                if (Type.OPT == record.getType()) {
+                    // the TTL of an OPT record holds flags
+                    copy.addRecord(record, section);
+                } else {
+                    final long ttl = Math.max(0, record.getTTL() - ageSeconds);
+                    copy.addRecord(Record.newRecord(record.getName(), record.getType(), record.getDClass(), ttl,
+                            record.rdataToWireCanonical()), section);
+                }
+            }
+        }
+        return copy;
+    }
+
+    private static final class Key {
+        private final Name name;
+        private final int type;
+        private final int dclass;
+
+        Key(final Name name, final int type, final int dclass) {
+            this.name = name;
+            this.type = type;
+            this.dclass = dclass;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, type, dclass);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            } else if (null == o || getClass() != o.getClass()) {
+                return false;
+            } else {
+                final Key other = (Key) o;
+                return type == other.type && dclass == other.dclass && name.equals(other.name);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Message response;
+        private final long created;
+        private final long expiration;
+
+        Entry(final Message response, final long created, final long expiration) {
+            this.response = response;
+            this.created = created;
+            this.expiration = expiration;
+        }
+    }
+
+    private static final class ResponseCache extends LinkedHashMap<Key, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+        private static final float LOAD_FACTOR = 0.75f;
+
+        ResponseCache(final int maxEntries) {
+            super(Math.max(1, maxEntries), LOAD_FACTOR, true);
+            this.maxEntries = maxEntries;
+        }
+
+        int getMaxEntries() {
+            return maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Entry> eldest) {
+            return size() > this.maxEntries;
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.Name;
+
+/**
+ * Convert a binary DNS query log written by {@link QueryLogWriter} to the CSV
+ * format.
+ * 
+ * @author jschewe
+ *
+ */
+public final class QueryLogConverter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryLogConverter.class);
+
+    private QueryLogConverter() {
+    }
+
+    /**
+     * 
+     * @param args
+     *            the binary log file and the CSV file to write
+     */
+    public static void main(final String[] args) {
+        if (args.length != 2) {
+            LOGGER.error("Usage: {} <binary log> <csv output>", QueryLogConverter.class.getName());
+            System.exit(1);
+        }
+
+        final Path input = Paths.get(args[0]);
+        final Path output = Paths.get(args[1]);
+        try (InputStream is = Files.newInputStream(input);
+                BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            final long count = convert(is, writer);
+            LOGGER.info("Converted {} entries from {} to {}", count, input, output);
+        } catch (final IOException e) {
+            LOGGER.error("Error converting {} to {}", input, output, e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Convert a binary log to CSV, including the CSV header.
+     * 
+     * @param input
+     *            the binary log, not closed by this method
+     * @param output
+     *            where to write the CSV data, not closed by this method
+     * @return the number of entries converted
+     * @throws IOException
+     *             if there is an error reading or writing or the input is not
+     *             a binary query log
+     */
+    public static long convert(@Nonnull final InputStream input, @Nonnull final Writer output) throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(input));
+
+        final int magic = data.readInt();
+        if (QueryLogWriter.BINARY_MAGIC != magic) {
+            throw new IOException("Input is not a binary DNS query log");
+        }
+        final int version = data.readInt();
+        if (QueryLogWriter.BINARY_VERSION != version) {
+            throw new IOException("Unsupported binary DNS query log version: " + version);
+        }
+
+        output.write(QueryLogWriter.CSV_HEADER);
+        output.write(System.lineSeparator());
+
+        long count = 0;
+        while (true) {
+            final long timestamp;
+            try {
+                timestamp = data.readLong();
+            } catch (final EOFException e) {
+                // end of the records
+                break;
+            }
+            final String clientAddress = data.readUTF();
+            final byte[] wireName = new byte[data.readUnsignedShort()];
+            data.readFully(wireName);
+            final Name name = new Name(wireName);
+            final String resolvedName = data.readUTF();
+
+            QueryLogWriter.writeCsv(output, timestamp, clientAddress, name.toString(true), resolvedName);
+            ++count;
+        }
+        output.flush();
+        return count;
+    }
+
+}
@@ -0,0 +1,440 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.Name;
+
+/**
+ * Writes the weighted DNS query log without blocking the resolver threads for
+ * long. Entries are put on a bounded lock-free queue and a background thread
+ * writes them to the file in batches. If the queue is full the resolver thread
+ * waits a short time for the writer to catch up, after that the entry is
+ * dropped and counted, see {@link #getDroppedCount()}. Dropped entries are
+ * reported at WARN once a minute.
+ * 
+ * The log can be written as CSV or in a compact binary format. The binary
+ * format can be converted to CSV with {@link QueryLogConverter}.
+ * 
+ * @author jschewe
+ *
+ */
+public final class QueryLogWriter implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryLogWriter.class);
+
+    /**
+     * Header of the CSV log file.
+     */
+    public static final String CSV_HEADER = "timestamp,clientAddress,name_to_resolve,resolved_name";
+
+    /**
+     * First 4 bytes of a binary log file.
+     */
+    public static final int BINARY_MAGIC = 0x4D415051;
+
+    /**
+     * Version of the binary format, written after {@link #BINARY_MAGIC}.
+     */
+    public static final int BINARY_VERSION = 1;
+
+    /**
+     * Default value for the maximum number of entries waiting to be written.
+     */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /**
+     * How long the drain thread sleeps when there are no entries to write.
+     */
+    private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * How long {@link #log(long, String, Name, String)} waits for space in a
+     * full queue before dropping the entry.
+     */
+    private static final long FULL_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * How long to sleep between checks for space in a full queue.
+     */
+    private static final long FULL_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * How often the number of dropped entries is logged.
+     */
+    private static final long DROPPED_REPORT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * Output file formats.
+     */
+    public enum Format {
+        /**
+         * Comma separated values with {@link QueryLogWriter#CSV_HEADER}.
+         */
+        CSV,
+        /**
+         * Binary records, see {@link QueryLogWriter}.
+         */
+        BINARY;
+    }
+
+    private final Path path;
+    private final Format format;
+    private final int capacity;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger(0);
+    private final LongAdder dropped = new LongAdder();
+
+    // only accessed by the drain thread
+    private long droppedReported = 0;
+    private long lastDroppedReport = System.nanoTime();
+
+    /**
+     * Held while writing to the file so that {@link #flush()} can drain the
+     * queue from the calling thread.
+     */
+    private final Object writeLock = new Object();
+    private final BufferedWriter csvWriter;
+    private final DataOutputStream binaryOutput;
+
+    private final Thread drainThread;
+    private volatile boolean running = true;
+
+    /**
+     * Open the log file, truncating any existing file, and start the thread
+     * that writes the entries.
+     * 
+     * @param path
+     *            where to write the log
+     * @param format
+     *            the file format
+     * @param capacity
+     *            the maximum number of entries waiting to be written
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public QueryLogWriter(@Nonnull final Path path, @Nonnull final Format format, final int capacity)
+            throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero");
+        }
+
+        this.path = path;
+        this.format = format;
+        this.capacity = capacity;
+
+        switch (format) {
+        case BINARY:
+            csvWriter = null;
+            binaryOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE)));
+            binaryOutput.writeInt(BINARY_MAGIC);
+            binaryOutput.writeInt(BINARY_VERSION);
+            break;
+        case CSV:
+            csvWriter = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
+            binaryOutput = null;
+            csvWriter.write(CSV_HEADER);
+            csvWriter.newLine();
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown format: " + format);
+        }
+
+        drainThread = new Thread(this::drainLoop, "DNS query log writer");
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    /**
+     * 
+     * @return the file format
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * 
+     * @return the number of entries that were dropped because the queue was
+     *         full
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Add an entry to the log. If the queue is full this waits up to 5
+     * milliseconds for the writer to make space.
+     * 
+     * @param timestamp
+     *            time of the query
+     * @param clientAddress
+     *            address of the client that sent the query
+     * @param name
+     *            the name that was queried
+     * @param resolvedName
+     *            the name that was returned
+     * @return true if the entry was queued, false if it was dropped because
+     *         the queue is full or the writer is closed
+     */
+    public boolean log(final long timestamp,
+            @Nonnull final String clientAddress,
+            @Nonnull final Name name,
+            @Nonnull final String resolvedName) {
+        if (!running) {
+            dropped.increment();
+            return false;
+        }
+
+        if (!reserveSpace()) {
+            dropped.increment();
+            return false;
+        }
+
+        queue.offer(new Entry(timestamp, clientAddress, name, resolvedName));
+        return true;
+    }
+
+    /**
+     * Reserve space in the queue, waiting a short time if it is full.
+     * 
+     * @return true if space was reserved
+     */
+    private boolean reserveSpace() {
+        if (queueSize.incrementAndGet() <= capacity) {
+            return true;
+        }
+        queueSize.decrementAndGet();
+
+        // wake the writer rather than waiting for its next interval
+        LockSupport.unpark(drainThread);
+        final long deadline = System.nanoTime() + FULL_WAIT_NANOS;
+        while (running && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(FULL_RETRY_NANOS);
+            if (queueSize.incrementAndGet() <= capacity) {
+                return true;
+            }
+            queueSize.decrementAndGet();
+        }
+        return false;
+    }
+
+    /**
+     * Write all queued entries and flush the file.
+     * 
+     * @throws IOException
+     *             if there is an error writing the file
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            drain();
+            if (null != csvWriter) {
+                csvWriter.flush();
+            } else {
+                binaryOutput.flush();
+            }
+        }
+
+        final long droppedCount = dropped.sum();
+        if (droppedCount > 0) {
+            LOGGER.warn("{} DNS query log entries have been dropped because the queue was full", droppedCount);
+        }
+    }
+
+    /**
+     * Stop the writer thread, write all queued entries and close the file.
+     * 
+     * @throws IOException
+     *             if there is an error writing the file
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        drainThread.interrupt();
+        try {
+            drainThread.join();
+        } catch (final InterruptedException e) {
+            LOGGER.warn("Interrupted waiting for the query log thread to exit", e);
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (writeLock) {
+            flush();
+            if (null != csvWriter) {
+                csvWriter.close();
+            } else {
+                binaryOutput.close();
+            }
+        }
+    }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                final int written;
+                synchronized (writeLock) {
+                    written = drain();
+                }
+
+                reportDropped();
+                if (0 == written) {
+                    LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+                }
+            } catch (final IOException e) {
+                LOGGER.error("Error writing to DNS query log {}: {}", path, e.getMessage(), e);
+                LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Log the number of entries dropped since the last report, at most once
+     * per {@link #DROPPED_REPORT_INTERVAL_NANOS}.
+     */
+    private void reportDropped() {
+        final long now = System.nanoTime();
+        if (now - lastDroppedReport < DROPPED_REPORT_INTERVAL_NANOS) {
+            return;
+        }
+        lastDroppedReport = now;
+
+        final long total = dropped.sum();
+        final long sinceLast = total - droppedReported;
+        if (sinceLast > 0) {
+            droppedReported = total;
+            LOGGER.warn("Dropped {} DNS query log entries in the last minute because the queue was full, {} total",
+                    sinceLast, total);
+        }
+    }
+
+    /**
+     * Write all queued entries. Must be called with {@link #writeLock} held.
+     * 
+     * @return the number of entries written
+     */
+    private int drain() throws IOException {
+        int count = 0;
+        Entry entry;
+        while (null != (entry = queue.poll())) {
+            queueSize.decrementAndGet();
+            if (null != csvWriter) {
+                writeCsv(csvWriter, entry.timestamp, entry.clientAddress, entry.name.toString(true),
+                        entry.resolvedName);
+            } else {
+                writeBinary(binaryOutput, entry);
+            }
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Write a single CSV row.
+     * 
+     * @param writer
+     *            where to write
+     * @param timestamp
+     *            the timestamp column
+     * @param clientAddress
+     *            the clientAddress column
+     * @param name
+     *            the name_to_resolve column
+     * @param resolvedName
+     *            the resolved_name column
+     * @throws IOException
+     *             if there is an error writing
+     */
+    /* package */ static void writeCsv(final Writer writer,
+            final long timestamp,
+            final String clientAddress,
+            final String name,
+            final String resolvedName) throws IOException {
+        writer.write(Long.toString(timestamp));
+        writer.write(',');
+        writer.write(clientAddress);
+        writer.write(',');
+        writer.write(name);
+        writer.write(',');
+        writer.write(resolvedName);
+        writer.write(System.lineSeparator());
+    }
+
+    /**
+     * Binary record: timestamp as a long, client address as modified UTF-8,
+     * the queried name in DNS wire format preceded by its length as a short,
+     * the resolved name as modified UTF-8.
+     */
+    private static void writeBinary(final DataOutputStream output, final Entry entry) throws IOException {
+        output.writeLong(entry.timestamp);
+        output.writeUTF(entry.clientAddress);
+        final byte[] wireName = entry.name.toWire();
+        output.writeShort(wireName.length);
+        output.write(wireName);
+        output.writeUTF(entry.resolvedName);
+    }
+
+    private static final class Entry {
+        private final long timestamp;
+        private final String clientAddress;
+        private final Name name;
+        private final String resolvedName;
+
+        Entry(final long timestamp, final String clientAddress, final Name name, final String resolvedName) {
+            this.timestamp = timestamp;
+            this.clientAddress = clientAddress;
+            this.name = name;
+            this.resolvedName = resolvedName;
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Message sent from the nodes to the DNS server to change some of the
+ * weighted records. Unlike {@link RecordUpdateMessage} this only contains the
+ * hostnames and targets that have changed. The message is only applied if the
+ * records on the DNS server for each hostname in the message are at
+ * {@link HostnameDelta#getBaseVersion()}, otherwise the sender needs to
+ * resynchronize with a full {@link RecordUpdateMessage}. Changes made by
+ * other senders to hostnames that are not in the message don't affect it.
+ * 
+ * @author jschewe
+ *
+ */
+public class RecordDeltaMessage {
+
+    /**
+     * 
+     * @param changes
+     *            {@link #getChanges()}
+     */
+    public RecordDeltaMessage(@JsonProperty("changes") final Collection<HostnameDelta> changes) {
+        this.changes = Collections.unmodifiableCollection(new LinkedList<>(changes));
+    }
+
+    private final Collection<HostnameDelta> changes;
+
+    /**
+     * 
+     * @return the changes to individual hostnames
+     */
+    public Collection<HostnameDelta> getChanges() {
+        return changes;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[ changes: " + changes + "]";
+    }
+
+    /**
+     * Changes to the records for a single hostname.
+     * 
+     * @author jschewe
+     *
+     */
+    public static final class HostnameDelta {
+
+        /**
+         * 
+         * @param hostname
+         *            {@link #getHostname()}
+         * @param baseVersion
+         *            {@link #getBaseVersion()}
+         * @param ttl
+         *            {@link #getTtl()}
+         * @param removeHostname
+         *            {@link #isRemoveHostname()}
+         * @param setTargets
+         *            {@link #getSetTargets()}
+         * @param removeTargets
+         *            {@link #getRemoveTargets()}
+         */
+        public HostnameDelta(@JsonProperty("hostname") final String hostname,
+                @JsonProperty("baseVersion") final long baseVersion,
+                @JsonProperty("ttl") final int ttl,
+                @JsonProperty("removeHostname") final boolean removeHostname,
+                @JsonProperty("setTargets") final Collection<RecordUpdateMessage.Resolution> setTargets,
+                @JsonProperty("removeTargets") final Collection<String> removeTargets) {
+            this.hostname = hostname;
+            this.baseVersion = baseVersion;
+            this.ttl = ttl;
+            this.removeHostname = removeHostname;
+            this.setTargets = null == setTargets ? Collections.emptyList()
+                    : Collections.unmodifiableCollection(new LinkedList<>(setTargets));
+            this.removeTargets = null == removeTargets ? Collections.emptyList()
+                    : Collections.unmodifiableCollection(new LinkedList<>(removeTargets));
+        }
+
+        private final String hostname;
+
+        /**
+         * 
+         * @return host to be changed
+         */
+        public String getHostname() {
+            return hostname;
+        }
+
+        private final long baseVersion;
+
+        /**
+         * 
+         * @return the version of the records for the hostname that this
+         *         change was computed against, see
+         *         {@link WeightedRecordSnapshot#getNameVersion(org.xbill.DNS.Name)}
+         */
+        public long getBaseVersion() {
+            return baseVersion;
+        }
+
+        private final int ttl;
+
+        /**
+         * 
+         * @return the TTL for the records in {@link #getSetTargets()}
+         */
+        public int getTtl() {
+            return ttl;
+        }
+
+        private final boolean removeHostname;
+
+        /**
+         * 
+         * @return if true, all records for the hostname are removed and the
+         *         other properties are ignored
+         */
+        public boolean isRemoveHostname() {
+            return removeHostname;
+        }
+
+        private final Collection<RecordUpdateMessage.Resolution> setTargets;
+
+        /**
+         * 
+         * @return targets to add or to change the weight of
+         */
+        public Collection<RecordUpdateMessage.Resolution> getSetTargets() {
+            return setTargets;
+        }
+
+        private final Collection<String> removeTargets;
+
+        /**
+         * 
+         * @return targets to remove
+         */
+        public Collection<String> getRemoveTargets() {
+            return removeTargets;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[ hostname: " + hostname + " baseVersion: " + baseVersion
+                    + " ttl: " + ttl + " removeHostname: "
+                    + removeHostname + " setTargets: " + setTargets + " removeTargets: " + removeTargets + "]";
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps track of the weighted records that a client has sent to a DNS server
+ * so that later updates can be sent as a {@link RecordDeltaMessage}. This
+ * class is not thread safe.
+ * 
+ * @author jschewe
+ *
+ */
+public class RecordDeltaTracker {
+
+    /**
+     * Value of {@link #getVersion(String)} when the state of the server is
+     * not known.
+     */
+    public static final long UNKNOWN_VERSION = -1;
+
+    private final Map<String, HostState> hosts = new HashMap<>();
+
+    /**
+     * 
+     * @param hostname
+     *            the hostname to check
+     * @return the version of the server records for the hostname that the
+     *         tracked state matches
+     */
+    public long getVersion(final String hostname) {
+        final HostState state = hosts.get(hostname);
+        return null == state ? UNKNOWN_VERSION : state.version;
+    }
+
+    /**
+     * Forget everything that has been sent. The next update needs to be a
+     * full update.
+     */
+    public void reset() {
+        hosts.clear();
+    }
+
+    /**
+     * Compute the changes needed to make the server match the hostnames in
+     * {@code message}. Like a full update, hostnames that are not in the
+     * message are not changed.
+     * 
+     * @param message
+     *            the records to send
+     * @return the delta or null if a full update must be sent. A full update
+     *         is needed when the message contains a hostname that has not
+     *         been sent before or when a hostname lists the same target more
+     *         than once.
+     */
+    public RecordDeltaMessage computeDelta(final RecordUpdateMessage message) {
+        final Map<String, HostState> requested = toHostStates(message);
+        if (null == requested) {
+            return null;
+        }
+
+        final List<RecordDeltaMessage.HostnameDelta> changes = new LinkedList<>();
+        for (final Map.Entry<String, HostState> entry : requested.entrySet()) {
+            final String hostname = entry.getKey();
+            final HostState current = hosts.get(hostname);
+            if (null == current) {
+                return null;
+            }
+            final HostState wanted = entry.getValue();
+
+            final boolean ttlChanged = current.ttl != wanted.ttl;
+            final List<RecordUpdateMessage.Resolution> setTargets = new LinkedList<>();
+            wanted.weights.forEach((target, weight) -> {
+                final Double currentWeight = current.weights.get(target);
+                if (ttlChanged || null == currentWeight || currentWeight.doubleValue() != weight.doubleValue()) {
+                    setTargets.add(new RecordUpdateMessage.Resolution(target, weight));
+                }
+            });
+
+            final List<String> removeTargets = new LinkedList<>();
+            current.weights.keySet().forEach(target -> {
+                if (!wanted.weights.containsKey(target)) {
+                    removeTargets.add(target);
+                }
+            });
+
+            if (!setTargets.isEmpty() || !removeTargets.isEmpty()) {
+                changes.add(new RecordDeltaMessage.HostnameDelta(hostname, current.version, wanted.ttl, false,
+                        setTargets, removeTargets));
+            }
+        }
+
+        return new RecordDeltaMessage(changes);
+    }
+
+    /**
+     * Record that the server has applied {@code message}, either as a full
+     * update or as the delta computed from it.
+     * 
+     * @param message
+     *            the records that were sent
+     * @param delta
+     *            the delta that was sent for {@code message} or null if
+     *            {@code message} was sent as a full update. Only the
+     *            hostnames in the delta were changed on the server.
+     * @param newVersion
+     *            the version of the server records after the message was
+     *            applied, this is the new version of each hostname that was
+     *            changed
+     */
+    public void applied(final RecordUpdateMessage message, final RecordDeltaMessage delta, final long newVersion) {
+        final Map<String, HostState> sent = toHostStates(message);
+        if (null == sent) {
+            // the server state for these hostnames can't be represented,
+            // forget them so that they are sent in full next time
+            message.getAliasMessages().forEach(alias -> hosts.remove(alias.getHostname()));
+            return;
+        }
+
+        final Set<String> changed;
+        if (null == delta) {
+            changed = sent.keySet();
+        } else {
+            changed = delta.getChanges().stream().map(RecordDeltaMessage.HostnameDelta::getHostname)
+                    .collect(Collectors.toSet());
+        }
+
+        sent.forEach((hostname, state) -> {
+            final HostState previous = hosts.get(hostname);
+            if (changed.contains(hostname) || null == previous) {
+                state.version = newVersion;
+            } else {
+                // unchanged on the server
+                state.version = previous.version;
+            }
+            hosts.put(hostname, state);
+        });
+    }
+
+    /**
+     * @return the state for each hostname in the message, null if a hostname
+     *         is listed more than once or has a target listed more than once
+     */
+    private static Map<String, HostState> toHostStates(final RecordUpdateMessage message) {
+        final Map<String, HostState> states = new HashMap<>();
+        for (final RecordUpdateMessage.AliasRecordMessage alias : message.getAliasMessages()) {
+            final HostState state = new HostState(message.getTtl());
+            for (final RecordUpdateMessage.Resolution resolution : alias.getResolutionTargets()) {
+                if (null != state.weights.put(resolution.getTarget(), resolution.getWeight())) {
+                    return null;
+                }
+            }
+            if (null != states.put(alias.getHostname(), state)) {
+                return null;
+            }
+        }
+        return states;
+    }
+
+    private static final class HostState {
+        private final int ttl;
+        private final Map<String, Double> weights = new LinkedHashMap<>();
+        private long version = UNKNOWN_VERSION;
+
+        HostState(final int ttl) {
+            this.ttl = ttl;
+        }
+    }
+
+}
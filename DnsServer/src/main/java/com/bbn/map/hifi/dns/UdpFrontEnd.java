@@ -0,0 +1,464 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.OPTRecord;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import se.unlogic.eagledns.Request;
+
+/**
+ * Optional UDP front end for {@link WeightedRoundRobinResolver}. Queries are
+ * received by a set of worker threads and passed directly to the resolver
+ * without going through the EagleDNS request handling. Queries that the
+ * resolver does not answer, such as names outside of the configured zones,
+ * are forwarded to EagleDNS and the reply is relayed back to the client.
+ * 
+ * <p>
+ * When the JVM supports SO_REUSEPORT each worker has its own socket and the
+ * kernel spreads the queries across the sockets. Otherwise all workers
+ * receive from a single socket.
+ * </p>
+ * 
+ * <p>
+ * The workers only answer queries from local data. Queries that need a
+ * delegate name server to be queried and queries that are forwarded to
+ * EagleDNS are handed to a separate pool of threads so that the workers are
+ * not blocked waiting for the replies. When that pool is full the query is
+ * dropped and the client will retry.
+ * </p>
+ * 
+ * <p>
+ * The front end only handles UDP. EagleDNS must be configured to listen on a
+ * different port, {@link #getBackendAddress()}, and continues to handle TCP
+ * queries there.
+ * </p>
+ * 
+ * <p>
+ * Cached responses for weighted names are sent in wire format, see
+ * {@link WeightedRoundRobinResolver#generateWireReply(Request, int)}.
+ * </p>
+ * 
+ * @author jschewe
+ *
+ */
+public class UdpFrontEnd {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UdpFrontEnd.class);
+
+    /**
+     * Largest UDP DNS message.
+     */
+    private static final int MAX_UDP_SIZE = 65535;
+
+    /**
+     * Largest response to send to clients that don't specify a size with
+     * EDNS.
+     */
+    private static final int DEFAULT_UDP_RESPONSE_SIZE = 512;
+
+    /**
+     * How long to wait for EagleDNS to answer a forwarded query.
+     */
+    public static final int DEFAULT_FORWARD_TIMEOUT_MS = 5000;
+
+    /**
+     * Maximum number of threads answering queries that wait on another
+     * server.
+     */
+    private static final int SLOW_THREADS = 32;
+
+    /**
+     * Maximum number of queries waiting for a slow thread.
+     */
+    private static final int SLOW_QUEUE_CAPACITY = 256;
+
+    /**
+     * How long idle slow threads are kept.
+     */
+    private static final long SLOW_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Buffer for replies from EagleDNS, one per slow thread.
+     */
+    private static final ThreadLocal<byte[]> FORWARD_BUFFER = ThreadLocal.withInitial(() -> new byte[MAX_UDP_SIZE]);
+
+    private static final SocketOption<Boolean> SO_REUSEPORT = findReusePortOption();
+
+    private final WeightedRoundRobinResolver resolver;
+    private final InetSocketAddress listenAddress;
+    private final InetSocketAddress backendAddress;
+    private final int numWorkers;
+    private final int forwardTimeout;
+    private final List<DatagramChannel> channels = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private ThreadPoolExecutor slowExecutor = null;
+    private volatile boolean running = false;
+
+    /**
+     * 
+     * @param resolver
+     *            the resolver to answer queries with
+     * @param listenAddress
+     *            the address to receive queries on
+     * @param backendAddress
+     *            see {@link #getBackendAddress()}
+     * @param numWorkers
+     *            the number of threads receiving queries
+     * @param forwardTimeout
+     *            milliseconds to wait for a reply to a forwarded query
+     */
+    public UdpFrontEnd(@Nonnull final WeightedRoundRobinResolver resolver,
+            @Nonnull final InetSocketAddress listenAddress,
+            @Nonnull final InetSocketAddress backendAddress,
+            final int numWorkers,
+            final int forwardTimeout) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("Must have at least 1 worker");
+        }
+        this.resolver = resolver;
+        this.listenAddress = listenAddress;
+        this.backendAddress = backendAddress;
+        this.numWorkers = numWorkers;
+        this.forwardTimeout = forwardTimeout;
+    }
+
+    /**
+     * 
+     * @return where EagleDNS is listening, queries the resolver doesn't answer
+     *         are sent here
+     */
+    public InetSocketAddress getBackendAddress() {
+        return backendAddress;
+    }
+
+    /**
+     * 
+     * @return the address that the front end is receiving queries on, useful
+     *         when listening on port 0
+     * @throws IOException
+     *             if the address cannot be determined
+     */
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) channels.get(0).getLocalAddress();
+    }
+
+    /**
+     * Bind the sockets and start the workers.
+     * 
+     * @throws IOException
+     *             if the sockets cannot be bound
+     */
+    public void start() throws IOException {
+        running = true;
+
+        slowExecutor = new ThreadPoolExecutor(SLOW_THREADS, SLOW_THREADS, SLOW_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(SLOW_QUEUE_CAPACITY),
+                new ThreadFactoryBuilder().setNameFormat("DNS UDP slow-%d").setDaemon(true).build());
+        slowExecutor.allowCoreThreadTimeOut(true);
+
+        try {
+            final boolean reusePort = numWorkers > 1 && null != SO_REUSEPORT;
+            if (reusePort) {
+                InetSocketAddress bindAddress = listenAddress;
+                for (int i = 0; i < numWorkers; ++i) {
+                    final DatagramChannel channel = DatagramChannel.open();
+                    channels.add(channel);
+                    channel.setOption(SO_REUSEPORT, true);
+                    channel.bind(bindAddress);
+
+                    // when binding to port 0 the rest of the sockets need to
+                    // use the port that was picked
+                    bindAddress = (InetSocketAddress) channel.getLocalAddress();
+                }
+            } else {
+                final DatagramChannel channel = DatagramChannel.open();
+                channels.add(channel);
+                channel.bind(listenAddress);
+            }
+            LOGGER.info("UDP front end listening on {} with {} workers and {} sockets", getLocalAddress(), numWorkers,
+                    channels.size());
+
+            for (int i = 0; i < numWorkers; ++i) {
+                final Worker worker = new Worker(channels.get(i % channels.size()));
+                final Thread t = new Thread(worker, "DNS UDP worker " + i);
+                t.setDaemon(true);
+                threads.add(t);
+                t.start();
+            }
+        } catch (final IOException e) {
+            shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * Stop the workers and close the sockets.
+     */
+    public void shutdown() {
+        running = false;
+        for (final DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                LOGGER.debug("Error closing channel, ignoring", e);
+            }
+        }
+        channels.clear();
+        threads.clear();
+
+        if (null != slowExecutor) {
+            slowExecutor.shutdownNow();
+            slowExecutor = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePortOption() {
+        // SO_REUSEPORT was added in Java 9
+        try {
+            final Field field = StandardSocketOptions.class.getField("SO_REUSEPORT");
+            return (SocketOption<Boolean>) field.get(null);
+        } catch (final NoSuchFieldException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Receives queries from one socket. All buffers are reused between
+     * queries.
+     */
+    private final class Worker implements Runnable {
+        private final DatagramChannel channel;
+        private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_UDP_SIZE);
+
+        Worker(final DatagramChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    receiveBuffer.clear();
+                    final SocketAddress client = channel.receive(receiveBuffer);
+                    if (null == client) {
+                        continue;
+                    }
+                    final byte[] raw = Arrays.copyOf(receiveBuffer.array(), receiveBuffer.position());
+                    handleQuery(client, raw);
+                } catch (final AsynchronousCloseException e) {
+                    LOGGER.debug("Channel closed, worker exiting");
+                    break;
+                } catch (final IOException e) {
+                    if (running) {
+                        LOGGER.warn("Error receiving query, continuing", e);
+                    }
+                }
+            }
+        }
+
+        private void handleQuery(final SocketAddress client, final byte[] raw) throws IOException {
+            final Message query;
+            try {
+                query = new Message(raw);
+            } catch (final IOException e) {
+                LOGGER.debug("Unable to parse query from {}, forwarding", client, e);
+                submit(client, () -> forward(channel, client, raw));
+                return;
+            }
+
+            final OPTRecord opt = query.getOPT();
+            final int maxLength = null == opt ? DEFAULT_UDP_RESPONSE_SIZE
+                    : Math.max(DEFAULT_UDP_RESPONSE_SIZE, opt.getPayloadSize());
+
+            final FrontEndRequest request = new FrontEndRequest(query, raw, client);
+            byte[] response;
+            try {
+                response = resolver.generateLocalWireReply(request, maxLength);
+            } catch (final WeightedRoundRobinResolver.DelegationRequiredException e) {
+                submit(client, () -> resume(channel, request, maxLength, e));
+                return;
+            } catch (final Exception e) {
+                LOGGER.debug("Error from resolver for query from {}, forwarding", client, e);
+                response = null;
+            }
+
+            if (null == response) {
+                submit(client, () -> forward(channel, client, raw));
+            } else {
+                channel.send(ByteBuffer.wrap(response), client);
+            }
+        }
+    }
+
+    /**
+     * Run a task that waits on another server without blocking the worker.
+     */
+    private void submit(final SocketAddress client, final Runnable task) {
+        final ThreadPoolExecutor executor = slowExecutor;
+        if (null == executor) {
+            return;
+        }
+
+        try {
+            executor.execute(task);
+        } catch (final RejectedExecutionException e) {
+            LOGGER.debug("Too many queries waiting on other servers, dropping query from {}", client);
+        }
+    }
+
+    /**
+     * Finish a query that needs a delegate name server.
+     */
+    private void resume(final DatagramChannel channel,
+            final FrontEndRequest request,
+            final int maxLength,
+            final WeightedRoundRobinResolver.DelegationRequiredException pending) {
+        final SocketAddress client = request.getSocketAddress();
+        byte[] response;
+        try {
+            response = resolver.resumeWireReply(request, maxLength, pending);
+        } catch (final Exception e) {
+            LOGGER.debug("Error from resolver for query from {}, forwarding", client, e);
+            response = null;
+        }
+
+        if (null == response) {
+            forward(channel, client, request.getRawQuery());
+        } else {
+            try {
+                channel.send(ByteBuffer.wrap(response), client);
+            } catch (final IOException e) {
+                LOGGER.warn("Error sending reply to {}", client, e);
+            }
+        }
+    }
+
+    /**
+     * Send the query to EagleDNS and relay the reply to the client. Each
+     * query uses its own socket so that late replies to queries that timed out
+     * are not mistaken for the reply.
+     */
+    private void forward(final DatagramChannel channel, final SocketAddress client, final byte[] raw) {
+        if (raw.length < 2) {
+            LOGGER.debug("Dropping runt packet from {}", client);
+            return;
+        }
+
+        final byte[] forwardBuffer = FORWARD_BUFFER.get();
+        try (DatagramSocket forwardSocket = new DatagramSocket()) {
+            forwardSocket.connect(backendAddress);
+            forwardSocket.setSoTimeout(forwardTimeout);
+
+            forwardSocket.send(new DatagramPacket(raw, raw.length));
+            final DatagramPacket reply = new DatagramPacket(forwardBuffer, forwardBuffer.length);
+            forwardSocket.receive(reply);
+            channel.send(ByteBuffer.wrap(forwardBuffer, 0, reply.getLength()), client);
+        } catch (final SocketTimeoutException e) {
+            LOGGER.warn("Timeout waiting for {} to answer query from {}", backendAddress, client);
+        } catch (final IOException e) {
+            if (running) {
+                LOGGER.warn("Error forwarding query from {}", client, e);
+            }
+        }
+    }
+
+    /**
+     * A query received by the front end.
+     */
+    private static final class FrontEndRequest implements Request {
+        private final Message query;
+        private final byte[] raw;
+        private final SocketAddress client;
+
+        FrontEndRequest(final Message query, final byte[] raw, final SocketAddress client) {
+            this.query = query;
+            this.raw = raw;
+            this.client = client;
+        }
+
+        @Override
+        public Message getQuery() {
+            return query;
+        }
+
+        @Override
+        public byte[] getRawQuery() {
+            return raw;
+        }
+
+        @Override
+        public int getRawQueryLength() {
+            return raw.length;
+        }
+
+        @Override
+        public Socket getSocket() {
+            // UDP
+            return null;
+        }
+
+        @Override
+        public SocketAddress getSocketAddress() {
+            return client;
+        }
+    }
+
+}
@@ -96,6 +96,13 @@ public class WeightedRecordMessageServer {
         running.set(false);
     }
 
+    /**
+     * The mapper is thread-safe once configured, so it is shared by all
+     * clients.
+     */
+    private final ObjectMapper jsonMapper = new ObjectMapper().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
     /**
      * 
      * @param resolver
@@ -276,8 +283,7 @@ public class WeightedRecordMessageServer {
 
                 try (Reader reader = new InputStreamReader(socket.getInputStream(), Charset.defaultCharset());
                         Writer writer = new OutputStreamWriter(socket.getOutputStream(), Charset.defaultCharset())) {
-                    final ObjectMapper jsonMapper = new ObjectMapper().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
-                            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                    final ObjectMapper jsonMapper = server.jsonMapper;
                     final JsonFactory generator = jsonMapper.getFactory();
                     final JsonParser parser = generator.createParser(reader);
 
@@ -0,0 +1,347 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Client side of {@link WeightedRecordSessionServer}. A single connection is
+ * kept open to the server and commands are sent without waiting for the
+ * replies to previous commands. If the connection fails all outstanding
+ * commands fail and the next command opens a new connection.
+ * 
+ * @author jschewe
+ *
+ */
+public class WeightedRecordSessionClient implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WeightedRecordSessionClient.class);
+
+    private final InetAddress serverAddress;
+    private final int port;
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final AtomicLong nextSequence = new AtomicLong(0);
+    private final Map<Long, CompletableFuture<WeightedRecordSessionServer.CommandReply>> pending = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+    // protected by lock
+    private Socket socket = null;
+    // protected by lock
+    private DataOutputStream output = null;
+    // protected by lock
+    private boolean closed = false;
+    private final AtomicLong connectionCount = new AtomicLong(0);
+
+    /**
+     * The server does not keep any state for a connection, however a new
+     * connection may mean that the server was restarted. Clients that keep
+     * track of the state of the server can use this to know when they need
+     * to start over.
+     * 
+     * @return the number of connections that have been opened to the server
+     */
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * 
+     * @param serverAddress
+     *            the address of the DNS server
+     * @param port
+     *            the port that the {@link WeightedRecordSessionServer} is
+     *            listening on
+     */
+    public WeightedRecordSessionClient(final InetAddress serverAddress, final int port) {
+        this.serverAddress = serverAddress;
+        this.port = port;
+    }
+
+    /**
+     * Open the connection to the server if it is not already open.
+     * 
+     * @return the value of {@link #getConnectionCount()} for the current
+     *         connection
+     * @throws IOException
+     *             if the connection cannot be opened
+     */
+    public long connect() throws IOException {
+        synchronized (lock) {
+            getOutput();
+            return connectionCount.get();
+        }
+    }
+
+    /**
+     * Send an update to the server.
+     * 
+     * @param message
+     *            the records to send
+     * @return the reply from the server
+     * @throws IOException
+     *             if the command cannot be written to the server
+     */
+    public CompletableFuture<WeightedRecordSessionServer.CommandReply> sendUpdate(final RecordUpdateMessage message)
+            throws IOException {
+        return send(WeightedRecordMessageServer.UPDATE_COMMAND, message, null);
+    }
+
+    /**
+     * Ask the server to flush its logs.
+     * 
+     * @return the reply from the server
+     * @throws IOException
+     *             if the command cannot be written to the server
+     */
+    public CompletableFuture<WeightedRecordSessionServer.CommandReply> sendFlush() throws IOException {
+        return send(WeightedRecordMessageServer.FLUSH_COMMAND, null, null);
+    }
+
+    /**
+     * Send an update and wait for the reply.
+     * 
+     * @param message
+     *            the records to send
+     * @param timeout
+     *            how long to wait for the reply
+     * @param unit
+     *            the unit of timeout
+     * @return the reply from the server
+     * @throws IOException
+     *             if there is an error talking to the server or the reply
+     *             does not arrive in time
+     */
+    public WeightedRecordSessionServer.CommandReply sendUpdateAndWait(final RecordUpdateMessage message,
+            final long timeout,
+            final TimeUnit unit) throws IOException {
+        return waitForReply(sendUpdate(message), timeout, unit);
+    }
+
+    /**
+     * Send a set of changes to the server.
+     * 
+     * @param delta
+     *            the changes to send
+     * @return the reply from the server
+     * @throws IOException
+     *             if the command cannot be written to the server
+     */
+    public CompletableFuture<WeightedRecordSessionServer.CommandReply> sendDelta(final RecordDeltaMessage delta)
+            throws IOException {
+        return send(WeightedRecordSessionServer.DELTA_COMMAND, null, delta);
+    }
+
+    /**
+     * Send a set of changes and wait for the reply.
+     * 
+     * @param delta
+     *            the changes to send
+     * @param timeout
+     *            how long to wait for the reply
+     * @param unit
+     *            the unit of timeout
+     * @return the reply from the server
+     * @throws IOException
+     *             if there is an error talking to the server or the reply
+     *             does not arrive in time
+     */
+    public WeightedRecordSessionServer.CommandReply sendDeltaAndWait(final RecordDeltaMessage delta,
+            final long timeout,
+            final TimeUnit unit) throws IOException {
+        return waitForReply(sendDelta(delta), timeout, unit);
+    }
+
+    private static WeightedRecordSessionServer.CommandReply waitForReply(
+            final CompletableFuture<WeightedRecordSessionServer.CommandReply> future,
+            final long timeout,
+            final TimeUnit unit) throws IOException {
+        try {
+            return future.get(timeout, unit);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for reply", e);
+        } catch (final ExecutionException e) {
+            throw new IOException("Error waiting for reply", e.getCause());
+        } catch (final TimeoutException e) {
+            throw new IOException("Timed out waiting for reply", e);
+        }
+    }
+
+    private CompletableFuture<WeightedRecordSessionServer.CommandReply> send(final String command,
+            final RecordUpdateMessage update,
+            final RecordDeltaMessage delta) throws IOException {
+        final long sequence = nextSequence.incrementAndGet();
+        final WeightedRecordSessionServer.Command cmd = new WeightedRecordSessionServer.Command(sequence, command,
+                update, delta);
+        final byte[] body = jsonMapper.writeValueAsBytes(cmd);
+
+        final CompletableFuture<WeightedRecordSessionServer.CommandReply> future = new CompletableFuture<>();
+
+        synchronized (lock) {
+            try {
+                final DataOutputStream out = getOutput();
+                pending.put(sequence, future);
+                out.writeInt(body.length);
+                out.write(body);
+                out.flush();
+            } catch (final IOException e) {
+                pending.remove(sequence);
+                disconnect(socket, e);
+                throw e;
+            }
+        }
+
+        return future;
+    }
+
+    /**
+     * Must hold lock.
+     */
+    private DataOutputStream getOutput() throws IOException {
+        if (closed) {
+            throw new IOException("Client is closed");
+        }
+
+        if (null == socket) {
+            LOGGER.trace("Connecting to {}:{}", serverAddress, port);
+
+            final Socket s = new Socket(serverAddress, port);
+            try {
+                s.setTcpNoDelay(true);
+                output = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                final DataInputStream input = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+
+                final Thread reader = new Thread(() -> readReplies(s, input),
+                        String.format("Weighted record session reader %s:%d", serverAddress, port));
+                reader.setDaemon(true);
+                reader.start();
+            } catch (final IOException e) {
+                s.close();
+                output = null;
+                throw e;
+            }
+            socket = s;
+            connectionCount.incrementAndGet();
+        }
+        return output;
+    }
+
+    private void readReplies(final Socket s, final DataInputStream input) {
+        try {
+            while (true) {
+                final int length = input.readInt();
+                if (length < 0 || length > WeightedRecordSessionServer.MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                final byte[] body = new byte[length];
+                input.readFully(body);
+
+                final WeightedRecordSessionServer.CommandReply reply = jsonMapper.readValue(body,
+                        WeightedRecordSessionServer.CommandReply.class);
+                final CompletableFuture<WeightedRecordSessionServer.CommandReply> future = pending
+                        .remove(reply.getSequence());
+                if (null == future) {
+                    LOGGER.warn("Received reply for unknown command {}", reply);
+                } else {
+                    future.complete(reply);
+                }
+            }
+        } catch (final IOException e) {
+            synchronized (lock) {
+                disconnect(s, e);
+            }
+        }
+    }
+
+    /**
+     * Close the connection and fail any outstanding commands. Must hold
+     * lock.
+     * 
+     * @param s
+     *            the socket that had the error, if this is no longer the
+     *            current socket nothing is done
+     */
+    private void disconnect(final Socket s, final IOException cause) {
+        if (null == s || s != socket) {
+            return;
+        }
+
+        if (!closed) {
+            LOGGER.warn("Lost connection to {}:{}", serverAddress, port, cause);
+        }
+
+        try {
+            s.close();
+        } catch (final IOException e) {
+            LOGGER.debug("Error closing socket, ignoring", e);
+        }
+        socket = null;
+        output = null;
+
+        final List<Long> sequences = new ArrayList<>(pending.keySet());
+        for (final Long sequence : sequences) {
+            final CompletableFuture<WeightedRecordSessionServer.CommandReply> future = pending.remove(sequence);
+            if (null != future) {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            disconnect(socket, new IOException("Client closed"));
+        }
+    }
+
+}
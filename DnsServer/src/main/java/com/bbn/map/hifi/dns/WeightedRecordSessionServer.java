@@ -0,0 +1,630 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Long-lived connections for controlling the
+ * {@link WeightedRoundRobinResolver}. This is an alternative to
+ * {@link WeightedRecordMessageServer}, which handles a single command per
+ * connection.
+ * 
+ * Each connection carries a sequence of frames in each direction. A frame is
+ * a 4 byte big-endian length followed by that many bytes of UTF-8 JSON. The
+ * client sends {@link Command} objects and the server sends a
+ * {@link CommandReply} for each command with the same sequence number. A
+ * client may send more commands before receiving the replies to earlier
+ * ones. Commands on a connection are executed in the order that they are
+ * received.
+ * 
+ * All connections are serviced by a small number of selector threads.
+ * 
+ * @author jschewe
+ *
+ */
+public class WeightedRecordSessionServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WeightedRecordSessionServer.class);
+
+    /**
+     * Port that the server listens on.
+     */
+    public static final int PORT = 1054;
+
+    /**
+     * Command to apply a {@link RecordDeltaMessage}. This is only supported on
+     * session connections.
+     */
+    public static final String DELTA_COMMAND = "delta";
+
+    /**
+     * Largest frame that will be accepted. Connections sending larger frames
+     * are closed.
+     */
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Number of bytes used for the frame length.
+     */
+    public static final int FRAME_HEADER_SIZE = Integer.BYTES;
+
+    /**
+     * Default number of selector threads.
+     */
+    public static final int DEFAULT_SELECTOR_COUNT = 2;
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private static final long SHUTDOWN_WAIT_MS = 1000;
+
+    private final WeightedRoundRobinResolver resolver;
+    private final int port;
+    private final int selectorCount;
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final List<SelectorWorker> workers = new ArrayList<>();
+    private ServerSocketChannel serverChannel = null;
+    private Thread acceptThread = null;
+
+    /**
+     * 
+     * @param resolver
+     *            the resolver to send commands to
+     * @param port
+     *            the port to listen on, 0 to pick a free port
+     * @param selectorCount
+     *            the number of threads used to service connections
+     */
+    public WeightedRecordSessionServer(final WeightedRoundRobinResolver resolver,
+            final int port,
+            final int selectorCount) {
+        if (selectorCount < 1) {
+            throw new IllegalArgumentException("Must have at least 1 selector");
+        }
+        this.resolver = resolver;
+        this.port = port;
+        this.selectorCount = selectorCount;
+    }
+
+    /**
+     * Start the service.
+     * 
+     * @throws IOException
+     *             if the server socket or selectors cannot be created
+     */
+    public void start() throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            LOGGER.debug("Already running, ignoring extra start call");
+            return;
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.bind(new InetSocketAddress(port));
+        LOGGER.trace("Listening for session connections on port {}", getPort());
+
+        for (int i = 0; i < selectorCount; ++i) {
+            final SelectorWorker worker = new SelectorWorker();
+            workers.add(worker);
+            final Thread t = new Thread(worker, "WeightedRoundRobin session selector " + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        acceptThread = new Thread(this::acceptConnections, "WeightedRoundRobin session listener");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * 
+     * @return the port that the server is listening on
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Shutdown the service, the service cannot be restarted after it has been
+     * shutdown.
+     */
+    public void shutdown() {
+        running.set(false);
+
+        if (null != serverChannel) {
+            try {
+                serverChannel.close();
+            } catch (final IOException e) {
+                LOGGER.debug("Error closing server channel, ignoring", e);
+            }
+        }
+
+        if (null != acceptThread) {
+            // the port isn't released until the accept thread exits
+            try {
+                acceptThread.join(SHUTDOWN_WAIT_MS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        workers.forEach(SelectorWorker::stop);
+    }
+
+    private void acceptConnections() {
+        int next = 0;
+        while (running.get()) {
+            try {
+                final SocketChannel channel = serverChannel.accept();
+                LOGGER.trace("Accepted session connection from {}", channel.getRemoteAddress());
+
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                workers.get(next).add(channel);
+                next = (next + 1) % workers.size();
+            } catch (final ClosedChannelException e) {
+                LOGGER.debug("Server channel closed, exiting accept loop");
+                break;
+            } catch (final IOException e) {
+                if (running.get()) {
+                    LOGGER.warn("Error accepting session connection, trying again", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Execute a command. This is called on a selector thread.
+     * 
+     * @param command
+     *            the command to execute
+     * @return the reply to send
+     */
+    private CommandReply execute(final Command command) {
+        final String name = command.getCommand();
+        try {
+            if (WeightedRecordMessageServer.FLUSH_COMMAND.equalsIgnoreCase(name)) {
+                resolver.flushLogs();
+                return new CommandReply(command.getSequence(), true, null);
+            } else if (WeightedRecordMessageServer.UPDATE_COMMAND.equalsIgnoreCase(name)) {
+                if (null == command.getUpdate()) {
+                    return new CommandReply(command.getSequence(), false, "Missing update");
+                }
+
+                LOGGER.trace("Received update message: {}", command.getUpdate());
+                final WeightedRecordSnapshot snapshot = resolver.setWeightedRecords(command.getUpdate());
+                return new CommandReply(command.getSequence(), true, null, snapshot.getVersion(), false);
+            } else if (DELTA_COMMAND.equalsIgnoreCase(name)) {
+                if (null == command.getDelta()) {
+                    return new CommandReply(command.getSequence(), false, "Missing delta");
+                }
+
+                LOGGER.trace("Received delta message: {}", command.getDelta());
+                final WeightedRecordSnapshot snapshot = resolver.applyDelta(command.getDelta());
+                if (null == snapshot) {
+                    return new CommandReply(command.getSequence(), false, "Version mismatch",
+                            resolver.getWeightedRecords().getVersion(), true);
+                } else {
+                    return new CommandReply(command.getSequence(), true, null, snapshot.getVersion(), false);
+                }
+            } else {
+                return new CommandReply(command.getSequence(), false, "Unknown command: '" + name + "'");
+            }
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.error("Error executing command {}", command, e);
+            return new CommandReply(command.getSequence(), false, e.getMessage());
+        }
+    }
+
+    /**
+     * Services a set of connections with a single selector.
+     */
+    private final class SelectorWorker implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+        SelectorWorker() throws IOException {
+            selector = Selector.open();
+        }
+
+        void add(final SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        void stop() {
+            selector.wakeup();
+            try {
+                for (final SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            } catch (final IOException | ClosedSelectorException e) {
+                LOGGER.debug("Error closing selector, ignoring", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running.get()) {
+                    selector.select();
+
+                    SocketChannel channel;
+                    while (null != (channel = pending.poll())) {
+                        try {
+                            channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+                        } catch (final ClosedChannelException e) {
+                            LOGGER.debug("Channel closed before it could be registered", e);
+                        } catch (final IOException e) {
+                            // only this connection is affected, keep servicing the others
+                            LOGGER.warn("Unable to register new connection, closing it", e);
+                            try {
+                                channel.close();
+                            } catch (final IOException closeError) {
+                                LOGGER.debug("Error closing channel, ignoring", closeError);
+                            }
+                        }
+                    }
+
+                    final Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                    while (iter.hasNext()) {
+                        final SelectionKey key = iter.next();
+                        iter.remove();
+
+                        final Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write(key);
+                            }
+                        } catch (final IOException e) {
+                            LOGGER.warn("Error talking to {}, closing connection", connection.remote, e);
+                            connection.close(key);
+                        }
+                    }
+                }
+            } catch (final IOException | ClosedSelectorException e) {
+                if (running.get()) {
+                    LOGGER.error("Selector failed, connections on this selector are lost", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * State of a single client connection.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final String remote;
+        private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private final Queue<ByteBuffer> output = new LinkedList<>();
+
+        Connection(final SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.remote = String.valueOf(channel.getRemoteAddress());
+        }
+
+        void read(final SelectionKey key) throws IOException {
+            final int count = channel.read(input);
+            if (count < 0) {
+                LOGGER.trace("Client {} closed the connection", remote);
+                close(key);
+                return;
+            }
+
+            input.flip();
+            while (input.remaining() >= FRAME_HEADER_SIZE) {
+                final int length = input.getInt(input.position());
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+
+                if (input.remaining() < FRAME_HEADER_SIZE + length) {
+                    if (input.capacity() < FRAME_HEADER_SIZE + length) {
+                        final ByteBuffer larger = ByteBuffer.allocate(FRAME_HEADER_SIZE + length);
+                        larger.put(input);
+                        larger.flip();
+                        input = larger;
+                    }
+                    break;
+                }
+
+                input.position(input.position() + FRAME_HEADER_SIZE);
+                final Command command = jsonMapper.readValue(input.array(), input.arrayOffset() + input.position(),
+                        length, Command.class);
+                input.position(input.position() + length);
+
+                final CommandReply reply = execute(command);
+                output.add(encodeFrame(jsonMapper.writeValueAsBytes(reply)));
+            }
+            input.compact();
+
+            if (!output.isEmpty()) {
+                write(key);
+            }
+        }
+
+        void write(final SelectionKey key) throws IOException {
+            while (!output.isEmpty()) {
+                final ByteBuffer buffer = output.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    // socket is full, wait for it to be writable
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                output.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void close(final SelectionKey key) {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                LOGGER.debug("Error closing channel for {}, ignoring", remote, e);
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param json
+     *            the encoded message
+     * @return a buffer containing the frame, ready to be written
+     */
+    /* package */ static ByteBuffer encodeFrame(final byte[] json) {
+        final ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + json.length);
+        frame.putInt(json.length);
+        frame.put(json);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * A command sent from the client.
+     * 
+     * @author jschewe
+     *
+     */
+    public static final class Command {
+
+        /**
+         * 
+         * @param sequence
+         *            see {@link #getSequence()}
+         * @param command
+         *            see {@link #getCommand()}
+         * @param update
+         *            see {@link #getUpdate()}
+         * @param delta
+         *            see {@link #getDelta()}
+         */
+        public Command(@JsonProperty("sequence") final long sequence,
+                @JsonProperty("command") final String command,
+                @JsonProperty("update") final RecordUpdateMessage update,
+                @JsonProperty("delta") final RecordDeltaMessage delta) {
+            this.sequence = sequence;
+            this.command = command;
+            this.update = update;
+            this.delta = delta;
+        }
+
+        private final long sequence;
+
+        /**
+         * 
+         * @return the sequence number chosen by the client, returned in the
+         *         reply
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        private final String command;
+
+        /**
+         * 
+         * @return {@link WeightedRecordMessageServer#UPDATE_COMMAND},
+         *         {@link WeightedRecordMessageServer#FLUSH_COMMAND} or
+         *         {@link #DELTA_COMMAND}
+         */
+        public String getCommand() {
+            return command;
+        }
+
+        private final RecordUpdateMessage update;
+
+        /**
+         * 
+         * @return the records for an update command, null for other
+         *         commands
+         */
+        public RecordUpdateMessage getUpdate() {
+            return update;
+        }
+
+        private final RecordDeltaMessage delta;
+
+        /**
+         * 
+         * @return the changes for a delta command, null for other commands
+         */
+        public RecordDeltaMessage getDelta() {
+            return delta;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[ sequence: " + sequence + " command: " + command + " update: "
+                    + update + " delta: " + delta + "]";
+        }
+    }
+
+    /**
+     * The reply to a {@link Command}.
+     * 
+     * @author jschewe
+     *
+     */
+    public static final class CommandReply {
+
+        /**
+         * Reply that doesn't carry a version.
+         * 
+         * @param sequence
+         *            see {@link #getSequence()}
+         * @param success
+         *            see {@link #isSuccess()}
+         * @param message
+         *            see {@link #getMessage()}
+         */
+        public CommandReply(final long sequence, final boolean success, final String message) {
+            this(sequence, success, message, -1, false);
+        }
+
+        /**
+         * 
+         * @param sequence
+         *            see {@link #getSequence()}
+         * @param success
+         *            see {@link #isSuccess()}
+         * @param message
+         *            see {@link #getMessage()}
+         * @param version
+         *            see {@link #getVersion()}
+         * @param resync
+         *            see {@link #isResync()}
+         */
+        @JsonCreator
+        public CommandReply(@JsonProperty("sequence") final long sequence,
+                @JsonProperty("success") final boolean success,
+                @JsonProperty("message") final String message,
+                @JsonProperty("version") final long version,
+                @JsonProperty("resync") final boolean resync) {
+            this.sequence = sequence;
+            this.success = success;
+            this.message = message;
+            this.version = version;
+            this.resync = resync;
+        }
+
+        private final long sequence;
+
+        /**
+         * 
+         * @return the sequence number of the command this is a reply to
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        private final boolean success;
+
+        /**
+         * 
+         * @return if the command was successful
+         */
+        public boolean isSuccess() {
+            return success;
+        }
+
+        private final String message;
+
+        /**
+         * 
+         * @return if an error, the error message. May be null.
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        private final long version;
+
+        /**
+         * 
+         * @return the version of the weighted records after an update or
+         *         delta command, -1 for other commands
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        private final boolean resync;
+
+        /**
+         * 
+         * @return true if a delta command was rejected because the records
+         *         have changed since the delta was computed. The client needs
+         *         to send a full update.
+         */
+        public boolean isResync() {
+            return resync;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sequence: %d success: %b message: %s version: %d resync: %b", getSequence(),
+                    isSuccess(), getMessage(), getVersion(), isResync());
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.xbill.DNS.Name;
+
+/**
+ * Immutable view of the weighted records known to
+ * {@link WeightedRoundRobinResolver}. A new snapshot is created each time the
+ * records change and is published with a single reference assignment. This
+ * allows queries to read the weighted records without taking a lock. The
+ * {@link WeightedRecordList} objects themselves are thread safe and carry the
+ * round robin state.
+ * 
+ * @author jschewe
+ *
+ */
+public final class WeightedRecordSnapshot {
+
+    /**
+     * Snapshot with no records and version 0.
+     */
+    public static final WeightedRecordSnapshot EMPTY = new WeightedRecordSnapshot(0, 0, Collections.emptyMap(),
+            Collections.emptyMap());
+
+    /**
+     * Value of {@link #getNameVersion(Name)} for names that are not in the
+     * snapshot.
+     */
+    public static final long NO_VERSION = -1;
+
+    private final long version;
+    private final long namesVersion;
+    private final Map<Name, WeightedRecordList> records;
+    private final Map<Name, Long> nameVersions;
+
+    private WeightedRecordSnapshot(final long version,
+            final long namesVersion,
+            final Map<Name, WeightedRecordList> records,
+            final Map<Name, Long> nameVersions) {
+        this.version = version;
+        this.namesVersion = namesVersion;
+        this.records = Collections.unmodifiableMap(records);
+        this.nameVersions = nameVersions;
+    }
+
+    /**
+     * 
+     * @return the version of this snapshot, incremented each time a new
+     *         snapshot is created from an existing one
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 
+     * @return the version of the set of names in this snapshot, this only
+     *         changes when a name is added or removed. Changes to the records
+     *         for an existing name do not change this value.
+     */
+    public long getNamesVersion() {
+        return namesVersion;
+    }
+
+    /**
+     * 
+     * @param name
+     *            the absolute name to find
+     * @return the version of the snapshot that last changed the records for
+     *         the name or {@link #NO_VERSION} if the name is not in this
+     *         snapshot
+     */
+    public long getNameVersion(@Nonnull final Name name) {
+        final Long nameVersion = nameVersions.get(name);
+        return null == nameVersion ? NO_VERSION : nameVersion.longValue();
+    }
+
+    /**
+     * 
+     * @param name
+     *            the absolute name to find
+     * @return the records for the name or null if not found
+     */
+    public WeightedRecordList get(@Nonnull final Name name) {
+        return records.get(name);
+    }
+
+    /**
+     * 
+     * @return unmodifiable map of all records
+     */
+    @Nonnull
+    public Map<Name, WeightedRecordList> getRecords() {
+        return records;
+    }
+
+    /**
+     * Create a new snapshot that contains the records in this snapshot with
+     * the entries in {@code updates} replacing any existing entries with the
+     * same name. This object is not modified.
+     * 
+     * @param updates
+     *            the new records
+     * @return the new snapshot with a version one greater than this snapshot
+     */
+    @Nonnull
+    public WeightedRecordSnapshot withRecords(@Nonnull final Map<Name, WeightedRecordList> updates) {
+        return withChanges(updates, Collections.emptySet());
+    }
+
+    /**
+     * Create a new snapshot that contains the records in this snapshot with
+     * the entries in {@code updates} replacing any existing entries with the
+     * same name and the names in {@code removals} removed. This object is not
+     * modified.
+     * 
+     * @param updates
+     *            the new records
+     * @param removals
+     *            the names to remove
+     * @return the new snapshot with a version one greater than this snapshot
+     */
+    @Nonnull
+    public WeightedRecordSnapshot withChanges(@Nonnull final Map<Name, WeightedRecordList> updates,
+            @Nonnull final Set<Name> removals) {
+        final long newVersion = version + 1;
+        boolean namesChanged = false;
+        final Map<Name, WeightedRecordList> newRecords = new HashMap<>(records);
+        final Map<Name, Long> newNameVersions = new HashMap<>(nameVersions);
+        for (final Name name : removals) {
+            namesChanged |= null != newRecords.remove(name);
+            newNameVersions.remove(name);
+        }
+        for (final Map.Entry<Name, WeightedRecordList> entry : updates.entrySet()) {
+            namesChanged |= null == newRecords.put(entry.getKey(), entry.getValue());
+            newNameVersions.put(entry.getKey(), newVersion);
+        }
+
+        final long newNamesVersion = namesChanged ? namesVersion + 1 : namesVersion;
+        return new WeightedRecordSnapshot(newVersion, newNamesVersion, newRecords, newNameVersions);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[ version: " + version + " records: " + records + "]";
+    }
+
+}
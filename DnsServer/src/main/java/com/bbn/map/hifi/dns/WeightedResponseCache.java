@@ -0,0 +1,349 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Header;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Zone;
+
+/**
+ * Cache of complete responses for weighted names. There is one cached
+ * response per weighted target of a name. The weighted round robin selection
+ * is still done for every query, only the construction and encoding of the
+ * response for the selected target is cached.
+ * 
+ * An entry for a name is only valid while the {@link WeightedRecordList} for
+ * the name, the {@link Zone} that the name was found in and
+ * {@link WeightedRecordSnapshot#getNamesVersion()} are the same as when the
+ * entry was created. The list for a name is replaced each time new weights
+ * are published, so an update implicitly invalidates the entries for the
+ * names that it contains. {@link #invalidate(Collection)} is used to release
+ * the memory for those entries.
+ * 
+ * This class is thread safe.
+ * 
+ * @author jschewe
+ *
+ */
+public final class WeightedResponseCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WeightedResponseCache.class);
+
+    private final Map<Name, NameEntry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Find a cached response.
+     * 
+     * @param name
+     *            the name being queried
+     * @param type
+     *            the type of the query
+     * @param zone
+     *            the zone that the name is in
+     * @param snapshot
+     *            the weighted records that the query is being answered from
+     * @param list
+     *            the weighted records for the name from {@code snapshot}
+     * @param target
+     *            the weighted target that has been selected for this query
+     * @return the cached response or null if there isn't a valid response
+     */
+    public CachedResponse get(@Nonnull final Name name,
+            final int type,
+            @Nonnull final Zone zone,
+            @Nonnull final WeightedRecordSnapshot snapshot,
+            @Nonnull final WeightedRecordList list,
+            @Nonnull final WeightedCNAMERecord target) {
+        final NameEntry entry = entries.get(name);
+        if (null == entry || !entry.matches(type, zone, snapshot, list)) {
+            misses.increment();
+            return null;
+        }
+
+        final CachedResponse response = entry.responses.get(target);
+        if (null == response) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return response;
+    }
+
+    /**
+     * Store a response. The response must not contain any information that
+     * is specific to the query other than the question and the header ID and
+     * flags.
+     * 
+     * @param name
+     *            the name being queried
+     * @param type
+     *            the type of the query
+     * @param zone
+     *            the zone that the name is in
+     * @param snapshot
+     *            the weighted records that the response was created from
+     * @param list
+     *            the weighted records for the name from {@code snapshot}
+     * @param target
+     *            the weighted target that was used to create the response
+     * @param weightedRecord
+     *            the DNS record created from {@code target}
+     * @param response
+     *            the response to cache, a copy is stored
+     */
+    public void put(@Nonnull final Name name,
+            final int type,
+            @Nonnull final Zone zone,
+            @Nonnull final WeightedRecordSnapshot snapshot,
+            @Nonnull final WeightedRecordList list,
+            @Nonnull final WeightedCNAMERecord target,
+            @Nonnull final Record weightedRecord,
+            @Nonnull final Message response) {
+        final NameEntry entry = entries.compute(name, (k, existing) -> {
+            if (null != existing && existing.matches(type, zone, snapshot, list)) {
+                return existing;
+            } else {
+                return new NameEntry(type, zone, snapshot.getNamesVersion(), list);
+            }
+        });
+
+        entry.responses.putIfAbsent(target, new CachedResponse(weightedRecord, response));
+        LOGGER.trace("Cached response for {} -> {}", name, target.getValue());
+    }
+
+    /**
+     * Remove the cached responses for the specified names.
+     * 
+     * @param names
+     *            the names that have new weighted records
+     */
+    public void invalidate(@Nonnull final Collection<Name> names) {
+        names.forEach(entries::remove);
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * 
+     * @return the number of lookups that found a cached response
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * 
+     * @return the number of lookups that did not find a cached response
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * The cached responses for a single name.
+     */
+    private static final class NameEntry {
+        private final int type;
+        private final Zone zone;
+        private final long namesVersion;
+        private final WeightedRecordList list;
+        private final Map<WeightedCNAMERecord, CachedResponse> responses = new ConcurrentHashMap<>();
+
+        NameEntry(final int type, final Zone zone, final long namesVersion, final WeightedRecordList list) {
+            this.type = type;
+            this.zone = zone;
+            this.namesVersion = namesVersion;
+            this.list = list;
+        }
+
+        boolean matches(final int type,
+                final Zone zone,
+                final WeightedRecordSnapshot snapshot,
+                final WeightedRecordList list) {
+            return this.type == type //
+                    && this.zone == zone //
+                    && this.list == list //
+                    && this.namesVersion == snapshot.getNamesVersion();
+        }
+    }
+
+    /**
+     * A complete response for one weighted target. The response is stored
+     * both as a {@link Message} and in wire format, with and without an OPT
+     * record.
+     */
+    public static final class CachedResponse {
+        /**
+         * The UDP payload size advertised in the OPT record of responses to
+         * queries that use EDNS.
+         */
+        public static final int EDNS_PAYLOAD_SIZE = 4096;
+
+        private static final int ID_HIGH_OFFSET = 0;
+        private static final int ID_LOW_OFFSET = 1;
+        private static final int FLAGS_HIGH_OFFSET = 2;
+        /**
+         * RD is the lowest bit of the first flags byte.
+         */
+        private static final int RD_MASK = 0x01;
+        /**
+         * The question name immediately follows the fixed size header in both
+         * the query and the response.
+         */
+        private static final int HEADER_LENGTH = 12;
+
+        private final Record weightedRecord;
+        private final Message template;
+        private final byte[] wire;
+        private final byte[] wireWithOpt;
+        private final int questionNameLength;
+
+        private CachedResponse(final Record weightedRecord, final Message response) {
+            this.weightedRecord = weightedRecord;
+            this.template = (Message) response.clone();
+            this.wire = this.template.toWire();
+
+            final Message withOpt = (Message) response.clone();
+            withOpt.addRecord(createOpt(), Section.ADDITIONAL);
+            this.wireWithOpt = withOpt.toWire();
+
+            final Record question = this.template.getQuestion();
+            this.questionNameLength = null == question ? 0 : question.getName().length();
+        }
+
+        /**
+         * 
+         * @return the OPT record to add to responses to queries that use EDNS
+         */
+        public static OPTRecord createOpt() {
+            return new OPTRecord(EDNS_PAYLOAD_SIZE, Rcode.NOERROR, 0, 0);
+        }
+
+        /**
+         * 
+         * @return the DNS record for the weighted target
+         */
+        public Record getWeightedRecord() {
+            return weightedRecord;
+        }
+
+        /**
+         * Create a response to a query.
+         * 
+         * @param question
+         *            the question from the query, used so that the case of
+         *            the name matches the query
+         * @param id
+         *            the ID of the query
+         * @param recursionDesired
+         *            if the RD flag was set in the query
+         * @return a new message that can be modified by the caller
+         */
+        public Message toMessage(@Nonnull final Record question, final int id, final boolean recursionDesired) {
+            final Message response = (Message) template.clone();
+            final Header header = response.getHeader();
+            header.setID(id);
+            if (recursionDesired) {
+                header.setFlag(Flags.RD);
+            } else {
+                header.unsetFlag(Flags.RD);
+            }
+            response.removeAllRecords(Section.QUESTION);
+            response.addRecord(question, Section.QUESTION);
+            return response;
+        }
+
+        /**
+         * Create a response to a query in wire format. The ID, the RD flag
+         * and the question name are taken from the query so that the
+         * response matches the query exactly.
+         * 
+         * @param rawQuery
+         *            the query in wire format, must be for the name that the
+         *            response was cached for
+         * @param rawQueryLength
+         *            the number of valid bytes in {@code rawQuery}
+         * @param withOpt
+         *            if the query had an OPT record, the response then has
+         *            an OPT record as well
+         * @param maxLength
+         *            the largest response that can be sent to the client
+         * @return a new array that can be modified by the caller or null if
+         *         the response would be longer than {@code maxLength} and
+         *         needs to be truncated
+         */
+        public byte[] toWire(@Nonnull final byte[] rawQuery,
+                final int rawQueryLength,
+                final boolean withOpt,
+                final int maxLength) {
+            final byte[] source = withOpt ? wireWithOpt : wire;
+            if (source.length > maxLength || rawQueryLength < HEADER_LENGTH + questionNameLength) {
+                return null;
+            }
+
+            final byte[] response = source.clone();
+            response[ID_HIGH_OFFSET] = rawQuery[ID_HIGH_OFFSET];
+            response[ID_LOW_OFFSET] = rawQuery[ID_LOW_OFFSET];
+            if (0 != (rawQuery[FLAGS_HIGH_OFFSET] & RD_MASK)) {
+                response[FLAGS_HIGH_OFFSET] |= RD_MASK;
+            } else {
+                response[FLAGS_HIGH_OFFSET] &= ~RD_MASK;
+            }
+            // the name in the query differs at most in case
+            System.arraycopy(rawQuery, HEADER_LENGTH, response, HEADER_LENGTH, questionNameLength);
+            return response;
+        }
+    }
+
+}
@@ -31,7 +31,6 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 BBN_LICENSE_END*/
 package com.bbn.map.hifi.dns;
 
-import java.io.BufferedWriter;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -39,16 +38,27 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.CloseableThreadContext;
@@ -81,12 +91,15 @@ import org.xbill.DNS.Zone;
 import com.bbn.map.AgentConfiguration;
 import com.bbn.map.hifi.util.DnsUtils;
 import com.diffplug.common.base.Errors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import se.unlogic.eagledns.EagleDNS;
 import se.unlogic.eagledns.Request;
+import se.unlogic.eagledns.SecondaryZone;
 import se.unlogic.eagledns.plugins.BasePlugin;
 import se.unlogic.eagledns.resolvers.AuthoritativeResolver;
 import se.unlogic.eagledns.resolvers.Resolver;
+import se.unlogic.eagledns.zoneproviders.ZoneProvider;
 import se.unlogic.standardutils.net.SocketUtils;
 
 /**
@@ -133,8 +146,193 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
         delegationTimeout = v;
     }
 
+    private int udpFrontEndPort = -1;
+
+    /**
+     * 
+     * @param v
+     *            port as a string, used by EagleDNS property configuration
+     */
+    public void setUdpFrontEndPort(final String v) {
+        setUdpFrontEndPort(Integer.parseInt(v));
+    }
+
+    /**
+     * Enable the {@link UdpFrontEnd} on the specified port. When this is
+     * enabled EagleDNS must listen on a different port, see
+     * {@link #setUdpFrontEndBackendPort(int)}.
+     * 
+     * @param v
+     *            the port to receive UDP queries on, a negative value
+     *            disables the front end (default)
+     */
+    public void setUdpFrontEndPort(final int v) {
+        udpFrontEndPort = v;
+    }
+
+    private String udpFrontEndAddress = null;
+
+    /**
+     * 
+     * @param v
+     *            the address for the {@link UdpFrontEnd} to listen on, null
+     *            for all addresses (default)
+     */
+    public void setUdpFrontEndAddress(final String v) {
+        udpFrontEndAddress = v;
+    }
+
+    private int udpFrontEndWorkers = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 
+     * @param v
+     *            number of workers as a string, used by EagleDNS property
+     *            configuration
+     */
+    public void setUdpFrontEndWorkers(final String v) {
+        setUdpFrontEndWorkers(Integer.parseInt(v));
+    }
+
+    /**
+     * 
+     * @param v
+     *            the number of threads in the {@link UdpFrontEnd}, defaults to
+     *            the number of processors
+     */
+    public void setUdpFrontEndWorkers(final int v) {
+        udpFrontEndWorkers = v;
+    }
+
+    private String udpFrontEndBackendAddress = InetAddress.getLoopbackAddress().getHostAddress();
+
+    /**
+     * 
+     * @param v
+     *            the address that EagleDNS is listening on, defaults to the
+     *            loopback address
+     */
+    public void setUdpFrontEndBackendAddress(final String v) {
+        udpFrontEndBackendAddress = v;
+    }
+
+    private int udpFrontEndBackendPort = -1;
+
+    /**
+     * 
+     * @param v
+     *            port as a string, used by EagleDNS property configuration
+     */
+    public void setUdpFrontEndBackendPort(final String v) {
+        setUdpFrontEndBackendPort(Integer.parseInt(v));
+    }
+
+    /**
+     * 
+     * @param v
+     *            the port that EagleDNS is listening on, the
+     *            {@link UdpFrontEnd} forwards queries that the resolver
+     *            doesn't answer here
+     */
+    public void setUdpFrontEndBackendPort(final int v) {
+        udpFrontEndBackendPort = v;
+    }
+
+    private UdpFrontEnd udpFrontEnd = null;
+
+    private int delegationPort = SimpleResolver.DEFAULT_PORT;
+
+    /**
+     * 
+     * @param v
+     *            port as a string, used by EagleDNS property configuration
+     */
+    public void setDelegationPort(final String v) {
+        setDelegationPort(Integer.parseInt(v));
+    }
+
+    /**
+     * The port that delegate DNS servers listen on. This defaults to the
+     * standard DNS port and is changed when testing against servers that
+     * cannot use the standard port.
+     * 
+     * @param v
+     *            the port to send delegated queries to
+     */
+    public void setDelegationPort(final int v) {
+        delegationPort = v;
+    }
+
+    /**
+     * Default value for {@link #setDelegationCacheSize(int)}.
+     */
+    public static final int DEFAULT_DELEGATION_CACHE_SIZE = 1000;
+
+    private DelegationCache delegationCache = new DelegationCache(DEFAULT_DELEGATION_CACHE_SIZE);
+
+    /**
+     * 
+     * @param v
+     *            cache size as a string, used by EagleDNS property
+     *            configuration
+     */
+    public void setDelegationCacheSize(final String v) {
+        setDelegationCacheSize(Integer.parseInt(v));
+    }
+
+    /**
+     * The maximum number of responses from delegate DNS servers to cache. Set
+     * to zero to disable caching of delegated responses.
+     * 
+     * @param v
+     *            the new cache size
+     */
+    public void setDelegationCacheSize(final int v) {
+        delegationCache = new DelegationCache(v);
+    }
+
+    /**
+     * 
+     * @return the cache of responses from delegate DNS servers
+     */
+    public DelegationCache getDelegationCache() {
+        return delegationCache;
+    }
+
+    /**
+     * Maximum number of threads querying delegate DNS servers.
+     */
+    private static final int DELEGATION_THREADS = 32;
+
+    /**
+     * Maximum number of delegate queries waiting for a thread. Beyond this
+     * the thread answering the client sends the query itself.
+     */
+    private static final int DELEGATION_QUEUE_CAPACITY = 256;
+
+    /**
+     * How long idle delegation threads are kept.
+     */
+    private static final long DELEGATION_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Used to query delegate DNS servers in parallel.
+     */
+    private final ExecutorService delegationExecutor = createDelegationExecutor();
+
+    private static ExecutorService createDelegationExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(DELEGATION_THREADS, DELEGATION_THREADS,
+                DELEGATION_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(DELEGATION_QUEUE_CAPACITY),
+                new ThreadFactoryBuilder().setNameFormat("DNS delegation-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private String logFilePathName = null;
-    private BufferedWriter logFileWriter = null;
+    private QueryLogWriter logFileWriter = null;
+    private QueryLogWriter.Format logFileFormat = QueryLogWriter.Format.CSV;
+    private int logQueueCapacity = QueryLogWriter.DEFAULT_CAPACITY;
 
     /**
      * @param logFilePath
@@ -144,7 +342,49 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
         this.logFilePathName = logFilePath;
     }
 
-    private Map<Name, WeightedRecordList> weightedRecords = new HashMap<>();
+    /**
+     * @param format
+     *            the name of a {@link QueryLogWriter.Format}, case
+     *            insensitive. The default is CSV.
+     */
+    public void setLogFileFormat(final String format) {
+        this.logFileFormat = QueryLogWriter.Format.valueOf(format.trim().toUpperCase());
+    }
+
+    /**
+     * @param v
+     *            capacity as a string, used by EagleDNS property configuration
+     */
+    public void setLogQueueCapacity(final String v) {
+        setLogQueueCapacity(Integer.parseInt(v));
+    }
+
+    /**
+     * The maximum number of log entries waiting to be written to the log
+     * file. Entries beyond this are dropped rather than blocking queries.
+     * 
+     * @param v
+     *            the new capacity
+     */
+    public void setLogQueueCapacity(final int v) {
+        this.logQueueCapacity = v;
+    }
+
+    /**
+     * Current weighted records. Readers access this without locking, writers
+     * hold {@link #lock} while creating the replacement snapshot.
+     */
+    private volatile WeightedRecordSnapshot weightedRecords = WeightedRecordSnapshot.EMPTY;
+
+    private final WeightedResponseCache responseCache = new WeightedResponseCache();
+
+    /**
+     * 
+     * @return the cache of responses for weighted names
+     */
+    public WeightedResponseCache getResponseCache() {
+        return responseCache;
+    }
 
     /**
      * Get the client name
@@ -167,6 +407,142 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
 
     @Override
     public Message generateReply(final Request request) throws Exception {
+        return generateReply(request, null);
+    }
+
+    /**
+     * Generate a reply in wire format. Cached responses for weighted names
+     * are sent without being decoded and encoded again.
+     * 
+     * @param request
+     *            the request to answer
+     * @param maxLength
+     *            the largest response that can be sent to the client,
+     *            longer responses are truncated
+     * @return the response or null if this resolver does not answer the
+     *         query
+     * @throws Exception
+     *             see {@link #generateReply(Request)}
+     */
+    public byte[] generateWireReply(final Request request, final int maxLength) throws Exception {
+        return generateWireReply(request, new WireReply(maxLength, false, null));
+    }
+
+    /**
+     * Like {@link #generateWireReply(Request, int)}, but only answers from
+     * data that is available locally. If the answer needs a query to a
+     * delegate name server that is not in the delegation cache,
+     * {@link DelegationRequiredException} is thrown and the query can be
+     * finished with
+     * {@link #resumeWireReply(Request, int, DelegationRequiredException)} on
+     * a thread that is able to wait for the delegate.
+     * 
+     * @param request
+     *            the request to answer
+     * @param maxLength
+     *            see {@link #generateWireReply(Request, int)}
+     * @return see {@link #generateWireReply(Request, int)}
+     * @throws DelegationRequiredException
+     *             if a delegate name server needs to be queried
+     * @throws Exception
+     *             see {@link #generateReply(Request)}
+     */
+    /* package */ byte[] generateLocalWireReply(final Request request, final int maxLength) throws Exception {
+        return generateWireReply(request, new WireReply(maxLength, true, null));
+    }
+
+    /**
+     * Finish a query that
+     * {@link #generateLocalWireReply(Request, int)} could not answer. The
+     * weighted targets that were already selected, and logged, for the query
+     * are used again so that the query is only counted once.
+     * 
+     * @param request
+     *            the request to answer
+     * @param maxLength
+     *            see {@link #generateWireReply(Request, int)}
+     * @param pending
+     *            the exception thrown by
+     *            {@link #generateLocalWireReply(Request, int)}
+     * @return see {@link #generateWireReply(Request, int)}
+     * @throws Exception
+     *             see {@link #generateReply(Request)}
+     */
+    /* package */ byte[] resumeWireReply(final Request request,
+            final int maxLength,
+            final DelegationRequiredException pending) throws Exception {
+        return generateWireReply(request, new WireReply(maxLength, false, pending));
+    }
+
+    private byte[] generateWireReply(final Request request, final WireReply wireReply) throws Exception {
+        final int maxLength = wireReply.maxLength;
+        final Message response = generateReply(request, wireReply);
+        if (null != wireReply.wire) {
+            return wireReply.wire;
+        } else if (null == response) {
+            return null;
+        } else {
+            return response.toWire(maxLength);
+        }
+    }
+
+    /**
+     * Holds a cached response in wire format for
+     * {@link WeightedRoundRobinResolver#generateWireReply(Request, int)}.
+     */
+    private static final class WireReply {
+        private final int maxLength;
+        private final boolean localOnly;
+        private final DelegationRequiredException resumed;
+        private byte[] wire = null;
+
+        WireReply(final int maxLength, final boolean localOnly, final DelegationRequiredException resumed) {
+            this.maxLength = maxLength;
+            this.localOnly = localOnly;
+            this.resumed = resumed;
+        }
+    }
+
+    /**
+     * Thrown by
+     * {@link WeightedRoundRobinResolver#generateLocalWireReply(Request, int)}
+     * when a delegate name server needs to be queried. Holds the state needed
+     * to finish the query with
+     * {@link WeightedRoundRobinResolver#resumeWireReply(Request, int, DelegationRequiredException)}.
+     */
+    /* package */ static final class DelegationRequiredException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient WeightedRecordSnapshot snapshot;
+        private final transient List<Selection> selections;
+
+        DelegationRequiredException(final WeightedRecordSnapshot snapshot, final List<Selection> selections) {
+            // thrown as part of normal operation, so skip the stack trace
+            super("Delegation required", null, false, false);
+            this.snapshot = snapshot;
+            this.selections = selections;
+        }
+    }
+
+    /**
+     * A target selected from a weighted list.
+     */
+    private static final class Selection {
+        private final WeightedRecordList list;
+        private final WeightedCNAMERecord target;
+
+        Selection(final WeightedRecordList list, final WeightedCNAMERecord target) {
+            this.list = list;
+            this.target = target;
+        }
+    }
+
+    /**
+     * @param wireReply
+     *            if not null and there is a cached response that fits, the
+     *            response is stored here in wire format and null is returned
+     */
+    private Message generateReply(final Request request, final WireReply wireReply) throws Exception {
         final long timestamp = System.currentTimeMillis();
         final String clientAddress = getClientAddress(request);
 
@@ -250,7 +626,37 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
                     return null;
                 }
 
-                final byte rcode = addAnswer(timestamp, clientAddress, response, name, type, dclass, 0, flags, zone);
+                final DelegationRequiredException resumed = null == wireReply ? null : wireReply.resumed;
+                final WeightedRecordSnapshot snapshot = null == resumed ? weightedRecords : resumed.snapshot;
+                final ReplyContext context = new ReplyContext(timestamp, clientAddress, snapshot,
+                        null != wireReply && wireReply.localOnly, null == resumed ? null : resumed.selections);
+
+                // a resumed query needed a delegate, so it isn't in the cache
+                if (null == tsig && 0 == flags && Type.A == type && null == resumed) {
+                    final WeightedResponseCache.CachedResponse cached = findCachedResponse(context, queryRecord,
+                            zone);
+                    if (null != cached) {
+                        if (null != wireReply) {
+                            wireReply.wire = cached.toWire(request.getRawQuery(), request.getRawQueryLength(),
+                                    queryOPT != null, wireReply.maxLength);
+                            if (null != wireReply.wire) {
+                                LOGGER.debug("Using cached wire response for {}", name);
+                                return null;
+                            }
+                        }
+
+                        final Message reply = cached.toMessage(queryRecord, header.getID(),
+                                header.getFlag(Flags.RD));
+                        if (queryOPT != null) {
+                            reply.addRecord(WeightedResponseCache.CachedResponse.createOpt(), Section.ADDITIONAL);
+                        }
+
+                        LOGGER.debug("Cached response is: {}", reply);
+                        return reply;
+                    }
+                }
+
+                final byte rcode = addAnswer(context, response, name, type, dclass, 0, flags, zone);
 
                 if (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN) {
                     LOGGER.trace("generateReply: rcode error: {} - returning error", rcode);
@@ -259,6 +665,11 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
 
                 addAdditional(response, flags);
 
+                if (null == tsig && 0 == flags && Type.A == type && Rcode.NOERROR == rcode && context.isCacheable()) {
+                    responseCache.put(name, type, zone, snapshot, context.getFirstWeightedList(),
+                            context.getFirstWeightedTarget(), context.getFirstWeightedRecord(), response);
+                }
+
                 if (queryOPT != null) {
                     final int optflags = (flags == EagleDNS.FLAG_DNSSECOK) ? ExtendedFlags.DO : 0;
                     final OPTRecord opt = new OPTRecord((short) 4096, rcode, (byte) 0, optflags);
@@ -292,8 +703,7 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
 
     private static final int MAX_ITERATIONS = 6;
 
-    private byte addAnswer(final long timestamp,
-            final String clientAddress,
+    private byte addAnswer(final ReplyContext context,
             final Message response,
             final Name name,
             int type,
@@ -301,7 +711,7 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
             final int iterations,
             int flags,
             Zone zone) {
-        LOGGER.trace("{} Looking up {} with type {} zone {}", clientAddress, name, type,
+        LOGGER.trace("{} Looking up {} with type {} zone {}", context.getClientAddress(), name, type,
                 null == zone ? null : zone.getSOA());
 
         SetResponse sr;
@@ -332,12 +742,10 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
                 // standard
                 // zone
 
-                final WeightedRecordList weightedList;
-                synchronized (lock) {
-                    LOGGER.trace("Looking for {} in {}", name, weightedRecords);
+                final WeightedRecordSnapshot snapshot = context.getSnapshot();
+                LOGGER.trace("Looking for {} in {}", name, snapshot);
 
-                    weightedList = weightedRecords.get(name);
-                }
+                final WeightedRecordList weightedList = snapshot.get(name);
                 LOGGER.trace("weightedList: {}", weightedList);
 
                 if (null == weightedList) {
@@ -346,7 +754,8 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
                     rcode = Rcode.NXDOMAIN;
                 } else {
                     try {
-                        final Record record = weightedList.query();
+                        final WeightedCNAMERecord target = context.selectTarget(weightedList);
+                        final Record record = null == target ? null : target.query();
                         if (null == record) {
                             LOGGER.debug("Got an empty weighted list for {}, returning NXDOMAIN", name);
 
@@ -365,11 +774,14 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
 
                             addNS(response, zone, flags);
 
-                            writeLogEntry(timestamp, clientAddress, name, record);
+                            if (!context.wasReplayed()) {
+                                writeLogEntry(context.getTimestamp(), context.getClientAddress(), name, record);
+                            }
+                            context.weightedRecordUsed(weightedList, target, record);
 
                             if (record instanceof CNAMERecord) {
-                                rcode = addAnswer(timestamp, clientAddress, response,
-                                        ((CNAMERecord) record).getTarget(), type, dclass, iterations + 1, flags, null);
+                                rcode = addAnswer(context, response, ((CNAMERecord) record).getTarget(), type, dclass,
+                                        iterations + 1, flags, null);
                             } else {
                                 rcode = Rcode.NOERROR;
                             }
@@ -386,7 +798,7 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
 
             } else if (sr.isNXRRSET()) {
                 LOGGER.trace("Got NXRRSET looking for address {} with type {} from client {}", name, type,
-                        clientAddress);
+                        context.getClientAddress());
                 addSOA(response, zone);
                 if (iterations == 0) {
                     response.getHeader().setFlag(Flags.AA);
@@ -406,7 +818,8 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
                 }
 
                 // send a message to the other server(s) here
-                rcode = resolveDelegation(name, type, dclass, nameServers, response);
+                context.delegationUsed();
+                rcode = resolveDelegation(context, name, type, dclass, nameServers, response);
 
             } else if (sr.isCNAME()) {
                 CNAMERecord cname = sr.getCNAME();
@@ -415,8 +828,7 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
                 if (iterations == 0) {
                     response.getHeader().setFlag(Flags.AA);
                 }
-                rcode = addAnswer(timestamp, clientAddress, response, cname.getTarget(), type, dclass, iterations + 1,
-                        flags, null);
+                rcode = addAnswer(context, response, cname.getTarget(), type, dclass, iterations + 1, flags, null);
             } else if (sr.isDNAME()) {
                 DNAMERecord dname = sr.getDNAME();
                 RRset rrset = new RRset(dname);
@@ -432,8 +844,7 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
                 if (iterations == 0) {
                     response.getHeader().setFlag(Flags.AA);
                 }
-                rcode = addAnswer(timestamp, clientAddress, response, newname, type, dclass, iterations + 1, flags,
-                        null);
+                rcode = addAnswer(context, response, newname, type, dclass, iterations + 1, flags, null);
             } else if (sr.isSuccessful()) {
                 RRset[] rrsets = sr.answers();
                 for (RRset rrset : rrsets) {
@@ -449,8 +860,45 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
         return rcode;
     }
 
+    /**
+     * Check for a cached response to a query for a weighted name. If there
+     * isn't a cached response, the selected target is stored in the context
+     * so that the response created by
+     * {@link #addAnswer(ReplyContext, Message, Name, int, int, int, int, Zone)}
+     * uses the same target and can be cached.
+     *
+     * @return the response or null if there is no cached response
+     */
+    private WeightedResponseCache.CachedResponse findCachedResponse(final ReplyContext context,
+            final Record queryRecord,
+            final Zone zone) {
+        final Name name = queryRecord.getName();
+        final WeightedRecordSnapshot snapshot = context.getSnapshot();
+        final WeightedRecordList weightedList = snapshot.get(name);
+        if (null == weightedList) {
+            return null;
+        }
+
+        final WeightedCNAMERecord target = weightedList.getNextRecord();
+        if (null == target) {
+            return null;
+        }
+
+        final WeightedResponseCache.CachedResponse cached = responseCache.get(name, queryRecord.getType(), zone,
+                snapshot, weightedList, target);
+        if (null == cached) {
+            context.preselectTarget(weightedList, target);
+            return null;
+        }
+
+        LOGGER.trace("Found cached response for {} -> {}", name, target.getValue());
+        writeLogEntry(context.getTimestamp(), context.getClientAddress(), name, cached.getWeightedRecord());
+        return cached;
+    }
+
     private void writeLogEntry(final long timestamp, final String clientAddress, final Name name, final Record record) {
-        if (null != logFileWriter) {
+        final QueryLogWriter writer = logFileWriter;
+        if (null != writer) {
             final String alias;
             if (record instanceof CNAMERecord) {
                 final CNAMERecord crecord = (CNAMERecord) record;
@@ -459,98 +907,173 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
                 alias = "Unexpected record class: " + record.getClass();
             }
 
-            final String row = String.format("%d,%s,%s,%s", timestamp, clientAddress, name.toString(true), alias);
-            try {
-                synchronized (logFileWriter) {
-                    logFileWriter.write(row);
-                    logFileWriter.newLine();
-                } // lock
-            } catch (final IOException e) {
-                LOGGER.error("Error writing row '{}' to logfile: {}", row, e.getMessage(), e);
+            if (!writer.log(timestamp, clientAddress, name, alias)) {
+                LOGGER.trace("Dropped log entry for {} from {}", name, clientAddress);
             }
         }
     }
 
-    private byte resolveDelegation(final Name name,
+    private byte resolveDelegation(final ReplyContext context,
+            final Name name,
             final int type,
             final int dclass,
             final List<Name> nameServers,
             final Message response) {
-        byte rcode = -1;
-        for (final Name serverName : nameServers) {
-            final String serverHostName = serverName.toString(true);
+        final DelegationCache cache = delegationCache;
 
-            long resolveStartTime = Long.MAX_VALUE;
-            long resolveDuration;
+        Message delegateResponse = cache.get(name, type, dclass);
+        if (null != delegateResponse) {
+            LOGGER.trace("Using cached delegate response for {} type {}", name, type);
+        } else {
+            if (context.isLocalOnly()) {
+                LOGGER.trace("Delegate query needed for {} type {}", name, type);
+                throw new DelegationRequiredException(context.getSnapshot(), context.getSelections());
+            }
+            delegateResponse = queryNameServers(name, type, dclass, nameServers);
+            if (null == delegateResponse) {
+                return Rcode.SERVFAIL;
+            }
+            cache.put(name, type, dclass, delegateResponse);
+        }
 
-            try {
-                // cache the resolvers for performance, not thread safe so using
-                // ThreadLocal
-                if (!resolverCache.get().containsKey(serverHostName)) {
-                    final SimpleResolver resolver = new SimpleResolver(serverHostName);
-                    resolver.setTimeout(delegationTimeout);
-                    if (AgentConfiguration.getInstance().getDnsDelegationUseTcp()) {
-                        resolver.setTCP(true);
-                    }
+        final byte rcode = (byte) delegateResponse.getRcode();
+        if (Rcode.NOERROR == rcode) {
+            if (delegateResponse.getHeader().getFlag(Flags.AA)) {
+                // found the authorative answer
+                response.getHeader().setFlag(Flags.AA);
+            }
 
-                    resolverCache.get().put(serverHostName, resolver);
+            // process the result
+            for (int section : new int[] { Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL }) {
+                final RRset[] answers = delegateResponse.getSectionRRsets(section);
+                for (RRset rrset : answers) {
+                    addRRset(name, response, rrset, section, 0);
                 }
-                final SimpleResolver resolver = resolverCache.get().get(serverHostName);
 
-                final Record queryRecord = Record.newRecord(name, type, dclass);
-                final Message query = Message.newQuery(queryRecord);
+            }
+        }
+        return rcode;
+    }
+
+    /**
+     * Query all of the name servers in parallel and return the first
+     * successful response. If no server returns a successful response, the
+     * first error response is returned.
+     * 
+     * @return the response or null if none of the servers responded
+     */
+    private Message queryNameServers(final Name name,
+            final int type,
+            final int dclass,
+            final List<Name> nameServers) {
+        if (nameServers.size() == 1) {
+            // no need to hand off to another thread
+            return queryNameServer(nameServers.get(0), name, type, dclass, nameServers);
+        }
 
-                resolveStartTime = System.currentTimeMillis();
-                final Message delegateResponse = resolver.send(query);
-                resolveDuration = System.currentTimeMillis() - resolveStartTime;
+        final CompletionService<Message> completion = new ExecutorCompletionService<>(delegationExecutor);
+        final List<Future<Message>> futures = new LinkedList<>();
+        for (final Name serverName : nameServers) {
+            futures.add(completion.submit(() -> queryNameServer(serverName, name, type, dclass, nameServers)));
+        }
 
-                LOGGER.debug("duration of successful resolver.send for destination {}: {} ms", resolver.getAddress(),
-                        resolveDuration);
+        // each resolver times out on its own, the extra second allows those
+        // timeouts to be reported before we give up on the servers
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(delegationTimeout + 1);
 
-                if (rcode == -1) {
-                    // just use it
-                    rcode = (byte) delegateResponse.getRcode();
+        Message errorResponse = null;
+        try {
+            for (int i = 0; i < futures.size(); ++i) {
+                final long remaining = deadline - System.currentTimeMillis();
+                final Future<Message> future = completion.poll(remaining, TimeUnit.MILLISECONDS);
+                if (null == future) {
+                    LOGGER.warn("Timed out waiting for responses from {} for {}", nameServers, name);
+                    break;
                 }
 
-                if (Rcode.NOERROR == rcode && Rcode.NOERROR != delegateResponse.getRcode()) {
-                    LOGGER.warn(
-                            "Got error response from {} for {}, have a positive response from another server so this is ignored",
-                            serverName, name);
-                } else {
-                    rcode = (byte) delegateResponse.getRcode();
+                final Message delegateResponse = future.get();
+                if (null == delegateResponse) {
+                    continue;
+                } else if (Rcode.NOERROR == delegateResponse.getRcode()) {
+                    return delegateResponse;
+                } else if (null == errorResponse) {
+                    errorResponse = delegateResponse;
                 }
+            }
+        } catch (final InterruptedException e) {
+            LOGGER.warn("Interrupted waiting for delegate responses for {}", name, e);
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            LOGGER.error("Unexpected error querying delegate servers {} for {}", nameServers, name, e);
+        } finally {
+            // stop waiting on the slower servers
+            futures.forEach(f -> f.cancel(true));
+        }
 
-                if (Rcode.NOERROR == delegateResponse.getRcode()) {
-                    if (delegateResponse.getHeader().getFlag(Flags.AA)) {
-                        // found the authorative answer
-                        response.getHeader().setFlag(Flags.AA);
-                    }
+        return errorResponse;
+    }
 
-                    // process the result
-                    for (int section : new int[] { Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL }) {
-                        final RRset[] answers = delegateResponse.getSectionRRsets(section);
-                        for (RRset rrset : answers) {
-                            addRRset(name, response, rrset, section, 0);
-                        }
+    /**
+     * Send a query to a single name server.
+     * 
+     * @return the response or null if there was an error talking to the
+     *         server
+     */
+    private Message queryNameServer(final Name serverName,
+            final Name name,
+            final int type,
+            final int dclass,
+            final List<Name> nameServers) {
+        final String serverHostName = serverName.toString(true);
 
-                    }
+        long resolveStartTime = Long.MAX_VALUE;
+        long resolveDuration;
+
+        try {
+            // cache the resolvers for performance, not thread safe so using
+            // ThreadLocal
+            if (!resolverCache.get().containsKey(serverHostName)) {
+                final SimpleResolver resolver = new SimpleResolver(serverHostName);
+                resolver.setTimeout(delegationTimeout);
+                resolver.setPort(delegationPort);
+                if (AgentConfiguration.getInstance().getDnsDelegationUseTcp()) {
+                    resolver.setTCP(true);
                 }
 
-            } catch (final UnknownHostException e) {
-                LOGGER.error("Error resolving nameserver address '{}' in {}: {}", serverName.toString(true),
-                        nameServers, e.getMessage(), e);
-            } catch (final IOException e) {
-                resolveDuration = System.currentTimeMillis() - resolveStartTime;
+                resolverCache.get().put(serverHostName, resolver);
+            }
+            final SimpleResolver resolver = resolverCache.get().get(serverHostName);
+
+            final Record queryRecord = Record.newRecord(name, type, dclass);
+            final Message query = Message.newQuery(queryRecord);
+
+            resolveStartTime = System.currentTimeMillis();
+            final Message delegateResponse = resolver.send(query);
+            resolveDuration = System.currentTimeMillis() - resolveStartTime;
 
-                LOGGER.error("Error querying server '{}' in list {} after {} ms: {}", serverName.toString(true),
-                        nameServers, resolveDuration, e.getMessage(), e);
+            LOGGER.debug("duration of successful resolver.send for destination {}: {} ms", resolver.getAddress(),
+                    resolveDuration);
+
+            if (Rcode.NOERROR != delegateResponse.getRcode()) {
+                LOGGER.debug("Got error response {} from {} for {}", Rcode.string(delegateResponse.getRcode()),
+                        serverName, name);
+            }
+
+            return delegateResponse;
+        } catch (final UnknownHostException e) {
+            LOGGER.error("Error resolving nameserver address '{}' in {}: {}", serverHostName, nameServers,
+                    e.getMessage(), e);
+        } catch (final IOException e) {
+            resolveDuration = System.currentTimeMillis() - resolveStartTime;
+
+            if (Thread.currentThread().isInterrupted()) {
+                LOGGER.debug("Query to '{}' for {} cancelled after {} ms", serverHostName, name, resolveDuration);
+            } else {
+                LOGGER.error("Error querying server '{}' in list {} after {} ms: {}", serverHostName, nameServers,
+                        resolveDuration, e.getMessage(), e);
             }
         }
-        if (-1 == rcode) {
-            return Rcode.SERVFAIL;
-        } else {
-            return rcode;
-        }
+        return null;
     }
 
     private void respondWithNxdomain(final Message response, final int iterations, Zone zone) {
@@ -708,7 +1231,104 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
         }
     }
 
-    private Zone findBestZone(Name name) {
+    private final Object zoneIndexLock = new Object();
+
+    private volatile ZoneIndexState zoneIndexState = null;
+
+    /**
+     * Find the zone that contains {@code name}. This uses a {@link ZoneIndex}
+     * of all zones known to {@link #systemInterface}. The index is rebuilt
+     * when the number of zones changes or when the zone found in the index
+     * is no longer the zone being served, which happens when the zones are
+     * reloaded.
+     * 
+     * @param name
+     *            the name to find
+     * @return the zone with the longest origin that contains the name, null
+     *         if no zone contains the name
+     */
+    /* package */ Zone findBestZone(final Name name) {
+        final int zoneCount = systemInterface.primaryZoneCount() + systemInterface.secondaryZoneCount();
+
+        ZoneIndexState state = zoneIndexState;
+        if (null == state || state.zoneCount != zoneCount) {
+            state = rebuildZoneIndex(state, zoneCount);
+        }
+
+        if (null != state.index) {
+            final Zone zone = state.index.findBestZone(name);
+            if (null == zone || systemInterface.getZone(zone.getOrigin()) == zone) {
+                return zone;
+            }
+
+            LOGGER.debug("Zone {} has been replaced, rebuilding the zone index", zone.getOrigin());
+            state = rebuildZoneIndex(state, zoneCount);
+            if (null != state.index) {
+                return state.index.findBestZone(name);
+            }
+        }
+
+        return findBestZoneByLabel(name);
+    }
+
+    /**
+     * Create a new zone index if another thread hasn't already replaced
+     * {@code previous}.
+     * 
+     * @return the current state
+     */
+    private ZoneIndexState rebuildZoneIndex(final ZoneIndexState previous, final int zoneCount) {
+        synchronized (zoneIndexLock) {
+            if (zoneIndexState != previous) {
+                return zoneIndexState;
+            }
+
+            final List<Zone> zones = new ArrayList<>(zoneCount);
+            final Set<Map.Entry<String, ZoneProvider>> providers = systemInterface.getZoneProviders();
+            if (null != providers) {
+                for (final Map.Entry<String, ZoneProvider> entry : providers) {
+                    final Collection<Zone> primaryZones = entry.getValue().getPrimaryZones();
+                    if (null != primaryZones) {
+                        primaryZones.forEach(z -> addServedZone(zones, z.getOrigin()));
+                    }
+                    final Collection<SecondaryZone> secondaryZones = entry.getValue().getSecondaryZones();
+                    if (null != secondaryZones) {
+                        secondaryZones.forEach(z -> addServedZone(zones, z.getZoneName()));
+                    }
+                }
+            }
+
+            final ZoneIndex index = new ZoneIndex(zones);
+            final ZoneIndexState state;
+            if (index.size() == zoneCount) {
+                LOGGER.debug("Built zone index {}", index);
+                state = new ZoneIndexState(zoneCount, index);
+            } else {
+                // the providers don't agree with the zones being served,
+                // search for the zone one label at a time until the number
+                // of zones changes
+                LOGGER.warn("Found {} zones from the zone providers, but {} zones are being served."
+                        + " Not using the zone index.", index.size(), zoneCount);
+                state = new ZoneIndexState(zoneCount, null);
+            }
+            zoneIndexState = state;
+            return state;
+        }
+    }
+
+    /**
+     * Add the zone that is currently being served for {@code origin}. The
+     * zone providers create new zone objects each time they are asked for
+     * the zones, so the index must hold the zones that EagleDNS is using.
+     */
+    private void addServedZone(final List<Zone> zones, final Name origin) {
+        final Zone zone = systemInterface.getZone(origin);
+        if (null != zone) {
+            zones.add(zone);
+        }
+    }
+
+    private Zone findBestZoneByLabel(final Name name) {
         Zone foundzone = systemInterface.getZone(name);
 
         if (foundzone != null) {
@@ -730,6 +1350,20 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
         return null;
     }
 
+    /**
+     * The zone index and the number of zones that it was built for.
+     */
+    private static final class ZoneIndexState {
+        private final int zoneCount;
+        // null if the index couldn't be built
+        private final ZoneIndex index;
+
+        ZoneIndexState(final int zoneCount, final ZoneIndex index) {
+            this.zoneCount = zoneCount;
+            this.index = index;
+        }
+    }
+
     @Override
     public void init(final String ignored) throws Exception {
         super.init(ignored);
@@ -739,12 +1373,7 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
         if (null != logFilePathName) {
             final Path logFilePath = Paths.get(logFilePathName);
             try {
-                this.logFileWriter = Files.newBufferedWriter(logFilePath, StandardOpenOption.WRITE,
-                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
-
-                // writer header
-                this.logFileWriter.write("timestamp,clientAddress,name_to_resolve,resolved_name");
-                this.logFileWriter.newLine();
+                this.logFileWriter = new QueryLogWriter(logFilePath, logFileFormat, logQueueCapacity);
             } catch (final IOException e) {
                 LOGGER.error("The specified log file '{}' cannot be written to: {}", this.logFilePathName,
                         e.getMessage(), e);
@@ -753,11 +1382,35 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
         }
 
         startWeightedRecordListener();
+
+        if (udpFrontEndPort >= 0) {
+            if (udpFrontEndBackendPort < 0) {
+                LOGGER.error("The UDP front end requires udpFrontEndBackendPort to be set, not starting it");
+            } else {
+                final InetSocketAddress listenAddress = null == udpFrontEndAddress
+                        ? new InetSocketAddress(udpFrontEndPort)
+                        : new InetSocketAddress(udpFrontEndAddress, udpFrontEndPort);
+                udpFrontEnd = new UdpFrontEnd(this, listenAddress,
+                        new InetSocketAddress(udpFrontEndBackendAddress, udpFrontEndBackendPort), udpFrontEndWorkers,
+                        UdpFrontEnd.DEFAULT_FORWARD_TIMEOUT_MS);
+                try {
+                    udpFrontEnd.start();
+                } catch (final IOException e) {
+                    LOGGER.error("Unable to start the UDP front end on {}", listenAddress, e);
+                    udpFrontEnd = null;
+                }
+            }
+        }
     }
 
     @Override
     public void shutdown() {
+        if (null != udpFrontEnd) {
+            udpFrontEnd.shutdown();
+            udpFrontEnd = null;
+        }
         stopWeightedRecordListener();
+        delegationExecutor.shutdownNow();
 
         if (null != this.logFileWriter) {
             try {
@@ -770,7 +1423,7 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
     }
 
     /**
-     * Flush the log file to disk.
+     * Write all queued log entries and flush the log file to disk.
      * 
      * @throws IOException
      *             if there is a problem flushing the log writer
@@ -783,6 +1436,32 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
 
     private WeightedRecordMessageServer messageServer = null;
 
+    private WeightedRecordSessionServer sessionServer = null;
+
+    private int sessionSelectorCount = WeightedRecordSessionServer.DEFAULT_SELECTOR_COUNT;
+
+    /**
+     * 
+     * @param v
+     *            the number of threads used to service
+     *            {@link WeightedRecordSessionServer} connections
+     */
+    public void setSessionSelectorCount(final String v) {
+        setSessionSelectorCount(Integer.parseInt(v));
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #setSessionSelectorCount(String)}
+     */
+    public void setSessionSelectorCount(final int v) {
+        if (v < 1) {
+            throw new IllegalArgumentException("Session selector count must be at least 1");
+        }
+        this.sessionSelectorCount = v;
+    }
+
     private void startWeightedRecordListener() {
         stopWeightedRecordListener();
 
@@ -790,6 +1469,17 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
 
         messageServer = new WeightedRecordMessageServer(this);
         messageServer.start();
+
+        sessionServer = new WeightedRecordSessionServer(this, WeightedRecordSessionServer.PORT,
+                sessionSelectorCount);
+        try {
+            sessionServer.start();
+        } catch (final IOException e) {
+            LOGGER.error("Unable to start the session server on port {}, only the single message server is available",
+                    WeightedRecordSessionServer.PORT, e);
+            sessionServer.shutdown();
+            sessionServer = null;
+        }
     }
 
     private void stopWeightedRecordListener() {
@@ -797,18 +1487,26 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
             messageServer.shutdown();
             messageServer = null;
         }
+        if (null != sessionServer) {
+            sessionServer.shutdown();
+            sessionServer = null;
+        }
     }
 
     /**
      * Set the list of weighted records. This merges changes in the current
-     * records list.
+     * records list. Names in the message replace any existing records for the
+     * name, names not in the message are left alone. The new records are
+     * published as a new {@link WeightedRecordSnapshot} so that queries in
+     * progress are not blocked.
      * 
      * @param message
      *            the new weighted record information
+     * @return the snapshot containing the new records
      * @throws RuntimeException
      *             if one of the CNAME names is not a valid DNS name
      */
-    public void setWeightedRecords(final RecordUpdateMessage message) throws RuntimeException {
+    public WeightedRecordSnapshot setWeightedRecords(final RecordUpdateMessage message) throws RuntimeException {
         final Map<Name, WeightedRecordList> newWeightedRecords = new HashMap<>();
         toWeightedRecordList(message).forEach(Errors.rethrow().wrap(r -> {
             final String nameStr = r.getName();
@@ -819,23 +1517,115 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
         }));
 
         synchronized (lock) {
-            // remove names no longer in DNS
-            final List<Name> toRemove = weightedRecords.entrySet().stream().map(Map.Entry::getKey)
-                    .filter(newWeightedRecords::containsKey).collect(Collectors.toList());
-            toRemove.forEach(weightedRecords::remove);
-
-            newWeightedRecords.forEach((n, list) -> {
-                final WeightedRecordList existing = weightedRecords.get(n);
-                if (null != existing) {
-                    // update
-                    existing.updateRecords(list);
+            return publishRecords(newWeightedRecords, Collections.emptySet());
+        }
+    }
+
+    /**
+     * Apply a set of changes to the weighted records. The changes are only
+     * applied if the current records for every hostname in the delta are at
+     * {@link RecordDeltaMessage.HostnameDelta#getBaseVersion()}. Changes to
+     * other hostnames since the delta was computed don't matter. Only the
+     * records for the hostnames in the message are rebuilt.
+     * 
+     * @param delta
+     *            the changes to make
+     * @return the snapshot containing the changes or null if the version of
+     *         one of the hostnames does not match the base version in the
+     *         delta, in which case the sender needs to send a full
+     *         {@link RecordUpdateMessage}
+     * @throws RuntimeException
+     *             if one of the CNAME names is not a valid DNS name
+     */
+    public WeightedRecordSnapshot applyDelta(final RecordDeltaMessage delta) throws RuntimeException {
+        synchronized (lock) {
+            final WeightedRecordSnapshot current = weightedRecords;
+
+            final List<Name> names = new ArrayList<>(delta.getChanges().size());
+            for (final RecordDeltaMessage.HostnameDelta change : delta.getChanges()) {
+                final Name name = Errors.rethrow().get(() -> Name.fromString(change.getHostname() + "."));
+                final long nameVersion = current.getNameVersion(name);
+                if (nameVersion != change.getBaseVersion()) {
+                    LOGGER.debug("Delta base version {} for {} does not match current version {}, resync needed",
+                            change.getBaseVersion(), name, nameVersion);
+                    return null;
+                }
+                names.add(name);
+            }
+
+            final Map<Name, WeightedRecordList> updates = new HashMap<>();
+            final Set<Name> removals = new HashSet<>();
+            final Iterator<Name> nameIter = names.iterator();
+            for (final RecordDeltaMessage.HostnameDelta change : delta.getChanges()) {
+                final Name name = nameIter.next();
+                if (change.isRemoveHostname()) {
+                    updates.remove(name);
+                    removals.add(name);
                 } else {
-                    // add
-                    weightedRecords.put(n, list);
+                    final WeightedRecordList existing;
+                    if (updates.containsKey(name)) {
+                        existing = updates.get(name);
+                    } else if (removals.remove(name)) {
+                        // removed earlier in this delta
+                        existing = null;
+                    } else {
+                        existing = current.get(name);
+                    }
+                    updates.put(name, applyHostnameDelta(existing, change));
                 }
+            }
+
+            return publishRecords(updates, removals);
+        }
+    }
+
+    /**
+     * Must hold lock.
+     */
+    private WeightedRecordSnapshot publishRecords(final Map<Name, WeightedRecordList> updates,
+            final Set<Name> removals) {
+        // only writers take the lock, readers see either the old or the new
+        // snapshot
+        final WeightedRecordSnapshot previous = weightedRecords;
+        final WeightedRecordSnapshot updated = previous.withChanges(updates, removals);
+        weightedRecords = updated;
+        LOGGER.trace("updated records: {}", updated);
+
+        if (previous.getNamesVersion() != updated.getNamesVersion()) {
+            // a new name may be part of a cached CNAME chain
+            responseCache.clear();
+        } else {
+            responseCache.invalidate(updates.keySet());
+        }
+        return updated;
+    }
+
+    private static WeightedRecordList applyHostnameDelta(final WeightedRecordList existing,
+            final RecordDeltaMessage.HostnameDelta change) {
+        // keyed by target to find the records to change, keeps the existing
+        // order
+        final Map<String, WeightedCNAMERecord> records = new LinkedHashMap<>();
+        if (null != existing) {
+            existing.foreachRecord((record, weight) -> {
+                records.put(record.getValue(), record);
             });
-            LOGGER.trace("updated records: {}", weightedRecords);
         }
+
+        change.getRemoveTargets().forEach(records::remove);
+        change.getSetTargets().forEach(resolution -> {
+            records.put(resolution.getTarget(), new WeightedCNAMERecord(change.getHostname(),
+                    resolution.getTarget(), change.getTtl(), resolution.getWeight()));
+        });
+
+        return new WeightedRecordList(change.getHostname(), new ArrayList<>(records.values()));
+    }
+
+    /**
+     * 
+     * @return the current weighted records
+     */
+    public WeightedRecordSnapshot getWeightedRecords() {
+        return weightedRecords;
     }
 
     private static Collection<WeightedRecordList> toWeightedRecordList(final RecordUpdateMessage message) {
@@ -862,7 +1652,7 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
                     "When merging record lists the names must match " + one.getName() + " != " + two.getName());
         }
 
-        final List<WeightedCNAMERecord> mergedRecords = new LinkedList<>();
+        final List<WeightedCNAMERecord> mergedRecords = new ArrayList<>();
         one.foreachRecord((record, weight) -> {
             mergedRecords.add(record);
         });
@@ -885,4 +1675,165 @@ public class WeightedRoundRobinResolver extends BasePlugin implements Resolver {
 
     private ThreadLocal<Map<String, SimpleResolver>> resolverCache = ResolverCache.INSTANCE;
 
+    /**
+     * State of a single query as it is passed through
+     * {@link WeightedRoundRobinResolver#addAnswer(ReplyContext, Message, Name, int, int, int, int, Zone)}.
+     * This tracks the information needed to decide if the response can be
+     * stored in the {@link WeightedResponseCache}. A response can be cached
+     * when exactly one weighted selection was made, for the name in the query,
+     * and no delegation was used. Anything else depends on more than the
+     * selected target.
+     */
+    private static final class ReplyContext {
+        private final long timestamp;
+        private final String clientAddress;
+        private final WeightedRecordSnapshot snapshot;
+
+        private WeightedRecordList preselectedList = null;
+        private WeightedCNAMERecord preselectedTarget = null;
+        private boolean preselectionUsed = false;
+
+        private WeightedRecordList firstWeightedList = null;
+        private WeightedCNAMERecord firstWeightedTarget = null;
+        private Record firstWeightedRecord = null;
+        private int weightedSelections = 0;
+        private boolean delegated = false;
+
+        private final boolean localOnly;
+        private final List<Selection> selections;
+        private final List<Selection> replay;
+        private int replayIndex = 0;
+        private boolean replayed = false;
+
+        /**
+         * @param localOnly
+         *            see {@link #isLocalOnly()}
+         * @param replay
+         *            targets selected by an earlier local only attempt at the
+         *            query, may be null
+         */
+        ReplyContext(final long timestamp,
+                final String clientAddress,
+                final WeightedRecordSnapshot snapshot,
+                final boolean localOnly,
+                final List<Selection> replay) {
+            this.timestamp = timestamp;
+            this.clientAddress = clientAddress;
+            this.snapshot = snapshot;
+            this.localOnly = localOnly;
+            this.selections = localOnly ? new ArrayList<>() : null;
+            this.replay = null == replay ? Collections.emptyList() : replay;
+        }
+
+        /**
+         * @return true if delegate name servers must not be queried
+         */
+        boolean isLocalOnly() {
+            return localOnly;
+        }
+
+        /**
+         * @return the targets selected so far when {@link #isLocalOnly()}
+         */
+        List<Selection> getSelections() {
+            return selections;
+        }
+
+        /**
+         * @return true if the last target returned from
+         *         {@link #selectTarget(WeightedRecordList)} was selected and
+         *         logged by an earlier local only attempt at the query
+         */
+        boolean wasReplayed() {
+            return replayed;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        String getClientAddress() {
+            return clientAddress;
+        }
+
+        /**
+         * All weighted lookups for a query use the same snapshot.
+         */
+        WeightedRecordSnapshot getSnapshot() {
+            return snapshot;
+        }
+
+        /**
+         * Use {@code target} the next time a target is selected from
+         * {@code list}.
+         */
+        void preselectTarget(final WeightedRecordList list, final WeightedCNAMERecord target) {
+            preselectedList = list;
+            preselectedTarget = target;
+        }
+
+        /**
+         * Select the next target from the list, honoring
+         * {@link #preselectTarget(WeightedRecordList, WeightedCNAMERecord)}
+         * and the targets to replay.
+         */
+        WeightedCNAMERecord selectTarget(final WeightedRecordList list) {
+            replayed = false;
+            final WeightedCNAMERecord target;
+            if (list == preselectedList) {
+                target = preselectedTarget;
+                preselectedList = null;
+                preselectedTarget = null;
+                preselectionUsed = true;
+            } else if (replayIndex < replay.size() && replay.get(replayIndex).list == list) {
+                target = replay.get(replayIndex).target;
+                ++replayIndex;
+                replayed = true;
+            } else {
+                target = list.getNextRecord();
+            }
+
+            if (localOnly) {
+                selections.add(new Selection(list, target));
+            }
+            return target;
+        }
+
+        void weightedRecordUsed(final WeightedRecordList list,
+                final WeightedCNAMERecord target,
+                final Record record) {
+            if (0 == weightedSelections) {
+                firstWeightedList = list;
+                firstWeightedTarget = target;
+                firstWeightedRecord = record;
+            }
+            ++weightedSelections;
+        }
+
+        void delegationUsed() {
+            delegated = true;
+        }
+
+        /**
+         * The preselected target is only set for the name in the query, so if
+         * it was used and there was only one selection the response depends
+         * only on that target.
+         */
+        boolean isCacheable() {
+            return 1 == weightedSelections && preselectionUsed && !delegated;
+        }
+
+        WeightedRecordList getFirstWeightedList() {
+            return firstWeightedList;
+        }
+
+        WeightedCNAMERecord getFirstWeightedTarget() {
+            return firstWeightedTarget;
+        }
+
+        Record getFirstWeightedRecord() {
+            return firstWeightedRecord;
+        }
+    }
+
 }
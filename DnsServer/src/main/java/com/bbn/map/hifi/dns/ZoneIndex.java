@@ -0,0 +1,139 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Zone;
+
+/**
+ * Immutable suffix index over a set of zones. Zones are grouped by the number
+ * of labels in their origin so that the longest matching zone for a name is
+ * found by checking the groups from the longest possible origin down.
+ * {@link Name#subdomain(Name)} compares the labels in place, so a lookup does
+ * not allocate any objects. This replaces stripping one label at a time from
+ * the name, which creates a new {@link Name} for each label.
+ * 
+ * @author jschewe
+ *
+ */
+public final class ZoneIndex {
+
+    /**
+     * Index with no zones.
+     */
+    public static final ZoneIndex EMPTY = new ZoneIndex(Collections.emptyList());
+
+    /**
+     * Index is the number of labels in the zone origin.
+     */
+    private final Zone[][] zonesByLabels;
+    private final int size;
+
+    /**
+     * 
+     * @param zones
+     *            the zones to index, if more than one zone has the same
+     *            origin the first one is used
+     */
+    public ZoneIndex(@Nonnull final Collection<Zone> zones) {
+        int maxLabels = 0;
+        for (final Zone zone : zones) {
+            maxLabels = Math.max(maxLabels, zone.getOrigin().labels());
+        }
+
+        final List<List<Zone>> groups = new ArrayList<>(maxLabels + 1);
+        for (int i = 0; i <= maxLabels; ++i) {
+            groups.add(new ArrayList<>());
+        }
+
+        int count = 0;
+        for (final Zone zone : zones) {
+            final List<Zone> group = groups.get(zone.getOrigin().labels());
+            if (group.stream().noneMatch(z -> z.getOrigin().equals(zone.getOrigin()))) {
+                group.add(zone);
+                ++count;
+            }
+        }
+
+        zonesByLabels = new Zone[maxLabels + 1][];
+        for (int i = 0; i <= maxLabels; ++i) {
+            zonesByLabels[i] = groups.get(i).toArray(new Zone[0]);
+        }
+        size = count;
+    }
+
+    /**
+     * 
+     * @return the number of zones in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the zone with the longest origin that {@code name} is equal to or a
+     * subdomain of.
+     * 
+     * @param name
+     *            the name to look up
+     * @return the zone or null if no zone contains the name
+     */
+    public Zone findBestZone(@Nonnull final Name name) {
+        for (int labels = Math.min(name.labels(), zonesByLabels.length - 1); labels > 0; --labels) {
+            for (final Zone zone : zonesByLabels[labels]) {
+                if (name.subdomain(zone.getOrigin())) {
+                    return zone;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        final List<Name> origins = new ArrayList<>(size);
+        for (final Zone[] group : zonesByLabels) {
+            for (final Zone zone : group) {
+                origins.add(zone.getOrigin());
+            }
+        }
+        return getClass().getSimpleName() + origins;
+    }
+
+}
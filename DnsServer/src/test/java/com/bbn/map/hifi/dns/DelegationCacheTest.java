@@ -0,0 +1,173 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.NSRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * Tests for {@link DelegationCache}.
+ * 
+ * @author jschewe
+ *
+ */
+public class DelegationCacheTest {
+
+    private static Message createResponse(final Name name, final int rcode) {
+        final Message response = Message.newQuery(Record.newRecord(name, Type.A, DClass.IN));
+        response.getHeader().setRcode(rcode);
+        return response;
+    }
+
+    /**
+     * Check the TTL computation for positive and negative responses.
+     * 
+     * @throws Exception
+     *             internal error
+     */
+    @Test
+    public void testComputeTtl() throws Exception {
+        final Name name = Name.fromString("a.region.map.dcomp.");
+        final Name zone = Name.fromString("region.map.dcomp.");
+        final InetAddress addr = InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 });
+
+        final long ttl = 30;
+        final Message positive = createResponse(name, Rcode.NOERROR);
+        positive.addRecord(new ARecord(name, DClass.IN, ttl, addr), Section.ANSWER);
+        assertThat(DelegationCache.computeTtl(positive), is(ttl));
+
+        final long soaTtl = 60;
+        final long soaMinimum = 5;
+        final Message negative = createResponse(name, Rcode.NXDOMAIN);
+        negative.addRecord(new SOARecord(zone, DClass.IN, soaTtl, zone, zone, 1, soaTtl, soaTtl, soaTtl, soaMinimum),
+                Section.AUTHORITY);
+        assertThat(DelegationCache.computeTtl(negative), is(soaMinimum));
+
+        // negative without an SOA isn't cached
+        assertThat(DelegationCache.computeTtl(createResponse(name, Rcode.NXDOMAIN)), is(0L));
+
+        // failures aren't cached
+        assertThat(DelegationCache.computeTtl(createResponse(name, Rcode.SERVFAIL)), is(0L));
+    }
+
+    /**
+     * Check that the least recently used entry is removed when the cache is
+     * full.
+     * 
+     * @throws Exception
+     *             internal error
+     */
+    @Test
+    public void testBounded() throws Exception {
+        final InetAddress addr = InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 });
+        final long ttl = 60;
+        final Name one = Name.fromString("one.map.dcomp.");
+        final Name two = Name.fromString("two.map.dcomp.");
+        final Name three = Name.fromString("three.map.dcomp.");
+
+        final DelegationCache cache = new DelegationCache(2);
+        for (final Name name : new Name[] { one, two }) {
+            final Message response = createResponse(name, Rcode.NOERROR);
+            response.addRecord(new ARecord(name, DClass.IN, ttl, addr), Section.ANSWER);
+            cache.put(name, Type.A, DClass.IN, response);
+        }
+
+        // make two the eldest
+        assertThat(cache.get(one, Type.A, DClass.IN), notNullValue());
+
+        final Message response = createResponse(three, Rcode.NOERROR);
+        response.addRecord(new ARecord(three, DClass.IN, ttl, addr), Section.ANSWER);
+        cache.put(three, Type.A, DClass.IN, response);
+
+        assertThat(cache.get(one, Type.A, DClass.IN), notNullValue());
+        assertThat(cache.get(two, Type.A, DClass.IN), nullValue());
+        assertThat(cache.get(three, Type.A, DClass.IN), notNullValue());
+        assertThat(cache.get(three, Type.AAAA, DClass.IN), nullValue());
+    }
+
+    /**
+     * Check that cached responses are returned with the TTLs reduced by the
+     * time that they have been cached and that the cached response isn't
+     * modified.
+     * 
+     * @throws Exception
+     *             internal error
+     */
+    @Test
+    public void testWithAge() throws Exception {
+        final Name name = Name.fromString("a.region.map.dcomp.");
+        final Name zone = Name.fromString("region.map.dcomp.");
+        final InetAddress addr = InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 });
+
+        final long ttl = 30;
+        final long nsTtl = 5;
+        final Message response = createResponse(name, Rcode.NOERROR);
+        response.addRecord(new ARecord(name, DClass.IN, ttl, addr), Section.ANSWER);
+        response.addRecord(new NSRecord(zone, DClass.IN, nsTtl, name), Section.AUTHORITY);
+
+        final long age = 10;
+        final Message aged = DelegationCache.withAge(response, age);
+        assertThat(aged.getSectionArray(Section.ANSWER)[0].getTTL(), is(ttl - age));
+        assertThat(aged.getSectionArray(Section.ANSWER)[0].rdataToString(), is(addr.getHostAddress()));
+        assertThat(aged.getSectionArray(Section.AUTHORITY)[0].getTTL(), is(0L));
+        assertThat(aged.getHeader().getCount(Section.ANSWER), is(1));
+        assertThat(aged.getHeader().getCount(Section.AUTHORITY), is(1));
+        assertThat(aged.getQuestion(), is(response.getQuestion()));
+
+        assertThat(response.getSectionArray(Section.ANSWER)[0].getTTL(), is(ttl));
+
+        final DelegationCache cache = new DelegationCache(1);
+        cache.put(name, Type.A, DClass.IN, response);
+        final Message cached = cache.get(name, Type.A, DClass.IN);
+        assertThat(cached, not(sameInstance(response)));
+        assertThat(cached.getSectionArray(Section.ANSWER)[0].getTTL() <= ttl, is(true));
+    }
+
+}
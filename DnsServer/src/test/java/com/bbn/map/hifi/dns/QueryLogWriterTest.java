@@ -0,0 +1,112 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.xbill.DNS.Name;
+
+/**
+ * Tests for {@link QueryLogWriter} and {@link QueryLogConverter}.
+ * 
+ * @author jschewe
+ *
+ */
+public class QueryLogWriterTest {
+
+    private static void writeEntries(final QueryLogWriter writer) throws Exception {
+        writer.log(1, "10.0.0.1", Name.fromString("service.map.dcomp."), "node1.map.dcomp");
+        writer.log(2, "10.0.0.2", Name.fromString("service.map.dcomp."), "node2.map.dcomp");
+    }
+
+    private static final List<String> EXPECTED = Arrays.asList(QueryLogWriter.CSV_HEADER,
+            "1,10.0.0.1,service.map.dcomp,node1.map.dcomp", "2,10.0.0.2,service.map.dcomp,node2.map.dcomp");
+
+    /**
+     * Check that flush writes all queued entries to the CSV file.
+     * 
+     * @throws Exception
+     *             internal error
+     */
+    @Test
+    public void testCsv() throws Exception {
+        final Path file = Files.createTempFile("dns-log", ".csv");
+        try {
+            try (QueryLogWriter writer = new QueryLogWriter(file, QueryLogWriter.Format.CSV,
+                    QueryLogWriter.DEFAULT_CAPACITY)) {
+                writeEntries(writer);
+                writer.flush();
+
+                assertThat(Files.readAllLines(file, StandardCharsets.UTF_8), is(EXPECTED));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Check that a binary log converts to the same CSV as is written
+     * directly.
+     * 
+     * @throws Exception
+     *             internal error
+     */
+    @Test
+    public void testBinaryConversion() throws Exception {
+        final Path file = Files.createTempFile("dns-log", ".bin");
+        try {
+            try (QueryLogWriter writer = new QueryLogWriter(file, QueryLogWriter.Format.BINARY,
+                    QueryLogWriter.DEFAULT_CAPACITY)) {
+                writeEntries(writer);
+            }
+
+            final StringWriter csv = new StringWriter();
+            try (InputStream is = Files.newInputStream(file)) {
+                assertThat(QueryLogConverter.convert(is, csv), is(2L));
+            }
+            assertThat(Arrays.asList(csv.toString().split(System.lineSeparator())), is(EXPECTED));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.xbill.DNS.Name;
+
+/**
+ * Tests for {@link RecordDeltaTracker}.
+ * 
+ * @author jschewe
+ *
+ */
+public class RecordDeltaTrackerTest {
+
+    private static RecordUpdateMessage createMessage(final int ttl,
+            final String hostname,
+            final RecordUpdateMessage.Resolution... targets) {
+        return new RecordUpdateMessage(ttl, Collections
+                .singletonList(new RecordUpdateMessage.AliasRecordMessage(hostname, Arrays.asList(targets))));
+    }
+
+    /**
+     * Check that the delta contains only the changes and that applying it to
+     * the resolver gives the same records as a full update.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testDeltaMatchesFullUpdate() throws Exception {
+        final int ttl = 1;
+        final double weight = 0.5;
+        final RecordUpdateMessage first = createMessage(ttl, "a.map.dcomp",
+                new RecordUpdateMessage.Resolution("a1.map.dcomp", 1),
+                new RecordUpdateMessage.Resolution("a2.map.dcomp", 1));
+        final RecordUpdateMessage second = createMessage(ttl, "a.map.dcomp",
+                new RecordUpdateMessage.Resolution("a1.map.dcomp", 1),
+                new RecordUpdateMessage.Resolution("a2.map.dcomp", weight),
+                new RecordUpdateMessage.Resolution("a3.map.dcomp", 1));
+        final RecordUpdateMessage third = createMessage(ttl, "a.map.dcomp",
+                new RecordUpdateMessage.Resolution("a2.map.dcomp", weight),
+                new RecordUpdateMessage.Resolution("a3.map.dcomp", 1));
+
+        final WeightedRoundRobinResolver resolver = new WeightedRoundRobinResolver();
+        final RecordDeltaTracker tracker = new RecordDeltaTracker();
+
+        // nothing known, must send everything
+        assertThat(tracker.computeDelta(first), nullValue());
+        tracker.applied(first, null, resolver.setWeightedRecords(first).getVersion());
+
+        final RecordDeltaMessage delta2 = tracker.computeDelta(second);
+        assertThat(delta2, notNullValue());
+        assertThat(delta2.getChanges().size(), is(1));
+        final RecordDeltaMessage.HostnameDelta change2 = delta2.getChanges().iterator().next();
+        assertThat(change2.getSetTargets().stream().map(RecordUpdateMessage.Resolution::getTarget)
+                .collect(Collectors.toList()), contains("a2.map.dcomp", "a3.map.dcomp"));
+        assertThat(change2.getRemoveTargets(), empty());
+        tracker.applied(second, delta2, resolver.applyDelta(delta2).getVersion());
+
+        final RecordDeltaMessage delta3 = tracker.computeDelta(third);
+        final RecordDeltaMessage.HostnameDelta change3 = delta3.getChanges().iterator().next();
+        assertThat(change3.getSetTargets(), empty());
+        assertThat(change3.getRemoveTargets(), contains("a1.map.dcomp"));
+        final WeightedRecordSnapshot snapshot = resolver.applyDelta(delta3);
+        tracker.applied(third, delta3, snapshot.getVersion());
+
+        final WeightedRoundRobinResolver expected = new WeightedRoundRobinResolver();
+        expected.setWeightedRecords(third);
+        final Name name = Name.fromString("a.map.dcomp.");
+        assertThat(snapshot.get(name).getRecords(), is(expected.getWeightedRecords().get(name).getRecords()));
+
+        // no changes gives an empty delta
+        assertThat(tracker.computeDelta(third).getChanges(), empty());
+
+        // after a reset the full records are needed again
+        tracker.reset();
+        assertThat(tracker.computeDelta(third), nullValue());
+    }
+
+    /**
+     * Check that two writers updating different hostnames can both keep
+     * sending deltas and that a writer has to resynchronize when another
+     * writer changes one of its hostnames.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testMultipleWriters() throws Exception {
+        final int ttl = 1;
+        final double weight = 0.5;
+        final RecordUpdateMessage a1 = createMessage(ttl, "a.map.dcomp",
+                new RecordUpdateMessage.Resolution("a1.map.dcomp", 1));
+        final RecordUpdateMessage a2 = createMessage(ttl, "a.map.dcomp",
+                new RecordUpdateMessage.Resolution("a1.map.dcomp", weight));
+        final RecordUpdateMessage b1 = createMessage(ttl, "b.map.dcomp",
+                new RecordUpdateMessage.Resolution("b1.map.dcomp", 1));
+        final RecordUpdateMessage b2 = createMessage(ttl, "b.map.dcomp",
+                new RecordUpdateMessage.Resolution("b1.map.dcomp", weight));
+
+        final WeightedRoundRobinResolver resolver = new WeightedRoundRobinResolver();
+        final RecordDeltaTracker writerA = new RecordDeltaTracker();
+        final RecordDeltaTracker writerB = new RecordDeltaTracker();
+
+        writerA.applied(a1, null, resolver.setWeightedRecords(a1).getVersion());
+        writerB.applied(b1, null, resolver.setWeightedRecords(b1).getVersion());
+
+        // A's delta still applies after B's update
+        final RecordDeltaMessage deltaA = writerA.computeDelta(a2);
+        final WeightedRecordSnapshot afterA = resolver.applyDelta(deltaA);
+        assertThat(afterA, notNullValue());
+        writerA.applied(a2, deltaA, afterA.getVersion());
+        assertThat(writerA.getVersion("a.map.dcomp"), is(afterA.getVersion()));
+
+        // B's delta still applies after A's delta
+        final RecordDeltaMessage deltaB = writerB.computeDelta(b2);
+        final WeightedRecordSnapshot afterB = resolver.applyDelta(deltaB);
+        assertThat(afterB, notNullValue());
+        writerB.applied(b2, deltaB, afterB.getVersion());
+
+        // unchanged hostnames keep their version
+        final RecordDeltaMessage noChange = writerA.computeDelta(a2);
+        assertThat(noChange.getChanges(), empty());
+        writerA.applied(a2, noChange, resolver.applyDelta(noChange).getVersion());
+        assertThat(writerA.getVersion("a.map.dcomp"), is(afterA.getVersion()));
+
+        // B changes A's hostname, A must resynchronize
+        resolver.setWeightedRecords(a1);
+        assertThat(resolver.applyDelta(writerA.computeDelta(a1)), nullValue());
+    }
+
+}
@@ -0,0 +1,124 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.Type;
+
+/**
+ * Tests for {@link UdpFrontEnd}.
+ * 
+ * @author jschewe
+ *
+ */
+public class UdpFrontEndTest {
+
+    private static final int TIMEOUT_SECONDS = 5;
+    private static final int PACKET_SIZE = 512;
+
+    /**
+     * Check that weighted names are answered by the resolver and other names
+     * are forwarded to the backend.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testAnswerAndForward() throws Exception {
+        final WeightedRoundRobinResolver resolver = WeightedRoundRobinResolverTest
+                .createResolver(WeightedRoundRobinResolverTest.createZone("node1.map.dcomp"));
+        resolver.setWeightedRecords(
+                WeightedRoundRobinResolverTest.createMessage("service.map.dcomp", "node1.map.dcomp"));
+
+        // stand-in for EagleDNS that refuses everything
+        try (DatagramSocket backend = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            final Thread backendThread = new Thread(() -> {
+                final byte[] buffer = new byte[PACKET_SIZE];
+                while (!backend.isClosed()) {
+                    try {
+                        final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        backend.receive(packet);
+                        final Message query = new Message(packet.getData());
+                        final Message reply = new Message(query.getHeader().getID());
+                        reply.getHeader().setRcode(Rcode.REFUSED);
+                        final byte[] wire = reply.toWire();
+                        backend.send(new DatagramPacket(wire, wire.length, packet.getSocketAddress()));
+                    } catch (final IOException e) {
+                        // socket closed
+                    }
+                }
+            });
+            backendThread.setDaemon(true);
+            backendThread.start();
+
+            final UdpFrontEnd frontEnd = new UdpFrontEnd(resolver,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    (InetSocketAddress) backend.getLocalSocketAddress(), 2, UdpFrontEnd.DEFAULT_FORWARD_TIMEOUT_MS);
+            frontEnd.start();
+            try {
+                final SimpleResolver client = new SimpleResolver(InetAddress.getLoopbackAddress().getHostAddress());
+                client.setPort(frontEnd.getLocalAddress().getPort());
+                client.setTimeout(TIMEOUT_SECONDS);
+
+                final Message answer = client.send(Message.newQuery(
+                        Record.newRecord(Name.fromString("service.map.dcomp."), Type.A, DClass.IN)));
+                assertThat(answer.getRcode(), is(Rcode.NOERROR));
+                final Record first = answer.getSectionArray(Section.ANSWER)[0];
+                assertThat(((CNAMERecord) first).getTarget(), is(Name.fromString("node1.map.dcomp.")));
+
+                final Message forwarded = client.send(
+                        Message.newQuery(Record.newRecord(Name.fromString("www.example.com."), Type.A, DClass.IN)));
+                assertThat(forwarded.getRcode(), is(Rcode.REFUSED));
+            } finally {
+                frontEnd.shutdown();
+            }
+        }
+    }
+
+}
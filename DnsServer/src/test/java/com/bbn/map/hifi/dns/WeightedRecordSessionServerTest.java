@@ -0,0 +1,139 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.xbill.DNS.Name;
+
+/**
+ * Tests for {@link WeightedRecordSessionServer} and
+ * {@link WeightedRecordSessionClient}.
+ * 
+ * @author jschewe
+ *
+ */
+public class WeightedRecordSessionServerTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * Send a number of commands over a single connection without waiting for
+     * the replies and check that they are all applied and acknowledged in
+     * order.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testPipelinedUpdates() throws Exception {
+        final WeightedRoundRobinResolver resolver = new WeightedRoundRobinResolver();
+        final WeightedRecordSessionServer server = new WeightedRecordSessionServer(resolver, 0, 2);
+        server.start();
+        try (WeightedRecordSessionClient client = new WeightedRecordSessionClient(InetAddress.getLoopbackAddress(),
+                server.getPort())) {
+
+            final int numUpdates = 20;
+            final List<CompletableFuture<WeightedRecordSessionServer.CommandReply>> replies = new ArrayList<>();
+            for (int i = 0; i < numUpdates; ++i) {
+                replies.add(client.sendUpdate(WeightedRoundRobinResolverTest.createMessage("a.map.dcomp",
+                        "a" + i + ".map.dcomp")));
+            }
+            replies.add(client.sendFlush());
+
+            long previousSequence = 0;
+            for (final CompletableFuture<WeightedRecordSessionServer.CommandReply> future : replies) {
+                final WeightedRecordSessionServer.CommandReply reply = future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                assertThat(reply.getMessage(), reply.isSuccess(), is(true));
+                assertThat(reply.getSequence() > previousSequence, is(true));
+                previousSequence = reply.getSequence();
+            }
+
+            // the last update wins
+            final WeightedRecordList list = resolver.getWeightedRecords().get(Name.fromString("a.map.dcomp."));
+            assertThat(list, notNullValue());
+            assertThat(list.getRecords().get(0).getValue(), is("a" + (numUpdates - 1) + ".map.dcomp"));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Check that the client reconnects after the server drops the connection.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testUnknownCommandAndReconnect() throws Exception {
+        final WeightedRoundRobinResolver resolver = new WeightedRoundRobinResolver();
+        WeightedRecordSessionServer server = new WeightedRecordSessionServer(resolver, 0, 1);
+        server.start();
+        final int port = server.getPort();
+        try (WeightedRecordSessionClient client = new WeightedRecordSessionClient(InetAddress.getLoopbackAddress(),
+                port)) {
+            assertThat(client.sendFlush().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).isSuccess(), is(true));
+
+            server.shutdown();
+            server = new WeightedRecordSessionServer(resolver, port, 1);
+            server.start();
+
+            // the first send may go to the closed connection, after that the
+            // client must be connected to the new server
+            boolean success = false;
+            for (int attempt = 0; attempt < 2 && !success; ++attempt) {
+                try {
+                    success = client.sendUpdateAndWait(
+                            WeightedRoundRobinResolverTest.createMessage("b.map.dcomp", "b1.map.dcomp"),
+                            TIMEOUT_SECONDS, TimeUnit.SECONDS).isSuccess();
+                } catch (final IOException e) {
+                    success = false;
+                }
+            }
+            assertThat(success, is(true));
+            assertThat(resolver.getWeightedRecords().get(Name.fromString("b.map.dcomp.")), notNullValue());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+}
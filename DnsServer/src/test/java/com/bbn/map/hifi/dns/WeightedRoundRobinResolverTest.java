@@ -0,0 +1,452 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.NSRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.Zone;
+
+import se.unlogic.eagledns.Request;
+import se.unlogic.eagledns.SystemInterface;
+import se.unlogic.eagledns.zoneproviders.ZoneProvider;
+
+/**
+ * Tests for {@link WeightedRoundRobinResolver}.
+ * 
+ * @author jschewe
+ *
+ */
+public class WeightedRoundRobinResolverTest {
+
+    private static final int UDP_RESPONSE_SIZE = 512;
+
+    /* package */ static RecordUpdateMessage createMessage(final String hostname, final String... targets) {
+        final RecordUpdateMessage.AliasRecordMessage alias = new RecordUpdateMessage.AliasRecordMessage(hostname,
+                Arrays.stream(targets).map(t -> new RecordUpdateMessage.Resolution(t, 1))
+                        .collect(Collectors.toList()));
+        return new RecordUpdateMessage(1, Collections.singletonList(alias));
+    }
+
+    /**
+     * Check that an update replaces the records for the names in the message,
+     * leaves other names alone and does not modify the previous snapshot.
+     * 
+     * @throws TextParseException
+     *             internal error
+     */
+    @Test
+    public void testUpdateCreatesNewSnapshot() throws TextParseException {
+        final Name nameA = Name.fromString("a.map.dcomp.");
+        final Name nameB = Name.fromString("b.map.dcomp.");
+
+        final WeightedRoundRobinResolver resolver = new WeightedRoundRobinResolver();
+        resolver.setWeightedRecords(createMessage("a.map.dcomp", "a1.map.dcomp"));
+        resolver.setWeightedRecords(createMessage("b.map.dcomp", "b1.map.dcomp"));
+
+        final WeightedRecordSnapshot before = resolver.getWeightedRecords();
+        final WeightedRecordList beforeA = before.get(nameA);
+        assertThat(beforeA, notNullValue());
+        assertThat(before.get(nameB), notNullValue());
+
+        resolver.setWeightedRecords(createMessage("a.map.dcomp", "a2.map.dcomp"));
+        final WeightedRecordSnapshot after = resolver.getWeightedRecords();
+
+        assertThat(after, not(sameInstance(before)));
+        assertThat(after.getVersion(), is(before.getVersion() + 1));
+
+        // old snapshot is unchanged
+        assertThat(before.get(nameA), sameInstance(beforeA));
+        assertThat(beforeA.getRecords().get(0).getValue(), is("a1.map.dcomp"));
+
+        // new snapshot has the new value for a and still has b
+        assertThat(after.get(nameA).getRecords().get(0).getValue(), is("a2.map.dcomp"));
+        assertThat(after.get(nameB), sameInstance(before.get(nameB)));
+        assertThat(after.get(Name.fromString("c.map.dcomp.")), nullValue());
+    }
+
+    /**
+     * Check that a delta changes only the named targets, is rejected when the
+     * base version of a hostname in the delta doesn't match and isn't
+     * affected by changes to other hostnames.
+     * 
+     * @throws TextParseException
+     *             internal error
+     */
+    @Test
+    public void testApplyDelta() throws TextParseException {
+        final Name nameA = Name.fromString("a.map.dcomp.");
+        final Name nameB = Name.fromString("b.map.dcomp.");
+
+        final Name nameC = Name.fromString("c.map.dcomp.");
+
+        final WeightedRoundRobinResolver resolver = new WeightedRoundRobinResolver();
+        final long versionA = resolver
+                .setWeightedRecords(createMessage("a.map.dcomp", "a1.map.dcomp", "a2.map.dcomp")).getVersion();
+        final long versionB = resolver.setWeightedRecords(createMessage("b.map.dcomp", "b1.map.dcomp"))
+                .getVersion();
+        assertThat(resolver.getWeightedRecords().getNameVersion(nameA), is(versionA));
+        assertThat(resolver.getWeightedRecords().getNameVersion(nameB), is(versionB));
+        assertThat(resolver.getWeightedRecords().getNameVersion(nameC), is(WeightedRecordSnapshot.NO_VERSION));
+
+        // another writer changes a different hostname
+        final WeightedRecordSnapshot base = resolver.setWeightedRecords(createMessage("c.map.dcomp",
+                "c1.map.dcomp"));
+
+        final double newWeight = 5;
+        final List<RecordUpdateMessage.Resolution> setA = Arrays.asList(
+                new RecordUpdateMessage.Resolution("a2.map.dcomp", newWeight),
+                new RecordUpdateMessage.Resolution("a3.map.dcomp", 1));
+        final RecordDeltaMessage.HostnameDelta staleA = new RecordDeltaMessage.HostnameDelta("a.map.dcomp",
+                versionA - 1, 1, false, setA, Collections.singletonList("a1.map.dcomp"));
+        final RecordDeltaMessage.HostnameDelta changeA = new RecordDeltaMessage.HostnameDelta("a.map.dcomp",
+                versionA, 1, false, setA, Collections.singletonList("a1.map.dcomp"));
+        final RecordDeltaMessage.HostnameDelta removeB = new RecordDeltaMessage.HostnameDelta("b.map.dcomp",
+                versionB, 1, true, null, null);
+
+        // wrong version for one hostname rejects the whole delta
+        assertThat(resolver.applyDelta(new RecordDeltaMessage(Arrays.asList(staleA, removeB))), nullValue());
+        assertThat(resolver.getWeightedRecords(), sameInstance(base));
+
+        final WeightedRecordSnapshot after = resolver
+                .applyDelta(new RecordDeltaMessage(Arrays.asList(changeA, removeB)));
+        assertThat(after, notNullValue());
+        assertThat(after.getVersion(), is(base.getVersion() + 1));
+        assertThat(after.getNamesVersion(), not(base.getNamesVersion()));
+
+        final List<WeightedCNAMERecord> recordsA = after.get(nameA).getRecords();
+        assertThat(recordsA.size(), is(2));
+        assertThat(recordsA.get(0).getValue(), is("a2.map.dcomp"));
+        assertThat(recordsA.get(0).getWeight(), is(newWeight));
+        assertThat(recordsA.get(1).getValue(), is("a3.map.dcomp"));
+        assertThat(after.get(nameB), nullValue());
+        assertThat(after.getNameVersion(nameA), is(after.getVersion()));
+        assertThat(after.getNameVersion(nameB), is(WeightedRecordSnapshot.NO_VERSION));
+        assertThat(after.getNameVersion(nameC), is(base.getVersion()));
+    }
+
+    /**
+     * Create a zone for map.dcomp with an A record for each of the specified
+     * hosts.
+     */
+    /* package */ static Zone createZone(final String... hosts) throws IOException {
+        final Name origin = Name.fromString("map.dcomp.");
+        final Name ns = Name.fromString("ns.map.dcomp.");
+        final long ttl = 60;
+
+        final Record[] records = new Record[hosts.length + 3];
+        records[0] = new SOARecord(origin, DClass.IN, ttl, ns, Name.fromString("admin.map.dcomp."), 1, ttl, ttl,
+                ttl, ttl);
+        records[1] = new NSRecord(origin, DClass.IN, ttl, ns);
+        records[2] = new ARecord(ns, DClass.IN, ttl, InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 }));
+        for (int i = 0; i < hosts.length; ++i) {
+            records[i + 3] = new ARecord(Name.fromString(hosts[i] + "."), DClass.IN, ttl,
+                    InetAddress.getByAddress(new byte[] { 10, 0, 1, (byte) (i + 1) }));
+        }
+        return new Zone(origin, records);
+    }
+
+    /**
+     * @return a zone provider with {@code zone} as the only primary zone
+     */
+    /* package */ static ZoneProvider createZoneProvider(final Zone zone) {
+        return (ZoneProvider) Proxy.newProxyInstance(ZoneProvider.class.getClassLoader(),
+                new Class<?>[] { ZoneProvider.class }, (proxy, method, args) -> {
+                    if ("getPrimaryZones".equals(method.getName())) {
+                        return Collections.singletonList(zone);
+                    } else {
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * @return a resolver that uses {@code zone} for all names
+     */
+    /* package */ static WeightedRoundRobinResolver createResolver(final Zone zone) {
+        final SystemInterface systemInterface = (SystemInterface) Proxy.newProxyInstance(
+                SystemInterface.class.getClassLoader(), new Class<?>[] { SystemInterface.class },
+                (proxy, method, args) -> {
+                    if ("getZone".equals(method.getName())) {
+                        return zone.getOrigin().equals(args[0]) ? zone : null;
+                    } else if ("primaryZoneCount".equals(method.getName())) {
+                        return 1;
+                    } else if ("secondaryZoneCount".equals(method.getName())) {
+                        return 0;
+                    } else if ("getZoneProviders".equals(method.getName())) {
+                        return Collections.singletonMap("test", createZoneProvider(zone)).entrySet();
+                    } else {
+                        return null;
+                    }
+                });
+
+        final WeightedRoundRobinResolver resolver = new WeightedRoundRobinResolver();
+        resolver.setSystemInterface(systemInterface);
+        return resolver;
+    }
+
+    /**
+     * @return a request for {@code query} from localhost
+     */
+    /* package */ static Request createRequest(final Message query) {
+        final byte[] raw = query.toWire();
+        return new Request() {
+            @Override
+            public Message getQuery() {
+                return query;
+            }
+
+            @Override
+            public byte[] getRawQuery() {
+                return raw;
+            }
+
+            @Override
+            public int getRawQueryLength() {
+                return raw.length;
+            }
+
+            @Override
+            public Socket getSocket() {
+                return null;
+            }
+
+            @Override
+            public SocketAddress getSocketAddress() {
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+            }
+        };
+    }
+
+    /**
+     * Check that responses for weighted names are cached per target, that the
+     * cached responses use the ID of the query and that new weights invalidate
+     * the cache.
+     * 
+     * @throws Exception
+     *             internal error
+     */
+    @Test
+    public void testResponseCache() throws Exception {
+        final String service = "service.map.dcomp";
+        final Name serviceName = Name.fromString(service + ".");
+        final Zone zone = createZone("node1.map.dcomp", "node2.map.dcomp");
+        final WeightedRoundRobinResolver resolver = createResolver(zone);
+        resolver.setWeightedRecords(createMessage(service, "node1.map.dcomp", "node2.map.dcomp"));
+
+        final WeightedResponseCache cache = resolver.getResponseCache();
+
+        final int numQueries = 20;
+        final Set<Name> targets = new HashSet<>();
+        for (int i = 0; i < numQueries; ++i) {
+            final Message query = Message.newQuery(Record.newRecord(serviceName, Type.A, DClass.IN));
+            final Message response = resolver.generateReply(createRequest(query));
+
+            assertThat(response.getHeader().getID(), is(query.getHeader().getID()));
+            assertThat(response.getHeader().getFlag(Flags.RD), is(true));
+            assertThat(response.getRcode(), is(Rcode.NOERROR));
+
+            final Record[] answers = response.getSectionArray(Section.ANSWER);
+            assertThat(answers.length, is(2));
+            final CNAMERecord cname = (CNAMERecord) answers[0];
+            assertThat(answers[1].getName(), is(cname.getTarget()));
+            targets.add(cname.getTarget());
+        }
+
+        // both targets are used and each was only built once
+        assertThat(targets.size(), is(2));
+        assertThat(cache.getMissCount(), is(2L));
+        assertThat(cache.getHitCount(), is((long) numQueries - 2));
+
+        // new weights invalidate the cache
+        resolver.setWeightedRecords(createMessage(service, "node1.map.dcomp"));
+        final Message query = Message.newQuery(Record.newRecord(serviceName, Type.A, DClass.IN));
+        final Message response = resolver.generateReply(createRequest(query));
+        final CNAMERecord cname = (CNAMERecord) response.getSectionArray(Section.ANSWER)[0];
+        assertThat(cname.getTarget(), is(Name.fromString("node1.map.dcomp.")));
+        assertThat(cache.getMissCount(), is(3L));
+    }
+
+    /**
+     * Check that cached responses are returned in wire format with the ID, RD
+     * flag and question name from the query, that an OPT record is added for
+     * EDNS queries and that responses that don't fit are encoded normally.
+     * 
+     * @throws Exception
+     *             internal error
+     */
+    @Test
+    public void testCachedWireResponse() throws Exception {
+        final String service = "service.map.dcomp";
+        final Name serviceName = Name.fromString(service + ".");
+        final Zone zone = createZone("node1.map.dcomp");
+        final WeightedRoundRobinResolver resolver = createResolver(zone);
+        resolver.setWeightedRecords(createMessage(service, "node1.map.dcomp"));
+
+        final Message response = resolver.generateReply(
+                createRequest(Message.newQuery(Record.newRecord(serviceName, Type.A, DClass.IN))));
+        final WeightedResponseCache cache = resolver.getResponseCache();
+        assertThat(cache.getMissCount(), is(1L));
+
+        final Message query = Message.newQuery(
+                Record.newRecord(Name.fromString("SERVICE.map.dcomp."), Type.A, DClass.IN));
+        final int id = 0xBEEF;
+        query.getHeader().setID(id);
+        query.getHeader().unsetFlag(Flags.RD);
+
+        final Message fromWire = new Message(resolver.generateWireReply(createRequest(query), UDP_RESPONSE_SIZE));
+        assertThat(cache.getHitCount(), is(1L));
+        assertThat(fromWire.getHeader().getID(), is(id));
+        assertThat(fromWire.getHeader().getFlag(Flags.RD), is(false));
+        assertThat(fromWire.getQuestion().getName().toString(), is("SERVICE.map.dcomp."));
+        assertThat(fromWire.getSectionArray(Section.ANSWER), is(response.getSectionArray(Section.ANSWER)));
+        assertThat(fromWire.getOPT(), nullValue());
+
+        final Message ednsQuery = Message.newQuery(Record.newRecord(serviceName, Type.A, DClass.IN));
+        ednsQuery.addRecord(new OPTRecord(UDP_RESPONSE_SIZE, 0, 0), Section.ADDITIONAL);
+        final Message ednsResponse = new Message(
+                resolver.generateWireReply(createRequest(ednsQuery), UDP_RESPONSE_SIZE));
+        assertThat(ednsResponse.getHeader().getID(), is(ednsQuery.getHeader().getID()));
+        assertThat(ednsResponse.getOPT(), notNullValue());
+        assertThat(cache.getHitCount(), is(2L));
+
+        // too large for the client, the resolver truncates the response
+        final int tooSmall = 40;
+        final Message truncated = new Message(resolver.generateWireReply(createRequest(query), tooSmall));
+        assertThat(truncated.getHeader().getID(), is(id));
+        assertThat(truncated.getHeader().getFlag(Flags.TC), is(true));
+        assertThat(cache.getHitCount(), is(3L));
+    }
+
+    /**
+     * Check that a local only reply stops when a delegate needs to be queried
+     * and that resuming the query uses the weighted target that was already
+     * selected.
+     * 
+     * @throws Exception
+     *             internal error
+     */
+    @Test
+    public void testLocalReplyWithDelegation() throws Exception {
+        final Name origin = Name.fromString("map.dcomp.");
+        final Name ns = Name.fromString("ns.map.dcomp.");
+        final Name other = Name.fromString("other.map.dcomp.");
+        final Name otherNs = Name.fromString("ns.other.map.dcomp.");
+        final long ttl = 60;
+        final Zone zone = new Zone(origin,
+                new Record[] {
+                        new SOARecord(origin, DClass.IN, ttl, ns, Name.fromString("admin.map.dcomp."), 1, ttl, ttl,
+                                ttl, ttl),
+                        new NSRecord(origin, DClass.IN, ttl, ns),
+                        new ARecord(ns, DClass.IN, ttl, InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 })),
+                        new NSRecord(other, DClass.IN, ttl, otherNs),
+                        new ARecord(otherNs, DClass.IN, ttl, InetAddress.getByAddress(new byte[] { 10, 0, 0, 2 })) });
+
+        final String service = "service.map.dcomp";
+        final Name serviceName = Name.fromString(service + ".");
+        final WeightedRoundRobinResolver resolver = createResolver(zone);
+        resolver.setWeightedRecords(createMessage(service, "node1.other.map.dcomp", "node2.other.map.dcomp"));
+
+        final Set<Name> targets = new HashSet<>();
+        for (int i = 0; i < 2; ++i) {
+            resolver.getDelegationCache().clear();
+
+            final Request request = createRequest(
+                    Message.newQuery(Record.newRecord(serviceName, Type.A, DClass.IN)));
+            WeightedRoundRobinResolver.DelegationRequiredException pending = null;
+            try {
+                resolver.generateLocalWireReply(request, UDP_RESPONSE_SIZE);
+            } catch (final WeightedRoundRobinResolver.DelegationRequiredException e) {
+                pending = e;
+            }
+            assertThat(pending, notNullValue());
+
+            // answer the delegate query as if another thread had done it
+            for (final String target : new String[] { "node1.other.map.dcomp.", "node2.other.map.dcomp." }) {
+                final Name targetName = Name.fromString(target);
+                final Message delegateResponse = Message
+                        .newQuery(Record.newRecord(targetName, Type.A, DClass.IN));
+                delegateResponse.getHeader().setFlag(Flags.QR);
+                delegateResponse.addRecord(new ARecord(targetName, DClass.IN, ttl,
+                        InetAddress.getByAddress(new byte[] { 10, 0, 2, 1 })), Section.ANSWER);
+                resolver.getDelegationCache().put(targetName, Type.A, DClass.IN, delegateResponse);
+            }
+
+            final Message response = new Message(resolver.resumeWireReply(request, UDP_RESPONSE_SIZE, pending));
+            assertThat(response.getRcode(), is(Rcode.NOERROR));
+            targets.add(((CNAMERecord) response.getSectionArray(Section.ANSWER)[0]).getTarget());
+        }
+
+        // each query advanced the round robin once, otherwise both queries
+        // would resume with the same target
+        assertThat(targets.size(), is(2));
+
+        // delegate responses are cached now, so the query is answered locally
+        final byte[] local = resolver.generateLocalWireReply(
+                createRequest(Message.newQuery(Record.newRecord(serviceName, Type.A, DClass.IN))),
+                UDP_RESPONSE_SIZE);
+        assertThat(local, notNullValue());
+    }
+
+}
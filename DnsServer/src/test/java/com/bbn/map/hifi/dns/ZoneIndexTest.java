@@ -0,0 +1,166 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.dns;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.NSRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Zone;
+
+import se.unlogic.eagledns.SystemInterface;
+import se.unlogic.eagledns.zoneproviders.ZoneProvider;
+
+/**
+ * Tests for {@link ZoneIndex} and its use in
+ * {@link WeightedRoundRobinResolver#findBestZone(Name)}.
+ * 
+ * @author jschewe
+ *
+ */
+public class ZoneIndexTest {
+
+    private static Zone createZone(final String origin) throws IOException {
+        final Name originName = Name.fromString(origin);
+        final Name ns = Name.fromString("ns." + origin);
+        final long ttl = 60;
+        return new Zone(originName,
+                new Record[] {
+                        new SOARecord(originName, DClass.IN, ttl, ns, Name.fromString("admin." + origin), 1, ttl, ttl,
+                                ttl, ttl),
+                        new NSRecord(originName, DClass.IN, ttl, ns),
+                        new ARecord(ns, DClass.IN, ttl, InetAddress.getLoopbackAddress()) });
+    }
+
+    /**
+     * Check that the longest matching zone is found.
+     * 
+     * @throws IOException
+     *             internal error
+     */
+    @Test
+    public void testLongestMatch() throws IOException {
+        final Zone top = createZone("map.dcomp.");
+        final Zone region = createZone("r1.map.dcomp.");
+        final ZoneIndex index = new ZoneIndex(Arrays.asList(top, region));
+
+        assertThat(index.size(), is(2));
+        assertThat(index.findBestZone(Name.fromString("map.dcomp.")), sameInstance(top));
+        assertThat(index.findBestZone(Name.fromString("svc.map.dcomp.")), sameInstance(top));
+        assertThat(index.findBestZone(Name.fromString("r1.map.dcomp.")), sameInstance(region));
+        assertThat(index.findBestZone(Name.fromString("a.b.svc.R1.map.dcomp.")), sameInstance(region));
+        assertThat(index.findBestZone(Name.fromString("svc.r2.map.dcomp.")), sameInstance(top));
+        assertThat(index.findBestZone(Name.fromString("dcomp.")), nullValue());
+        assertThat(index.findBestZone(Name.fromString("svc.example.com.")), nullValue());
+    }
+
+    /**
+     * Check that the resolver rebuilds the index when the zones being served
+     * change.
+     * 
+     * @throws IOException
+     *             internal error
+     */
+    @Test
+    public void testResolverRebuildsIndex() throws IOException {
+        final Map<Name, Zone> served = new ConcurrentHashMap<>();
+        final Zone top = createZone("map.dcomp.");
+        served.put(top.getOrigin(), top);
+
+        final ZoneProvider provider = (ZoneProvider) Proxy.newProxyInstance(ZoneProvider.class.getClassLoader(),
+                new Class<?>[] { ZoneProvider.class }, (proxy, method, args) -> {
+                    if ("getPrimaryZones".equals(method.getName())) {
+                        // providers return new objects, only the origins
+                        // matter
+                        return served.keySet().stream().map(n -> {
+                            try {
+                                return createZone(n.toString());
+                            } catch (final IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }).collect(Collectors.toList());
+                    } else {
+                        return null;
+                    }
+                });
+        final SystemInterface systemInterface = (SystemInterface) Proxy.newProxyInstance(
+                SystemInterface.class.getClassLoader(), new Class<?>[] { SystemInterface.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getZone":
+                        return served.get(args[0]);
+                    case "primaryZoneCount":
+                        return served.size();
+                    case "secondaryZoneCount":
+                        return 0;
+                    case "getZoneProviders":
+                        return Collections.singletonMap("test", provider).entrySet();
+                    default:
+                        return null;
+                    }
+                });
+
+        final WeightedRoundRobinResolver resolver = new WeightedRoundRobinResolver();
+        resolver.setSystemInterface(systemInterface);
+
+        final Name name = Name.fromString("svc.r1.map.dcomp.");
+        assertThat(resolver.findBestZone(name), sameInstance(top));
+
+        // new zone
+        final Zone region = createZone("r1.map.dcomp.");
+        served.put(region.getOrigin(), region);
+        assertThat(resolver.findBestZone(name), sameInstance(region));
+
+        // reloaded zone
+        final Zone reloaded = createZone("r1.map.dcomp.");
+        served.put(reloaded.getOrigin(), reloaded);
+        assertThat(resolver.findBestZone(name), sameInstance(reloaded));
+    }
+
+}
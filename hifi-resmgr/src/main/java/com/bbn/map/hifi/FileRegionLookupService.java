@@ -31,12 +31,14 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 BBN_LICENSE_END*/
 package com.bbn.map.hifi;
 
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 
@@ -47,10 +49,12 @@ import org.xbill.DNS.Address;
 
 import com.bbn.map.hifi.util.DnsUtils;
 import com.bbn.map.hifi.util.IdentifierUtils;
+import com.bbn.map.hifi_resmgr.Ipv4PrefixTrie;
 import com.bbn.protelis.networkresourcemanagement.NodeIdentifier;
 import com.bbn.protelis.networkresourcemanagement.RegionIdentifier;
 import com.bbn.protelis.networkresourcemanagement.RegionLookupService;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.net.InetAddresses;
 
 /**
  * Region lookup service based on a file of subnet to region mappings.
@@ -62,21 +66,100 @@ public final class FileRegionLookupService implements RegionLookupService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileRegionLookupService.class);
 
-    private final ImmutableMap<SubnetUtils.SubnetInfo, RegionIdentifier> subnetToRegion;
+    /**
+     * How often cache statistics are written to the log.
+     */
+    private static final long STATISTICS_LOG_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Number of stripes in each cache. The caches are shared by the resource
+     * monitoring and DNS update threads.
+     */
+    private static final int CACHE_STRIPES = 16;
+
+    /**
+     * When subnets overlap the first one in the file is used.
+     */
+    private static final Comparator<SubnetRegion> EARLIER_SUBNET_FIRST = (a, b) -> Integer.compare(b.index,
+            a.index);
+
+    private final Ipv4PrefixTrie<SubnetRegion> subnetToRegion;
     private static final int UNKNOWN_REGION_CACHE_SIZE = 3000;
-    private final UnknownRegionCache unknownRegionCache = new UnknownRegionCache(UNKNOWN_REGION_CACHE_SIZE);
+    private final StripedLruCache<String, Boolean> unknownRegionCache = new StripedLruCache<>(
+            UNKNOWN_REGION_CACHE_SIZE, CACHE_STRIPES);
 
     private static final int REGION_CACHE_SIZE = UNKNOWN_REGION_CACHE_SIZE;
-    private final IpRegionCache ipRegionCache = new IpRegionCache(REGION_CACHE_SIZE);
+    private final StripedLruCache<String, RegionIdentifier> ipRegionCache = new StripedLruCache<>(
+            REGION_CACHE_SIZE, CACHE_STRIPES);
+
+    private final StripedLruCache<NodeIdentifier, RegionIdentifier> nodeRegionCache = new StripedLruCache<>(
+            REGION_CACHE_SIZE, CACHE_STRIPES);
 
-    private final NodeRegionCache nodeRegionCache = new NodeRegionCache(REGION_CACHE_SIZE);
+    private final AtomicLong lastStatisticsLog = new AtomicLong(System.currentTimeMillis());
 
     /**
      * @param subnetToRegion
-     *            subnet to region data
+     *            subnet to region data, when subnets overlap the first one
+     *            containing an address is used
      */
     public FileRegionLookupService(final ImmutableMap<SubnetUtils.SubnetInfo, RegionIdentifier> subnetToRegion) {
-        this.subnetToRegion = subnetToRegion;
+        final Ipv4PrefixTrie.Builder<SubnetRegion> builder = Ipv4PrefixTrie.builder(EARLIER_SUBNET_FIRST);
+        int index = 0;
+        for (final Map.Entry<SubnetUtils.SubnetInfo, RegionIdentifier> entry : subnetToRegion.entrySet()) {
+            final SubnetUtils.SubnetInfo subnet = entry.getKey();
+            builder.add(subnet.asInteger(subnet.getNetworkAddress()),
+                    Integer.bitCount(subnet.asInteger(subnet.getNetmask())),
+                    new SubnetRegion(index, subnet, entry.getValue()));
+            ++index;
+        }
+        this.subnetToRegion = builder.build();
+    }
+
+    private static final class SubnetRegion {
+        private final int index;
+        private final SubnetUtils.SubnetInfo subnet;
+        private final RegionIdentifier region;
+
+        SubnetRegion(final int index, final SubnetUtils.SubnetInfo subnet, final RegionIdentifier region) {
+            this.index = index;
+            this.subnet = subnet;
+            this.region = region;
+        }
+    }
+
+    /**
+     * @param ipAddr
+     *            the IPv4 address to find
+     * @return the region of the first subnet that contains the address or
+     *         null
+     * @throws IllegalArgumentException
+     *             if ipAddr is not an IPv4 address
+     */
+    /* package */ RegionIdentifier lookupSubnet(@Nonnull final String ipAddr) {
+        final InetAddress addr = InetAddresses.forString(ipAddr);
+        if (!(addr instanceof Inet4Address)) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + ipAddr);
+        }
+        final int address = ByteBuffer.wrap(addr.getAddress()).getInt();
+
+        // the subnet decides about network and broadcast addresses
+        final SubnetRegion found = subnetToRegion.lookup(address, entry -> entry.subnet.isInRange(address));
+        return null == found ? null : found.region;
+    }
+
+    /**
+     * @return hit and miss counts for the caches
+     */
+    public String getCacheStatistics() {
+        return "ip: [" + ipRegionCache + "] node: [" + nodeRegionCache + "]";
+    }
+
+    private void logStatistics() {
+        final long now = System.currentTimeMillis();
+        final long last = lastStatisticsLog.get();
+        if (now - last >= STATISTICS_LOG_INTERVAL_MS && lastStatisticsLog.compareAndSet(last, now)) {
+            LOGGER.info("Region lookup caches: {}", getCacheStatistics());
+        }
     }
 
     @Override
@@ -116,7 +199,7 @@ public final class FileRegionLookupService implements RegionLookupService {
                 nodeRegionCache.put(canonicalId, region);
                 return region;
             } catch (final UnknownHostException e) {
-                if (unknownRegionCache.add(canonicalId.getName())) {
+                if (unknownRegionCache.putIfAbsent(canonicalId.getName(), Boolean.TRUE)) {
                     // only log if we haven't logged it recently
                     LOGGER.error("Error looking up address: {}, returning UNKNOWN region", canonicalId.getName(), e);
                 }
@@ -154,6 +237,7 @@ public final class FileRegionLookupService implements RegionLookupService {
      *         string is not a valid IP address
      */
     public RegionIdentifier getRegionForIp(final String ipAddr) {
+        logStatistics();
         try {
             final RegionIdentifier cachedRegionForIp = ipRegionCache.get(ipAddr);
             if (null != cachedRegionForIp) {
@@ -166,10 +250,9 @@ public final class FileRegionLookupService implements RegionLookupService {
                 return cachedRegionForPrimary;
             }
 
-            final Map.Entry<SubnetUtils.SubnetInfo, RegionIdentifier> entry = subnetToRegion.entrySet().stream()
-                    .filter(e -> e.getKey().isInRange(primaryIp)).findFirst().orElse(null);
+            final RegionIdentifier found = lookupSubnet(primaryIp);
             final RegionIdentifier region;
-            if (null == entry) {
+            if (null == found) {
                 if (isMulticastAddress(primaryIp)) {
                     // multicast addresses typically don't have regions
                     LOGGER.trace("No region for multicast address {}", ipAddr);
@@ -178,7 +261,7 @@ public final class FileRegionLookupService implements RegionLookupService {
                 }
                 region = RegionIdentifier.UNKNOWN;
             } else {
-                region = entry.getValue();
+                region = found;
             }
             ipRegionCache.put(ipAddr, region);
             ipRegionCache.put(primaryIp, region);
@@ -188,63 +271,4 @@ public final class FileRegionLookupService implements RegionLookupService {
             return RegionIdentifier.UNKNOWN;
         }
     }
-
-    private static final class UnknownRegionCache extends LinkedHashSet<String> {
-        private static final long serialVersionUID = 1L;
-
-        private final int cacheSize;
-
-        /**
-         * @param cacheSize
-         *            size of the cache
-         */
-        UnknownRegionCache(final int cacheSize) {
-            this.cacheSize = cacheSize;
-        }
-
-        @Override
-        public boolean add(final String e) {
-            final Iterator<String> it = this.iterator();
-            while (size() >= this.cacheSize) {
-                it.next();
-                it.remove();
-            }
-            return super.add(e);
-        }
-
-    }
-
-    private static final class NodeRegionCache extends LinkedHashMap<NodeIdentifier, RegionIdentifier> {
-        private static final long serialVersionUID = 1L;
-
-        private final int cacheSize;
-        private static final float LOAD_FACTOR = 0.75f;
-
-        NodeRegionCache(final int cacheSize) {
-            super(cacheSize, LOAD_FACTOR, true);
-            this.cacheSize = cacheSize;
-        }
-
-        @Override
-        protected boolean removeEldestEntry(final Map.Entry<NodeIdentifier, RegionIdentifier> eldest) {
-            return size() > this.cacheSize;
-        }
-    }
-
-    private static final class IpRegionCache extends LinkedHashMap<String, RegionIdentifier> {
-        private static final long serialVersionUID = 1L;
-
-        private final int cacheSize;
-        private static final float LOAD_FACTOR = 0.75f;
-
-        IpRegionCache(final int cacheSize) {
-            super(cacheSize, LOAD_FACTOR, true);
-            this.cacheSize = cacheSize;
-        }
-
-        @Override
-        protected boolean removeEldestEntry(final Map.Entry<String, RegionIdentifier> eldest) {
-            return size() > this.cacheSize;
-        }
-    }
-}
\ No newline at end of file
+}
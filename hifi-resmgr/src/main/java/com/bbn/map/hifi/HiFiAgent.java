@@ -43,9 +43,13 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -146,9 +150,15 @@ public class HiFiAgent implements NetworkServices, MapOracle {
         public Path testbedControlSubnetsFile;
 
         public String imageFetcherClassname = IMAGE_FETCHER_CLASSNAME_DEFAULT;
+        public boolean cgroupContainerMonitor = false;
+        public boolean conntrackFlowAccounting = false;
+        public int warmContainerPoolSize = 0;
         public int dcopPort;
         public Path dcopLeadersFile;
 
+        public int dnsResultCacheSize = 0;
+        public int dnsResultCacheNegativeTtl = 0;
+
     }
     // CHECKSTYLE:ON
 
@@ -251,12 +261,53 @@ public class HiFiAgent implements NetworkServices, MapOracle {
      */
     public static final String IMAGE_FETCHER_CLASSNAME_KEY = "IMAGE_FETCHER_CLASSNAME";
 
+    /**
+     * Name of property to read from {@link #GLOBAL_PROPERTIES_FILENAME} to
+     * determine if container resource usage is read from the cgroup hierarchy
+     * instead of the Docker stats API. Defaults to false.
+     */
+    public static final String CGROUP_CONTAINER_MONITOR_KEY = "CGROUP_CONTAINER_MONITOR";
+
+    /**
+     * Name of property to read from {@link #GLOBAL_PROPERTIES_FILENAME} to
+     * determine if network flows are measured from the kernel connection
+     * tracking counters instead of iftop. Requires
+     * net.netfilter.nf_conntrack_acct to be enabled. Defaults to false.
+     */
+    public static final String CONNTRACK_FLOW_ACCOUNTING_KEY = "CONNTRACK_FLOW_ACCOUNTING";
+
+    /**
+     * Name of property to read from {@link #GLOBAL_PROPERTIES_FILENAME} to get
+     * the maximum number of containers to create ahead of time for each
+     * service. Defaults to 0, which disables creating containers ahead of
+     * time.
+     */
+    public static final String WARM_CONTAINER_POOL_SIZE_KEY = "WARM_CONTAINER_POOL_SIZE";
+
     /**
      * Name of property to read from {@link #GLOBAL_PROPERTIES_FILENAME} to get
      * the port number that DCOP will use to communicate.
      */
     public static final String DCOP_PORT_PROPERTY_KEY = "DCOP_PORT";
 
+    /**
+     * Name of property to read from {@link #GLOBAL_PROPERTIES_FILENAME} to get
+     * the number of names to keep in the DNS result cache. If not specified or
+     * less than 1, every lookup goes to the DNS server.
+     * 
+     * @see DnsUtils#enableResultCache(int, int)
+     */
+    public static final String DNS_RESULT_CACHE_SIZE_KEY = "DNS_RESULT_CACHE_SIZE";
+
+    /**
+     * Name of property to read from {@link #GLOBAL_PROPERTIES_FILENAME} to get
+     * the number of seconds to remember names that do not exist. Defaults to 0,
+     * which disables negative caching.
+     * 
+     * @see DnsUtils#enableResultCache(int, int)
+     */
+    public static final String DNS_RESULT_CACHE_NEGATIVE_TTL_KEY = "DNS_RESULT_CACHE_NEGATIVE_TTL";
+
     /**
      * @param configurationDirectory
      *            the directory read the configuration from
@@ -386,6 +437,21 @@ public class HiFiAgent implements NetworkServices, MapOracle {
             parameters.imageFetcherClassname = propValue;
         }
 
+        propValue = globalProps.getProperty(CGROUP_CONTAINER_MONITOR_KEY, null);
+        if (null != propValue) {
+            parameters.cgroupContainerMonitor = Boolean.parseBoolean(propValue);
+        }
+
+        propValue = globalProps.getProperty(CONNTRACK_FLOW_ACCOUNTING_KEY, null);
+        if (null != propValue) {
+            parameters.conntrackFlowAccounting = Boolean.parseBoolean(propValue);
+        }
+
+        propValue = globalProps.getProperty(WARM_CONTAINER_POOL_SIZE_KEY, null);
+        if (null != propValue) {
+            parameters.warmContainerPoolSize = Integer.parseInt(propValue);
+        }
+
         parameters.dcopPort = Integer.parseInt(globalProps.getProperty(DCOP_PORT_PROPERTY_KEY, "-1"));
         if (parameters.apPort < 1) {
             LOGGER.error("{} does not contain property {}", globalPropsFile, DCOP_PORT_PROPERTY_KEY);
@@ -398,6 +464,10 @@ public class HiFiAgent implements NetworkServices, MapOracle {
             return null;
         }
 
+        parameters.dnsResultCacheSize = Integer.parseInt(globalProps.getProperty(DNS_RESULT_CACHE_SIZE_KEY, "0"));
+        parameters.dnsResultCacheNegativeTtl = Integer
+                .parseInt(globalProps.getProperty(DNS_RESULT_CACHE_NEGATIVE_TTL_KEY, "0"));
+
         return parameters;
     }
 
@@ -560,6 +630,8 @@ public class HiFiAgent implements NetworkServices, MapOracle {
                 System.exit(1);
             }
 
+            DnsUtils.enableResultCache(parameters.dnsResultCacheSize, parameters.dnsResultCacheNegativeTtl);
+
             final ImmutableMap<ApplicationCoordinates, ServiceConfiguration> serviceConfigurations = AppMgrUtils
                     .loadApplicationManager(parameters.serviceConfigurationFile, parameters.serviceDependencyFile);
 
@@ -732,6 +804,9 @@ public class HiFiAgent implements NetworkServices, MapOracle {
         rmParams.hardwareConfig = hardwareConfig;
         rmParams.testbedControlSubnets = testbedControlSubnets;
         rmParams.imageFetcherClassname = Objects.requireNonNull(parameters.imageFetcherClassname);
+        rmParams.cgroupContainerMonitor = parameters.cgroupContainerMonitor;
+        rmParams.conntrackFlowAccounting = parameters.conntrackFlowAccounting;
+        rmParams.warmContainerPoolSize = parameters.warmContainerPoolSize;
         rmParams.serviceConfigurationFile = parameters.serviceConfigurationFile;
         rmParams.serviceDependencyFile = parameters.serviceDependencyFile;
 
@@ -829,12 +904,15 @@ public class HiFiAgent implements NetworkServices, MapOracle {
     }
 
     /**
-     * Start the initial services for this node.
+     * Start the initial services for this node. The containers are started in
+     * parallel and this method returns once all of them have started or
+     * failed.
      */
     private void startInitialServices(
             @Nonnull final ImmutableMap<ApplicationCoordinates, ServiceConfiguration> serviceConfigurations) {
         LOGGER.info("Starting initial services");
 
+        final List<CompletableFuture<Void>> starts = new LinkedList<>();
         serviceConfigurations.forEach((service, config) -> {
             final Map.Entry<NodeIdentifier, Integer> serviceEntry = config.getDefaultNodes().entrySet().stream().filter(
                     e -> IdentifierUtils.getCanonicalIdentifier(e.getKey()).equals(this.controller.getNodeIdentifier()))
@@ -847,20 +925,34 @@ public class HiFiAgent implements NetworkServices, MapOracle {
 
                 final ResourceManager<?> mgr = controller.getResourceManager();
                 for (int i = 0; i < serviceEntry.getValue(); ++i) {
-
-                    final NodeIdentifier id = mgr.startService(service, parameters);
-                    if (null == id) {
-                        LOGGER.warn("Unable to start initial service {} instance number {} on {}", config.getService(),
-                                (i + 1), serviceEntry.getKey());
+                    final CompletableFuture<NodeIdentifier> start;
+                    if (mgr instanceof SimpleDockerResourceManager) {
+                        start = ((SimpleDockerResourceManager) mgr).startServiceAsync(service, parameters);
                     } else {
-                        LOGGER.info("Started service {} instance {} on {}", service, (i + 1), id);
+                        start = CompletableFuture.completedFuture(mgr.startService(service, parameters));
                     }
+
+                    final int instance = i + 1;
+                    starts.add(start.thenAccept(id -> {
+                        if (null == id) {
+                            LOGGER.warn("Unable to start initial service {} instance number {} on {}",
+                                    config.getService(), instance, serviceEntry.getKey());
+                        } else {
+                            LOGGER.info("Started service {} instance {} on {}", service, instance, id);
+                        }
+                    }));
                 }
             } else {
                 LOGGER.debug("Service {} is not defaulting to node {} default is {}", service,
                         this.controller.getNodeIdentifier(), config.getDefaultNodes());
             }
         });
+
+        try {
+            CompletableFuture.allOf(starts.toArray(new CompletableFuture<?>[0])).join();
+        } catch (final CompletionException e) {
+            LOGGER.error("Error starting initial services", e.getCause());
+        }
     }
 
     private void addNeighbors(@Nonnull final Path neighborFile) {
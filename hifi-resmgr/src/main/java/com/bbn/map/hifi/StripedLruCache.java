@@ -0,0 +1,193 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import org.checkerframework.checker.lock.qual.GuardedBy;
+
+/**
+ * Bounded cache that is safe to use from multiple threads. The keys are
+ * split across a number of stripes by hash, each stripe is a least recently
+ * used map with its own lock so that threads looking up different keys
+ * rarely wait on each other. Null values are not supported.
+ * 
+ * @author jschewe
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+/* package */ final class StripedLruCache<K, V> {
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Stripe<K, V>[] stripes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxEntries
+     *            the maximum number of entries, must be at least
+     *            stripeCount
+     * @param stripeCount
+     *            the number of stripes, must be a power of 2
+     */
+    /* package */ StripedLruCache(final int maxEntries, final int stripeCount) {
+        if (stripeCount < 1 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("Stripe count must be a positive power of 2: " + stripeCount);
+        }
+        if (maxEntries < stripeCount) {
+            throw new IllegalArgumentException(
+                    "Maximum entries " + maxEntries + " must be at least the stripe count " + stripeCount);
+        }
+
+        @SuppressWarnings("unchecked")
+        final Stripe<K, V>[] s = (Stripe<K, V>[]) new Stripe<?, ?>[stripeCount];
+        final int entriesPerStripe = maxEntries / stripeCount;
+        for (int i = 0; i < stripeCount; ++i) {
+            s[i] = new Stripe<>(entriesPerStripe);
+        }
+        this.stripes = s;
+    }
+
+    private Stripe<K, V> stripeFor(final Object key) {
+        final int h = key.hashCode();
+        // spread the high bits into the low bits used to pick the stripe
+        final int spread = h ^ (h >>> (Integer.SIZE / 2));
+        return stripes[spread & (stripes.length - 1)];
+    }
+
+    /**
+     * @param key
+     *            the key to find
+     * @return the value or null if not in the cache
+     */
+    /* package */ V get(@Nonnull final K key) {
+        final Stripe<K, V> stripe = stripeFor(key);
+        final V value;
+        synchronized (stripe.lock) {
+            value = stripe.entries.get(key);
+        }
+        if (null == value) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * @param key
+     *            the key
+     * @param value
+     *            the value, replaces any existing value
+     */
+    /* package */ void put(@Nonnull final K key, @Nonnull final V value) {
+        final Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe.lock) {
+            stripe.entries.put(key, value);
+        }
+    }
+
+    /**
+     * @param key
+     *            the key
+     * @param value
+     *            the value to store if there isn't one already
+     * @return true if the value was stored
+     */
+    /* package */ boolean putIfAbsent(@Nonnull final K key, @Nonnull final V value) {
+        final Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe.lock) {
+            return null == stripe.entries.putIfAbsent(key, value);
+        }
+    }
+
+    /**
+     * @return the number of entries in the cache
+     */
+    /* package */ int size() {
+        int size = 0;
+        for (final Stripe<K, V> stripe : stripes) {
+            synchronized (stripe.lock) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return number of calls to {@link #get(Object)} that found a value
+     */
+    /* package */ long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of calls to {@link #get(Object)} that didn't find a
+     *         value
+     */
+    /* package */ long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "size: " + size() + " hits: " + getHitCount() + " misses: " + getMissCount();
+    }
+
+    private static final class Stripe<K, V> {
+        private final Object lock = new Object();
+
+        @GuardedBy("lock")
+        private final LinkedHashMap<K, V> entries;
+
+        Stripe(final int maxEntries) {
+            entries = new LinkedHashMap<K, V>(maxEntries, LOAD_FACTOR, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+    }
+
+}
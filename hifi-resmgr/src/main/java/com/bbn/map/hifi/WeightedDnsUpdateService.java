@@ -36,10 +36,12 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.nio.charset.Charset;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 
@@ -54,8 +56,12 @@ import com.bbn.map.dns.DNSUpdateService;
 import com.bbn.map.dns.DelegateRecord;
 import com.bbn.map.dns.DnsRecord;
 import com.bbn.map.dns.NameRecord;
+import com.bbn.map.hifi.dns.RecordDeltaMessage;
+import com.bbn.map.hifi.dns.RecordDeltaTracker;
 import com.bbn.map.hifi.dns.RecordUpdateMessage;
 import com.bbn.map.hifi.dns.WeightedRecordMessageServer;
+import com.bbn.map.hifi.dns.WeightedRecordSessionClient;
+import com.bbn.map.hifi.dns.WeightedRecordSessionServer;
 import com.bbn.map.hifi.dns.WeightedRoundRobinResolver;
 import com.bbn.map.hifi.util.DnsUtils;
 import com.bbn.map.utils.JsonUtils;
@@ -89,6 +95,21 @@ public abstract class WeightedDnsUpdateService implements DNSUpdateService {
     private final InetAddress serverAddress;
     private final Object lock = new Object();
 
+    /**
+     * How long to wait for the DNS server to acknowledge an update.
+     */
+    private static final long SESSION_REPLY_TIMEOUT_SECONDS = 30;
+
+    private final ObjectMapper jsonMapper = JsonUtils.getStandardMapObjectMapper()
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final WeightedRecordSessionClient sessionClient;
+
+    // protected by deltaTracker
+    private final RecordDeltaTracker deltaTracker = new RecordDeltaTracker();
+    // protected by deltaTracker
+    private long deltaConnection = -1;
+
     /**
      * 
      * @return lock for thread-safe access to variables
@@ -107,13 +128,18 @@ public abstract class WeightedDnsUpdateService implements DNSUpdateService {
     public WeightedDnsUpdateService(@Nonnull final RegionIdentifier region, final InetAddress serverAddress) {
         this.serverAddress = serverAddress;
         this.region = region;
+        this.sessionClient = new WeightedRecordSessionClient(serverAddress, WeightedRecordSessionServer.PORT);
     }
 
     @Override
     public abstract boolean replaceAllRecords(ImmutableCollection<Pair<DnsRecord, Double>> records);
 
     /**
-     * Send the records to the configured DNS server.
+     * Send the records to the configured DNS server. A persistent connection
+     * to {@link WeightedRecordSessionServer} is used and only the changes
+     * since the previous message are sent when possible. If the DNS server
+     * does not accept connections on that port a new connection to
+     * {@link WeightedRecordMessageServer} is used for each update.
      * 
      * @param message
      *            the message to send
@@ -121,15 +147,86 @@ public abstract class WeightedDnsUpdateService implements DNSUpdateService {
      */
     protected final boolean sendMessage(final RecordUpdateMessage message) {
         LOGGER.trace("Top of send records");
+        try {
+            final WeightedRecordSessionServer.CommandReply reply = sendSessionMessage(message);
+            if (!reply.isSuccess()) {
+                LOGGER.error("Got error response from DNS server: {}", reply.getMessage());
+                return false;
+            } else {
+                LOGGER.trace("Got reply {}", reply);
+                return true;
+            }
+        } catch (final ConnectException e) {
+            // older DNS server, try again with a session on the next update
+            // in case the server is restarted
+            LOGGER.debug("Unable to connect to the session port on {}, using a single connection: {}", serverAddress,
+                    e.getMessage());
+        } catch (final IOException e) {
+            LOGGER.error("Got error sending records to the server", e);
+            return false;
+        }
+
+        return sendMessageSingleConnection(message);
+    }
+
+    /**
+     * Send the records on the session connection. If the records that were
+     * previously sent on this connection are known only the changes are
+     * sent.
+     */
+    private WeightedRecordSessionServer.CommandReply sendSessionMessage(final RecordUpdateMessage message)
+            throws IOException {
+        synchronized (deltaTracker) {
+            final long connection = sessionClient.connect();
+            if (connection != deltaConnection) {
+                // the server may have been restarted
+                deltaTracker.reset();
+                deltaConnection = connection;
+            }
+
+            WeightedRecordSessionServer.CommandReply reply = null;
+            RecordDeltaMessage delta = null;
+            try {
+                delta = deltaTracker.computeDelta(message);
+                if (null != delta) {
+                    reply = sessionClient.sendDeltaAndWait(delta, SESSION_REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    if (reply.isResync()) {
+                        LOGGER.debug("DNS server records changed since the last update, sending all records");
+                        reply = null;
+                        delta = null;
+                    }
+                }
+                if (null == reply) {
+                    reply = sessionClient.sendUpdateAndWait(message, SESSION_REPLY_TIMEOUT_SECONDS,
+                            TimeUnit.SECONDS);
+                }
+            } catch (final IOException e) {
+                // don't know if the server applied the message
+                deltaTracker.reset();
+                throw e;
+            }
+
+            if (reply.isSuccess()) {
+                deltaTracker.applied(message, delta, reply.getVersion());
+            } else {
+                deltaTracker.reset();
+            }
+            return reply;
+        }
+    }
+
+    /**
+     * Send the records using a new connection to
+     * {@link WeightedRecordMessageServer}. This is used for DNS servers that
+     * don't support {@link WeightedRecordSessionServer}.
+     */
+    private boolean sendMessageSingleConnection(final RecordUpdateMessage message) {
         try (Socket socket = new Socket(serverAddress, WeightedRecordMessageServer.PORT);
                 Reader reader = new InputStreamReader(socket.getInputStream(), Charset.defaultCharset());
                 Writer writer = new OutputStreamWriter(socket.getOutputStream(), Charset.defaultCharset())) {
 
             LOGGER.trace("Finished connecting to server");
 
-            final ObjectMapper jsonMapper = JsonUtils.getStandardMapObjectMapper()
-                    .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
-
             jsonMapper.writeValue(writer, WeightedRecordMessageServer.UPDATE_COMMAND);
             jsonMapper.writeValue(writer, message);
             writer.flush();
@@ -33,9 +33,16 @@ package com.bbn.map.hifi_resmgr;
 
 import java.util.List;
 
+import javax.annotation.Nonnull;
+
 /**
  * Common functionality between the custom parser and the original parser.
  * 
+ * Frames are double buffered. The processor thread fills the table from
+ * {@link #startFrame()} and then calls {@link #publishFrame()}. Readers copy
+ * the published table with {@link #copyLastFrame(FlowTable)}, so the tables
+ * are reused for every frame.
+ * 
  * @author jschewe
  *
  */
@@ -43,7 +50,12 @@ public abstract class BaseIftopProcessor extends Thread {
 
     private final Object lock = new Object();
 
-    private List<IftopTrafficData> lastIftopFrame = null;
+    private FlowTable publishedFrame = null;
+
+    /**
+     * Only accessed by the processor thread.
+     */
+    private FlowTable nextFrame = new FlowTable();
 
     /**
      * 
@@ -54,23 +66,58 @@ public abstract class BaseIftopProcessor extends Thread {
     }
 
     /**
-     * Store the frame to return next from {@link #getLastIftopFrames()}.
+     * Get the table to fill with the next frame. Only to be called from the
+     * processor thread.
+     * 
+     * @return an empty table
+     */
+    @Nonnull
+    /* package */ final FlowTable startFrame() {
+        nextFrame.clear();
+        return nextFrame;
+    }
+
+    /**
+     * Make the table from {@link #startFrame()} the one returned from
+     * {@link #copyLastFrame(FlowTable)}.
+     */
+    /* package */ final void publishFrame() {
+        synchronized (lock) {
+            final FlowTable previous = publishedFrame;
+            publishedFrame = nextFrame;
+            nextFrame = null == previous ? new FlowTable() : previous;
+        }
+    }
+
+    /**
+     * Store the frame to return next from {@link #copyLastFrame(FlowTable)}.
      * 
      * @param data
      *            the new frame
      */
     protected final void setLastIftopFrames(final List<IftopTrafficData> data) {
-        synchronized (lock) {
-            lastIftopFrame = data;
+        final FlowTable frame = startFrame();
+        for (final IftopTrafficData flow : data) {
+            frame.add(flow.getLocalIP(), flow.getLocalPort(), flow.getRemoteIP(), flow.getRemotePort(),
+                    flow.getLast2sBitsSent(), flow.getLast2sBitsReceived());
         }
+        publishFrame();
     }
 
     /**
-     * @return the most recently produced frames for this NIC, may be null
+     * Copy the most recently produced frame for this NIC.
+     * 
+     * @param dest
+     *            where to copy the frame to
+     * @return false if there is no frame yet, dest is unchanged in this case
      */
-    public final List<IftopTrafficData> getLastIftopFrames() {
+    /* package */ final boolean copyLastFrame(@Nonnull final FlowTable dest) {
         synchronized (lock) {
-            return lastIftopFrame;
+            if (null == publishedFrame) {
+                return false;
+            }
+            dest.copyFrom(publishedFrame);
+            return true;
         }
     }
 
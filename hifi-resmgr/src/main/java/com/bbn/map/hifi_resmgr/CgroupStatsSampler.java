@@ -0,0 +1,374 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Read container resource counters directly from the cgroup hierarchy and
+ * /proc instead of through the Docker stats API. Both cgroup v1 and v2 are
+ * supported. The values are stored in a {@link ContainerStatsParser.Sample} so
+ * that {@link ContainerResourceMonitor} handles them the same way as samples
+ * from Docker. The system CPU usage is computed from /proc/stat the same way
+ * that Docker computes it.
+ * 
+ * The mapping of cgroup paths to mount points follows the jdk14
+ * Metrics/SubSystem backport in fake-load-server.
+ * 
+ * @author jschewe
+ *
+ */
+/* package */ final class CgroupStatsSampler {
+
+    private static final Logger LOGGER = LogManager.getLogger(CgroupStatsSampler.class);
+
+    /**
+     * Number of fields from the cpu line of /proc/stat that Docker adds up for
+     * the system CPU usage (user through softirq).
+     */
+    private static final int SYSTEM_CPU_FIELDS = 7;
+    /**
+     * Clock ticks per second used in /proc/stat. Docker assumes this value as
+     * well.
+     */
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long NANOS_PER_MICRO = 1_000L;
+    /**
+     * Index of the transmit bytes field in /proc/net/dev after the interface
+     * name is removed.
+     */
+    private static final int NET_DEV_TX_BYTES_INDEX = 8;
+    private static final int MOUNTINFO_MIN_FIELDS = 5;
+    private static final int CGROUP_LINE_FIELDS = 3;
+
+    private final Path procRoot;
+
+    /**
+     * cgroup v1 controller name -> mount information. Filled in from the
+     * mountinfo of this process the first time a container is resolved.
+     */
+    private Map<String, Mount> v1Mounts = null;
+    private Mount v2Mount = null;
+
+    private long systemCpuUsage = ContainerStatsParser.MISSING;
+    private long onlineCpus = ContainerStatsParser.MISSING;
+
+    /**
+     * Sample the real /proc.
+     */
+    /* package */ CgroupStatsSampler() {
+        this(Paths.get("/proc"));
+    }
+
+    /**
+     * @param procRoot
+     *            where to find the /proc filesystem, used for testing
+     */
+    /* package */ CgroupStatsSampler(final Path procRoot) {
+        this.procRoot = procRoot;
+    }
+
+    /**
+     * Read the host wide values that are shared by all containers. Call this
+     * once before sampling the containers each round.
+     * 
+     * @throws IOException
+     *             if /proc/stat cannot be read
+     */
+    public void beginRound() throws IOException {
+        final List<String> lines = ProcFileParserUtils.readFile(procRoot.resolve("stat").toFile());
+
+        long ticks = ContainerStatsParser.MISSING;
+        int cpus = 0;
+        for (final String line : lines) {
+            if (line.startsWith("cpu ")) {
+                final String[] tokens = ProcFileParserUtils.splitByWhiteSpace(line);
+                ticks = 0;
+                for (int i = 1; i <= SYSTEM_CPU_FIELDS && i < tokens.length; ++i) {
+                    ticks += Long.parseLong(tokens[i]);
+                }
+            } else if (line.startsWith("cpu")) {
+                ++cpus;
+            }
+        }
+
+        systemCpuUsage = ticks == ContainerStatsParser.MISSING ? ticks
+                : ticks * (NANOS_PER_SECOND / CLOCK_TICKS_PER_SECOND);
+        onlineCpus = cpus > 0 ? cpus : ContainerStatsParser.MISSING;
+    }
+
+    /**
+     * Find the cgroup directories for a container.
+     * 
+     * @param pid
+     *            the process id of the container's init process on the host
+     * @return the container information or null if the cgroup directories
+     *         cannot be found (a warning is logged)
+     * @throws IOException
+     *             if the cgroup information for the process cannot be read
+     */
+    public Container resolve(final int pid) throws IOException {
+        ensureMountsRead();
+
+        Path cpuDirectory = null;
+        boolean cpuV2 = false;
+        Path memoryDirectory = null;
+        boolean memoryV2 = false;
+
+        final Path pidDirectory = procRoot.resolve(String.valueOf(pid));
+        for (final String line : ProcFileParserUtils.readFile(pidDirectory.resolve("cgroup").toFile())) {
+            final String[] tokens = line.split(":", CGROUP_LINE_FIELDS);
+            if (tokens.length < CGROUP_LINE_FIELDS) {
+                continue;
+            }
+            final String cgroupPath = tokens[2];
+
+            if (tokens[1].isEmpty()) {
+                // unified hierarchy, only use it if the controllers are not in
+                // v1 hierarchies
+                if (null != v2Mount) {
+                    final Path dir = v2Mount.resolve(cgroupPath);
+                    if (null != dir && null == cpuDirectory) {
+                        cpuDirectory = dir;
+                        cpuV2 = true;
+                    }
+                    if (null != dir && null == memoryDirectory) {
+                        memoryDirectory = dir;
+                        memoryV2 = true;
+                    }
+                }
+            } else {
+                for (final String controller : tokens[1].split(",")) {
+                    final Mount mount = v1Mounts.get(controller);
+                    if (null == mount) {
+                        continue;
+                    }
+                    if ("cpuacct".equals(controller)) {
+                        cpuDirectory = mount.resolve(cgroupPath);
+                        cpuV2 = false;
+                    } else if ("memory".equals(controller)) {
+                        memoryDirectory = mount.resolve(cgroupPath);
+                        memoryV2 = false;
+                    }
+                }
+            }
+        }
+
+        if (null == cpuDirectory || null == memoryDirectory) {
+            LOGGER.warn("Unable to find cgroup directories for pid {} cpu: {} memory: {}", pid, cpuDirectory,
+                    memoryDirectory);
+            return null;
+        }
+
+        return new Container(pid, pidDirectory.resolve("net").resolve("dev"), cpuDirectory, cpuV2, memoryDirectory,
+                memoryV2);
+    }
+
+    /**
+     * Read the counters for a container. The previous CPU values are filled in
+     * from the last call for the same container.
+     * 
+     * @param container
+     *            from {@link #resolve(int)}
+     * @param nic
+     *            the NIC inside the container to read network counters for
+     * @param sample
+     *            where to store the values, it is reset first
+     * @throws IOException
+     *             if the counters cannot be read, usually because the
+     *             container has exited
+     */
+    public void sample(final Container container, final String nic, final ContainerStatsParser.Sample sample)
+            throws IOException {
+        sample.reset();
+
+        if (container.cpuV2) {
+            final long usec = readKeyedValue(container.cpuDirectory.resolve("cpu.stat").toFile(), "usage_usec");
+            sample.totalUsage = usec == ContainerStatsParser.MISSING ? usec : usec * NANOS_PER_MICRO;
+        } else {
+            sample.totalUsage = readSingleValue(container.cpuDirectory.resolve("cpuacct.usage").toFile());
+        }
+        sample.systemCpuUsage = systemCpuUsage;
+        sample.onlineCpus = onlineCpus;
+        sample.preTotalUsage = container.previousTotalUsage;
+        sample.preSystemCpuUsage = container.previousSystemCpuUsage;
+        container.previousTotalUsage = sample.totalUsage;
+        container.previousSystemCpuUsage = sample.systemCpuUsage;
+
+        sample.memoryUsage = readSingleValue(container.memoryDirectory
+                .resolve(container.memoryV2 ? "memory.current" : "memory.usage_in_bytes").toFile());
+
+        final String nicPrefix = nic + ":";
+        for (final String line : ProcFileParserUtils.readFile(container.netDev.toFile())) {
+            final String trimmed = line.trim();
+            if (trimmed.startsWith(nicPrefix)) {
+                final String[] tokens = ProcFileParserUtils
+                        .splitByWhiteSpace(trimmed.substring(nicPrefix.length()).trim());
+                if (tokens.length > NET_DEV_TX_BYTES_INDEX) {
+                    sample.rxBytes = Long.parseLong(tokens[0]);
+                    sample.txBytes = Long.parseLong(tokens[NET_DEV_TX_BYTES_INDEX]);
+                }
+                break;
+            }
+        }
+    }
+
+    private static long readSingleValue(final File file) throws IOException {
+        final List<String> lines = ProcFileParserUtils.readFile(file);
+        if (lines.isEmpty()) {
+            return ContainerStatsParser.MISSING;
+        }
+        try {
+            return Long.parseLong(lines.get(0).trim());
+        } catch (final NumberFormatException e) {
+            LOGGER.warn("Unable to parse value from {}: {}", file, lines.get(0));
+            return ContainerStatsParser.MISSING;
+        }
+    }
+
+    private static long readKeyedValue(final File file, final String key) throws IOException {
+        for (final String line : ProcFileParserUtils.readFile(file)) {
+            final String[] tokens = ProcFileParserUtils.splitByWhiteSpace(line);
+            if (tokens.length == 2 && key.equals(tokens[0])) {
+                return Long.parseLong(tokens[1]);
+            }
+        }
+        return ContainerStatsParser.MISSING;
+    }
+
+    private void ensureMountsRead() throws IOException {
+        if (null != v1Mounts) {
+            return;
+        }
+
+        final Map<String, Mount> mounts = new HashMap<>();
+        for (final String line : ProcFileParserUtils.readFile(procRoot.resolve("self").resolve("mountinfo").toFile())) {
+            final String[] fields = line.split(" ");
+            if (fields.length < MOUNTINFO_MIN_FIELDS) {
+                continue;
+            }
+
+            if (line.contains(" - cgroup2 ")) {
+                v2Mount = new Mount(fields[3], fields[4]);
+            } else if (line.contains(" - cgroup ")) {
+                final Path mountPoint = Paths.get(fields[4]);
+                final Path filename = mountPoint.getFileName();
+                if (null != filename) {
+                    for (final String controller : filename.toString().split(",")) {
+                        mounts.put(controller, new Mount(fields[3], fields[4]));
+                    }
+                }
+            }
+        }
+        v1Mounts = mounts;
+    }
+
+    /**
+     * A cgroup mount. Same logic as jdk14.SubSystem#setPath.
+     */
+    private static final class Mount {
+        private final String root;
+        private final String mountPoint;
+
+        Mount(final String root, final String mountPoint) {
+            this.root = root;
+            this.mountPoint = mountPoint;
+        }
+
+        /**
+         * @return the directory for the cgroup or null if the cgroup is not
+         *         visible through this mount
+         */
+        Path resolve(final String cgroupPath) {
+            if ("/".equals(root)) {
+                if ("/".equals(cgroupPath)) {
+                    return Paths.get(mountPoint);
+                } else {
+                    return Paths.get(mountPoint + cgroupPath);
+                }
+            } else if (root.equals(cgroupPath)) {
+                return Paths.get(mountPoint);
+            } else if (cgroupPath.startsWith(root) && cgroupPath.length() > root.length()) {
+                return Paths.get(mountPoint + cgroupPath.substring(root.length()));
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The files to read for one container and the previous CPU values.
+     */
+    /* package */ static final class Container {
+        private final int pid;
+        private final Path netDev;
+        private final Path cpuDirectory;
+        private final boolean cpuV2;
+        private final Path memoryDirectory;
+        private final boolean memoryV2;
+
+        private long previousTotalUsage = ContainerStatsParser.MISSING;
+        private long previousSystemCpuUsage = ContainerStatsParser.MISSING;
+
+        private Container(final int pid,
+                final Path netDev,
+                final Path cpuDirectory,
+                final boolean cpuV2,
+                final Path memoryDirectory,
+                final boolean memoryV2) {
+            this.pid = pid;
+            this.netDev = netDev;
+            this.cpuDirectory = cpuDirectory;
+            this.cpuV2 = cpuV2;
+            this.memoryDirectory = memoryDirectory;
+            this.memoryV2 = memoryV2;
+        }
+
+        /**
+         * @return the process id that the directories were found for
+         */
+        public int getPid() {
+            return pid;
+        }
+    }
+
+}
@@ -0,0 +1,514 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringTokenizer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Periodically reads the per-flow byte counters that the kernel keeps in the
+ * connection tracking table and converts them to rates. This requires
+ * connection tracking accounting to be enabled
+ * ({@code sysctl net.netfilter.nf_conntrack_acct=1}). A single sampler is
+ * shared by all {@link ConntrackProcessor} objects, each one picks out the
+ * flows for its network interface.
+ * 
+ * The rate of a flow is computed from the change in its counters between
+ * samples. The first sample only establishes the baseline; after that a flow
+ * that is not in the previous sample started since then and all of its bytes
+ * are counted. Flows that end between samples lose the traffic since the
+ * previous sample.
+ * 
+ * @author jschewe
+ *
+ */
+/* package */ final class ConntrackFlowSampler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConntrackFlowSampler.class);
+
+    /**
+     * Where the kernel publishes the connection tracking table.
+     */
+    @SuppressFBWarnings(value = "DMI_HARDCODED_ABSOLUTE_FILENAME", justification = "Need absolute path to find files on Linux")
+    /* package */ static final Path DEFAULT_CONNTRACK_FILE = Paths.get("/proc/net/nf_conntrack");
+
+    private static final long BITS_PER_BYTE = 8;
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    /**
+     * Previous counters for a flow that started after the previous sample.
+     */
+    private static final long[] NEW_FLOW_COUNTERS = { 0, 0 };
+
+    /**
+     * Stored in the per-sample cache for addresses without a network
+     * interface, computeIfAbsent doesn't store null.
+     */
+    private static final String NO_NIC = "";
+
+    private final Path conntrackFile;
+    private final long intervalMs;
+    private final Function<String, String> nicForAddress;
+
+    private final Object lock = new Object();
+    private long sequence = 0;
+    private List<FlowRate> lastSample = Collections.emptyList();
+
+    /**
+     * Only accessed from the sampling thread.
+     */
+    private Map<FlowTuple, long[]> previousCounters = new HashMap<>();
+    private long previousTimeMs = 0;
+    private boolean warnedNoAccounting = false;
+
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * 
+     * @param conntrackFile
+     *            the file to read, normally {@link #DEFAULT_CONNTRACK_FILE}
+     * @param intervalMs
+     *            how often to sample
+     * @param nicForAddress
+     *            the name of the monitored network interface that traffic to
+     *            an address goes over, null if the address is local to this
+     *            host or cannot be routed
+     */
+    /* package */ ConntrackFlowSampler(@Nonnull final Path conntrackFile,
+            final long intervalMs,
+            @Nonnull final Function<String, String> nicForAddress) {
+        this.conntrackFile = conntrackFile;
+        this.intervalMs = intervalMs;
+        this.nicForAddress = nicForAddress;
+    }
+
+    /**
+     * Start sampling. Calling this more than once has no effect.
+     */
+    /* package */ synchronized void start() {
+        if (null == executor) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("Conntrack sampler").setDaemon(true).build());
+            executor.scheduleAtFixedRate(this::readSample, 0, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop sampling.
+     */
+    /* package */ synchronized void stop() {
+        if (null != executor) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return how often samples are taken
+     */
+    /* package */ long getIntervalMs() {
+        return intervalMs;
+    }
+
+    private void readSample() {
+        final long now = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(conntrackFile, StandardCharsets.US_ASCII)) {
+            final List<FlowCounters> counters = new ArrayList<>();
+            String line = reader.readLine();
+            while (null != line) {
+                final FlowCounters entry = parseLine(line);
+                if (null != entry) {
+                    counters.add(entry);
+                }
+                line = reader.readLine();
+            }
+            publish(computeRates(now, counters));
+        } catch (final IOException e) {
+            LOGGER.error("Error reading {}: {}", conntrackFile, e.getMessage(), e);
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error processing {}", conntrackFile, e);
+        }
+    }
+
+    private void publish(final List<FlowRate> sample) {
+        synchronized (lock) {
+            lastSample = sample;
+            ++sequence;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Compute rates from the counters and remember the counters for the next
+     * sample. Package visibility for testing.
+     * 
+     * @param now
+     *            time of the sample in milliseconds
+     * @param counters
+     *            the flows in the connection tracking table
+     * @return the flows that had traffic since the previous sample
+     */
+    /* package */ List<FlowRate> computeRates(final long now, @Nonnull final List<FlowCounters> counters) {
+        final long elapsedMs = now - previousTimeMs;
+        // once there is a baseline, a flow that isn't in it started since the
+        // previous sample and all of its bytes are new
+        final boolean haveBaseline = previousTimeMs > 0;
+        final Map<FlowTuple, long[]> currentCounters = new HashMap<>(counters.size());
+        final Map<String, String> nicCache = new HashMap<>();
+        final List<FlowRate> rates = new ArrayList<>();
+
+        for (final FlowCounters entry : counters) {
+            final long[] current = { entry.originalBytes, entry.replyBytes };
+            currentCounters.put(entry.tuple, current);
+
+            if (elapsedMs <= 0) {
+                continue;
+            }
+
+            long[] previous = previousCounters.get(entry.tuple);
+            if (null == previous) {
+                if (haveBaseline) {
+                    previous = NEW_FLOW_COUNTERS;
+                } else {
+                    // first sample, need another sample for a rate
+                    continue;
+                }
+            }
+
+            // if the counters went backwards the connection was replaced
+            final long originalDelta = current[0] >= previous[0] ? current[0] - previous[0] : current[0];
+            final long replyDelta = current[1] >= previous[1] ? current[1] - previous[1] : current[1];
+            if (originalDelta == 0 && replyDelta == 0) {
+                continue;
+            }
+
+            final String srcNic = findNic(nicCache, entry.tuple.srcIp);
+            final String dstNic = findNic(nicCache, entry.tuple.dstIp);
+            if (null == srcNic && null == dstNic) {
+                continue;
+            }
+
+            rates.add(new FlowRate(entry.tuple, toBitsPerSecond(originalDelta, elapsedMs),
+                    toBitsPerSecond(replyDelta, elapsedMs), srcNic, dstNic));
+        }
+
+        previousCounters = currentCounters;
+        previousTimeMs = now;
+        return rates;
+    }
+
+    /**
+     * @return the network interface for the address, null if there isn't one
+     */
+    private String findNic(final Map<String, String> nicCache, final String address) {
+        final String nic = nicCache.computeIfAbsent(address, this::lookupNic);
+        return NO_NIC.equals(nic) ? null : nic;
+    }
+
+    private String lookupNic(final String address) {
+        final String nic = nicForAddress.apply(address);
+        return null == nic ? NO_NIC : nic;
+    }
+
+    private static long toBitsPerSecond(final long bytes, final long elapsedMs) {
+        return bytes * BITS_PER_BYTE * MILLIS_PER_SECOND / elapsedMs;
+    }
+
+    /**
+     * Wait for a sample newer than the one identified.
+     * 
+     * @param afterSequence
+     *            the sequence number of the last sample seen
+     * @param timeoutMs
+     *            maximum time to wait
+     * @return the sequence number of the current sample, equal to
+     *         afterSequence on timeout
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    /* package */ long awaitSample(final long afterSequence, final long timeoutMs) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (lock) {
+            long remaining = timeoutMs;
+            while (sequence == afterSequence && remaining > 0) {
+                lock.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return sequence;
+        }
+    }
+
+    /**
+     * @return the flows with traffic in the most recent sample
+     */
+    @Nonnull
+    /* package */ List<FlowRate> getLastSample() {
+        synchronized (lock) {
+            return lastSample;
+        }
+    }
+
+    /**
+     * Parse a line from the connection tracking table. The first set of
+     * src/dst/sport/dport/bytes fields is the original direction, the second
+     * set is the reply direction.
+     * 
+     * @param line
+     *            the line to parse
+     * @return the counters or null if the line doesn't have byte counters
+     */
+    /* package */ FlowCounters parseLine(@Nonnull final String line) {
+        final StringTokenizer tokens = new StringTokenizer(line);
+        if (!tokens.hasMoreTokens()) {
+            return null;
+        }
+
+        String protocol = tokens.nextToken();
+        if ("ipv4".equals(protocol) || "ipv6".equals(protocol)) {
+            // nf_conntrack format has the layer 3 protocol and number first
+            if (!tokens.hasMoreTokens()) {
+                return null;
+            }
+            tokens.nextToken();
+            if (!tokens.hasMoreTokens()) {
+                return null;
+            }
+            protocol = tokens.nextToken();
+        }
+
+        String src = null;
+        String dst = null;
+        int sport = IftopProcessor.UNKNOWN_PORT;
+        int dport = IftopProcessor.UNKNOWN_PORT;
+        long originalBytes = -1;
+        long replyBytes = -1;
+        try {
+            while (tokens.hasMoreTokens()) {
+                final String token = tokens.nextToken();
+                if (null == src && token.startsWith("src=")) {
+                    src = token.substring("src=".length());
+                } else if (null == dst && token.startsWith("dst=")) {
+                    dst = token.substring("dst=".length());
+                } else if (originalBytes < 0 && token.startsWith("sport=")) {
+                    sport = Integer.parseInt(token.substring("sport=".length()));
+                } else if (originalBytes < 0 && token.startsWith("dport=")) {
+                    dport = Integer.parseInt(token.substring("dport=".length()));
+                } else if (token.startsWith("bytes=")) {
+                    final long bytes = Long.parseLong(token.substring("bytes=".length()));
+                    if (originalBytes < 0) {
+                        originalBytes = bytes;
+                    } else {
+                        replyBytes = bytes;
+                        break;
+                    }
+                }
+            }
+        } catch (final NumberFormatException e) {
+            LOGGER.debug("Unable to parse conntrack line '{}'", line, e);
+            return null;
+        }
+
+        if (null == src || null == dst) {
+            return null;
+        }
+        if (replyBytes < 0) {
+            if (!warnedNoAccounting) {
+                LOGGER.warn("No byte counters in {}, enable net.netfilter.nf_conntrack_acct", conntrackFile);
+                warnedNoAccounting = true;
+            }
+            return null;
+        }
+
+        return new FlowCounters(new FlowTuple(protocol, src, sport, dst, dport), originalBytes, replyBytes);
+    }
+
+    /**
+     * Identifies a connection by its original direction.
+     */
+    /* package */ static final class FlowTuple {
+        private final String protocol;
+        private final String srcIp;
+        private final int srcPort;
+        private final String dstIp;
+        private final int dstPort;
+        private final int hashCode;
+
+        /* package */ FlowTuple(final String protocol,
+                final String srcIp,
+                final int srcPort,
+                final String dstIp,
+                final int dstPort) {
+            this.protocol = protocol;
+            this.srcIp = srcIp;
+            this.srcPort = srcPort;
+            this.dstIp = dstIp;
+            this.dstPort = dstPort;
+            this.hashCode = Objects.hash(protocol, srcIp, srcPort, dstIp, dstPort);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            } else if (null == o || getClass() != o.getClass()) {
+                return false;
+            } else {
+                final FlowTuple other = (FlowTuple) o;
+                return srcPort == other.srcPort && dstPort == other.dstPort && protocol.equals(other.protocol)
+                        && srcIp.equals(other.srcIp) && dstIp.equals(other.dstIp);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return protocol + " " + srcIp + ":" + srcPort + " -> " + dstIp + ":" + dstPort;
+        }
+    }
+
+    /**
+     * The counters for a connection at the time of a sample.
+     */
+    /* package */ static final class FlowCounters {
+        private final FlowTuple tuple;
+        private final long originalBytes;
+        private final long replyBytes;
+
+        /* package */ FlowCounters(final FlowTuple tuple, final long originalBytes, final long replyBytes) {
+            this.tuple = tuple;
+            this.originalBytes = originalBytes;
+            this.replyBytes = replyBytes;
+        }
+
+        /* package */ FlowTuple getTuple() {
+            return tuple;
+        }
+
+        /* package */ long getOriginalBytes() {
+            return originalBytes;
+        }
+
+        /* package */ long getReplyBytes() {
+            return replyBytes;
+        }
+    }
+
+    /**
+     * The rates for a connection between two samples.
+     */
+    /* package */ static final class FlowRate {
+        private final FlowTuple tuple;
+        private final long originalBitsPerSecond;
+        private final long replyBitsPerSecond;
+        private final String srcNic;
+        private final String dstNic;
+
+        private FlowRate(final FlowTuple tuple,
+                final long originalBitsPerSecond,
+                final long replyBitsPerSecond,
+                final String srcNic,
+                final String dstNic) {
+            this.tuple = tuple;
+            this.originalBitsPerSecond = originalBitsPerSecond;
+            this.replyBitsPerSecond = replyBitsPerSecond;
+            this.srcNic = srcNic;
+            this.dstNic = dstNic;
+        }
+
+        /* package */ FlowTuple getTuple() {
+            return tuple;
+        }
+
+        /* package */ long getOriginalBitsPerSecond() {
+            return originalBitsPerSecond;
+        }
+
+        /* package */ long getReplyBitsPerSecond() {
+            return replyBitsPerSecond;
+        }
+
+        /**
+         * @param nic
+         *            network interface name
+         * @return true if the traffic of this flow crosses the interface
+         */
+        /* package */ boolean isOnNic(@Nonnull final String nic) {
+            return nic.equals(srcNic) || nic.equals(dstNic);
+        }
+
+        /**
+         * Add the flow as iftop would report it, with the original direction
+         * source as local.
+         * 
+         * @param frame
+         *            where to add the flow
+         */
+        /* package */ void addTo(@Nonnull final FlowTable frame) {
+            frame.add(tuple.srcIp, tuple.srcPort, tuple.dstIp, tuple.dstPort, originalBitsPerSecond,
+                    replyBitsPerSecond);
+        }
+
+        @Override
+        public String toString() {
+            return tuple + " tx: " + originalBitsPerSecond + " rx: " + replyBitsPerSecond;
+        }
+    }
+
+}
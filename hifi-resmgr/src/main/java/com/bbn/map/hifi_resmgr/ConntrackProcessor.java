@@ -0,0 +1,113 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.net.NetworkInterface;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Produces traffic data for a network interface from the kernel connection
+ * tracking counters instead of parsing the output of iftop.
+ * 
+ * @author jschewe
+ *
+ */
+public class ConntrackProcessor extends BaseIftopProcessor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConntrackProcessor.class);
+
+    private final NetworkInterface nic;
+    private final ConntrackFlowSampler sampler;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * 
+     * @param nic
+     *            the interface to report traffic for
+     * @param sampler
+     *            where the flow rates come from, shared between interfaces
+     */
+    /* package */ ConntrackProcessor(@Nonnull final NetworkInterface nic, @Nonnull final ConntrackFlowSampler sampler) {
+        super("Conntrack processor for " + nic.getName());
+        this.nic = nic;
+        this.sampler = sampler;
+    }
+
+    @Override
+    public void stopProcessing() {
+        running.set(false);
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        running.set(true);
+        long sequence = 0;
+        while (running.get()) {
+            try {
+                final long current = sampler.awaitSample(sequence, sampler.getIntervalMs() * 2);
+                if (current != sequence) {
+                    sequence = current;
+                    fillFrame(nic.getName(), sampler.getLastSample(), startFrame());
+                    publishFrame();
+                }
+            } catch (final InterruptedException e) {
+                LOGGER.debug("Interrupted waiting for a sample", e);
+            }
+        }
+    }
+
+    /**
+     * @param nicName
+     *            the interface to create the frame for
+     * @param sample
+     *            the flows seen on the host
+     * @param frame
+     *            filled with the flows that cross the interface
+     */
+    /* package */ static void fillFrame(@Nonnull final String nicName,
+            @Nonnull final List<ConntrackFlowSampler.FlowRate> sample,
+            @Nonnull final FlowTable frame) {
+        for (final ConntrackFlowSampler.FlowRate flow : sample) {
+            if (flow.isOnNic(nicName)) {
+                flow.addTo(frame);
+            }
+        }
+    }
+
+}
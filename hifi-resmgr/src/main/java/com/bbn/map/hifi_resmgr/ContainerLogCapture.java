@@ -0,0 +1,631 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Follow the logs of a docker container while it runs and write them to
+ * compressed files. The output is rotated when a file reaches the maximum
+ * size and only a limited number of files are kept, so a chatty container
+ * cannot fill the disk. When the container stops the docker log stream ends
+ * and {@link #finish(long)} only needs to wait for the last file to be
+ * closed. The log stream is read by the {@link ContainerStatsCollector}
+ * thread and the data is queued for a single writer thread that compresses
+ * and writes the logs of all containers, so that following the logs of many
+ * containers doesn't need a thread per container and the collector never
+ * waits on the disk. If the writer falls too far behind logs are dropped.
+ * 
+ * The current file is named {@code <baseName>.gz}, rotated files are named
+ * {@code <baseName>.1.gz}, {@code <baseName>.2.gz}, ... with 1 being the most
+ * recent.
+ * 
+ * @author jschewe
+ *
+ */
+/* package */ final class ContainerLogCapture implements ContainerStatsCollector.LogStream {
+
+    private static final Logger LOGGER = LogManager.getLogger(ContainerLogCapture.class);
+
+    /**
+     * Size of the header in front of each frame of a multiplexed docker log
+     * stream.
+     */
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    /**
+     * Largest stream type in a frame header, 0 is stdin, 1 is stdout, 2 is
+     * stderr.
+     */
+    private static final int MAX_STREAM_TYPE = 2;
+
+    /**
+     * Offset of the frame length in a frame header.
+     */
+    private static final int FRAME_LENGTH_OFFSET = 4;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Maximum number of log bytes per container waiting to be written. When
+     * the writer falls behind further logs are dropped so that the collector
+     * thread never waits on the disk.
+     */
+    private static final long MAX_QUEUED_BYTES = 4L * 1024 * 1024;
+
+    private static final int END_NONE = 0;
+    private static final int END_COMPLETE = 1;
+    private static final int END_INCOMPLETE = 2;
+
+    /**
+     * Compresses and writes the logs of all containers.
+     */
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Container log writer-%d").setDaemon(true).build());
+
+    private final String containerName;
+    private final Path outputDirectory;
+    private final String baseName;
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private ContainerStatsCollector collector = null;
+
+    // passed from the collector thread to the writer thread
+    private final Queue<byte[]> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong(0);
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicInteger streamEnd = new AtomicInteger(END_NONE);
+    private volatile long droppedBytes = 0;
+    private volatile boolean success = false;
+
+    // only accessed on the collector thread
+    private final Demultiplexer demultiplexer = new Demultiplexer(new QueueOutputStream());
+
+    // only accessed on the writer thread
+    private RotatingOutputStream output = null;
+    private boolean writeFailed = false;
+    private boolean closed = false;
+
+    /**
+     * 
+     * @param containerName
+     *            the container to capture the logs of
+     * @param outputDirectory
+     *            where to write the log files
+     * @param baseName
+     *            the name of the log file without the compression suffix
+     * @param maxFileBytes
+     *            the number of uncompressed bytes to write to a file before
+     *            rotating
+     * @param maxFiles
+     *            the number of files to keep including the current file
+     */
+    /* package */ ContainerLogCapture(@Nonnull final String containerName,
+            @Nonnull final Path outputDirectory,
+            @Nonnull final String baseName,
+            final long maxFileBytes,
+            final int maxFiles) {
+        if (maxFileBytes < 1) {
+            throw new IllegalArgumentException("maxFileBytes must be positive");
+        }
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("maxFiles must be positive");
+        }
+        this.containerName = containerName;
+        this.outputDirectory = outputDirectory;
+        this.baseName = baseName;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    @Override
+    public String getContainerName() {
+        return containerName;
+    }
+
+    /**
+     * Start following the logs. This should only be called once.
+     * 
+     * @param collector
+     *            reads the log stream, the data is handed to the writer
+     *            thread
+     */
+    /* package */ void start(@Nonnull final ContainerStatsCollector collector) {
+        synchronized (this) {
+            if (null != this.collector) {
+                throw new IllegalStateException("Log capture for " + containerName + " is already started");
+            }
+            this.collector = collector;
+        }
+        collector.followLogs(this);
+    }
+
+    @Override
+    public void handleData(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (END_NONE != streamEnd.get()) {
+            return;
+        }
+        demultiplexer.write(buffer, offset, length);
+    }
+
+    @Override
+    public void handleClosed(final boolean complete) {
+        boolean ended = complete;
+        try {
+            if (complete && !demultiplexer.end()) {
+                LOGGER.warn("Log stream for {} ended in the middle of a frame", containerName);
+                ended = false;
+            }
+        } catch (final IOException e) {
+            LOGGER.warn("Error processing the logs of container {}", containerName, e);
+            ended = false;
+        }
+        endStream(ended ? END_COMPLETE : END_INCOMPLETE);
+    }
+
+    /**
+     * Wait for the log stream to end and the logs to be written, this is
+     * expected once the container has stopped. If the stream doesn't end in
+     * time the capture is stopped and the logs captured so far are kept.
+     * 
+     * @param timeoutMs
+     *            how long to wait for the stream to end
+     * @return true if the complete logs were written
+     */
+    /* package */ boolean finish(final long timeoutMs) {
+        synchronized (this) {
+            if (null == collector) {
+                return false;
+            }
+        }
+
+        try {
+            if (!finished.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Log stream for {} did not end within {} ms, stopping capture", containerName,
+                        timeoutMs);
+                cancel();
+                return false;
+            }
+        } catch (final InterruptedException e) {
+            LOGGER.warn("Interrupted waiting for logs of {}", containerName, e);
+            cancel();
+            return false;
+        }
+
+        return success;
+    }
+
+    /**
+     * Stop the capture without waiting for the stream to end. The logs
+     * captured so far are kept.
+     */
+    /* package */ void cancel() {
+        final ContainerStatsCollector c;
+        synchronized (this) {
+            c = collector;
+        }
+        endStream(END_INCOMPLETE);
+        if (null != c) {
+            c.remove(this);
+        }
+    }
+
+    /**
+     * Mark the end of the log stream, the output is closed once the queued
+     * logs are written. Only the first end is used.
+     */
+    private void endStream(final int end) {
+        if (streamEnd.compareAndSet(END_NONE, end)) {
+            scheduleDrain();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            WRITER.execute(this::drain);
+        }
+    }
+
+    /**
+     * Write the queued logs, runs on the writer thread.
+     */
+    private void drain() {
+        // cleared first so that data queued while draining schedules another
+        // drain
+        drainScheduled.set(false);
+
+        byte[] chunk;
+        while (null != (chunk = queue.poll())) {
+            write(chunk);
+            queuedBytes.addAndGet(-chunk.length);
+        }
+
+        final int end = streamEnd.get();
+        if (END_NONE != end && queue.isEmpty()) {
+            closeOutput(END_COMPLETE == end);
+        }
+    }
+
+    private void write(final byte[] chunk) {
+        if (closed || writeFailed) {
+            return;
+        }
+        try {
+            if (null == output) {
+                output = new RotatingOutputStream(outputDirectory, baseName, maxFileBytes, maxFiles);
+            }
+            output.write(chunk, 0, chunk.length);
+        } catch (final IOException e) {
+            LOGGER.warn("Error writing the logs of container {}", containerName, e);
+            writeFailed = true;
+        }
+    }
+
+    /**
+     * Close the output, runs on the writer thread.
+     * 
+     * @param complete
+     *            true if the whole log stream was received
+     */
+    private void closeOutput(final boolean complete) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        boolean written = complete && !writeFailed;
+        try {
+            if (null == output) {
+                if (written) {
+                    // create the file even if the container didn't log
+                    // anything
+                    output = new RotatingOutputStream(outputDirectory, baseName, maxFileBytes, maxFiles);
+                }
+            }
+            if (null != output) {
+                output.close();
+            }
+        } catch (final IOException e) {
+            LOGGER.warn("Error closing the log file of {}", containerName, e);
+            written = false;
+        } finally {
+            output = null;
+        }
+
+        final long dropped = droppedBytes;
+        if (dropped > 0) {
+            LOGGER.warn("Dropped {} bytes of logs from {} because the writer fell behind", dropped, containerName);
+            written = false;
+        }
+
+        success = written;
+        if (written) {
+            LOGGER.debug("Log stream for {} ended", containerName);
+        } else {
+            LOGGER.error("Failed to follow the logs of {}", containerName);
+        }
+        finished.countDown();
+    }
+
+    /**
+     * Receives the demultiplexed logs on the collector thread and queues a
+     * copy for the writer thread.
+     */
+    private final class QueueOutputStream extends OutputStream {
+        @Override
+        public void write(final int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            if (0 == len) {
+                return;
+            }
+            if (queuedBytes.get() + len > MAX_QUEUED_BYTES) {
+                if (0 == droppedBytes) {
+                    LOGGER.warn("Log writer for {} is behind, dropping logs", containerName);
+                }
+                // only written on the collector thread
+                droppedBytes += len;
+                return;
+            }
+
+            queuedBytes.addAndGet(len);
+            queue.add(Arrays.copyOfRange(b, off, off + len));
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Copy a docker log stream to the output removing the frame headers. See
+     * {@link Demultiplexer} for the format.
+     * 
+     * @param in
+     *            the log stream
+     * @param out
+     *            where to write the log
+     * @throws IOException
+     *             if there is an error reading or writing
+     */
+    /* package */ static void demultiplex(@Nonnull final InputStream in, @Nonnull final OutputStream out)
+            throws IOException {
+        final Demultiplexer demultiplexer = new Demultiplexer(out);
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read = in.read(buffer);
+        while (read >= 0) {
+            demultiplexer.write(buffer, 0, read);
+            read = in.read(buffer);
+        }
+        if (!demultiplexer.end()) {
+            throw new EOFException("Log stream ended in the middle of a frame");
+        }
+    }
+
+    /**
+     * Removes the frame headers from a docker log stream as it arrives. When
+     * a container doesn't have a TTY docker prefixes each chunk of output with
+     * an 8 byte header containing the stream type and the length of the
+     * chunk. If the stream doesn't start with a valid header it is copied
+     * as-is.
+     */
+    /* package */ static final class Demultiplexer {
+        private final OutputStream out;
+        private final byte[] header = new byte[FRAME_HEADER_SIZE];
+        private int headerLength = 0;
+        private long frameRemaining = 0;
+        private boolean firstFrame = true;
+        private boolean multiplexed = true;
+
+        /**
+         * @param out
+         *            where to write the log
+         */
+        /* package */ Demultiplexer(@Nonnull final OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Process the next bytes of the log stream.
+         * 
+         * @param buffer
+         *            the data
+         * @param offset
+         *            offset into buffer
+         * @param length
+         *            number of bytes to process
+         * @throws IOException
+         *             if there is an error writing or a frame header is
+         *             corrupt
+         */
+        /* package */ void write(final byte[] buffer, final int offset, final int length) throws IOException {
+            int off = offset;
+            int remaining = length;
+            while (remaining > 0) {
+                if (!multiplexed) {
+                    out.write(buffer, off, remaining);
+                    return;
+                } else if (frameRemaining > 0) {
+                    final int count = (int) Math.min(remaining, frameRemaining);
+                    out.write(buffer, off, count);
+                    off += count;
+                    remaining -= count;
+                    frameRemaining -= count;
+                } else {
+                    final int count = Math.min(remaining, FRAME_HEADER_SIZE - headerLength);
+                    System.arraycopy(buffer, off, header, headerLength, count);
+                    headerLength += count;
+                    off += count;
+                    remaining -= count;
+                    if (FRAME_HEADER_SIZE == headerLength) {
+                        processHeader();
+                    }
+                }
+            }
+        }
+
+        private void processHeader() throws IOException {
+            headerLength = 0;
+            final boolean validHeader = header[0] >= 0 && header[0] <= MAX_STREAM_TYPE && 0 == header[1]
+                    && 0 == header[2] && 0 == header[3];
+            if (!validHeader) {
+                if (firstFrame) {
+                    multiplexed = false;
+                    out.write(header, 0, FRAME_HEADER_SIZE);
+                    return;
+                } else {
+                    throw new IOException("Corrupt log frame header");
+                }
+            }
+            firstFrame = false;
+
+            // big endian unsigned length
+            frameRemaining = Integer.toUnsignedLong(ByteBuffer.wrap(header).getInt(FRAME_LENGTH_OFFSET));
+        }
+
+        /**
+         * Called at the end of the log stream.
+         * 
+         * @return true if the stream ended at the end of a frame
+         * @throws IOException
+         *             if there is an error writing
+         */
+        /* package */ boolean end() throws IOException {
+            if (multiplexed && firstFrame && headerLength > 0) {
+                // output shorter than a header, not multiplexed
+                out.write(header, 0, headerLength);
+                headerLength = 0;
+                return true;
+            }
+            return 0 == frameRemaining && 0 == headerLength;
+        }
+    }
+
+    /**
+     * Writes compressed files, rotating them when the uncompressed size
+     * reaches the limit.
+     */
+    /* package */ static final class RotatingOutputStream extends OutputStream {
+        private final Path directory;
+        private final String baseName;
+        private final long maxFileBytes;
+        private final int maxFiles;
+
+        private OutputStream current = null;
+        private long currentBytes = 0;
+
+        /**
+         * @param directory
+         *            where to write the files
+         * @param baseName
+         *            the name of the file without the compression suffix
+         * @param maxFileBytes
+         *            uncompressed bytes per file
+         * @param maxFiles
+         *            the number of files to keep including the current file
+         * @throws IOException
+         *             if the first file cannot be created
+         */
+        /* package */ RotatingOutputStream(final Path directory,
+                final String baseName,
+                final long maxFileBytes,
+                final int maxFiles) throws IOException {
+            this.directory = directory;
+            this.baseName = baseName;
+            this.maxFileBytes = maxFileBytes;
+            this.maxFiles = maxFiles;
+            open();
+        }
+
+        /**
+         * @param index
+         *            0 for the current file, otherwise the rotation index
+         * @return the path to the file
+         */
+        /* package */ Path getFile(final int index) {
+            if (0 == index) {
+                return directory.resolve(baseName + ".gz");
+            } else {
+                return directory.resolve(baseName + "." + index + ".gz");
+            }
+        }
+
+        private void open() throws IOException {
+            Files.createDirectories(directory);
+            current = new GZIPOutputStream(Files.newOutputStream(getFile(0)), BUFFER_SIZE);
+            currentBytes = 0;
+        }
+
+        private void rotate() throws IOException {
+            current.close();
+            current = null;
+
+            Files.deleteIfExists(getFile(maxFiles - 1));
+            for (int index = maxFiles - 2; index >= 0; --index) {
+                final Path source = getFile(index);
+                if (Files.exists(source)) {
+                    Files.move(source, getFile(index + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+
+            open();
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (currentBytes >= maxFileBytes) {
+                rotate();
+            }
+            current.write(b);
+            ++currentBytes;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                if (currentBytes >= maxFileBytes) {
+                    rotate();
+                }
+                final int toWrite = (int) Math.min(remaining, maxFileBytes - currentBytes);
+                current.write(b, offset, toWrite);
+                currentBytes += toWrite;
+                offset += toWrite;
+                remaining -= toWrite;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (null != current) {
+                current.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (null != current) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Find the host side of the virtual ethernet pair for a container interface.
+ * This does the same thing as get_container_veth.sh without running
+ * docker exec. The container's view of sysfs is read through
+ * /proc/[pid]/root to get the peer interface index, which is then matched
+ * against the host interfaces.
+ * 
+ * @author jschewe
+ *
+ */
+/* package */ final class ContainerNicResolver {
+
+    private static final Logger LOGGER = LogManager.getLogger(ContainerNicResolver.class);
+
+    private final Path procRoot;
+    private final Path hostNetRoot;
+
+    /**
+     * Use the system /proc and /sys/class/net.
+     */
+    /* package */ ContainerNicResolver() {
+        this(Paths.get("/proc"), Paths.get("/sys/class/net"));
+    }
+
+    /**
+     * @param procRoot
+     *            where proc is mounted, used for testing
+     * @param hostNetRoot
+     *            the directory with one entry per host network interface,
+     *            used for testing
+     */
+    /* package */ ContainerNicResolver(final Path procRoot, final Path hostNetRoot) {
+        this.procRoot = procRoot;
+        this.hostNetRoot = hostNetRoot;
+    }
+
+    /**
+     * @param pid
+     *            process id of the container's main process
+     * @param containerNic
+     *            the interface name inside the container
+     * @return the host interface name or null if it cannot be found yet
+     * @throws IOException
+     *             if there is an error reading the interface information
+     */
+    /* package */ String resolve(final int pid, final String containerNic) throws IOException {
+        final Path iflinkFile = procRoot.resolve(String.valueOf(pid)).resolve("root").resolve("sys").resolve("class")
+                .resolve("net").resolve(containerNic).resolve("iflink");
+
+        final Integer iflink = readIndex(iflinkFile);
+        if (null == iflink) {
+            LOGGER.debug("Container process {} does not have {}", pid, iflinkFile);
+            return null;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(hostNetRoot)) {
+            for (final Path nic : stream) {
+                final Integer ifindex = readIndex(nic.resolve("ifindex"));
+                if (null != ifindex && ifindex.intValue() == iflink.intValue()) {
+                    return nic.getFileName().toString();
+                }
+            }
+        }
+
+        LOGGER.debug("No host interface has index {} for container process {}", iflink, pid);
+        return null;
+    }
+
+    private static Integer readIndex(final Path file) throws IOException {
+        try {
+            final List<String> lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+            if (lines.isEmpty()) {
+                return null;
+            }
+            return Integer.valueOf(lines.get(0).trim());
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final NumberFormatException e) {
+            throw new IOException("Invalid interface index in " + file, e);
+        }
+    }
+
+}
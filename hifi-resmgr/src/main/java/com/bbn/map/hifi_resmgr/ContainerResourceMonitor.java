@@ -38,9 +38,13 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -49,9 +53,16 @@ import com.bbn.map.utils.JsonUtils;
 import com.bbn.protelis.networkresourcemanagement.NodeIdentifier;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
- * Class to monitor Docker container resource usage.
+ * Class to monitor Docker container resource usage. The stats for all
+ * containers are collected by a single {@link ContainerStatsCollector} thread
+ * from the Docker stats API or, if cgroup sampling is enabled, by a single
+ * thread reading the cgroup hierarchy with {@link CgroupStatsSampler}.
+ * The container inspect information is cached and only refreshed, by a small
+ * fixed pool of threads, when Docker reports a lifecycle event for the
+ * container or {@link #refreshContainerInformation(NodeIdentifier)} is called.
  * 
  * @author awald
  *
@@ -60,22 +71,103 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class ContainerResourceMonitor {
     private static Logger log = LogManager.getLogger(ContainerResourceMonitor.class);
 
-    private String baseURL;
+    private final DockerApiClient client;
 
     /**
      * The number of CPUs in one nano CPU.
      */
     public static final long CPUS_TO_NANO_CPUS = 1_000_000_000;
 
-    private Map<NodeIdentifier, ContainerMonitorThread> monitorThreads = new HashMap<>();
+    /**
+     * Number of threads used to fetch container inspect information.
+     */
+    private static final int INSPECT_THREADS = 2;
+
+    /**
+     * How long to wait before reconnecting to the Docker event stream.
+     */
+    private static final long EVENTS_RECONNECT_DELAY_SECONDS = 5;
+
+    /**
+     * How often the cgroup counters are read. This matches the interval of
+     * the Docker stats stream.
+     */
+    private static final long CGROUP_SAMPLE_INTERVAL_MS = 1000;
+
+    /**
+     * How long to wait for the inspect information of a container.
+     */
+    private static final long INSPECT_TIMEOUT_MS = 30 * 1000;
+
+    /**
+     * How long to wait before retrying a failed inspect when there isn't any
+     * inspect information for a container yet. This doubles after each
+     * failure up to {@link #INSPECT_RETRY_MAX_DELAY_MS}.
+     */
+    private static final long INSPECT_RETRY_INITIAL_DELAY_MS = 1000;
+
+    /**
+     * Longest delay between inspect retries.
+     */
+    private static final long INSPECT_RETRY_MAX_DELAY_MS = 60 * 1000;
+
+    private static final int HTTP_OK = 200;
+
+    private final Map<NodeIdentifier, MonitoredContainer> monitoredContainers = new ConcurrentHashMap<>();
+
+    private final Object collectorLock = new Object();
+    private ContainerStatsCollector collector = null;
+    private ScheduledExecutorService inspectPool = null;
+    private final ContainerEventListener eventListener = new ContainerEventListener();
+
+    private final boolean cgroupSampling;
+    private ScheduledExecutorService cgroupSampler = null;
 
     /**
+     * Collect the container stats from the Docker stats API.
+     * 
      * @param baseURL
      *            The beginning of the URL for making Docker requests with the
      *            protocol, domain or IP address, and port
      */
     public ContainerResourceMonitor(String baseURL) {
-        this.baseURL = baseURL;
+        this(baseURL, false);
+    }
+
+    /**
+     * @param baseURL
+     *            The beginning of the URL for making Docker requests with the
+     *            protocol, domain or IP address, and port
+     * @param cgroupSampling
+     *            if true, read the container CPU, memory and network counters
+     *            from the cgroup hierarchy and /proc rather than the Docker
+     *            stats API. Docker is still used for the container inspect
+     *            information.
+     */
+    public ContainerResourceMonitor(String baseURL, boolean cgroupSampling) {
+        this(createClient(baseURL), cgroupSampling);
+    }
+
+    /**
+     * @param client
+     *            used to talk to Docker
+     * @param cgroupSampling
+     *            if true, read the container CPU, memory and network counters
+     *            from the cgroup hierarchy and /proc rather than the Docker
+     *            stats API. Docker is still used for the container inspect
+     *            information.
+     */
+    public ContainerResourceMonitor(DockerApiClient client, boolean cgroupSampling) {
+        this.client = client;
+        this.cgroupSampling = cgroupSampling;
+    }
+
+    private static DockerApiClient createClient(final String baseURL) {
+        try {
+            return DockerApiClient.forUrl(baseURL);
+        } catch (final MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid Docker URL: " + baseURL, e);
+        }
     }
 
     /**
@@ -87,8 +179,9 @@ public class ContainerResourceMonitor {
      */
     public ContainerResourceStats getContainerResourceStats(NodeIdentifier container) {
         log.debug("start getContainerResourceStat({})", container);
-        if (monitorThreads.containsKey(container))
-            return monitorThreads.get(container).getContainerResourceStats();
+        final MonitoredContainer monitored = monitoredContainers.get(container);
+        if (null != monitored)
+            return monitored.getContainerResourceStats();
         else
             return null;
 
@@ -100,7 +193,7 @@ public class ContainerResourceMonitor {
      *         being monitored
      */
     public Set<NodeIdentifier> getMonitoredContainerIDs() {
-        return monitorThreads.keySet();
+        return monitoredContainers.keySet();
     }
 
     /**
@@ -139,7 +232,38 @@ public class ContainerResourceMonitor {
     }
 
     /**
-     * Start a monitor thread for a Docker container.
+     * Create the collector and inspect pool the first time a container is
+     * monitored. The collector is also used to follow the container logs.
+     * 
+     * @return the collector or null if it cannot be created (an error is
+     *         logged)
+     */
+    /* package */ ContainerStatsCollector getCollector() {
+        synchronized (collectorLock) {
+            if (null == collector) {
+                try {
+                    collector = new ContainerStatsCollector(client);
+                    inspectPool = Executors.newScheduledThreadPool(INSPECT_THREADS,
+                            new ThreadFactoryBuilder().setNameFormat("Container inspect-%d").setDaemon(true).build());
+                    collector.watchEvents(eventListener);
+
+                    if (cgroupSampling) {
+                        final CgroupStatsSampler sampler = new CgroupStatsSampler();
+                        cgroupSampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                                .setNameFormat("Container cgroup sampler").setDaemon(true).build());
+                        cgroupSampler.scheduleAtFixedRate(() -> sampleCgroups(sampler), CGROUP_SAMPLE_INTERVAL_MS,
+                                CGROUP_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    }
+                } catch (final IOException e) {
+                    log.error("Unable to create the container stats collector", e);
+                }
+            }
+            return collector;
+        }
+    }
+
+    /**
+     * Start monitoring a Docker container.
      * 
      * @param containerID
      *            the name that Docker has assigned to the container
@@ -150,318 +274,393 @@ public class ContainerResourceMonitor {
         startMonitorForContainer(containerID, nic, null);
     }
 
-    // starts a monitor thread for a container
+    // starts monitoring a container
     private void startMonitorForContainer(NodeIdentifier containerID,
             String nic,
             ContainerResourceStatsHandler handler) {
-        // stops a monitor thread for the given container if one was already
-        // started
-        if (monitorThreads.containsKey(containerID)) {
+        final ContainerStatsCollector statsCollector = getCollector();
+        if (null == statsCollector) {
+            return;
+        }
+
+        final MonitoredContainer monitored = new MonitoredContainer(containerID, nic, handler);
+
+        // stops monitoring the given container if it was already started
+        final MonitoredContainer previous = monitoredContainers.put(containerID, monitored);
+        if (null != previous) {
             log.info("Attempting to stop container with ID: " + containerID);
+            statsCollector.remove(previous);
+        }
 
-            monitorThreads.get(containerID).stopMonitor();
-            monitorThreads.remove(containerID);
+        // fetch the capacity and status before the first sample arrives
+        monitored.requestInspect();
+        if (!cgroupSampling) {
+            statsCollector.add(monitored);
         }
+    }
+
+    private final ContainerStatsParser.Sample cgroupSample = new ContainerStatsParser.Sample();
 
-        // creates and starts a new monitor thread
-        ContainerMonitorThread cmt = new ContainerMonitorThread(containerID, nic);
-        cmt.setStatsHandler(handler);
-        monitorThreads.put(containerID, cmt);
-        cmt.start();
+    /**
+     * Read the cgroup counters for all monitored containers. Runs on the
+     * cgroup sampler thread.
+     */
+    private void sampleCgroups(final CgroupStatsSampler sampler) {
+        try {
+            sampler.beginRound();
+        } catch (final IOException | RuntimeException e) {
+            log.error("Unable to read the system CPU usage", e);
+            return;
+        }
+
+        for (final MonitoredContainer monitored : monitoredContainers.values()) {
+            try {
+                monitored.sampleCgroup(sampler, cgroupSample);
+            } catch (final IOException | RuntimeException e) {
+                // usually the container has exited and the files are gone
+                log.debug("Unable to read cgroup counters for container: {}", monitored.getContainerName(), e);
+            }
+        }
     }
 
     /**
-     * Stops a monitor thread for a container.
+     * Stops monitoring a container.
      * 
      * @param containerID
      *            the name that Docker has assigned to the container to stop
      *            monitoring
      */
     public void stopMonitorForContainer(NodeIdentifier containerID) {
-        if (monitorThreads.containsKey(containerID)) {
+        final MonitoredContainer monitored = monitoredContainers.remove(containerID);
+        if (null != monitored) {
             log.info("Attempting to stop container with ID: " + containerID);
 
-            monitorThreads.get(containerID).stopMonitor();
-            monitorThreads.remove(containerID);
+            final ContainerStatsCollector collector = getCollector();
+            if (null != collector) {
+                collector.remove(monitored);
+            }
         } else {
             log.error("The container with name '" + containerID + "' cannot be stopped because it does not exist.");
         }
     }
 
-    // Thread for monitoring one container
-    private class ContainerMonitorThread extends Thread {
-        private volatile boolean running = false;
+    /**
+     * Fetch the inspect information for a container again. This is called when
+     * the caller knows that the container state or configuration has changed
+     * and doesn't want to wait for the Docker event.
+     * 
+     * @param containerID
+     *            the name that Docker has assigned to the container
+     */
+    public void refreshContainerInformation(NodeIdentifier containerID) {
+        final MonitoredContainer monitored = monitoredContainers.get(containerID);
+        if (null != monitored) {
+            monitored.requestInspect();
+        }
+    }
+
+    // refreshes the inspect information when Docker reports a lifecycle event
+    // for a monitored container
+    private final class ContainerEventListener implements ContainerStatsCollector.EventListener {
+        @Override
+        public void handleEvent(final ContainerStatsParser.Event event) {
+            if (!"container".equals(event.type) || null == event.action || null == event.containerName) {
+                return;
+            }
+            // exec events are frequent and don't change the inspect data
+            if (event.action.startsWith("exec_")) {
+                return;
+            }
 
-        private ContainerResourceStatsHandler handler = null;
-        private ContainerResourceStats newestResourceStats = null;
-        private NodeIdentifier container;
-        private String nic;
+            for (final MonitoredContainer monitored : monitoredContainers.values()) {
+                if (event.containerName.equals(monitored.getContainerName())) {
+                    log.debug("Container '{}' event '{}', refreshing inspect information", event.containerName,
+                            event.action);
+                    monitored.requestInspect();
+                }
+            }
+        }
+
+        @Override
+        public void handleClosed() {
+            log.warn("Docker event stream closed, reconnecting in {} seconds", EVENTS_RECONNECT_DELAY_SECONDS);
+            inspectPool.schedule(() -> {
+                collector.watchEvents(this);
+
+                // events may have been missed while disconnected
+                monitoredContainers.values().forEach(MonitoredContainer::requestInspect);
+            }, EVENTS_RECONNECT_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Values from the container inspect information.
+     */
+    private static final class InspectInfo {
+        private final Long memoryCapacity;
+        private final Long nanoCpusCapacity;
+        private final String status;
+        private final int pid;
+
+        InspectInfo(final Long memoryCapacity, final Long nanoCpusCapacity, final String status, final int pid) {
+            this.memoryCapacity = memoryCapacity;
+            this.nanoCpusCapacity = nanoCpusCapacity;
+            this.status = status;
+            this.pid = pid;
+        }
+    }
+
+    // State for one monitored container. The stats methods are called on the
+    // collector thread.
+    private final class MonitoredContainer implements ContainerStatsCollector.StatsStream {
+        private final ContainerResourceStatsHandler handler;
+        private volatile ContainerResourceStats newestResourceStats = null;
+        private final NodeIdentifier container;
+        private final String nic;
+
+        private volatile InspectInfo inspectInfo = null;
+        private final AtomicBoolean inspectRequested = new AtomicBoolean(false);
+        private final AtomicBoolean inspectRunning = new AtomicBoolean(false);
+        // only accessed by runInspect, which never runs concurrently
+        private long inspectRetryDelayMs = INSPECT_RETRY_INITIAL_DELAY_MS;
 
         private long prevTxBytes = 0; // -1;
         private long prevRxBytes = 0; // -1;
 
-        private long[] time = new long[2];
+        // only accessed on the cgroup sampler thread
+        private CgroupStatsSampler.Container cgroup = null;
 
-        ContainerMonitorThread(NodeIdentifier container, String nic) {
+        MonitoredContainer(NodeIdentifier container, String nic, ContainerResourceStatsHandler handler) {
             this.container = container;
             this.nic = nic;
-        }
-
-        public void setStatsHandler(ContainerResourceStatsHandler handler) {
             this.handler = handler;
         }
 
         @Override
-        public void run() {
-            super.run();
-
-            running = true;
+        public String getContainerName() {
+            return container.getName();
+        }
 
-            try {
-                monitorContainerStats(container, nic);
-            } catch (IOException e) {
-                log.error("Could not monitor stats for container: {}", container, e);
-            }
+        @Override
+        public String getNic() {
+            return nic;
         }
 
-        // returns relevant container resource usage stats given the name or id
-        // of a
-        // container
-        public void monitorContainerStats(NodeIdentifier container, String nic) throws IOException {
-            URL usageStatsURL = new URL(baseURL + "/containers/" + container.getName() + "/stats");
-            URL inspectURL = new URL(baseURL + "/containers/" + container.getName() + "/json");
+        @Override
+        public void handleSample(final ContainerStatsParser.Sample sample) {
+            newestResourceStats = createContainerResourceStats(sample);
+            log.debug("monitorContainerStats: New stats for container '{}': {}", container, newestResourceStats);
 
-            String inspectJSON = "";
-            inspectJSON = getJSON(inspectURL);
+            if (handler != null)
+                handler.handleStats(container, newestResourceStats);
+        }
 
-            try {
-                HttpURLConnection httpConnection = (HttpURLConnection) usageStatsURL.openConnection();
+        @Override
+        public void handleClosed() {
+            log.debug("Stats stream closed for container '{}'", container);
+        }
 
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(httpConnection.getInputStream(), Charset.defaultCharset()))) {
-                    String line = reader.readLine();
+        /**
+         * Read the cgroup counters for this container. Nothing is done until
+         * the inspect information with the process id is available.
+         */
+        void sampleCgroup(final CgroupStatsSampler sampler, final ContainerStatsParser.Sample sample)
+                throws IOException {
+            final InspectInfo info = inspectInfo;
+            if (null == info || info.pid <= 0) {
+                return;
+            }
 
-                    while (running && line != null) {
-                        inspectJSON = getJSON(inspectURL);
-                        newestResourceStats = getContainerResourceStatsFromJSON(line, inspectJSON, nic);
-                        log.debug("monitorContainerStats: New stats for container '{}': {}", container,
-                                newestResourceStats);
+            if (null == cgroup || cgroup.getPid() != info.pid) {
+                cgroup = sampler.resolve(info.pid);
+                if (null == cgroup) {
+                    return;
+                }
+            }
 
-                        if (handler != null)
-                            handler.handleStats(container, newestResourceStats);
+            sampler.sample(cgroup, nic, sample);
+            handleSample(sample);
+        }
 
-                        line = reader.readLine();
-                    }
-                }
+        public ContainerResourceStats getContainerResourceStats() {
+            return newestResourceStats;
+        }
 
-            } catch (MalformedURLException e) {
-                log.error("Invalid URL", e);
+        /**
+         * Refresh the inspect information in the background. Requests made
+         * while a refresh is running cause one more refresh once it finishes,
+         * so the result is never older than the last request.
+         */
+        void requestInspect() {
+            inspectRequested.set(true);
+            if (inspectRunning.compareAndSet(false, true)) {
+                inspectPool.execute(this::runInspect);
             }
         }
 
-        // parses the JSON that stores container stats and stores the results in
-        // a
-        // ContainerResourceStats object
-        private ContainerResourceStats getContainerResourceStatsFromJSON(String usageJSON,
-                String inspectJSON,
-                String nic) {
+        private void runInspect() {
+            boolean failed = false;
             try {
-                final ObjectMapper jsonParser = JsonUtils.getStandardMapObjectMapper();
-                final JsonNode usageJsonObj = jsonParser.readTree(usageJSON);
-
-                // Capacity
-                Long memoryCapacity = null;
-                Long nanoCpusCapacity = null;
-
-                String status = null;
-
-                if (inspectJSON != null) {
-                    final JsonNode inspectJSONObj = jsonParser.readTree(inspectJSON);
-
-                    if (inspectJSONObj != null) {
-                        JsonNode hostConfig = inspectJSONObj.get("HostConfig");
-
-                        if (hostConfig != null) {
-                            memoryCapacity = hostConfig.get("Memory").asLong();
-                            nanoCpusCapacity = hostConfig.get("NanoCpus").asLong();
-
-                            log.debug("getContainerResourceStatsFromJSON: Memory: " + memoryCapacity
-                                    + ",   CPU Capacity: " + nanoCpusCapacity);
-                        }
-
-                        JsonNode state = inspectJSONObj.get("State");
-
-                        if (state != null) {
-                            status = state.get("Status").asText();
-                            log.debug("getContainerResourceStatsFromJSON: Read status for container '{}': {}",
-                                    container, status);
+                while (inspectRequested.getAndSet(false)) {
+                    try {
+                        final InspectInfo info = inspect();
+                        if (null != info) {
+                            inspectInfo = info;
+                            failed = false;
+                        } else {
+                            failed = true;
                         }
+                    } catch (final IOException e) {
+                        log.error("Could not get inspect information for container: {}", container, e);
+                        failed = true;
                     }
                 }
+            } finally {
+                inspectRunning.set(false);
+            }
 
-                // CPU Usage
-                Long totalUsage = null;
-                Long systemCPUUsage = null;
-                Long onlineCPUs = null;
-                Long preTotalUsage = null;
-                Long preSystemCPUUsage = null;
-
-                JsonNode cpuStats = usageJsonObj.get("cpu_stats");
-                JsonNode precpuStats = usageJsonObj.get("precpu_stats");
+            if (!failed || null != inspectInfo) {
+                inspectRetryDelayMs = INSPECT_RETRY_INITIAL_DELAY_MS;
+            } else if (this == monitoredContainers.get(container)) {
+                // without inspect information there is no capacity, status or
+                // pid, so keep trying rather than waiting for the next event
+                final long delay = inspectRetryDelayMs;
+                inspectRetryDelayMs = Math.min(delay * 2, INSPECT_RETRY_MAX_DELAY_MS);
+                log.warn("No inspect information for container {}, retrying in {} ms", container, delay);
+                inspectPool.schedule(this::requestInspect, delay, TimeUnit.MILLISECONDS);
+            }
 
-                if (cpuStats != null) {
-                    final JsonNode cpuUsage = cpuStats.get("cpu_usage");
+            // a request may have arrived after the loop exited
+            if (inspectRequested.get() && inspectRunning.compareAndSet(false, true)) {
+                inspectPool.execute(this::runInspect);
+            }
+        }
 
-                    if (cpuUsage != null) {
-                        final JsonNode temp = cpuUsage.get("total_usage");
-                        if (null != temp) {
-                            totalUsage = temp.asLong();
+        /**
+         * Fetch the inspect information, parsing it as it is read from
+         * Docker.
+         */
+        private InspectInfo inspect() throws IOException {
+            return client.request("GET", "/containers/" + container.getName() + "/json", null, INSPECT_TIMEOUT_MS,
+                    (code, body) -> {
+                        if (HTTP_OK != code) {
+                            log.error("Inspect of container {} failed with response code {}", container, code);
+                            return null;
                         }
-                    }
-
-                    final JsonNode systemCpuUsageJson = cpuStats.get("system_cpu_usage");
-                    if (null != systemCpuUsageJson) {
-                        systemCPUUsage = systemCpuUsageJson.asLong();
-                    }
-                    final JsonNode onlineCpusJson = cpuStats.get("online_cpus");
-                    if (null != onlineCpusJson) {
-                        onlineCPUs = onlineCpusJson.asLong();
-                    }
-                }
+                        final ObjectMapper jsonParser = JsonUtils.getStandardMapObjectMapper();
+                        return parseInspectJSON(jsonParser.readTree(body));
+                    });
+        }
 
-                if (precpuStats != null) {
-                    JsonNode precpuUsage = precpuStats.get("cpu_usage");
+        private InspectInfo parseInspectJSON(final JsonNode inspectJSONObj) {
+            if (inspectJSONObj == null) {
+                return null;
+            }
 
-                    if (precpuUsage != null) {
-                        final JsonNode temp = precpuUsage.get("total_usage");
-                        if (null != temp) {
-                            preTotalUsage = temp.asLong();
-                        }
-                    }
+            Long memoryCapacity = null;
+            Long nanoCpusCapacity = null;
+            String status = null;
+            int pid = 0;
 
-                    final JsonNode systemCpuUsageJson = precpuStats.get("system_cpu_usage");
-                    if (null != systemCpuUsageJson) {
-                        preSystemCPUUsage = systemCpuUsageJson.asLong();
-                    }
-                }
+            JsonNode hostConfig = inspectJSONObj.get("HostConfig");
 
-                // Compute CPU usage in CPUs
-                double cpus;
-
-                if (totalUsage == null || preTotalUsage == null || systemCPUUsage == null || preSystemCPUUsage == null
-                        || onlineCPUs == null) {
-                    log.warn("Missing information, unable to compute CPU statistics JSON: {}", usageJSON);
-                    cpus = Double.NaN;
-                } else {
-                    // docker computes CPU usage percentage using the code here
-                    // https://github.com/moby/moby/blob/eb131c5383db8cac633919f82abad86c99bffbe5/cli/command/container/stats_helpers.go#L175-L188
-
-                    final double cpuDelta = totalUsage - preTotalUsage;
-                    final double systemDelta = systemCPUUsage - preSystemCPUUsage;
-                    // This is the value output by "docker stats" / 100.
-                    // Based on experimentation this value is the number of host CPUs that are busy.
-                    // So if a container is given 0.5 CPUs and it is fully busy, this value is 0.5.
-                    // This is consistent with the CPU capacity, so no more math is needed.
-                    final double percentageOfOneHostCPU = (cpuDelta / systemDelta) * onlineCPUs;
-
-                    cpus = percentageOfOneHostCPU;
-                    if (Double.isInfinite(cpus)) {
-                        // NaN or Infinity
-                        cpus = 0;
-                        log.warn(
-                                "Found infinite CPU load. totalUsage: {} preTotalUsage: {} systemCPUUsage: {} preSystemCPUUsage: {} json: {}",
-                                totalUsage, preTotalUsage, systemCPUUsage, preSystemCPUUsage, usageJsonObj);
-                    } else if (Double.isNaN(cpus)) {
-                        log.error(
-                                "Found NaN CPU load. totalUsage: {} preTotalUsage: {} systemCPUUsage: {} preSystemCPUUsage: {} json: {}",
-                                totalUsage, preTotalUsage, systemCPUUsage, preSystemCPUUsage, usageJsonObj);
-                    }
-                }
+            if (hostConfig != null) {
+                memoryCapacity = hostConfig.get("Memory").asLong();
+                nanoCpusCapacity = hostConfig.get("NanoCpus").asLong();
 
-                // Memory Usage
-                Long memoryUsage = null;
-                final JsonNode memoryStats = usageJsonObj.get("memory_stats");
-                if (memoryStats != null) {
-                    final JsonNode usage = memoryStats.get("usage");
-                    if(null != usage) {
-                        memoryUsage = usage.asLong();
-                    }
-                }
+                log.debug("getContainerResourceStatsFromJSON: Memory: " + memoryCapacity + ",   CPU Capacity: "
+                        + nanoCpusCapacity);
+            }
 
-                // Network usage
-                Long rxBytes = null, txBytes = null;
-                final JsonNode networks = usageJsonObj.get("networks");
+            JsonNode state = inspectJSONObj.get("State");
 
-                if (networks != null) {
-                    JsonNode network = networks.get(nic);
-                    if(null != network) {
-                        final JsonNode rx = network.get("rx_bytes");
-                        if(null != rx) {
-                        rxBytes = rx.asLong();
-                        }
-                        final JsonNode tx = network.get("rx_bytes");
-                        if(null != tx) {                        
-                            txBytes = tx.asLong();
-                        }
-                    }
+            if (state != null) {
+                status = state.get("Status").asText();
+                final JsonNode pidNode = state.get("Pid");
+                if (null != pidNode) {
+                    pid = pidNode.asInt();
                 }
+                log.debug("getContainerResourceStatsFromJSON: Read status for container '{}': {}", container,
+                        status);
+            }
 
-                // // initialize prevRxBytes and prevTxBytes on the first sample
-                // if (prevRxBytes < 0)
-                // prevRxBytes = (rxBytes != null ? rxBytes : 0);
-                //
-                // if (prevTxBytes < 0)
-                // prevTxBytes = (txBytes != null ? txBytes : 0);
-
-                // construct ContainerResourceStats object
-                // record the current time
-                shiftValueIntoArray(time, System.currentTimeMillis());
-
-                ContainerResourceStats crs = new ContainerResourceStats();
-
-                crs.setComputeUsage(cpus, (memoryUsage != null ? memoryUsage : 0));
+            return new InspectInfo(memoryCapacity, nanoCpusCapacity, status, pid);
+        }
 
-                if (rxBytes != null && txBytes != null) {
-                    crs.setNetworkUsage(nic, rxBytes - prevRxBytes, txBytes - prevTxBytes);
-                    prevRxBytes = rxBytes;
-                    prevTxBytes = txBytes;
+        // converts the values read from the stats stream and the most recent
+        // inspect information into a ContainerResourceStats object
+        private ContainerResourceStats createContainerResourceStats(final ContainerStatsParser.Sample sample) {
+            // Capacity
+            final InspectInfo info = inspectInfo;
+            final Long memoryCapacity = null == info ? null : info.memoryCapacity;
+            final Long nanoCpusCapacity = null == info ? null : info.nanoCpusCapacity;
+            final String status = null == info ? null : info.status;
+
+            // Compute CPU usage in CPUs
+            double cpus;
+
+            if (sample.totalUsage == ContainerStatsParser.MISSING
+                    || sample.preTotalUsage == ContainerStatsParser.MISSING
+                    || sample.systemCpuUsage == ContainerStatsParser.MISSING
+                    || sample.preSystemCpuUsage == ContainerStatsParser.MISSING
+                    || sample.onlineCpus == ContainerStatsParser.MISSING) {
+                log.warn("Missing information, unable to compute CPU statistics for container: {}", container);
+                cpus = Double.NaN;
+            } else {
+                // docker computes CPU usage percentage using the code here
+                // https://github.com/moby/moby/blob/eb131c5383db8cac633919f82abad86c99bffbe5/cli/command/container/stats_helpers.go#L175-L188
+
+                final double cpuDelta = sample.totalUsage - sample.preTotalUsage;
+                final double systemDelta = sample.systemCpuUsage - sample.preSystemCpuUsage;
+                // This is the value output by "docker stats" / 100.
+                // Based on experimentation this value is the number of host CPUs that are busy.
+                // So if a container is given 0.5 CPUs and it is fully busy, this value is 0.5.
+                // This is consistent with the CPU capacity, so no more math is needed.
+                final double percentageOfOneHostCPU = (cpuDelta / systemDelta) * sample.onlineCpus;
+
+                cpus = percentageOfOneHostCPU;
+                if (Double.isInfinite(cpus)) {
+                    // NaN or Infinity
+                    cpus = 0;
+                    log.warn(
+                            "Found infinite CPU load. totalUsage: {} preTotalUsage: {} systemCPUUsage: {} preSystemCPUUsage: {}",
+                            sample.totalUsage, sample.preTotalUsage, sample.systemCpuUsage,
+                            sample.preSystemCpuUsage);
+                } else if (Double.isNaN(cpus)) {
+                    log.error(
+                            "Found NaN CPU load. totalUsage: {} preTotalUsage: {} systemCPUUsage: {} preSystemCPUUsage: {}",
+                            sample.totalUsage, sample.preTotalUsage, sample.systemCpuUsage,
+                            sample.preSystemCpuUsage);
                 }
+            }
 
-                if (nanoCpusCapacity != null && memoryCapacity != null) {
-                    crs.setComputeCapacity(nanoCpusCapacity * 1.0 / CPUS_TO_NANO_CPUS, memoryCapacity);
-                }
+            // Memory Usage
+            final long memoryUsage = sample.memoryUsage != ContainerStatsParser.MISSING ? sample.memoryUsage : 0;
 
-                if (status != null)
-                    crs.setStatus(status);
+            // construct ContainerResourceStats object
+            ContainerResourceStats crs = new ContainerResourceStats();
 
-                log.debug("getContainerResourceStatsFromJSON: return crs: {}", crs);
-                return crs;
-            } catch (final IOException e) {
-                log.error("getContainerResourceStatsFromJSON: Error", e);
+            crs.setComputeUsage(cpus, memoryUsage);
+
+            // Network usage
+            if (sample.rxBytes != ContainerStatsParser.MISSING && sample.txBytes != ContainerStatsParser.MISSING) {
+                crs.setNetworkUsage(nic, sample.rxBytes - prevRxBytes, sample.txBytes - prevTxBytes);
+                prevRxBytes = sample.rxBytes;
+                prevTxBytes = sample.txBytes;
             }
 
-            return null;
-        }
+            if (nanoCpusCapacity != null && memoryCapacity != null) {
+                crs.setComputeCapacity(nanoCpusCapacity * 1.0 / CPUS_TO_NANO_CPUS, memoryCapacity);
+            }
 
-        public void stopMonitor() {
-            running = false;
-        }
+            if (status != null)
+                crs.setStatus(status);
 
-        public ContainerResourceStats getContainerResourceStats() {
-            return newestResourceStats;
+            log.debug("getContainerResourceStatsFromJSON: return crs: {}", crs);
+            return crs;
         }
     }
 
-    // shifts a value into index 0 of an array after shifting every other
-    // element to
-    // the next index
-    private void shiftValueIntoArray(long[] array, long value) {
-        for (int n = array.length - 1; n > 0; n--)
-            array[n] = array[n - 1];
-
-        array[0] = value;
-    }
-
     /**
      * Interface for objects that should be periodically notified to handle a
      * resource usage updates for a Docker container.
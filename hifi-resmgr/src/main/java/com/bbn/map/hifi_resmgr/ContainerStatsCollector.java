@@ -0,0 +1,439 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Collect the streaming Docker stats for many containers on a single thread.
+ * Each container has a non-blocking connection to the Docker stats API and all
+ * of the connections are serviced by one selector. Each stats object is
+ * parsed with {@link ContainerStatsParser} and passed to the
+ * {@link StatsStream} for the container. The Docker container event stream
+ * can be watched and the container logs followed on the same thread.
+ * 
+ * @author jschewe
+ *
+ */
+/* package */ final class ContainerStatsCollector {
+
+    private static final Logger LOGGER = LogManager.getLogger(ContainerStatsCollector.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A container to collect stats for. The methods are called on the
+     * collector thread.
+     */
+    /* package */ interface StatsStream {
+        /**
+         * @return the name of the container in Docker
+         */
+        String getContainerName();
+
+        /**
+         * @return the NIC to read network statistics for
+         */
+        String getNic();
+
+        /**
+         * Called for each stats object. The sample is reused once this method
+         * returns.
+         * 
+         * @param sample
+         *            the values read from Docker
+         */
+        void handleSample(ContainerStatsParser.Sample sample);
+
+        /**
+         * Called when Docker closes the stats stream or the connection fails.
+         * Not called after {@link ContainerStatsCollector#remove(Object)}.
+         */
+        void handleClosed();
+    }
+
+    /**
+     * A container to follow the logs of. The methods are called on the
+     * collector thread.
+     */
+    /* package */ interface LogStream {
+        /**
+         * @return the name of the container in Docker
+         */
+        String getContainerName();
+
+        /**
+         * Called as log data arrives. This is the raw Docker log stream
+         * including any frame headers.
+         * 
+         * @param buffer
+         *            the log data, reused once this method returns
+         * @param offset
+         *            offset into buffer
+         * @param length
+         *            number of bytes of log data
+         * @throws IOException
+         *             if the data cannot be handled, this closes the stream
+         */
+        void handleData(byte[] buffer, int offset, int length) throws IOException;
+
+        /**
+         * Called when Docker ends the log stream, which happens when the
+         * container stops, or the connection fails. Not called after
+         * {@link ContainerStatsCollector#remove(Object)}.
+         * 
+         * @param complete
+         *            true if all of the logs were received
+         */
+        void handleClosed(boolean complete);
+    }
+
+    /**
+     * Notified when a connection is closed by Docker or fails.
+     */
+    @FunctionalInterface
+    private interface CloseHandler {
+        void handleClosed(boolean complete);
+    }
+
+    /**
+     * Receives container lifecycle events. The methods are called on the
+     * collector thread.
+     */
+    /* package */ interface EventListener {
+        /**
+         * Called for each container event.
+         * 
+         * @param event
+         *            the event, this object is reused once this method returns
+         */
+        void handleEvent(ContainerStatsParser.Event event);
+
+        /**
+         * Called when the event stream is closed by Docker or fails. Not
+         * called after {@link ContainerStatsCollector#remove(Object)}.
+         */
+        void handleClosed();
+    }
+
+    private final DockerApiClient client;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final ContainerStatsParser parser = new ContainerStatsParser();
+
+    // only accessed on the collector thread
+    private final Map<Object, Connection> connections = new HashMap<>();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param host
+     *            the host that the Docker API is listening on
+     * @param port
+     *            the port that the Docker API is listening on
+     * @param pathPrefix
+     *            prefix for API paths, such as the API version
+     * @throws IOException
+     *             if the selector cannot be created
+     */
+    /* package */ ContainerStatsCollector(final String host, final int port, final String pathPrefix)
+            throws IOException {
+        this(DockerApiClient.forTcp(host, port, pathPrefix));
+    }
+
+    /**
+     * @param client
+     *            used to find the address and transport of the Docker API,
+     *            the streams use their own connections
+     * @throws IOException
+     *             if the selector cannot be created
+     */
+    /* package */ ContainerStatsCollector(final DockerApiClient client) throws IOException {
+        this.client = client;
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, "Container stats collector");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Start collecting stats for a container.
+     * 
+     * @param stream
+     *            the container
+     */
+    public void add(final StatsStream stream) {
+        final String nic = stream.getNic();
+        final ContainerStatsParser.Sample sample = new ContainerStatsParser.Sample();
+        open(stream, "stats for container " + stream.getContainerName(),
+                "/containers/" + stream.getContainerName() + "/stats",
+                new HttpLineStreamDecoder((buffer, offset, length) -> {
+                    // each line is a complete sample, skip a bad one rather
+                    // than closing the stream
+                    try {
+                        parser.parse(buffer, offset, length, nic, sample);
+                    } catch (final IOException e) {
+                        LOGGER.warn("Skipping invalid stats for container {}", stream.getContainerName(), e);
+                        return;
+                    }
+                    stream.handleSample(sample);
+                }), complete -> stream.handleClosed());
+    }
+
+    /**
+     * Start following the logs of a container. The stream ends when the
+     * container stops.
+     * 
+     * @param stream
+     *            the container, also used to stop following with
+     *            {@link #remove(Object)}
+     */
+    public void followLogs(final LogStream stream) {
+        open(stream, "logs for container " + stream.getContainerName(),
+                "/containers/" + stream.getContainerName() + "/logs?stdout=true&stderr=true&follow=true",
+                HttpLineStreamDecoder.forBody(stream::handleData), stream::handleClosed);
+    }
+
+    /**
+     * Start watching the Docker container events.
+     * 
+     * @param listener
+     *            where to send the events, also used to stop watching with
+     *            {@link #remove(Object)}
+     */
+    public void watchEvents(final EventListener listener) {
+        final ContainerStatsParser.Event event = new ContainerStatsParser.Event();
+        open(listener, "container events", "/events?filters=%7B%22type%22%3A%5B%22container%22%5D%7D",
+                new HttpLineStreamDecoder((buffer, offset, length) -> {
+                    try {
+                        parser.parseEvent(buffer, offset, length, event);
+                    } catch (final IOException e) {
+                        LOGGER.warn("Skipping invalid container event", e);
+                        return;
+                    }
+                    listener.handleEvent(event);
+                }), complete -> listener.handleClosed());
+    }
+
+    private void open(final Object key,
+            final String description,
+            final String path,
+            final HttpLineStreamDecoder decoder,
+            final CloseHandler onClosed) {
+        runOnCollector(() -> {
+            final Connection existing = connections.remove(key);
+            if (null != existing) {
+                existing.close();
+            }
+
+            try {
+                final Connection connection = new Connection(key, description, path, decoder, onClosed);
+                connections.put(key, connection);
+                LOGGER.debug("Started reading {}", description);
+            } catch (final IOException e) {
+                LOGGER.error("Could not read {}", description, e);
+                onClosed.handleClosed(false);
+            }
+        });
+    }
+
+    /**
+     * Stop collecting stats for a container or stop watching events.
+     * 
+     * @param key
+     *            the {@link StatsStream} or {@link EventListener}
+     */
+    public void remove(final Object key) {
+        runOnCollector(() -> {
+            final Connection connection = connections.remove(key);
+            if (null != connection) {
+                connection.close();
+                LOGGER.debug("Stopped reading {}", connection.description);
+            }
+        });
+    }
+
+    /**
+     * Close all connections and stop the collector thread.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void runOnCollector(final Runnable task) {
+        pending.add(task);
+        selector.wakeup();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+
+                Runnable task;
+                while (null != (task = pending.poll())) {
+                    task.run();
+                }
+
+                final Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    final SelectionKey key = iter.next();
+                    iter.remove();
+
+                    final Connection connection = (Connection) key.attachment();
+                    if (key.isValid()) {
+                        try {
+                            connection.service(key);
+                        } catch (final IOException e) {
+                            LOGGER.error("Could not read {}", connection.description, e);
+                            closeFromCollector(connection, false);
+                        }
+                    }
+                }
+            }
+        } catch (final IOException | ClosedSelectorException e) {
+            LOGGER.error("Container stats collector failed", e);
+        } finally {
+            connections.values().forEach(Connection::close);
+            connections.clear();
+            try {
+                selector.close();
+            } catch (final IOException e) {
+                LOGGER.debug("Error closing selector", e);
+            }
+        }
+    }
+
+    /**
+     * Close a connection that ended on its own and notify the owner.
+     * 
+     * @param complete
+     *            true if the whole response was read
+     */
+    private void closeFromCollector(final Connection connection, final boolean complete) {
+        connection.close();
+        if (connections.remove(connection.key, connection)) {
+            connection.onClosed.handleClosed(complete);
+        }
+    }
+
+    private final class Connection {
+        private final Object key;
+        private final String description;
+        private final CloseHandler onClosed;
+        private final SocketChannel channel;
+        private final ByteBuffer request;
+        private final HttpLineStreamDecoder decoder;
+
+        Connection(final Object key,
+                final String description,
+                final String path,
+                final HttpLineStreamDecoder decoder,
+                final CloseHandler onClosed) throws IOException {
+            this.key = key;
+            this.description = description;
+            this.onClosed = onClosed;
+            this.decoder = decoder;
+
+            final String requestText = "GET " + client.getPathPrefix() + path + " HTTP/1.1\r\nHost: "
+                    + client.getHostHeader() + "\r\nAccept: application/json\r\n\r\n";
+            this.request = ByteBuffer.wrap(requestText.getBytes(StandardCharsets.US_ASCII));
+
+            this.channel = client.newChannel();
+            try {
+                channel.configureBlocking(false);
+                if (channel.connect(client.getAddress())) {
+                    channel.register(selector, SelectionKey.OP_WRITE, this);
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+            } catch (final IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        void service(final SelectionKey key) throws IOException {
+            if (key.isConnectable() && channel.finishConnect()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+
+            if (key.isValid() && key.isWritable()) {
+                channel.write(request);
+                if (!request.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+
+            if (key.isValid() && key.isReadable()) {
+                readBuffer.clear();
+                final int count = channel.read(readBuffer);
+                if (count < 0) {
+                    LOGGER.debug("Docker closed {}", description);
+                    closeFromCollector(this, decoder.isBodyComplete());
+                } else {
+                    readBuffer.flip();
+                    if (!decoder.decode(readBuffer)) {
+                        LOGGER.debug("{} ended", description);
+                        closeFromCollector(this, true);
+                    }
+                }
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                LOGGER.debug("Error closing connection for {}", description, e);
+            }
+        }
+    }
+
+}
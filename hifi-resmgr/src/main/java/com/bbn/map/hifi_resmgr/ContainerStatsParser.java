@@ -0,0 +1,288 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Parse the JSON objects from the Docker stats and events APIs. Only the values
+ * used by {@link ContainerResourceMonitor} are read and the rest of the object
+ * is skipped, so no tree model is built for each sample.
+ * 
+ * @author jschewe
+ *
+ */
+/* package */ final class ContainerStatsParser {
+
+    /**
+     * Value stored in a {@link Sample} field when the value is missing from the
+     * JSON.
+     */
+    public static final long MISSING = Long.MIN_VALUE;
+
+    private final JsonFactory factory = new JsonFactory();
+
+    /**
+     * Parse one stats object.
+     * 
+     * @param buffer
+     *            the JSON text
+     * @param offset
+     *            the offset into buffer
+     * @param length
+     *            the number of bytes to parse
+     * @param nic
+     *            the NIC to read network statistics for
+     * @param sample
+     *            where to store the values, it is reset before parsing
+     * @throws IOException
+     *             if the JSON is invalid
+     */
+    public void parse(final byte[] buffer,
+            final int offset,
+            final int length,
+            final String nic,
+            final Sample sample) throws IOException {
+        sample.reset();
+
+        try (JsonParser parser = factory.createParser(buffer, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expecting a JSON object for container stats");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if (value != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                } else if ("cpu_stats".equals(name)) {
+                    parseCpu(parser, sample, false);
+                } else if ("precpu_stats".equals(name)) {
+                    parseCpu(parser, sample, true);
+                } else if ("memory_stats".equals(name)) {
+                    parseMemory(parser, sample);
+                } else if ("networks".equals(name)) {
+                    parseNetworks(parser, nic, sample);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse one object from the Docker events stream.
+     * 
+     * @param buffer
+     *            the JSON text
+     * @param offset
+     *            the offset into buffer
+     * @param length
+     *            the number of bytes to parse
+     * @param event
+     *            where to store the values, it is reset before parsing
+     * @throws IOException
+     *             if the JSON is invalid
+     */
+    public void parseEvent(final byte[] buffer, final int offset, final int length, final Event event)
+            throws IOException {
+        event.type = null;
+        event.action = null;
+        event.containerName = null;
+
+        try (JsonParser parser = factory.createParser(buffer, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expecting a JSON object for a Docker event");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("Type".equals(name)) {
+                    event.type = parser.getValueAsString();
+                } else if ("Action".equals(name)) {
+                    event.action = parser.getValueAsString();
+                } else if ("Actor".equals(name) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String actorName = parser.getCurrentName();
+                        final JsonToken actorValue = parser.nextToken();
+                        if ("Attributes".equals(actorName) && actorValue == JsonToken.START_OBJECT) {
+                            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                final String attribute = parser.getCurrentName();
+                                parser.nextToken();
+                                if ("name".equals(attribute)) {
+                                    event.containerName = parser.getValueAsString();
+                                } else {
+                                    parser.skipChildren();
+                                }
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static long readLong(final JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        } else {
+            parser.skipChildren();
+            return MISSING;
+        }
+    }
+
+    private static void parseCpu(final JsonParser parser, final Sample sample, final boolean previous)
+            throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if ("cpu_usage".equals(name) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String usageName = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("total_usage".equals(usageName)) {
+                        if (previous) {
+                            sample.preTotalUsage = readLong(parser);
+                        } else {
+                            sample.totalUsage = readLong(parser);
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if ("system_cpu_usage".equals(name)) {
+                if (previous) {
+                    sample.preSystemCpuUsage = readLong(parser);
+                } else {
+                    sample.systemCpuUsage = readLong(parser);
+                }
+            } else if ("online_cpus".equals(name) && !previous) {
+                sample.onlineCpus = readLong(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void parseMemory(final JsonParser parser, final Sample sample) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("usage".equals(name)) {
+                sample.memoryUsage = readLong(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void parseNetworks(final JsonParser parser, final String nic, final Sample sample)
+            throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if (name.equals(nic) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String counterName = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("rx_bytes".equals(counterName)) {
+                        sample.rxBytes = readLong(parser);
+                    } else if ("tx_bytes".equals(counterName)) {
+                        sample.txBytes = readLong(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Values read from one event object. Fields that were not in the object are
+     * null. Instances are reused between events.
+     */
+    // CHECKSTYLE:OFF value class
+    /* package */ static final class Event {
+        String type;
+        String action;
+        String containerName;
+    }
+    // CHECKSTYLE:ON
+
+    /**
+     * Values read from one stats object. Fields that were not in the object are
+     * {@link ContainerStatsParser#MISSING}. Instances are reused between
+     * samples.
+     */
+    // CHECKSTYLE:OFF value class
+    /* package */ static final class Sample {
+        long totalUsage;
+        long systemCpuUsage;
+        long onlineCpus;
+        long preTotalUsage;
+        long preSystemCpuUsage;
+        long memoryUsage;
+        long rxBytes;
+        long txBytes;
+
+        /**
+         * Create a sample with all values missing.
+         */
+        Sample() {
+            reset();
+        }
+
+        void reset() {
+            totalUsage = MISSING;
+            systemCpuUsage = MISSING;
+            onlineCpus = MISSING;
+            preTotalUsage = MISSING;
+            preSystemCpuUsage = MISSING;
+            memoryUsage = MISSING;
+            rxBytes = MISSING;
+            txBytes = MISSING;
+        }
+    }
+    // CHECKSTYLE:ON
+
+}
@@ -0,0 +1,251 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import com.bbn.protelis.networkresourcemanagement.ServiceIdentifier;
+
+/**
+ * Bookkeeping for containers that are created ahead of time so that starting
+ * a service only needs to start an existing container. The number of
+ * containers kept for a service is the number of times the service was
+ * started within the demand window, limited to a maximum per service. This
+ * class does not talk to Docker, the caller creates and removes the
+ * containers.
+ * 
+ * @author jschewe
+ *
+ * @param <T>
+ *            information about a pooled container
+ */
+/* package */ final class ContainerWarmPool<T> {
+
+    private final int maxPerService;
+    private final long demandWindowMs;
+    private final LongSupplier clock;
+
+    private final Object lock = new Object();
+    private final Map<ServiceIdentifier<?>, Deque<T>> pooled = new HashMap<>();
+    private final Map<ServiceIdentifier<?>, Deque<Long>> starts = new HashMap<>();
+    private final Map<ServiceIdentifier<?>, Integer> pending = new HashMap<>();
+
+    /**
+     * @param maxPerService
+     *            the maximum number of containers to keep for a service
+     * @param demandWindowMs
+     *            how far back to look at service starts when sizing the pool
+     */
+    /* package */ ContainerWarmPool(final int maxPerService, final long demandWindowMs) {
+        this(maxPerService, demandWindowMs, System::currentTimeMillis);
+    }
+
+    /**
+     * @param maxPerService
+     *            the maximum number of containers to keep for a service
+     * @param demandWindowMs
+     *            how far back to look at service starts when sizing the pool
+     * @param clock
+     *            the current time in milliseconds, used for testing
+     */
+    /* package */ ContainerWarmPool(final int maxPerService, final long demandWindowMs, final LongSupplier clock) {
+        this.maxPerService = maxPerService;
+        this.demandWindowMs = demandWindowMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Record that a service was started. This is used to size the pool.
+     * 
+     * @param service
+     *            the service
+     */
+    /* package */ void recordStart(final ServiceIdentifier<?> service) {
+        synchronized (lock) {
+            starts.computeIfAbsent(service, k -> new ArrayDeque<>()).addLast(clock.getAsLong());
+        }
+    }
+
+    /**
+     * @param service
+     *            the service
+     * @return a pooled container for the service or null if there is none
+     */
+    /* package */ T take(final ServiceIdentifier<?> service) {
+        synchronized (lock) {
+            final Deque<T> containers = pooled.get(service);
+            return null == containers ? null : containers.pollFirst();
+        }
+    }
+
+    /**
+     * Find the services that need more containers. Each returned entry is one
+     * container to create and is counted as pending until
+     * {@link #refillFinished(ServiceIdentifier, Object)} is called.
+     * 
+     * @return the services to create a container for, a service appears once
+     *         for each container that is needed
+     */
+    /* package */ List<ServiceIdentifier<?>> reserveRefills() {
+        synchronized (lock) {
+            pruneStarts();
+
+            final List<ServiceIdentifier<?>> refills = new ArrayList<>();
+            starts.forEach((service, times) -> {
+                final int have = pooledCount(service) + pending.getOrDefault(service, 0);
+                for (int i = have; i < target(times); ++i) {
+                    refills.add(service);
+                    pending.merge(service, 1, Integer::sum);
+                }
+            });
+            return refills;
+        }
+    }
+
+    /**
+     * Finish a refill started by {@link #reserveRefills()}.
+     * 
+     * @param service
+     *            the service
+     * @param container
+     *            the new container or null if it could not be created
+     */
+    /* package */ void refillFinished(final ServiceIdentifier<?> service, final T container) {
+        synchronized (lock) {
+            pending.computeIfPresent(service, (k, v) -> v > 1 ? v - 1 : null);
+            if (null != container) {
+                pooled.computeIfAbsent(service, k -> new ArrayDeque<>()).addLast(container);
+            }
+        }
+    }
+
+    /**
+     * Remove containers beyond what the recent demand calls for.
+     * 
+     * @return the containers to remove from Docker
+     */
+    /* package */ List<T> trimExcess() {
+        synchronized (lock) {
+            pruneStarts();
+
+            final List<T> excess = new ArrayList<>();
+            final Iterator<Map.Entry<ServiceIdentifier<?>, Deque<T>>> iter = pooled.entrySet().iterator();
+            while (iter.hasNext()) {
+                final Map.Entry<ServiceIdentifier<?>, Deque<T>> entry = iter.next();
+                final int target = target(starts.get(entry.getKey()));
+                final Deque<T> containers = entry.getValue();
+                while (containers.size() > target) {
+                    // the oldest containers are at the front
+                    excess.add(containers.pollFirst());
+                }
+                if (containers.isEmpty()) {
+                    iter.remove();
+                }
+            }
+            return excess;
+        }
+    }
+
+    /**
+     * Remove one pooled container of any service. Used when a container name
+     * is needed.
+     * 
+     * @return the container to remove from Docker or null if the pool is
+     *         empty
+     */
+    /* package */ T evictOne() {
+        synchronized (lock) {
+            // take from the service with the most pooled containers
+            Deque<T> largest = null;
+            for (final Deque<T> containers : pooled.values()) {
+                if (null == largest || containers.size() > largest.size()) {
+                    largest = containers;
+                }
+            }
+            return null == largest ? null : largest.pollFirst();
+        }
+    }
+
+    /**
+     * Empty the pool.
+     * 
+     * @return the containers to remove from Docker
+     */
+    /* package */ List<T> drainAll() {
+        synchronized (lock) {
+            final List<T> all = new ArrayList<>();
+            pooled.values().forEach(all::addAll);
+            pooled.clear();
+            return all;
+        }
+    }
+
+    /**
+     * @return the number of pooled containers
+     */
+    /* package */ int size() {
+        synchronized (lock) {
+            return pooled.values().stream().mapToInt(Deque::size).sum();
+        }
+    }
+
+    private int pooledCount(final ServiceIdentifier<?> service) {
+        final Deque<T> containers = pooled.get(service);
+        return null == containers ? 0 : containers.size();
+    }
+
+    private int target(final Deque<Long> times) {
+        return null == times ? 0 : Math.min(maxPerService, times.size());
+    }
+
+    private void pruneStarts() {
+        final long oldest = clock.getAsLong() - demandWindowMs;
+        final Iterator<Deque<Long>> iter = starts.values().iterator();
+        while (iter.hasNext()) {
+            final Deque<Long> times = iter.next();
+            while (!times.isEmpty() && times.peekFirst() < oldest) {
+                times.pollFirst();
+            }
+            if (times.isEmpty()) {
+                iter.remove();
+            }
+        }
+    }
+
+}
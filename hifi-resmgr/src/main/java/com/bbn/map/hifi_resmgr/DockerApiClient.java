@@ -0,0 +1,912 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Client for the Docker Engine API that keeps its connections open between
+ * requests. Connections are made over TCP, see the Docker README for
+ * binding the daemon to a TCP port. Each request has its own timeout and the latency of each API endpoint is
+ * tracked and logged once a minute.
+ * 
+ * Response bodies are handed to a {@link ResponseHandler} as a stream read
+ * directly from the connection so that JSON can be parsed without first
+ * buffering the whole response.
+ * 
+ * @author jschewe
+ *
+ */
+public final class DockerApiClient {
+
+    private static final Logger LOGGER = LogManager.getLogger(DockerApiClient.class);
+
+    /**
+     * Value for a request timeout to wait forever.
+     */
+    public static final long NO_TIMEOUT = 0;
+
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+
+    /**
+     * Unread response data larger than this is not drained, the connection is
+     * closed instead.
+     */
+    private static final long MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final long STATISTICS_LOG_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MAX_HEADER_LENGTH = 8 * 1024;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int HEX_RADIX = 16;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int HTTP_NO_CONTENT = 204;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_INFORMATIONAL_END = 200;
+
+    /**
+     * Path segments that name a collection of objects. The segment that
+     * follows is an object identifier unless it is an action on the
+     * collection.
+     */
+    private static final Set<String> COLLECTIONS = ImmutableSet.of("containers", "images", "exec", "networks",
+            "volumes");
+    private static final Set<String> COLLECTION_ACTIONS = ImmutableSet.of("create", "json", "prune", "search", "load",
+            "get");
+    private static final Set<String> IMAGE_ACTIONS = ImmutableSet.of("json", "history", "push", "tag", "get");
+
+    private static final ScheduledThreadPoolExecutor TIMEOUTS;
+    static {
+        TIMEOUTS = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("Docker API timeout").setDaemon(true).build());
+        TIMEOUTS.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Handles the body of a response.
+     * 
+     * @param <T>
+     *            the type of the result
+     */
+    @FunctionalInterface
+    public interface ResponseHandler<T> {
+        /**
+         * @param code
+         *            the HTTP status code
+         * @param body
+         *            the response body, this does not need to be read
+         *            completely or closed
+         * @return the result of the request
+         * @throws IOException
+         *             if there is an error reading the body
+         */
+        T handle(int code, InputStream body) throws IOException;
+    }
+
+    /**
+     * A response with the body read into a string.
+     */
+    public static final class Response {
+        private final int code;
+        private final String responseString;
+
+        private Response(final int code, final String responseString) {
+            this.code = code;
+            this.responseString = responseString;
+        }
+
+        /**
+         * @return the HTTP status code
+         */
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * @return the response body
+         */
+        public String getResponseString() {
+            return responseString;
+        }
+    }
+
+    private final SocketAddress address;
+    private final String hostHeader;
+    private final String pathPrefix;
+
+    private final Deque<Connection> idle = new ArrayDeque<>();
+
+    private final Map<String, EndpointCounters> endpoints = new ConcurrentHashMap<>();
+    private final AtomicLong lastStatisticsLog = new AtomicLong(System.currentTimeMillis());
+
+    private DockerApiClient(final SocketAddress address, final String hostHeader, final String pathPrefix) {
+        this.address = address;
+        this.hostHeader = hostHeader;
+        this.pathPrefix = pathPrefix;
+    }
+
+    /**
+     * Connect to Docker over TCP.
+     * 
+     * @param host
+     *            the host that the Docker API is listening on
+     * @param port
+     *            the port that the Docker API is listening on
+     * @param pathPrefix
+     *            prefix for API paths, such as the API version
+     * @return the client
+     */
+    public static DockerApiClient forTcp(final String host, final int port, final String pathPrefix) {
+        return new DockerApiClient(new InetSocketAddress(host, port), host + ":" + port, pathPrefix);
+    }
+
+    /**
+     * Connect to Docker over TCP.
+     * 
+     * @param baseURL
+     *            the protocol, host, port and API version path, such as
+     *            "http://localhost:5010/v1.32"
+     * @return the client
+     * @throws MalformedURLException
+     *             if baseURL cannot be parsed
+     */
+    public static DockerApiClient forUrl(final String baseURL) throws MalformedURLException {
+        final URL url = new URL(baseURL);
+        final int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        return forTcp(url.getHost(), port, url.getPath());
+    }
+
+    /**
+     * @return the address that Docker is listening on
+     */
+    /* package */ SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the value to send in the HTTP Host header
+     */
+    /* package */ String getHostHeader() {
+        return hostHeader;
+    }
+
+    /**
+     * @return prefix for API paths
+     */
+    /* package */ String getPathPrefix() {
+        return pathPrefix;
+    }
+
+    /**
+     * @return a new unconnected channel for {@link #getAddress()}
+     * @throws IOException
+     *             if the channel cannot be opened
+     */
+    /* package */ SocketChannel newChannel() throws IOException {
+        return SocketChannel.open();
+    }
+
+    /**
+     * Make a request and read the body into a string.
+     * 
+     * @param method
+     *            the HTTP method
+     * @param path
+     *            the API path, without the prefix, including any query
+     * @param jsonContent
+     *            the request body, may be null
+     * @param timeoutMs
+     *            how long to wait for the whole request in milliseconds or
+     *            {@link #NO_TIMEOUT}
+     * @return the response
+     * @throws IOException
+     *             if there is an error talking to Docker or the request
+     *             times out
+     */
+    public Response request(final String method, final String path, final String jsonContent, final long timeoutMs)
+            throws IOException {
+        return request(method, path, jsonContent, timeoutMs,
+                (code, body) -> new Response(code, readString(body)));
+    }
+
+    /**
+     * Make a request and pass the response body to a handler while it is
+     * being read from Docker.
+     * 
+     * @param <T>
+     *            the type of the result
+     * @param method
+     *            the HTTP method
+     * @param path
+     *            the API path, without the prefix, including any query
+     * @param jsonContent
+     *            the request body, may be null
+     * @param timeoutMs
+     *            how long to wait for the whole request, including the
+     *            handler, in milliseconds or {@link #NO_TIMEOUT}
+     * @param handler
+     *            reads the response
+     * @return the value returned from the handler
+     * @throws IOException
+     *             if there is an error talking to Docker, the handler fails
+     *             or the request times out
+     */
+    public <T> T request(final String method,
+            final String path,
+            final String jsonContent,
+            final long timeoutMs,
+            final ResponseHandler<T> handler) throws IOException {
+        if (null != jsonContent && "GET".equals(method)) {
+            throw new IllegalArgumentException("Cannot send a request body with GET request method");
+        }
+
+        final byte[] requestBytes = formatRequest(method, path, jsonContent);
+        final String endpoint = endpointName(method, path);
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final T result = execute(method, requestBytes, timeoutMs, handler);
+            success = true;
+            return result;
+        } finally {
+            recordLatency(endpoint, System.nanoTime() - start, success);
+        }
+    }
+
+    private byte[] formatRequest(final String method, final String path, final String jsonContent) {
+        final byte[] content = null == jsonContent ? null : jsonContent.getBytes(StandardCharsets.UTF_8);
+
+        final StringBuilder head = new StringBuilder();
+        head.append(method).append(' ').append(pathPrefix).append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(hostHeader).append("\r\n");
+        if (null != content) {
+            head.append("Content-Type: application/json; charset=UTF-8\r\n");
+            head.append("Content-Length: ").append(content.length).append("\r\n");
+        } else if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            head.append("Content-Length: 0\r\n");
+        }
+        head.append("\r\n");
+
+        final byte[] headBytes = head.toString().getBytes(StandardCharsets.US_ASCII);
+        if (null == content) {
+            return headBytes;
+        }
+        final byte[] request = new byte[headBytes.length + content.length];
+        System.arraycopy(headBytes, 0, request, 0, headBytes.length);
+        System.arraycopy(content, 0, request, headBytes.length, content.length);
+        return request;
+    }
+
+    private <T> T execute(final String method,
+            final byte[] requestBytes,
+            final long timeoutMs,
+            final ResponseHandler<T> handler) throws IOException {
+        while (true) {
+            final Connection pooled = takeIdle();
+            final Connection connection = null == pooled ? new Connection(newChannel()) : pooled;
+
+            final ScheduledFuture<?> watchdog = timeoutMs > 0
+                    ? TIMEOUTS.schedule(connection::timeout, timeoutMs, TimeUnit.MILLISECONDS)
+                    : null;
+            try {
+                if (null == pooled) {
+                    connection.channel.connect(address);
+                }
+
+                final int code;
+                boolean written = false;
+                try {
+                    connection.write(requestBytes);
+                    written = true;
+                    code = connection.readHead(method);
+                } catch (final IOException e) {
+                    // Docker may have closed the idle connection. That is only
+                    // certain when the request couldn't be sent. Once it was
+                    // sent, Docker may have acted on it, so only requests
+                    // without side effects are sent again and only if none of
+                    // the response arrived.
+                    if (null != pooled && !connection.timedOut
+                            && (!written || (!connection.responseStarted && isSafeMethod(method)))) {
+                        LOGGER.debug("Pooled connection to Docker was closed, reconnecting", e);
+                        connection.close();
+                        continue;
+                    }
+                    throw e;
+                }
+
+                final T result = handler.handle(code, connection.body);
+
+                if (null != watchdog) {
+                    watchdog.cancel(false);
+                }
+                if (connection.finishResponse()) {
+                    release(connection);
+                } else {
+                    connection.close();
+                }
+                return result;
+            } catch (final IOException | RuntimeException e) {
+                connection.close();
+                if (connection.timedOut) {
+                    final SocketTimeoutException timeout = new SocketTimeoutException(
+                            "Docker request timed out after " + timeoutMs + " ms");
+                    timeout.initCause(e);
+                    throw timeout;
+                }
+                throw e;
+            } finally {
+                if (null != watchdog) {
+                    watchdog.cancel(false);
+                }
+            }
+        }
+    }
+
+    private static boolean isSafeMethod(final String method) {
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    private Connection takeIdle() {
+        synchronized (idle) {
+            return idle.pollFirst();
+        }
+    }
+
+    private void release(final Connection connection) {
+        synchronized (idle) {
+            if (connection.channel.isOpen() && idle.size() < MAX_IDLE_CONNECTIONS) {
+                idle.addFirst(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    /**
+     * Close all idle connections. The client can still be used afterward.
+     */
+    public void closeIdleConnections() {
+        synchronized (idle) {
+            idle.forEach(Connection::close);
+            idle.clear();
+        }
+    }
+
+    private static String readString(final InputStream body) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final byte[] bytes = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = body.read(bytes)) >= 0) {
+            buffer.write(bytes, 0, count);
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Name used for latency statistics. Object identifiers are replaced with
+     * "{id}" and the query is dropped so that all requests for the same
+     * operation are grouped together.
+     * 
+     * @param method
+     *            the HTTP method
+     * @param path
+     *            the API path
+     * @return the endpoint name
+     */
+    /* package */ static String endpointName(final String method, final String path) {
+        final int queryIndex = path.indexOf('?');
+        final String[] segments = (queryIndex < 0 ? path : path.substring(0, queryIndex)).split("/");
+
+        final StringBuilder name = new StringBuilder(method).append(' ');
+        int index = 0;
+        while (index < segments.length) {
+            final String segment = segments[index];
+            ++index;
+            if (segment.isEmpty()) {
+                continue;
+            }
+
+            name.append('/').append(segment);
+
+            if (COLLECTIONS.contains(segment) && index < segments.length
+                    && !COLLECTION_ACTIONS.contains(segments[index])) {
+                name.append("/{id}");
+                if ("images".equals(segment)) {
+                    // image names may contain slashes
+                    final String last = segments[segments.length - 1];
+                    index = IMAGE_ACTIONS.contains(last) && segments.length - 1 > index ? segments.length - 1
+                            : segments.length;
+                } else {
+                    ++index;
+                }
+            }
+        }
+        return name.toString();
+    }
+
+    private void recordLatency(final String endpoint, final long nanos, final boolean success) {
+        endpoints.computeIfAbsent(endpoint, k -> new EndpointCounters()).record(nanos, success);
+
+        final long now = System.currentTimeMillis();
+        final long last = lastStatisticsLog.get();
+        if (now - last >= STATISTICS_LOG_INTERVAL_MS && lastStatisticsLog.compareAndSet(last, now)) {
+            LOGGER.info("Docker API latency: {}", getStatistics());
+        }
+    }
+
+    /**
+     * @return latency statistics for each endpoint that has been used, keyed
+     *         by endpoint name
+     */
+    public SortedMap<String, EndpointStatistics> getStatistics() {
+        final SortedMap<String, EndpointStatistics> statistics = new TreeMap<>();
+        endpoints.forEach((endpoint, counters) -> statistics.put(endpoint, counters.snapshot()));
+        return Collections.unmodifiableSortedMap(statistics);
+    }
+
+    private static final class EndpointCounters {
+        private long count = 0;
+        private long failures = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+
+        synchronized void record(final long nanos, final boolean success) {
+            ++count;
+            if (!success) {
+                ++failures;
+            }
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        synchronized EndpointStatistics snapshot() {
+            return new EndpointStatistics(count, failures, totalNanos, maxNanos);
+        }
+    }
+
+    /**
+     * Latency of the requests to one Docker API endpoint.
+     */
+    public static final class EndpointStatistics {
+        private final long count;
+        private final long failures;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private EndpointStatistics(final long count, final long failures, final long totalNanos, final long maxNanos) {
+            this.count = count;
+            this.failures = failures;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * @return number of requests
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return number of requests that failed with an exception, HTTP
+         *         error codes are not failures
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return mean request latency in milliseconds
+         */
+        public double getMeanLatencyMillis() {
+            return 0 == count ? 0 : totalNanos / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        /**
+         * @return longest request latency in milliseconds
+         */
+        public double getMaxLatencyMillis() {
+            return maxNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d failures=%d mean=%.1fms max=%.1fms", count, failures,
+                    getMeanLatencyMillis(), getMaxLatencyMillis());
+        }
+    }
+
+    /**
+     * A blocking connection to Docker. Only used by one request at a time.
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final BufferedInputStream in;
+        private BodyInputStream body = null;
+        private boolean keepAlive = false;
+        private volatile boolean timedOut = false;
+        // true once any of the response to the current request has been
+        // received
+        private boolean responseStarted = false;
+
+        Connection(final SocketChannel channel) {
+            this.channel = channel;
+            this.in = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+        }
+
+        void write(final byte[] request) throws IOException {
+            responseStarted = false;
+            final ByteBuffer buffer = ByteBuffer.wrap(request);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /**
+         * Read the status line and headers and set up {@link #body}.
+         * 
+         * @return the status code
+         */
+        int readHead(final String method) throws IOException {
+            in.mark(1);
+            if (in.read() < 0) {
+                throw new EOFException("Connection closed before the response");
+            }
+            in.reset();
+            responseStarted = true;
+
+            int code;
+            String version;
+            do {
+                final String statusLine = readLine();
+                if (null == statusLine) {
+                    throw new EOFException("Connection closed before the response");
+                }
+                final String[] parts = statusLine.split(" ", 3);
+                if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                    throw new IOException("Invalid status line: " + statusLine);
+                }
+                version = parts[0];
+                try {
+                    code = Integer.parseInt(parts[1]);
+                } catch (final NumberFormatException e) {
+                    throw new IOException("Invalid status line: " + statusLine, e);
+                }
+
+                keepAlive = "HTTP/1.1".equals(version);
+                long contentLength = -1;
+                boolean chunked = false;
+                String line = readLine();
+                for (; null != line && !line.isEmpty(); line = readLine()) {
+                    final int colon = line.indexOf(':');
+                    if (colon <= 0) {
+                        continue;
+                    }
+                    final String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                    final String value = line.substring(colon + 1).trim();
+                    if ("content-length".equals(name)) {
+                        try {
+                            contentLength = Long.parseLong(value);
+                        } catch (final NumberFormatException e) {
+                            throw new IOException("Invalid Content-Length: " + value, e);
+                        }
+                    } else if ("transfer-encoding".equals(name)) {
+                        chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+                    } else if ("connection".equals(name)) {
+                        final String token = value.toLowerCase(Locale.ROOT);
+                        if (token.contains("close")) {
+                            keepAlive = false;
+                        } else if (token.contains("keep-alive")) {
+                            keepAlive = true;
+                        }
+                    }
+                }
+                if (null == line) {
+                    throw new EOFException("Connection closed while reading the response headers");
+                }
+
+                if (code < HTTP_INFORMATIONAL_END || code == HTTP_NO_CONTENT || code == HTTP_NOT_MODIFIED
+                        || "HEAD".equals(method)) {
+                    body = new FixedLengthInputStream(in, 0);
+                } else if (chunked) {
+                    body = new ChunkedInputStream(in);
+                } else if (contentLength >= 0) {
+                    body = new FixedLengthInputStream(in, contentLength);
+                } else {
+                    keepAlive = false;
+                    body = new UntilCloseInputStream(in);
+                }
+            } while (code < HTTP_INFORMATIONAL_END);
+
+            return code;
+        }
+
+        private String readLine() throws IOException {
+            return DockerApiClient.readLine(in);
+        }
+
+        /**
+         * Skip anything left in the body.
+         * 
+         * @return true if the connection can be used for another request
+         */
+        boolean finishResponse() {
+            if (!keepAlive || timedOut) {
+                return false;
+            }
+            try {
+                return body.drain(MAX_DRAIN_BYTES);
+            } catch (final IOException e) {
+                LOGGER.debug("Error reading the rest of the response", e);
+                return false;
+            }
+        }
+
+        void timeout() {
+            timedOut = true;
+            close();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                LOGGER.debug("Error closing connection to Docker", e);
+            }
+        }
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                final int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_HEADER_LENGTH) {
+                throw new IOException("Response header line is too long");
+            }
+            line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * Response body that ends before the connection does. Closing the stream
+     * does not close the connection.
+     */
+    private abstract static class BodyInputStream extends InputStream {
+        private final InputStream in;
+
+        BodyInputStream(final InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return the connection stream that the body is read from
+         */
+        protected final InputStream getSource() {
+            return in;
+        }
+
+        /**
+         * @return true if the whole body has been read
+         */
+        abstract boolean isComplete();
+
+        /**
+         * Read and discard the rest of the body.
+         * 
+         * @param limit
+         *            the maximum number of bytes to discard
+         * @return true if the end of the body was reached
+         * @throws IOException
+         *             if there is an error reading
+         */
+        boolean drain(final long limit) throws IOException {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long skipped = 0;
+            while (skipped <= limit) {
+                final int count = read(buffer);
+                if (count < 0) {
+                    break;
+                }
+                skipped += count;
+            }
+            return isComplete();
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int count = read(b, 0, 1);
+            return count < 0 ? -1 : b[0] & BYTE_MASK;
+        }
+
+        @Override
+        public void close() {
+            // the connection is managed by the client
+        }
+    }
+
+    private static final class FixedLengthInputStream extends BodyInputStream {
+        private long remaining;
+
+        FixedLengthInputStream(final InputStream in, final long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        boolean isComplete() {
+            return 0 == remaining;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (0 == remaining) {
+                return -1;
+            }
+            final int count = getSource().read(b, off, (int) Math.min(len, remaining));
+            if (count < 0) {
+                throw new EOFException("Connection closed with " + remaining + " bytes of the response unread");
+            }
+            remaining -= count;
+            return count;
+        }
+    }
+
+    private static final class ChunkedInputStream extends BodyInputStream {
+        private long chunkRemaining = 0;
+        private boolean done = false;
+
+        ChunkedInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        boolean isComplete() {
+            return done;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (0 == chunkRemaining) {
+                if (!nextChunk()) {
+                    return -1;
+                }
+            }
+
+            final int count = getSource().read(b, off, (int) Math.min(len, chunkRemaining));
+            if (count < 0) {
+                throw new EOFException("Connection closed in the middle of a chunk");
+            }
+            chunkRemaining -= count;
+            if (0 == chunkRemaining) {
+                // CRLF after the chunk data
+                readLine(getSource());
+            }
+            return count;
+        }
+
+        private boolean nextChunk() throws IOException {
+            final String sizeLine = readLine(getSource());
+            if (null == sizeLine) {
+                throw new EOFException("Connection closed before the chunk size");
+            }
+            final int extension = sizeLine.indexOf(';');
+            final String size = (extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim();
+            try {
+                chunkRemaining = Long.parseLong(size, HEX_RADIX);
+            } catch (final NumberFormatException e) {
+                throw new IOException("Invalid chunk size: " + sizeLine, e);
+            }
+
+            if (0 == chunkRemaining) {
+                // skip trailers
+                String line = readLine(getSource());
+                while (null != line && !line.isEmpty()) {
+                    LOGGER.trace("Ignoring trailer {}", line);
+                    line = readLine(getSource());
+                }
+                done = true;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class UntilCloseInputStream extends BodyInputStream {
+        private boolean done = false;
+
+        UntilCloseInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        boolean isComplete() {
+            return done;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            final int count = getSource().read(b, off, len);
+            if (count < 0) {
+                done = true;
+            }
+            return count;
+        }
+    }
+
+}
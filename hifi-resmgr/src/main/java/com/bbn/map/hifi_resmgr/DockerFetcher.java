@@ -32,9 +32,19 @@ BBN_LICENSE_END*/
 package com.bbn.map.hifi_resmgr;
 
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
 
@@ -42,60 +52,283 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.bbn.map.AgentConfiguration;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Fetch docker images using docker pull.
  * 
+ * Up to {@link #DEFAULT_MAX_PARALLEL_PULLS} images are pulled at the same
+ * time. Images requested with {@link ImageFetcher.Priority#START} are pulled
+ * before images requested with {@link ImageFetcher.Priority#PREFETCH}, images
+ * of the same priority are pulled in the order requested. Requesting an image
+ * that is already queued or being pulled does not start another pull, the
+ * callback is called when the existing pull finishes.
+ * 
  * @author jschewe
  *
  */
 public class DockerFetcher implements ImageFetcher {
     private static final Logger LOGGER = LogManager.getLogger(DockerFetcher.class);
 
-    // Can use multiple threads if we want, but for now we only pull 1 image at
-    // a time
-    private final ExecutorService pool = Executors.newSingleThreadExecutor();
+    /**
+     * Number of images that are pulled at the same time.
+     */
+    public static final int DEFAULT_MAX_PARALLEL_PULLS = 3;
+
+    private final Object lock = new Object();
+
+    /**
+     * Images waiting to be pulled, by priority. Guarded by {@link #lock}.
+     */
+    private final Map<ImageFetcher.Priority, Deque<PullRequest>> queues = new EnumMap<>(ImageFetcher.Priority.class);
+
+    /**
+     * All requests that have not finished, including those waiting for a retry.
+     * Guarded by {@link #lock}.
+     */
+    private final Map<String, PullRequest> requests = new HashMap<>();
+
+    private final ExecutorService pool;
+    private final int maxParallelPulls;
+
+    /**
+     * Number of workers running. Guarded by {@link #lock}.
+     */
+    private int activeWorkers = 0;
+
+    /**
+     * Used to put failed requests back in the queue after the backoff. This is
+     * separate from {@link #pool} so that retries don't wait behind running
+     * pulls.
+     */
+    private final ScheduledExecutorService retryTimer;
+
+    private final Predicate<String> puller;
+    private final int maxAttempts;
+    private final Duration minPullBackoff;
+    private final Duration maxPullBackoff;
+
+    private final Random pullBackoffRandom = new Random();
+
+    /**
+     * Pull images with docker using the retry settings from
+     * {@link AgentConfiguration}.
+     * 
+     * @param dockerClient
+     *            used to pull the images
+     */
+    public DockerFetcher(@Nonnull final DockerApiClient dockerClient) {
+        this(DEFAULT_MAX_PARALLEL_PULLS,
+                image -> SimpleDockerResourceManager.pullDockerImage(dockerClient, image,
+                        SimpleDockerResourceManager.DEFAULT_DOCKER_IMAGE_TAG),
+                AgentConfiguration.getInstance().getMaxPullAttemps(),
+                Duration.ofSeconds(AgentConfiguration.getInstance().getPullMinBackoffSeconds()),
+                Duration.ofSeconds(AgentConfiguration.getInstance().getPullMaxBackoffSeconds()));
+    }
+
+    /**
+     * 
+     * @param maxParallelPulls
+     *            the number of images to pull at the same time
+     * @param puller
+     *            pulls a single image, returns true on success
+     * @param maxAttempts
+     *            the number of times to try pulling an image
+     * @param minPullBackoff
+     *            minimum time to wait between attempts
+     * @param maxPullBackoff
+     *            maximum time to wait between attempts
+     */
+    /* package */ DockerFetcher(final int maxParallelPulls,
+            @Nonnull final Predicate<String> puller,
+            final int maxAttempts,
+            @Nonnull final Duration minPullBackoff,
+            @Nonnull final Duration maxPullBackoff) {
+        this.puller = puller;
+        this.maxAttempts = maxAttempts;
+        this.minPullBackoff = minPullBackoff;
+        this.maxPullBackoff = maxPullBackoff;
+        for (final ImageFetcher.Priority priority : ImageFetcher.Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+        }
+
+        // each thread is a pull slot and runs a worker that takes requests
+        // from the queues until they are empty
+        this.maxParallelPulls = maxParallelPulls;
+        pool = Executors.newFixedThreadPool(maxParallelPulls,
+                new ThreadFactoryBuilder().setNameFormat("Image pull-%d").setDaemon(true).build());
+        retryTimer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Image pull retry-%d").setDaemon(true).build());
+    }
 
     @Override
     public void fetchImage(@Nonnull final String image, @Nonnull final ImageFetcher.Callback callback) {
-        pool.execute(() -> fetchWithRetry(image, callback));
+        fetchImage(image, ImageFetcher.Priority.PREFETCH, callback);
     }
 
-    private final Random pullBackoffRandom = new Random();
+    @Override
+    public void fetchImage(@Nonnull final String image,
+            @Nonnull final ImageFetcher.Priority priority,
+            @Nonnull final ImageFetcher.Callback callback) {
+        synchronized (lock) {
+            final PullRequest existing = requests.get(image);
+            if (null != existing) {
+                LOGGER.debug("Joining existing pull of {}", image);
+                existing.callbacks.add(callback);
+                internalSetPriority(existing, priority);
+                return;
+            }
 
-    private void fetchWithRetry(final String image, final ImageFetcher.Callback callback) {
-        // attempt to pull image to ensure that it is on the local machine
-        final Duration minPullBackoff = Duration.ofSeconds(AgentConfiguration.getInstance().getPullMinBackoffSeconds());
-        final Duration maxPullBackoff = Duration.ofSeconds(AgentConfiguration.getInstance().getPullMaxBackoffSeconds());
-        final long pullBackoffInterval = maxPullBackoff.toMillis() - minPullBackoff.toMillis();
-
-        boolean pullResult = false;
-        int attempt = 0;
-        while (!pullResult && attempt < AgentConfiguration.getInstance().getMaxPullAttemps()) {
-            pullResult = SimpleDockerResourceManager.pullDockerImage(image,
-                    SimpleDockerResourceManager.DEFAULT_DOCKER_IMAGE_TAG);
-            if (!pullResult) {
-                boolean lastAttempt = (attempt >= AgentConfiguration.getInstance().getMaxPullAttemps() - 1);
-                        
-                if (!lastAttempt) {
-                    final long positiveRandom = Math.abs(pullBackoffRandom.nextLong() / 2);
-                    final long sleepMs = positiveRandom % pullBackoffInterval + minPullBackoff.toMillis();
-                    
-                    LOGGER.warn("Pull attempt {} failed. Waiting {} ms before next attempt.", attempt, sleepMs);
-                    
-                    try {
-                        Thread.sleep(sleepMs);
-                    } catch (final InterruptedException e) {
-                        LOGGER.warn("Got interrupted sleeping between pull attempts", e);
-                    }
-                } else {
-                    LOGGER.warn("Last pull attempt ({}) failed.", attempt);                    
+            final PullRequest request = new PullRequest(image, priority);
+            request.callbacks.add(callback);
+            requests.put(image, request);
+            enqueue(request);
+        }
+    }
+
+    @Override
+    public void setPriority(@Nonnull final String image, @Nonnull final ImageFetcher.Priority priority) {
+        synchronized (lock) {
+            final PullRequest existing = requests.get(image);
+            if (null != existing) {
+                internalSetPriority(existing, priority);
+            }
+        }
+    }
+
+    /**
+     * Raise the priority of a request, moving it to the higher priority queue
+     * if it is waiting to be pulled. Lower priorities are ignored. Must hold
+     * {@link #lock}.
+     */
+    private void internalSetPriority(final PullRequest request, final ImageFetcher.Priority priority) {
+        if (priority.compareTo(request.priority) >= 0) {
+            // same or lower priority
+            return;
+        }
+
+        if (queues.get(request.priority).remove(request)) {
+            queues.get(priority).addLast(request);
+            LOGGER.debug("Raised priority of {} to {}", request.image, priority);
+        }
+        request.priority = priority;
+    }
+
+    /**
+     * Add the request to its queue and start a worker if there is a free pull
+     * slot. Must hold {@link #lock}.
+     */
+    private void enqueue(final PullRequest request) {
+        queues.get(request.priority).addLast(request);
+        if (activeWorkers < maxParallelPulls) {
+            ++activeWorkers;
+            pool.execute(this::pullWorker);
+        }
+    }
+
+    /**
+     * Must hold {@link #lock}.
+     * 
+     * @return the next request to pull or null if there are none
+     */
+    private PullRequest nextRequest() {
+        // EnumMap iterates in declaration order, highest priority first
+        for (final Deque<PullRequest> queue : queues.values()) {
+            final PullRequest request = queue.pollFirst();
+            if (null != request) {
+                return request;
+            }
+        }
+        return null;
+    }
+
+    private void pullWorker() {
+        while (true) {
+            final PullRequest request;
+            synchronized (lock) {
+                request = nextRequest();
+                if (null == request) {
+                    --activeWorkers;
+                    return;
                 }
             }
+
+            pull(request);
+        }
+    }
+
+    private void pull(final PullRequest request) {
+        LOGGER.info("Pulling {} priority {} attempt {}", request.image, request.priority, request.attempt);
+
+        boolean pullResult;
+        try {
+            pullResult = puller.test(request.image);
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error pulling " + request.image, e);
+            pullResult = false;
         }
-        LOGGER.info("Pulling docker container result: " + pullResult);
-        callback.apply(image, pullResult);
 
+        if (!pullResult) {
+            ++request.attempt;
+            if (request.attempt < maxAttempts) {
+                final long pullBackoffInterval = Math.max(1,
+                        maxPullBackoff.toMillis() - minPullBackoff.toMillis());
+                final long positiveRandom = Math.abs(pullBackoffRandom.nextLong() / 2);
+                final long sleepMs = positiveRandom % pullBackoffInterval + minPullBackoff.toMillis();
+
+                LOGGER.warn("Pull attempt {} of {} failed. Waiting {} ms before next attempt.", request.attempt,
+                        request.image, sleepMs);
+
+                // don't hold a pull slot while waiting to retry
+                retryTimer.schedule(() -> {
+                    synchronized (lock) {
+                        enqueue(request);
+                    }
+                }, sleepMs, TimeUnit.MILLISECONDS);
+                return;
+            } else {
+                LOGGER.warn("Last pull attempt ({}) of {} failed.", request.attempt, request.image);
+            }
+        }
+
+        LOGGER.info("Pulling docker image {} result: {}", request.image, pullResult);
+
+        final List<ImageFetcher.Callback> callbacks;
+        synchronized (lock) {
+            requests.remove(request.image);
+            callbacks = new LinkedList<>(request.callbacks);
+        }
+        for (final ImageFetcher.Callback callback : callbacks) {
+            try {
+                callback.apply(request.image, pullResult);
+            } catch (final RuntimeException e) {
+                LOGGER.error("Error in callback for " + request.image, e);
+            }
+        }
+    }
+
+    private static final class PullRequest {
+        PullRequest(final String image, final ImageFetcher.Priority priority) {
+            this.image = image;
+            this.priority = priority;
+        }
+
+        private final String image;
+
+        /**
+         * Guarded by {@link DockerFetcher#lock}.
+         */
+        private ImageFetcher.Priority priority;
+
+        /**
+         * Only modified by the thread pulling the image.
+         */
+        private int attempt = 0;
+
+        /**
+         * Guarded by {@link DockerFetcher#lock}.
+         */
+        private final List<ImageFetcher.Callback> callbacks = new LinkedList<>();
     }
 
 }
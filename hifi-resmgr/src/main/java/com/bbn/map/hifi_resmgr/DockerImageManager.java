@@ -34,8 +34,11 @@ package com.bbn.map.hifi_resmgr;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 
 import javax.annotation.Nonnull;
 
@@ -46,29 +49,36 @@ import org.apache.logging.log4j.Logger;
 
     private static final Logger LOGGER = LogManager.getLogger(DockerImageManager.class);
 
-    private final Object imagesLock = new Object();
-    private final Set<String> localImages = new HashSet<>();
-    private final Set<String> pendingImages = new HashSet<>();
+    private final Set<String> localImages = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, CompletableFuture<Boolean>> pendingImages = new ConcurrentHashMap<>();
     private final ImageFetcher fetcher;
 
     /**
      * 
      * @param fetcherClassname
      *            a class that implements {@link ImageFetcher}
+     * @param dockerClient
+     *            used to list the local images and passed to the fetcher
      */
-    /* package */ DockerImageManager(@Nonnull final String fetcherClassname) {
-        fetcher = createFetcher(fetcherClassname);
+    /* package */ DockerImageManager(@Nonnull final String fetcherClassname,
+            @Nonnull final DockerApiClient dockerClient) {
+        fetcher = createFetcher(fetcherClassname, dockerClient);
 
-        final Set<String> images = SimpleDockerResourceManager.getCurrentImages();
+        final Set<String> images = SimpleDockerResourceManager.getCurrentImages(dockerClient);
         localImages.addAll(images);
         LOGGER.info("Initial list of images: {}", localImages);
     }
 
-    private static ImageFetcher createFetcher(String fetcherClassname) {
+    private static ImageFetcher createFetcher(final String fetcherClassname, final DockerApiClient dockerClient) {
         try {
             final Class<ImageFetcher> clientClass = loadClientClass(fetcherClassname);
             final Constructor<ImageFetcher> constructor = findConstructor(clientClass);
-            final ImageFetcher fetcher = createInstance(constructor);
+            final ImageFetcher fetcher;
+            if (constructor.getParameterCount() == 0) {
+                fetcher = createInstance(constructor);
+            } else {
+                fetcher = createInstance(constructor, dockerClient);
+            }
             return fetcher;
         } catch (final IOException e) {
             throw new RuntimeException("Error opening latency log", e);
@@ -90,9 +100,10 @@ import org.apache.logging.log4j.Logger;
         }
     }
 
-    private static ImageFetcher createInstance(final Constructor<ImageFetcher> constructor) throws IOException {
+    private static ImageFetcher createInstance(final Constructor<ImageFetcher> constructor, final Object... args)
+            throws IOException {
         try {
-            final ImageFetcher client = constructor.newInstance();
+            final ImageFetcher client = constructor.newInstance(args);
             return client;
         } catch (final InvocationTargetException e) {
             if (e.getCause() instanceof IOException) {
@@ -111,68 +122,114 @@ import org.apache.logging.log4j.Logger;
 
     private static <T extends ImageFetcher> Constructor<T> findConstructor(final Class<T> clientClass) {
         try {
-            final Constructor<T> constructor = clientClass.getConstructor();
+            final Constructor<T> constructor = clientClass.getConstructor(DockerApiClient.class);
             return constructor;
         } catch (final NoSuchMethodException e) {
-            throw new RuntimeException("Unable to find a no argument constructor in " + clientClass.getName(), e);
+            try {
+                final Constructor<T> constructor = clientClass.getConstructor();
+                return constructor;
+            } catch (final NoSuchMethodException e2) {
+                throw new RuntimeException("Unable to find a DockerApiClient or no argument constructor in "
+                        + clientClass.getName(), e2);
+            }
         }
     }
 
     /**
-     * Schedule an image to be fetched. If the image is already local or pending
-     * this method does nothing.
+     * Schedule an image to be fetched with {@link ImageFetcher.Priority#PREFETCH}.
+     * If the image is already local or pending this method does nothing.
      * 
      * @param image
      *            the image to fetch
+     * @return see {@link #requestImage(String, ImageFetcher.Priority)}
      */
-    public void fetchImage(@Nonnull final String image) {
-        synchronized (imagesLock) {
-            internalFetchImage(image);
-        }
+    public CompletableFuture<Boolean> fetchImage(@Nonnull final String image) {
+        return requestImage(image, ImageFetcher.Priority.PREFETCH);
     }
 
-    private void internalFetchImage(final String image) {
+    /**
+     * Request that an image be made local. Concurrent requests for the same
+     * image share a single fetch. If the image is already pending and the
+     * requested priority is higher than the pending fetch, the fetch is moved
+     * ahead of lower priority fetches.
+     * 
+     * @param image
+     *            the image to fetch
+     * @param priority
+     *            the priority of the fetch
+     * @return completes with true when the image is local, false if an error
+     *         occurred fetching
+     */
+    public CompletableFuture<Boolean> requestImage(@Nonnull final String image,
+            @Nonnull final ImageFetcher.Priority priority) {
         if (localImages.contains(image)) {
-            return;
+            return CompletableFuture.completedFuture(true);
         }
-        if (pendingImages.contains(image)) {
-            return;
+
+        final CompletableFuture<Boolean> created = new CompletableFuture<>();
+        final CompletableFuture<Boolean> existing = pendingImages.putIfAbsent(image, created);
+        if (null != existing) {
+            fetcher.setPriority(image, priority);
+            return existing;
         }
-        pendingImages.add(image);
-        fetcher.fetchImage(image, this::imageCallback);
+
+        // the callback may have finished between the check above and adding
+        // the pending future
+        if (localImages.contains(image)) {
+            pendingImages.remove(image, created);
+            created.complete(true);
+            return created;
+        }
+
+        fetcher.fetchImage(image, priority, (fetchedImage, success) -> imageCallback(fetchedImage, success, created));
+        return created;
     }
 
-    private void imageCallback(final String image, final boolean success) {
-        synchronized (imagesLock) {
-            pendingImages.remove(image);
-            if (success) {
-                localImages.add(image);
-            }
-            imagesLock.notifyAll();
+    private void imageCallback(final String image, final boolean success, final CompletableFuture<Boolean> future) {
+        if (success) {
+            localImages.add(image);
         }
+        pendingImages.remove(image, future);
+        future.complete(success);
     }
 
     /**
      * Block until the specified image is local or a failure fetching has
-     * occurred. This will fetch the image if it's not already requested.
+     * occurred. This will fetch the image with
+     * {@link ImageFetcher.Priority#START} if it's not already requested.
      * 
      * @param image
      *            the image to wait on
      * @return true if the image is now local, false if an error occurred
      *         fetching.
      * @throws InterruptedException
-     *             see {@link Object#wait()}
+     *             see {@link CompletableFuture#get()}
      */
     public boolean waitForImage(@Nonnull final String image) throws InterruptedException {
-        synchronized (imagesLock) {
-            internalFetchImage(image);
-            while (!localImages.contains(image) && pendingImages.contains(image)) {
-                imagesLock.wait();
-            }
+        return waitForImage(image, ImageFetcher.Priority.START);
+    }
 
-            return localImages.contains(image);
+    /**
+     * Block until the specified image is local or a failure fetching has
+     * occurred.
+     * 
+     * @param image
+     *            the image to wait on
+     * @param priority
+     *            the priority to fetch the image with
+     * @return true if the image is now local, false if an error occurred
+     *         fetching.
+     * @throws InterruptedException
+     *             see {@link CompletableFuture#get()}
+     */
+    public boolean waitForImage(@Nonnull final String image, @Nonnull final ImageFetcher.Priority priority)
+            throws InterruptedException {
+        try {
+            return requestImage(image, priority).get();
+        } catch (final ExecutionException e) {
+            LOGGER.error("Error fetching " + image, e);
+            return false;
         }
-
     }
 
 }
@@ -0,0 +1,327 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.bbn.protelis.networkresourcemanagement.NodeIdentifier;
+import com.bbn.protelis.networkresourcemanagement.ServiceIdentifier;
+
+/**
+ * Cache of the information about a network flow that requires DNS and region
+ * lookups to compute. Flows seen in consecutive iftop frames only need to be
+ * resolved once. The cache is bounded, entries expire after a maximum age and
+ * everything is dropped when the generation passed to
+ * {@link #checkGeneration(long)} changes.
+ * 
+ * @author jschewe
+ *
+ */
+/* package */ final class FlowIdentityCache {
+
+    private final Object lock = new Object();
+    private final LruMap cache;
+    private final long maxAgeMs;
+    private final LongSupplier clock;
+    private long generation = Long.MIN_VALUE;
+
+    /**
+     * @param maxEntries
+     *            the maximum number of flows to keep
+     * @param maxAgeMs
+     *            how long an entry is valid for
+     */
+    /* package */ FlowIdentityCache(final int maxEntries, final long maxAgeMs) {
+        this(maxEntries, maxAgeMs, System::currentTimeMillis);
+    }
+
+    /**
+     * @param maxEntries
+     *            the maximum number of flows to keep
+     * @param maxAgeMs
+     *            how long an entry is valid for
+     * @param clock
+     *            the source of time in milliseconds
+     */
+    /* package */ FlowIdentityCache(final int maxEntries, final long maxAgeMs, @Nonnull final LongSupplier clock) {
+        this.cache = new LruMap(maxEntries);
+        this.maxAgeMs = maxAgeMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Clear the cache if the generation differs from the last call.
+     * 
+     * @param currentGeneration
+     *            changes when information that the cached values are derived
+     *            from changes
+     */
+    /* package */ void checkGeneration(final long currentGeneration) {
+        synchronized (lock) {
+            if (currentGeneration != generation) {
+                cache.clear();
+                generation = currentGeneration;
+            }
+        }
+    }
+
+    /**
+     * @param key
+     *            the flow
+     * @return the cached identity or null if not present or expired
+     */
+    /* package */ FlowIdentity get(@Nonnull final FlowKey key) {
+        synchronized (lock) {
+            final FlowIdentity identity = cache.get(key);
+            if (null == identity) {
+                return null;
+            } else if (clock.getAsLong() - identity.created > maxAgeMs) {
+                cache.remove(key);
+                return null;
+            } else {
+                return identity;
+            }
+        }
+    }
+
+    /**
+     * @param key
+     *            the flow
+     * @param flip
+     *            see {@link FlowIdentity#isFlip()}
+     * @param localHost
+     *            see {@link FlowIdentity#getLocalHost()}
+     * @param remoteHost
+     *            see {@link FlowIdentity#getRemoteHost()}
+     * @return the new cache entry
+     */
+    @Nonnull
+    /* package */ FlowIdentity put(@Nonnull final FlowKey key,
+            final boolean flip,
+            @Nonnull final NodeIdentifier localHost,
+            @Nonnull final NodeIdentifier remoteHost) {
+        final FlowIdentity identity = new FlowIdentity(clock.getAsLong(), flip, localHost, remoteHost);
+        synchronized (lock) {
+            cache.put(key, identity);
+        }
+        return identity;
+    }
+
+    /**
+     * @return the number of cached flows
+     */
+    /* package */ int size() {
+        synchronized (lock) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Identifies a flow as reported by iftop, before local and remote are
+     * corrected.
+     */
+    /* package */ static final class FlowKey {
+        private final long localAddress;
+        private final int localPort;
+        private final long remoteAddress;
+        private final int remotePort;
+        private final String nic;
+        private final int hashCode;
+
+        /**
+         * @param frame
+         *            the frame containing the flow
+         * @param index
+         *            the index of the flow in the frame
+         * @param nic
+         *            the name of the interface the flow was seen on
+         */
+        /* package */ FlowKey(@Nonnull final FlowTable frame, final int index, final String nic) {
+            this(frame.getLocalAddress(index), frame.getLocalPort(index), frame.getRemoteAddress(index),
+                    frame.getRemotePort(index), nic);
+        }
+
+        /**
+         * @param localIP
+         *            local address as reported by iftop
+         * @param localPort
+         *            local port as reported by iftop
+         * @param remoteIP
+         *            remote address as reported by iftop
+         * @param remotePort
+         *            remote port as reported by iftop
+         * @param nic
+         *            the name of the interface the flow was seen on
+         */
+        /* package */ FlowKey(@Nonnull final String localIP,
+                final int localPort,
+                @Nonnull final String remoteIP,
+                final int remotePort,
+                final String nic) {
+            this(FlowTable.encodeAddress(localIP), localPort, FlowTable.encodeAddress(remoteIP), remotePort, nic);
+        }
+
+        private FlowKey(final long localAddress,
+                final int localPort,
+                final long remoteAddress,
+                final int remotePort,
+                final String nic) {
+            this.localAddress = localAddress;
+            this.localPort = localPort;
+            this.remoteAddress = remoteAddress;
+            this.remotePort = remotePort;
+            this.nic = nic;
+
+            final int prime = 31;
+            int result = Long.hashCode(localAddress);
+            result = prime * result + localPort;
+            result = prime * result + Long.hashCode(remoteAddress);
+            result = prime * result + remotePort;
+            result = prime * result + Objects.hashCode(nic);
+            this.hashCode = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            } else if (null == o || getClass() != o.getClass()) {
+                return false;
+            } else {
+                final FlowKey other = (FlowKey) o;
+                return localAddress == other.localAddress && localPort == other.localPort
+                        && remoteAddress == other.remoteAddress && remotePort == other.remotePort
+                        && Objects.equals(nic, other.nic);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return FlowTable.decodeAddress(localAddress) + ":" + localPort + " <-> "
+                    + FlowTable.decodeAddress(remoteAddress) + ":" + remotePort + " on " + nic;
+        }
+    }
+
+    /**
+     * The resolved information for a flow.
+     */
+    /* package */ static final class FlowIdentity {
+        private final long created;
+        private final boolean flip;
+        private final NodeIdentifier localHost;
+        private final NodeIdentifier remoteHost;
+        private volatile Pair<NodeIdentifier, ServiceIdentifier<?>> unmanagedClassification = null;
+
+        private FlowIdentity(final long created,
+                final boolean flip,
+                final NodeIdentifier localHost,
+                final NodeIdentifier remoteHost) {
+            this.created = created;
+            this.flip = flip;
+            this.localHost = localHost;
+            this.remoteHost = remoteHost;
+        }
+
+        /**
+         * @return true if local and remote need to be swapped so that local is
+         *         the monitored host
+         */
+        /* package */ boolean isFlip() {
+            return flip;
+        }
+
+        /**
+         * @return the local host after local and remote are corrected
+         */
+        @Nonnull
+        /* package */ NodeIdentifier getLocalHost() {
+            return localHost;
+        }
+
+        /**
+         * @return the remote host after local and remote are corrected
+         */
+        @Nonnull
+        /* package */ NodeIdentifier getRemoteHost() {
+            return remoteHost;
+        }
+
+        /**
+         * The classification of the flow when it doesn't belong to a managed
+         * service. This only depends on the addresses and ports, so it can be
+         * cached with the flow.
+         * 
+         * @return (server host, service) or null if not yet computed
+         */
+        /* package */ Pair<NodeIdentifier, ServiceIdentifier<?>> getUnmanagedClassification() {
+            return unmanagedClassification;
+        }
+
+        /**
+         * @param v
+         *            see {@link #getUnmanagedClassification()}
+         */
+        /* package */ void setUnmanagedClassification(final Pair<NodeIdentifier, ServiceIdentifier<?>> v) {
+            unmanagedClassification = v;
+        }
+    }
+
+    private static final class LruMap extends LinkedHashMap<FlowKey, FlowIdentity> {
+        private static final long serialVersionUID = 1L;
+
+        private final int cacheSize;
+        private static final float LOAD_FACTOR = 0.75f;
+
+        LruMap(final int cacheSize) {
+            super(cacheSize, LOAD_FACTOR, true);
+            this.cacheSize = cacheSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<FlowKey, FlowIdentity> eldest) {
+            return size() > this.cacheSize;
+        }
+    }
+
+}
@@ -0,0 +1,424 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import org.checkerframework.checker.lock.qual.GuardedBy;
+
+/**
+ * The flows seen on a network interface in one frame, stored as parallel
+ * primitive arrays so that the table can be refilled every frame without
+ * allocating objects per flow.
+ * 
+ * Addresses are stored as longs. IPv4 addresses are their 32-bit value, any
+ * other address is given a number above the IPv4 range the first time it is
+ * seen, see {@link #encodeAddress(CharSequence, int, int)}. At most
+ * {@link #MAX_INTERNED_ADDRESSES} of these are remembered. Ports are stored
+ * as shorts.
+ * 
+ * Not thread safe.
+ * 
+ * @author jschewe
+ *
+ */
+/* package */ final class FlowTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final int IPV4_OCTETS = 4;
+    private static final int MAX_OCTET = 255;
+    private static final int DECIMAL_RADIX = 10;
+    private static final long OCTET_MASK = 0xFF;
+
+    /**
+     * The first value used for addresses that are not IPv4.
+     */
+    private static final long FIRST_INTERNED_ADDRESS = 1L << Integer.SIZE;
+
+    /**
+     * Maximum number of addresses that are not IPv4 to remember. The address
+     * that was encoded least recently is forgotten first. Addresses are
+     * encoded every frame, so the codes in current frames stay valid.
+     */
+    /* package */ static final int MAX_INTERNED_ADDRESSES = 16 * 1024;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final Object INTERN_LOCK = new Object();
+
+    @GuardedBy("INTERN_LOCK")
+    private static long nextInternedAddress = FIRST_INTERNED_ADDRESS;
+
+    @GuardedBy("INTERN_LOCK")
+    private static final LinkedHashMap<String, Long> ADDRESS_TO_CODE = new LinkedHashMap<String, Long>(
+            MAX_INTERNED_ADDRESSES, LOAD_FACTOR, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+            if (size() > MAX_INTERNED_ADDRESSES) {
+                CODE_TO_ADDRESS.remove(eldest.getValue());
+                return true;
+            } else {
+                return false;
+            }
+        }
+    };
+
+    /**
+     * Read without the lock when decoding.
+     */
+    private static final ConcurrentMap<Long, String> CODE_TO_ADDRESS = new ConcurrentHashMap<>();
+
+    private int size = 0;
+    private long[] localAddress = new long[INITIAL_CAPACITY];
+    private short[] localPort = new short[INITIAL_CAPACITY];
+    private long[] remoteAddress = new long[INITIAL_CAPACITY];
+    private short[] remotePort = new short[INITIAL_CAPACITY];
+    private long[] bitsSent = new long[INITIAL_CAPACITY];
+    private long[] bitsReceived = new long[INITIAL_CAPACITY];
+
+    /**
+     * Remove all flows, keeping the storage.
+     */
+    /* package */ void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the number of flows
+     */
+    /* package */ int size() {
+        return size;
+    }
+
+    /**
+     * Add a flow. Sent and received are from the perspective of the local
+     * address.
+     * 
+     * @param local
+     *            encoded local address
+     * @param lport
+     *            local port
+     * @param remote
+     *            encoded remote address
+     * @param rport
+     *            remote port
+     * @param sent
+     *            bits per second sent
+     * @param received
+     *            bits per second received
+     */
+    /* package */ void add(final long local,
+            final int lport,
+            final long remote,
+            final int rport,
+            final long sent,
+            final long received) {
+        ensureCapacity(size + 1);
+        localAddress[size] = local;
+        localPort[size] = (short) lport;
+        remoteAddress[size] = remote;
+        remotePort[size] = (short) rport;
+        bitsSent[size] = sent;
+        bitsReceived[size] = received;
+        ++size;
+    }
+
+    /**
+     * Add a flow with string addresses.
+     * 
+     * @param local
+     *            local address
+     * @param lport
+     *            local port
+     * @param remote
+     *            remote address
+     * @param rport
+     *            remote port
+     * @param sent
+     *            bits per second sent
+     * @param received
+     *            bits per second received
+     * @see #add(long, int, long, int, long, long)
+     */
+    /* package */ void add(@Nonnull final String local,
+            final int lport,
+            @Nonnull final String remote,
+            final int rport,
+            final long sent,
+            final long received) {
+        add(encodeAddress(local), lport, encodeAddress(remote), rport, sent, received);
+    }
+
+    /**
+     * Replace the contents of this table with the contents of another table.
+     * 
+     * @param other
+     *            the table to copy
+     */
+    /* package */ void copyFrom(@Nonnull final FlowTable other) {
+        ensureCapacity(other.size);
+        System.arraycopy(other.localAddress, 0, localAddress, 0, other.size);
+        System.arraycopy(other.localPort, 0, localPort, 0, other.size);
+        System.arraycopy(other.remoteAddress, 0, remoteAddress, 0, other.size);
+        System.arraycopy(other.remotePort, 0, remotePort, 0, other.size);
+        System.arraycopy(other.bitsSent, 0, bitsSent, 0, other.size);
+        System.arraycopy(other.bitsReceived, 0, bitsReceived, 0, other.size);
+        size = other.size;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > localAddress.length) {
+            final int newCapacity = Math.max(capacity, localAddress.length * 2);
+            localAddress = Arrays.copyOf(localAddress, newCapacity);
+            localPort = Arrays.copyOf(localPort, newCapacity);
+            remoteAddress = Arrays.copyOf(remoteAddress, newCapacity);
+            remotePort = Arrays.copyOf(remotePort, newCapacity);
+            bitsSent = Arrays.copyOf(bitsSent, newCapacity);
+            bitsReceived = Arrays.copyOf(bitsReceived, newCapacity);
+        }
+    }
+
+    /**
+     * @param index
+     *            the flow
+     * @return encoded local address
+     */
+    /* package */ long getLocalAddress(final int index) {
+        return localAddress[index];
+    }
+
+    /**
+     * @param index
+     *            the flow
+     * @return local port
+     */
+    /* package */ int getLocalPort(final int index) {
+        return Short.toUnsignedInt(localPort[index]);
+    }
+
+    /**
+     * @param index
+     *            the flow
+     * @return encoded remote address
+     */
+    /* package */ long getRemoteAddress(final int index) {
+        return remoteAddress[index];
+    }
+
+    /**
+     * @param index
+     *            the flow
+     * @return remote port
+     */
+    /* package */ int getRemotePort(final int index) {
+        return Short.toUnsignedInt(remotePort[index]);
+    }
+
+    /**
+     * @param index
+     *            the flow
+     * @return bits per second sent from the local address
+     */
+    /* package */ long getBitsSent(final int index) {
+        return bitsSent[index];
+    }
+
+    /**
+     * @param index
+     *            the flow
+     * @return bits per second received by the local address
+     */
+    /* package */ long getBitsReceived(final int index) {
+        return bitsReceived[index];
+    }
+
+    /**
+     * @param address
+     *            the address to encode
+     * @return the encoded address
+     * @see #encodeAddress(CharSequence, int, int)
+     */
+    /* package */ static long encodeAddress(@Nonnull final String address) {
+        return encodeAddress(address, 0, address.length());
+    }
+
+    /**
+     * Encode an address. IPv4 addresses are parsed without creating any
+     * objects. Other addresses are assigned a number the first time they are
+     * seen and keep it until they are forgotten, see
+     * {@link #MAX_INTERNED_ADDRESSES}. A forgotten address is given a new
+     * number when it is seen again.
+     * 
+     * @param chars
+     *            contains the address
+     * @param start
+     *            index of the first character of the address
+     * @param end
+     *            index after the last character of the address
+     * @return the encoded address
+     */
+    /* package */ static long encodeAddress(@Nonnull final CharSequence chars, final int start, final int end) {
+        final long ipv4 = parseIpv4(chars, start, end);
+        if (ipv4 >= 0) {
+            return ipv4;
+        }
+
+        final String address = chars.subSequence(start, end).toString();
+        synchronized (INTERN_LOCK) {
+            final Long existing = ADDRESS_TO_CODE.get(address);
+            if (null != existing) {
+                return existing;
+            }
+
+            // numbers are not reused so that a forgotten code cannot be
+            // mistaken for another address
+            final long code = nextInternedAddress++;
+            CODE_TO_ADDRESS.put(code, address);
+            ADDRESS_TO_CODE.put(address, code);
+            return code;
+        }
+    }
+
+    /**
+     * @param code
+     *            the value from {@link #encodeAddress(CharSequence, int, int)}
+     * @return the address as a string, a placeholder if the address has been
+     *         forgotten
+     */
+    @Nonnull
+    /* package */ static String decodeAddress(final long code) {
+        if (code < FIRST_INTERNED_ADDRESS) {
+            final StringBuilder builder = new StringBuilder();
+            for (int octet = IPV4_OCTETS - 1; octet >= 0; --octet) {
+                builder.append((code >>> (octet * Byte.SIZE)) & OCTET_MASK);
+                if (octet > 0) {
+                    builder.append('.');
+                }
+            }
+            return builder.toString();
+        } else {
+            final String address = CODE_TO_ADDRESS.get(code);
+            if (null == address) {
+                return "forgotten address " + code;
+            }
+            return address;
+        }
+    }
+
+    /**
+     * @param chars
+     *            contains the address
+     * @param start
+     *            index of the first character of the address
+     * @param end
+     *            index after the last character of the address
+     * @return the IPv4 address as an unsigned 32-bit value or -1 if the
+     *         characters are not an IPv4 address
+     */
+    /* package */ static long parseIpv4(@Nonnull final CharSequence chars, final int start, final int end) {
+        long value = 0;
+        int octets = 0;
+        int octet = -1;
+        for (int i = start; i < end; ++i) {
+            final char c = chars.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * DECIMAL_RADIX) + (c - '0');
+                if (octet > MAX_OCTET) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && octets < IPV4_OCTETS - 1) {
+                value = (value << Byte.SIZE) | octet;
+                ++octets;
+                octet = -1;
+            } else {
+                return -1;
+            }
+        }
+        if (octet < 0 || octets != IPV4_OCTETS - 1) {
+            return -1;
+        }
+        return (value << Byte.SIZE) | octet;
+    }
+
+    /**
+     * Parse a non-negative decimal integer.
+     * 
+     * @param chars
+     *            contains the number
+     * @param start
+     *            index of the first digit
+     * @param end
+     *            index after the last digit
+     * @return the value
+     * @throws NumberFormatException
+     *             if the characters are not a number
+     */
+    /* package */ static long parseLong(@Nonnull final CharSequence chars, final int start, final int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Empty number");
+        }
+        long value = 0;
+        for (int i = start; i < end; ++i) {
+            final char c = chars.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Not a number: " + chars.subSequence(start, end));
+            }
+            value = value * DECIMAL_RADIX + (c - '0');
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; ++i) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append("local: ").append(decodeAddress(localAddress[i])).append(':').append(getLocalPort(i))
+                    .append(" remote: ").append(decodeAddress(remoteAddress[i])).append(':')
+                    .append(getRemotePort(i)).append(" sent: ").append(bitsSent[i]).append(" recv: ")
+                    .append(bitsReceived[i]);
+        }
+        return builder.append(']').toString();
+    }
+
+}
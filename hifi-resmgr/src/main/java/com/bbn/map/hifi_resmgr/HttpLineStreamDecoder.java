@@ -0,0 +1,312 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Incrementally decode an HTTP/1.1 response whose body is a sequence of
+ * newline terminated lines, such as the streaming Docker stats API. Bytes are
+ * fed in as they arrive from a non-blocking channel and each complete line is
+ * passed to a {@link LineHandler}. A decoder created with
+ * {@link #forBody(BodyHandler)} passes the body through without splitting it
+ * into lines, this is used for the Docker log stream. Chunked and identity
+ * transfer encodings are supported.
+ * 
+ * @author jschewe
+ *
+ */
+/* package */ final class HttpLineStreamDecoder {
+
+    /**
+     * Receives the lines of the response body.
+     */
+    @FunctionalInterface
+    /* package */ interface LineHandler {
+        /**
+         * Called for each line of the body. The buffer is reused once this
+         * method returns.
+         * 
+         * @param buffer
+         *            the line data without the line terminator
+         * @param offset
+         *            offset into buffer
+         * @param length
+         *            number of bytes in the line
+         * @throws IOException
+         *             if the line cannot be handled, this stops the decoding
+         */
+        void handleLine(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Receives the response body as it arrives.
+     */
+    @FunctionalInterface
+    /* package */ interface BodyHandler {
+        /**
+         * Called for each piece of the body. The buffer is reused once this
+         * method returns.
+         * 
+         * @param buffer
+         *            the body data
+         * @param offset
+         *            offset into buffer
+         * @param length
+         *            number of bytes of body data
+         * @throws IOException
+         *             if the data cannot be handled, this stops the decoding
+         */
+        void handleBody(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    private static final int INITIAL_LINE_CAPACITY = 4 * 1024;
+    private static final int MAX_LINE_LENGTH = 16 * 1024 * 1024;
+    private static final int HTTP_OK = 200;
+    private static final int HEX_RADIX = 16;
+    private static final int MAX_HEADER_LENGTH = 8 * 1024;
+    private static final int BYTE_MASK = 0xFF;
+
+    private enum State {
+        HEADERS, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, IDENTITY_BODY, DONE
+    }
+
+    private final LineHandler handler;
+    private final BodyHandler bodyHandler;
+    private State state = State.HEADERS;
+    private boolean seenStatusLine = false;
+    private boolean chunked = false;
+    private byte[] line = new byte[INITIAL_LINE_CAPACITY];
+    private int lineLength = 0;
+    // headers and chunk sizes are kept separate from the body line as a body
+    // line can span chunks
+    private final StringBuilder headerLine = new StringBuilder();
+    private long chunkRemaining = 0;
+
+    /**
+     * @param handler
+     *            where to send the lines
+     */
+    /* package */ HttpLineStreamDecoder(final LineHandler handler) {
+        this(handler, null);
+    }
+
+    private HttpLineStreamDecoder(final LineHandler handler, final BodyHandler bodyHandler) {
+        this.handler = handler;
+        this.bodyHandler = bodyHandler;
+    }
+
+    /**
+     * @param handler
+     *            where to send the body
+     * @return a decoder that passes the body to the handler without splitting
+     *         it into lines
+     */
+    /* package */ static HttpLineStreamDecoder forBody(final BodyHandler handler) {
+        return new HttpLineStreamDecoder(null, handler);
+    }
+
+    /**
+     * @return true if the end of the response has been seen or the response
+     *         body ends when the connection is closed
+     */
+    public boolean isBodyComplete() {
+        return State.DONE == state || State.IDENTITY_BODY == state;
+    }
+
+    /**
+     * Decode the available bytes.
+     * 
+     * @param input
+     *            the bytes read from the connection, all bytes are consumed
+     * @return false once the end of the response has been seen
+     * @throws IOException
+     *             if the response is not a successful HTTP response or the
+     *             handler fails
+     */
+    public boolean decode(final ByteBuffer input) throws IOException {
+        while (input.hasRemaining() && State.DONE != state) {
+            switch (state) {
+            case HEADERS:
+                if (readHeaderLine(input)) {
+                    processHeaderLine();
+                }
+                break;
+            case CHUNK_SIZE:
+                if (readHeaderLine(input)) {
+                    processChunkSize();
+                }
+                break;
+            case CHUNK_DATA:
+                final int available = (int) Math.min(input.remaining(), chunkRemaining);
+                appendBody(input, available);
+                chunkRemaining -= available;
+                if (0 == chunkRemaining) {
+                    state = State.CHUNK_END;
+                }
+                break;
+            case CHUNK_END:
+                // skip the CRLF after the chunk data
+                if (input.get() == '\n') {
+                    state = State.CHUNK_SIZE;
+                }
+                break;
+            case IDENTITY_BODY:
+                appendBody(input, input.remaining());
+                break;
+            default:
+                throw new IllegalStateException("Unexpected state " + state);
+            }
+        }
+        return State.DONE != state;
+    }
+
+    private void processHeaderLine() throws IOException {
+        final String header = headerLine.toString();
+        headerLine.setLength(0);
+
+        if (!seenStatusLine) {
+            seenStatusLine = true;
+            final String[] tokens = header.split(" ", 3);
+            if (tokens.length < 2) {
+                throw new IOException("Invalid HTTP status line: " + header);
+            }
+            try {
+                final int status = Integer.parseInt(tokens[1]);
+                if (HTTP_OK != status) {
+                    throw new IOException("Unexpected HTTP status: " + header);
+                }
+            } catch (final NumberFormatException e) {
+                throw new IOException("Invalid HTTP status line: " + header, e);
+            }
+        } else if (header.isEmpty()) {
+            state = chunked ? State.CHUNK_SIZE : State.IDENTITY_BODY;
+        } else {
+            final String lower = header.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("transfer-encoding:") && lower.contains("chunked")) {
+                chunked = true;
+            }
+        }
+    }
+
+    private void processChunkSize() throws IOException {
+        final String sizeLine = headerLine.toString();
+        headerLine.setLength(0);
+
+        final int extension = sizeLine.indexOf(';');
+        final String size = (extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim();
+        try {
+            chunkRemaining = Long.parseLong(size, HEX_RADIX);
+        } catch (final NumberFormatException e) {
+            throw new IOException("Invalid chunk size: " + sizeLine, e);
+        }
+
+        if (0 == chunkRemaining) {
+            state = State.DONE;
+        } else {
+            state = State.CHUNK_DATA;
+        }
+    }
+
+    /**
+     * Read bytes into the header line up to the end of a CRLF terminated line.
+     * 
+     * @return true if a full line is in the header line, the CR and LF are not
+     *         stored
+     */
+    private boolean readHeaderLine(final ByteBuffer input) throws IOException {
+        while (input.hasRemaining()) {
+            final char c = (char) (input.get() & BYTE_MASK);
+            if ('\n' == c) {
+                final int length = headerLine.length();
+                if (length > 0 && '\r' == headerLine.charAt(length - 1)) {
+                    headerLine.setLength(length - 1);
+                }
+                return true;
+            } else if (headerLine.length() >= MAX_HEADER_LENGTH) {
+                throw new IOException("HTTP header line is longer than " + MAX_HEADER_LENGTH + " characters");
+            } else {
+                headerLine.append(c);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add body bytes to the line buffer and send each complete line to the
+     * handler.
+     */
+    private void appendBody(final ByteBuffer input, final int count) throws IOException {
+        if (null != bodyHandler) {
+            // the line buffer is only used as scratch space
+            int remaining = count;
+            while (remaining > 0) {
+                final int length = Math.min(remaining, line.length);
+                input.get(line, 0, length);
+                bodyHandler.handleBody(line, 0, length);
+                remaining -= length;
+            }
+            return;
+        }
+
+        for (int i = 0; i < count; ++i) {
+            final byte b = input.get();
+            if ('\n' == b) {
+                int length = lineLength;
+                if (length > 0 && '\r' == line[length - 1]) {
+                    --length;
+                }
+                lineLength = 0;
+                if (length > 0) {
+                    handler.handleLine(line, 0, length);
+                }
+            } else {
+                ensureLineCapacity(1);
+                line[lineLength++] = b;
+            }
+        }
+    }
+
+    private void ensureLineCapacity(final int additional) throws IOException {
+        final int needed = lineLength + additional;
+        if (needed > line.length) {
+            if (needed > MAX_LINE_LENGTH) {
+                throw new IOException("Line is longer than " + MAX_LINE_LENGTH + " bytes");
+            }
+            line = Arrays.copyOf(line, Math.min(MAX_LINE_LENGTH, Math.max(needed, line.length * 2)));
+        }
+    }
+
+}
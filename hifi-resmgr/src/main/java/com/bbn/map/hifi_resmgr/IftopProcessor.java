@@ -40,9 +40,7 @@ import java.net.NetworkInterface;
 import java.nio.charset.Charset;
 import java.time.Duration;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.StringTokenizer;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
@@ -167,21 +165,19 @@ public class IftopProcessor extends BaseIftopProcessor {
                 }, 0, IFTOP_UPDATE_INTERVAL);
 
                 try (LineIterator lineIter = new LineIterator(reader)) {
-                    final List<String> iftopOutLines = new LinkedList<>();
+                    FlowTable frame = startFrame();
 
                     while (running.get() && lineIter.hasNext()) {
                         final String line = lineIter.next();
                         log.trace("IftopParseThread: read line: {}", line);
 
                         if (line.contains("===============================================")) {
-                            final List<IftopTrafficData> frame = processIftopOutputFrame(nic, iftopOutLines);
                             log.trace("IftopParseThread: created frame: {}", frame);
 
-                            setLastIftopFrames(frame);
-
-                            iftopOutLines.clear();
+                            publishFrame();
+                            frame = startFrame();
                         } else {
-                            iftopOutLines.add(line);
+                            processIftopOutputLine(nic, line, frame);
                         }
                     }
                 } catch (IOException e) {
@@ -230,58 +226,61 @@ public class IftopProcessor extends BaseIftopProcessor {
     }
 
     /**
-     * Process iftop data.
+     * Parse a line of iftop data into the frame. The line is parsed in place
+     * as this is done for every flow in every frame.
      * 
      * @param nic
      *            the network interface being monitored
-     * @param iftopOutLines
-     *            the lines from iftop
-     * @return the parsed data
+     * @param line
+     *            the line from iftop
+     * @param frame
+     *            where to add the flow
      */
-    private static List<IftopTrafficData> processIftopOutputFrame(@Nonnull final NetworkInterface nic,
-            @Nonnull final List<String> iftopOutLines) {
-        final List<IftopTrafficData> frame = new LinkedList<>();
+    /* package */ static void processIftopOutputLine(@Nonnull final NetworkInterface nic,
+            @Nonnull final String line,
+            @Nonnull final FlowTable frame) {
+        LoggerFactory.getLogger(IftopProcessor.class).trace("Parse line: " + line);
+
+        final int localIpEnd = line.indexOf(';');
+        if (localIpEnd < 0) {
+            // not a line we will parse
+            return;
+        }
 
-        for (String line : iftopOutLines) {
-            LoggerFactory.getLogger(IftopProcessor.class).trace("Parse line: " + line);
+        LoggerFactory.getLogger(IftopProcessor.class).debug("Parse line for NIC '{}': {}", nic, line);
 
-            try {
-                if (line.indexOf(';') < 0) {
-                    // not a line we will parse
-                    continue;
-                } else {
-                    /*
-                     * Using indexOf and StringTokenizer here rather than split
-                     * as it's been benchmarked by others to be much faster.
-                     * http://demeranville.com/battle-of-the-tokenizers-
-                     * delimited-text-parser-performance/
-                     */
-                    LoggerFactory.getLogger(IftopProcessor.class).debug("Parse line for NIC '{}': {}", nic, line);
-
-                    final StringTokenizer tokens = new StringTokenizer(line, ";");
-                    final String localIp = tokens.nextToken();
-                    final int localPort = Integer.parseInt(tokens.nextToken());
-                    final String remoteIp = tokens.nextToken();
-                    final int remotePort = Integer.parseInt(tokens.nextToken());
-                    final long sentBitsStr = Long.parseLong(tokens.nextToken());
-                    final long recvBits = Long.parseLong(tokens.nextToken());
-
-                    // add data to frame, skip if missing data from
-                    // a parsing error
-                    LoggerFactory.getLogger(IftopProcessor.class).debug(
-                            "Add IP Usage Data: \nLocal IP: {} Remote IP: {} Last 2s Bits Sent: {} Last 2s bits received: {}",
-                            localIp, remoteIp, sentBitsStr, recvBits);
-                    final IftopTrafficData data = new IftopTrafficData(localIp, localPort, remoteIp, remotePort,
-                            sentBitsStr, recvBits, nic);
-                    frame.add(data);
-
-                } // line to parse
-            } catch (final RuntimeException e) {
-                LoggerFactory.getLogger(IftopProcessor.class).error("Error parsing line '{}', skipping", line, e);
-            }
-        } // foreach line
+        try {
+            final int localPortEnd = nextField(line, localIpEnd);
+            final int remoteIpEnd = nextField(line, localPortEnd);
+            final int remotePortEnd = nextField(line, remoteIpEnd);
+            final int sentEnd = nextField(line, remotePortEnd);
+            final int recvEnd = nextField(line, sentEnd);
+
+            final long localIp = FlowTable.encodeAddress(line, 0, localIpEnd);
+            final int localPort = (int) FlowTable.parseLong(line, localIpEnd + 1, localPortEnd);
+            final long remoteIp = FlowTable.encodeAddress(line, localPortEnd + 1, remoteIpEnd);
+            final int remotePort = (int) FlowTable.parseLong(line, remoteIpEnd + 1, remotePortEnd);
+            final long sentBits = FlowTable.parseLong(line, remotePortEnd + 1, sentEnd);
+            final long recvBits = FlowTable.parseLong(line, sentEnd + 1, recvEnd);
+
+            frame.add(localIp, localPort, remoteIp, remotePort, sentBits, recvBits);
+        } catch (final RuntimeException e) {
+            LoggerFactory.getLogger(IftopProcessor.class).error("Error parsing line '{}', skipping", line, e);
+        }
+    }
 
-        return frame;
+    /**
+     * @return the index of the end of the field that starts after
+     *         previousEnd, either a ';' or the end of the line
+     * @throws NumberFormatException
+     *             if there is no next field
+     */
+    private static int nextField(final String line, final int previousEnd) {
+        if (previousEnd >= line.length()) {
+            throw new NumberFormatException("Missing field");
+        }
+        final int end = line.indexOf(';', previousEnd + 1);
+        return end < 0 ? line.length() : end;
     }
 
     /**
@@ -35,7 +35,8 @@ import javax.annotation.Nonnull;
 
 /**
  * Interface for various ways to fetch docker images. Implementations must have
- * a no-argument constructor.
+ * a public constructor that takes a {@link DockerApiClient} or a no-argument
+ * constructor.
  * 
  * @author jschewe
  *
@@ -53,6 +54,52 @@ public interface ImageFetcher {
      */
     void fetchImage(@Nonnull String image, @Nonnull Callback callback);
 
+    /**
+     * Priority of an image fetch.
+     */
+    enum Priority {
+        /**
+         * The image is needed to start a service and something is waiting on
+         * it.
+         */
+        START,
+        /**
+         * The image is fetched ahead of time in case it is needed.
+         */
+        PREFETCH
+    }
+
+    /**
+     * Fetch an image with the specified priority. Implementations that
+     * support priorities fetch {@link Priority#START} images before
+     * {@link Priority#PREFETCH} images. The default implementation ignores
+     * the priority.
+     * 
+     * @param image
+     *            the image to fetch
+     * @param priority
+     *            the priority of the fetch
+     * @param callback
+     *            called when the fetch finishes
+     */
+    default void fetchImage(@Nonnull final String image,
+            @Nonnull final Priority priority,
+            @Nonnull final Callback callback) {
+        fetchImage(image, callback);
+    }
+
+    /**
+     * Raise the priority of an image that has already been requested. The
+     * default implementation does nothing.
+     * 
+     * @param image
+     *            the image
+     * @param priority
+     *            the new priority
+     */
+    default void setPriority(@Nonnull final String image, @Nonnull final Priority priority) {
+    }
+
     /**
      * Callback for {@link ImageFetcher#fetchImage(String, Callback)}.
      */
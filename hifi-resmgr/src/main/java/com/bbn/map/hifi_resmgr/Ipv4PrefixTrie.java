@@ -0,0 +1,213 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Immutable binary trie over IPv4 prefixes. Each prefix holds a single value
+ * and a lookup walks at most 32 nodes, considering only the values whose
+ * prefix matches the address. Used for the routing table and the region
+ * subnets.
+ * 
+ * @author jschewe
+ *
+ * @param <T>
+ *            the value type
+ */
+public final class Ipv4PrefixTrie<T> {
+
+    private static final int NO_CHILD = 0;
+    private static final int ROOT = 0;
+
+    private final Comparator<? super T> precedence;
+    private final int[] zeroChild;
+    private final int[] oneChild;
+    private final Object[] nodeValues;
+
+    private Ipv4PrefixTrie(final Builder<T> builder) {
+        this.precedence = builder.precedence;
+        final int size = builder.nodeValues.size();
+        this.zeroChild = Arrays.copyOf(builder.zeroChild, size);
+        this.oneChild = Arrays.copyOf(builder.oneChild, size);
+        this.nodeValues = builder.nodeValues.toArray();
+    }
+
+    /**
+     * @param <T>
+     *            the value type
+     * @param precedence
+     *            decides between values that match an address, the greater
+     *            value is returned
+     * @return a builder for a trie
+     */
+    public static <T> Builder<T> builder(@Nonnull final Comparator<? super T> precedence) {
+        return new Builder<>(precedence);
+    }
+
+    /**
+     * @param address
+     *            the IPv4 address as an integer
+     * @return the value with the highest precedence whose prefix contains the
+     *         address or null
+     */
+    public T lookup(final int address) {
+        return lookup(address, value -> true);
+    }
+
+    /**
+     * @param address
+     *            the IPv4 address as an integer
+     * @param filter
+     *            only values accepted by the filter are returned
+     * @return the value with the highest precedence whose prefix contains the
+     *         address and is accepted by the filter or null
+     */
+    public T lookup(final int address, @Nonnull final Predicate<? super T> filter) {
+        T best = checkNode(ROOT, filter, null);
+        int node = ROOT;
+        for (int bit = 0; bit < Integer.SIZE; ++bit) {
+            node = isBitSet(address, bit) ? oneChild[node] : zeroChild[node];
+            if (NO_CHILD == node) {
+                break;
+            }
+            best = checkNode(node, filter, best);
+        }
+        return best;
+    }
+
+    /**
+     * @return the value of the node if it's accepted and has a higher
+     *         precedence than best, otherwise best
+     */
+    private T checkNode(final int node, final Predicate<? super T> filter, final T best) {
+        @SuppressWarnings("unchecked") // only values of T are stored
+        final T value = (T) nodeValues[node];
+        if (null != value && (null == best || precedence.compare(value, best) > 0) && filter.test(value)) {
+            return value;
+        } else {
+            return best;
+        }
+    }
+
+    /**
+     * @param bit
+     *            0 is the most significant bit
+     */
+    private static boolean isBitSet(final int value, final int bit) {
+        return (value & (Integer.MIN_VALUE >>> bit)) != 0;
+    }
+
+    /**
+     * Collects the prefixes for a trie.
+     * 
+     * @param <T>
+     *            the value type
+     */
+    public static final class Builder<T> {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final Comparator<? super T> precedence;
+        private int[] zeroChild = new int[INITIAL_CAPACITY];
+        private int[] oneChild = new int[INITIAL_CAPACITY];
+        private final List<T> nodeValues = new ArrayList<>();
+
+        private Builder(final Comparator<? super T> precedence) {
+            this.precedence = precedence;
+            // root
+            nodeValues.add(null);
+        }
+
+        /**
+         * Add a prefix. If the prefix already has a value the one with the
+         * higher precedence is kept, on a tie the first one added is kept.
+         * 
+         * @param network
+         *            the network address as an integer
+         * @param prefixLength
+         *            the number of bits in the prefix
+         * @param value
+         *            the value for the prefix
+         * @return this builder
+         */
+        public Builder<T> add(final int network, final int prefixLength, @Nonnull final T value) {
+            if (prefixLength < 0 || prefixLength > Integer.SIZE) {
+                throw new IllegalArgumentException("Invalid prefix length: " + prefixLength);
+            }
+
+            final int node = findOrCreateNode(network, prefixLength);
+            final T existing = nodeValues.get(node);
+            if (null == existing || precedence.compare(value, existing) > 0) {
+                nodeValues.set(node, value);
+            }
+            return this;
+        }
+
+        /**
+         * @return a trie with the prefixes added so far
+         */
+        public Ipv4PrefixTrie<T> build() {
+            return new Ipv4PrefixTrie<>(this);
+        }
+
+        private int findOrCreateNode(final int network, final int prefixLength) {
+            int node = ROOT;
+            for (int bit = 0; bit < prefixLength; ++bit) {
+                final boolean one = isBitSet(network, bit);
+                int child = one ? oneChild[node] : zeroChild[node];
+                if (NO_CHILD == child) {
+                    child = nodeValues.size();
+                    nodeValues.add(null);
+                    ensureCapacity(nodeValues.size());
+                    (one ? oneChild : zeroChild)[node] = child;
+                }
+                node = child;
+            }
+            return node;
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if (capacity > zeroChild.length) {
+                final int newCapacity = Math.max(capacity, zeroChild.length * 2);
+                zeroChild = Arrays.copyOf(zeroChild, newCapacity);
+                oneChild = Arrays.copyOf(oneChild, newCapacity);
+            }
+        }
+    }
+
+}
@@ -314,9 +314,8 @@ public class MapContainer {
     /**
      * Update the current resource reports. Called from the tests and from
      * {@link SimpleDockerResourceManager#updateResourceReports()}. This method
-     * depends on
-     * {@link SimpleDockerResourceManager#getNeighborsAttachedToNic(String)}, so
-     * that map needs to be up to date before this method is called.
+     * depends on the parent's {@link NicNeighborIndex}, so that index needs to
+     * be up to date before this method is called.
      */
     /* package */ void updateResourceReports(final Map<NodeAttribute, Double> allocatedComputeCapacity) {
 
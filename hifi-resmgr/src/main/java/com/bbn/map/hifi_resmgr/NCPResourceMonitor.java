@@ -45,8 +45,10 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -56,6 +58,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
@@ -74,6 +77,7 @@ import com.bbn.map.common.value.ApplicationSpecification;
 import com.bbn.map.hifi.FileRegionLookupService;
 import com.bbn.map.hifi.HiFiAgent;
 import com.bbn.map.hifi.dns.WeightedRecordMessageServer;
+import com.bbn.map.hifi.dns.WeightedRecordSessionServer;
 import com.bbn.map.hifi.simulation.SimDriver;
 import com.bbn.map.hifi.util.DnsUtils;
 import com.bbn.map.hifi.util.IdentifierUtils;
@@ -154,6 +158,41 @@ public class NCPResourceMonitor {
     // (bridge -> [members], member -> bridge)
     private Pair<Map<NetworkInterface, Collection<NetworkInterface>>, Map<NetworkInterface, NetworkInterface>> bridgeInfo;
 
+    /**
+     * Bridge name to the names of its member interfaces, computed with
+     * {@link #bridgeInfo}.
+     */
+    private volatile Map<String, Set<String>> bridgeMemberNames = Collections.emptyMap();
+
+    /**
+     * Incremented when the routing table or bridge membership changes.
+     */
+    private final AtomicLong networkTopologyVersion = new AtomicLong(0);
+
+    /**
+     * Maximum number of flows to keep resolved hosts for.
+     */
+    private static final int FLOW_IDENTITY_CACHE_SIZE = 4096;
+
+    /**
+     * How long resolved hosts for a flow are used before looking them up
+     * again. This picks up DNS changes that don't change the routes.
+     */
+    private static final long FLOW_IDENTITY_MAX_AGE_MS = Duration.ofMinutes(10).toMillis();
+
+    /**
+     * Avoids DNS and region lookups for flows that were seen in previous
+     * frames. Cleared when {@link #networkTopologyVersion} changes.
+     */
+    private final FlowIdentityCache flowIdentityCache = new FlowIdentityCache(FLOW_IDENTITY_CACHE_SIZE,
+            FLOW_IDENTITY_MAX_AGE_MS);
+
+    /**
+     * How often the connection tracking counters are read when
+     * {@link #conntrackFlowAccounting} is set.
+     */
+    private static final long CONNTRACK_SAMPLE_INTERVAL_MS = 1000;
+
     /**
      * The bandwidth capability of each NIC in Megabits/sec.
      */
@@ -165,6 +204,21 @@ public class NCPResourceMonitor {
 
     private final int apPort;
 
+    private final boolean conntrackFlowAccounting;
+
+    /**
+     * Shared by the {@link ConntrackProcessor} objects, null when iftop is
+     * used.
+     */
+    private ConntrackFlowSampler conntrackSampler = null;
+
+    /**
+     * Addresses of this host and the names of the monitored interfaces, used
+     * to attribute conntrack flows to interfaces.
+     */
+    private volatile Set<String> hostAddresses = Collections.emptySet();
+    private volatile Set<String> monitoredNicNames = Collections.emptySet();
+
     /**
      * Stores the current and previous usage for a certain NIC.
      * 
@@ -236,17 +290,22 @@ public class NCPResourceMonitor {
      *            the port number that AP communicates on
      * @param testbedControlSubnets
      *            the subnets used by the testbed for control traffic
+     * @param conntrackFlowAccounting
+     *            if true, measure network flows with the kernel connection
+     *            tracking counters rather than iftop
      */
     public NCPResourceMonitor(long pollingInterval,
             @Nonnull final RegionIdentifier region,
             @Nonnull final FileRegionLookupService regionLookupService,
             final int apPort,
-            @Nonnull final ImmutableCollection<SubnetUtils.SubnetInfo> testbedControlSubnets) {
+            @Nonnull final ImmutableCollection<SubnetUtils.SubnetInfo> testbedControlSubnets,
+            final boolean conntrackFlowAccounting) {
         this.pollingInterval = pollingInterval;
         this.regionLookupService = regionLookupService;
         this.region = region;
         this.apPort = apPort;
         this.testbedControlSubnets = testbedControlSubnets;
+        this.conntrackFlowAccounting = conntrackFlowAccounting;
 
         updateCPUCount(FILE_CPU_CAPACITY);
         updateNetworkBandwidth(FILE_NETWORK_CAPACITY);
@@ -401,16 +460,36 @@ public class NCPResourceMonitor {
 
             // needs to be set before determineInterfacesToMonitor is executed
             bridgeInfo = findBridgeMembers(allNics);
+            final Map<String, Set<String>> memberNames = new HashMap<>();
+            bridgeInfo.getLeft().forEach((bridge, members) -> {
+                memberNames.put(bridge.getName(), Collections.unmodifiableSet(
+                        members.stream().map(NetworkInterface::getName).collect(Collectors.toSet())));
+            });
+            bridgeMemberNames = memberNames;
+            networkTopologyVersion.incrementAndGet();
 
             final Set<NetworkInterface> interfacesToMonitor = determineInterfacesToMonitor(allNics);
             log.debug("Interfaces to monitor: {}", interfacesToMonitor);
 
             final Map<NetworkInterface, NetworkInterface> memberToBridge = bridgeInfo.getRight();
 
+            if (conntrackFlowAccounting) {
+                hostAddresses = allNics.stream()
+                        .flatMap(nic -> Collections.list(nic.getInetAddresses()).stream())
+                        .map(InetAddress::getHostAddress).collect(Collectors.toSet());
+                monitoredNicNames = interfacesToMonitor.stream().map(NetworkInterface::getName)
+                        .collect(Collectors.toSet());
+                conntrackSampler = new ConntrackFlowSampler(ConntrackFlowSampler.DEFAULT_CONNTRACK_FILE,
+                        CONNTRACK_SAMPLE_INTERVAL_MS, this::findMonitoredNicForAddress);
+                conntrackSampler.start();
+            }
+
             interfacesToMonitor.forEach(nic -> {
                 final InetAddress addr = getAddress(nic, memberToBridge);
                 final BaseIftopProcessor processor;
-                if (AgentConfiguration.getInstance().getIftopUseCustom()) {
+                if (null != conntrackSampler) {
+                    processor = new ConntrackProcessor(nic, conntrackSampler);
+                } else if (AgentConfiguration.getInstance().getIftopUseCustom()) {
                     processor = new IftopProcessor(nic);
                 } else {
                     processor = new OriginalIftopProcessor(nic);
@@ -434,14 +513,42 @@ public class NCPResourceMonitor {
     }
 
     /**
-     * Make sure that the local address in the returned object is nicAddress.
+     * Find the monitored interface that traffic for an address crosses. For a
+     * route through a bridge this is the monitored member of the bridge.
+     * 
+     * @param address
+     *            the address to look up
+     * @return the interface name or null if the address is on this host or
+     *         cannot be routed
+     */
+    private String findMonitoredNicForAddress(final String address) {
+        if (hostAddresses.contains(address) || address.startsWith("127.")) {
+            return null;
+        }
+
+        final String nic = getRoutingTable().route(address);
+        if (null == nic) {
+            return null;
+        }
+
+        final Set<String> members = bridgeMemberNames.get(nic);
+        if (null == members) {
+            return nic;
+        } else {
+            return members.stream().filter(monitoredNicNames::contains).findFirst().orElse(nic);
+        }
+    }
+
+    /**
+     * Determine if local and remote need to be swapped so that the local
+     * address is nicAddress.
      * 
      * @throws UnknownHostException
      */
-    private IftopTrafficData fixLocalRemote(final InetAddress nicAddress, final IftopTrafficData trafficData1)
+    private boolean isFlipNeeded(final InetAddress nicAddress, final String localIp, final String remoteIp)
             throws UnknownHostException {
-        final InetAddress address1 = DnsUtils.getByName(trafficData1.getLocalIP());
-        final InetAddress address2 = DnsUtils.getByName(trafficData1.getRemoteIP());
+        final InetAddress address1 = DnsUtils.getByName(localIp);
+        final InetAddress address2 = DnsUtils.getByName(remoteIp);
 
         final boolean flip;
         if (address1.isLoopbackAddress()) {
@@ -461,7 +568,6 @@ public class NCPResourceMonitor {
 
             if (region.equals(address1Region)) {
                 flip = false;
-                return trafficData1;
             } else if (region.equals(address2Region)) {
                 // Since the traffic isn't for this host, make anything in the
                 // same region local.
@@ -475,19 +581,35 @@ public class NCPResourceMonitor {
                 // remote
                 // don't matter
                 flip = false;
-                return trafficData1;
             }
         }
 
-        if (flip) {
-            final IftopTrafficData trafficData2 = new IftopTrafficData(trafficData1.getRemoteIP(),
-                    trafficData1.getRemotePort(), trafficData1.getLocalIP(), trafficData1.getLocalPort(),
-                    trafficData1.getLast2sBitsReceived(), trafficData1.getLast2sBitsSent(),
-                    trafficData1.getInterface());
-            return trafficData2;
-        } else {
-            return trafficData1;
+        return flip;
+    }
+
+    /**
+     * Find the hosts of a flow and which end is local, using the cache when
+     * possible.
+     * 
+     * @throws UnknownHostException
+     */
+    private FlowIdentityCache.FlowIdentity getFlowIdentity(final InetAddress nicAddress,
+            final String nicName,
+            final FlowTable frame,
+            final int index) throws UnknownHostException {
+        final FlowIdentityCache.FlowKey key = new FlowIdentityCache.FlowKey(frame, index, nicName);
+        final FlowIdentityCache.FlowIdentity cached = flowIdentityCache.get(key);
+        if (null != cached) {
+            return cached;
         }
+
+        final String frameLocalIp = FlowTable.decodeAddress(frame.getLocalAddress(index));
+        final String frameRemoteIp = FlowTable.decodeAddress(frame.getRemoteAddress(index));
+        final boolean flip = isFlipNeeded(nicAddress, frameLocalIp, frameRemoteIp);
+        final String localIp = flip ? frameRemoteIp : frameLocalIp;
+        final String remoteIp = flip ? frameLocalIp : frameRemoteIp;
+        return flowIdentityCache.put(key, flip, IdentifierUtils.getNodeIdentifier(localIp),
+                IdentifierUtils.getNodeIdentifier(remoteIp));
     }
 
     /**
@@ -496,24 +618,37 @@ public class NCPResourceMonitor {
      * 
      * @param apPort
      *            the port that AP uses to communicate on
-     * @param trafficData
-     *            the data to parse
+     * @param localAddress
+     *            encoded local address, local and remote already corrected
+     * @param localPort
+     *            local port
+     * @param remoteAddress
+     *            encoded remote address
+     * @param remotePort
+     *            remote port
+     * @param identity
+     *            the hosts for the flow, the classification of unmanaged
+     *            traffic is stored here so that it is only computed once
      * @param controller
      *            used to get the service information for nodes
      * @return the flow and service information needed for a report
      */
     /* package */ static Pair<NodeNetworkFlow, ServiceIdentifier<?>> createNetworkFlow(final int apPort,
-            @Nonnull final IftopTrafficData trafficData,
+            final long localAddress,
+            final int localPort,
+            final long remoteAddress,
+            final int remotePort,
+            @Nonnull final FlowIdentityCache.FlowIdentity identity,
             @Nonnull final Controller controller) {
 
-        // TODO: this may be able to be done more efficiently with some rework
-        // of the data flow
-        final NodeIdentifier sourceHost = IdentifierUtils.getNodeIdentifier(trafficData.getLocalIP());
-        final int sourceHostPort = trafficData.getLocalPort();
+        // the service running on a node changes as containers start and stop,
+        // so only the hosts are cached
+        final NodeIdentifier sourceHost = identity.getLocalHost();
+        final int sourceHostPort = localPort;
         final ServiceIdentifier<?> sourceService = controller.getServiceForNode(sourceHost);
 
-        final NodeIdentifier destHost = IdentifierUtils.getNodeIdentifier(trafficData.getRemoteIP());
-        final int destHostPort = trafficData.getRemotePort();
+        final NodeIdentifier destHost = identity.getRemoteHost();
+        final int destHostPort = remotePort;
         final ServiceIdentifier<?> destService = controller.getServiceForNode(destHost);
 
         ServiceIdentifier<?> service = null;
@@ -544,75 +679,118 @@ public class NCPResourceMonitor {
 
         // couldn't match to any managed service
         if (null == serverHost) {
-            if (DNS_QUERY_PORT == sourceHostPort || DNS_QUERY_PORT == destHostPort) {
-                service = MAPServices.DNS_QUERY;
+            Pair<NodeIdentifier, ServiceIdentifier<?>> unmanaged = identity.getUnmanagedClassification();
+            if (null == unmanaged) {
+                unmanaged = classifyUnmanagedFlow(apPort, FlowTable.decodeAddress(localAddress), localPort,
+                        FlowTable.decodeAddress(remoteAddress), remotePort, sourceHost, destHost, sourceService,
+                        destService);
+                identity.setUnmanagedClassification(unmanaged);
+            }
+            serverHost = unmanaged.getLeft();
+            service = unmanaged.getRight();
+        }
 
-                if (DNS_QUERY_PORT == sourceHostPort) {
-                    serverHost = sourceHost;
-                } else {
-                    serverHost = destHost;
-                }
-            } else if (WeightedRecordMessageServer.PORT == sourceHostPort
-                    || WeightedRecordMessageServer.PORT == destHostPort) {
-                service = MAPServices.DNS_UPDATE;
-                if (WeightedRecordMessageServer.PORT == sourceHostPort) {
-                    serverHost = sourceHost;
-                } else {
-                    serverHost = destHost;
-                }
-            } else if (SimpleDockerResourceManager.DOCKER_REGISTRY_PORT == sourceHostPort
-                    || SimpleDockerResourceManager.DOCKER_REGISTRY_PORT == destHostPort) {
-                service = MAPServices.DOCKER;
-                if (SimpleDockerResourceManager.DOCKER_REGISTRY_PORT == sourceHostPort) {
-                    serverHost = sourceHost;
-                } else {
-                    serverHost = destHost;
-                }
-            } else if (OSPF_ADDRESSES.contains(trafficData.getLocalIP())
-                    || OSPF_ADDRESSES.contains(trafficData.getRemoteIP())) {
-                service = MAPServices.OSPF;
-                serverHost = NodeIdentifier.UNKNOWN;
-            } else if (SimDriver.PORT == sourceHostPort || SimDriver.PORT == destHostPort) {
-                service = MAPServices.SIMULATION_DRIVER;
-                if (SimDriver.PORT == sourceHostPort) {
-                    serverHost = sourceHost;
-                } else {
-                    serverHost = destHost;
-                }
-            } else if (SimDriver.BACKGROUND_TRAFFIC_PORT == sourceHostPort
-                    || SimDriver.BACKGROUND_TRAFFIC_PORT == destHostPort) {
-                service = MAPServices.SIMULATION_DRIVER;
-                if (SimDriver.BACKGROUND_TRAFFIC_PORT == sourceHostPort) {
-                    serverHost = sourceHost;
-                } else {
-                    serverHost = destHost;
-                }
-            } else if (PIM_ADDRESSES.contains(trafficData.getLocalIP())
-                    || PIM_ADDRESSES.contains(trafficData.getRemoteIP())) {
-                service = MAPServices.PIM;
-                serverHost = NodeIdentifier.UNKNOWN;
-            } else if (MULTICAST_MANAGEMENT_ADDRESSES.contains(trafficData.getLocalIP())
-                    || MULTICAST_MANAGEMENT_ADDRESSES.contains(trafficData.getRemoteIP())) {
-                service = MAPServices.MULTICAST_MANAGEMENT;
-                serverHost = NodeIdentifier.UNKNOWN;
-            } else if (apPort == sourceHostPort || apPort == destHostPort) {
-                // there isn't a server in AP communication
-                serverHost = NodeIdentifier.UNKNOWN;
-                service = ApplicationCoordinates.AP;
-            } else {
-                log.warn(
-                        "Unable to associate traffic with a service between {}:{} ({}) and {}:{} ({}). Source service: {} Dest service: {}",
-                        sourceHost, sourceHostPort, trafficData.getLocalIP(), destHost, destHostPort,
-                        trafficData.getRemoteIP(), sourceService, destService);
+        return Pair.of(new NodeNetworkFlow(sourceHost, destHost, serverHost), service);
+    }
 
-                serverHost = NodeIdentifier.UNKNOWN;
-                service = ApplicationCoordinates.UNMANAGED;
+    /**
+     * Classify traffic that doesn't belong to a managed service using the
+     * well-known ports and addresses.
+     * 
+     * @return (server host, service)
+     */
+    private static Pair<NodeIdentifier, ServiceIdentifier<?>> classifyUnmanagedFlow(final int apPort,
+            final String localIp,
+            final int sourceHostPort,
+            final String remoteIp,
+            final int destHostPort,
+            final NodeIdentifier sourceHost,
+            final NodeIdentifier destHost,
+            final ServiceIdentifier<?> sourceService,
+            final ServiceIdentifier<?> destService) {
+
+        final ServiceIdentifier<?> service;
+        final NodeIdentifier serverHost;
+        if (DNS_QUERY_PORT == sourceHostPort || DNS_QUERY_PORT == destHostPort) {
+            service = MAPServices.DNS_QUERY;
+
+            if (DNS_QUERY_PORT == sourceHostPort) {
+                serverHost = sourceHost;
+            } else {
+                serverHost = destHost;
+            }
+        } else if (WeightedRecordMessageServer.PORT == sourceHostPort
+                || WeightedRecordMessageServer.PORT == destHostPort
+                || WeightedRecordSessionServer.PORT == sourceHostPort
+                || WeightedRecordSessionServer.PORT == destHostPort) {
+            service = MAPServices.DNS_UPDATE;
+            if (WeightedRecordMessageServer.PORT == sourceHostPort
+                    || WeightedRecordSessionServer.PORT == sourceHostPort) {
+                serverHost = sourceHost;
+            } else {
+                serverHost = destHost;
+            }
+        } else if (SimpleDockerResourceManager.DOCKER_REGISTRY_PORT == sourceHostPort
+                || SimpleDockerResourceManager.DOCKER_REGISTRY_PORT == destHostPort) {
+            service = MAPServices.DOCKER;
+            if (SimpleDockerResourceManager.DOCKER_REGISTRY_PORT == sourceHostPort) {
+                serverHost = sourceHost;
+            } else {
+                serverHost = destHost;
+            }
+        } else if (OSPF_ADDRESSES.contains(localIp)
+                || OSPF_ADDRESSES.contains(remoteIp)) {
+            service = MAPServices.OSPF;
+            serverHost = NodeIdentifier.UNKNOWN;
+        } else if (SimDriver.PORT == sourceHostPort || SimDriver.PORT == destHostPort) {
+            service = MAPServices.SIMULATION_DRIVER;
+            if (SimDriver.PORT == sourceHostPort) {
+                serverHost = sourceHost;
+            } else {
+                serverHost = destHost;
             }
+        } else if (SimDriver.BACKGROUND_TRAFFIC_PORT == sourceHostPort
+                || SimDriver.BACKGROUND_TRAFFIC_PORT == destHostPort) {
+            service = MAPServices.SIMULATION_DRIVER;
+            if (SimDriver.BACKGROUND_TRAFFIC_PORT == sourceHostPort) {
+                serverHost = sourceHost;
+            } else {
+                serverHost = destHost;
+            }
+        } else if (PIM_ADDRESSES.contains(localIp)
+                || PIM_ADDRESSES.contains(remoteIp)) {
+            service = MAPServices.PIM;
+            serverHost = NodeIdentifier.UNKNOWN;
+        } else if (MULTICAST_MANAGEMENT_ADDRESSES.contains(localIp)
+                || MULTICAST_MANAGEMENT_ADDRESSES.contains(remoteIp)) {
+            service = MAPServices.MULTICAST_MANAGEMENT;
+            serverHost = NodeIdentifier.UNKNOWN;
+        } else if (apPort == sourceHostPort || apPort == destHostPort) {
+            // there isn't a server in AP communication
+            serverHost = NodeIdentifier.UNKNOWN;
+            service = ApplicationCoordinates.AP;
+        } else {
+            log.warn(
+                    "Unable to associate traffic with a service between {}:{} ({}) and {}:{} ({}). Source service: {} Dest service: {}",
+                    sourceHost, sourceHostPort, localIp, destHost, destHostPort,
+                    remoteIp, sourceService, destService);
+
+            serverHost = NodeIdentifier.UNKNOWN;
+            service = ApplicationCoordinates.UNMANAGED;
         }
 
-        return Pair.of(new NodeNetworkFlow(sourceHost, destHost, serverHost), service);
+        return Pair.of(serverHost, service);
     }
 
+    /**
+     * Reused for each frame to avoid allocating per flow. Only accessed while
+     * holding the lock on this map.
+     */
+    private final Map<NetworkInterface, FlowTable> frameTables = new HashMap<>();
+
+    private static final int TX_INDEX = 0;
+    private static final int RX_INDEX = 1;
+
     /**
      * The first key is the {@link NetworkInterface#getName()} of the NIC.
      * 
@@ -626,103 +804,110 @@ public class NCPResourceMonitor {
         // NIC name -> flow -> service -> attribute -> value
         final Map<String, Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>>> networkLoad = new HashMap<>();
 
-        networkMonitors.forEach((nic, monitor) -> {
-            log.trace("Computing network load for {}", nic.getName());
+        flowIdentityCache.checkGeneration(getNetworkTopologyVersion());
+
+        // flow -> service -> [tx, rx], summed without boxing
+        final Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, double[]>> nicTotals = new HashMap<>();
+
+        synchronized (frameTables) {
+            networkMonitors.forEach((nic, monitor) -> {
+                log.trace("Computing network load for {}", nic.getName());
 
-            // always create the nic load map as this is expected downstream
-            final Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>> nicLoad = networkLoad
-                    .computeIfAbsent(nic.getName(), k -> new HashMap<>());
+                nicTotals.clear();
+                final FlowTable frame = frameTables.computeIfAbsent(nic, k -> new FlowTable());
+                gatherNetworkInformation(controller, nic.getName(), nicToIp.get(nic), monitor, frame, nicTotals);
 
-            gatherNetworkInformation(controller, nicToIp.get(nic), monitor, nicLoad);
-        }); // foreach nic
+                // always create the nic load map as this is expected downstream
+                final Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>> nicLoad = networkLoad
+                        .computeIfAbsent(nic.getName(), k -> new HashMap<>());
+                nicTotals.forEach((flow, serviceTotals) -> {
+                    final Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>> sourceLoad = nicLoad
+                            .computeIfAbsent(flow, k -> new HashMap<>());
+                    serviceTotals.forEach((service, totals) -> {
+                        final Map<LinkAttribute, Double> serviceLoad = new HashMap<>();
+                        serviceLoad.put(LinkAttribute.DATARATE_TX, totals[TX_INDEX]);
+                        serviceLoad.put(LinkAttribute.DATARATE_RX, totals[RX_INDEX]);
+                        sourceLoad.put(service, serviceLoad);
+                    });
+                });
+            }); // foreach nic
+        }
 
         log.trace("computeNetworkLoadPerNic: networkLoad: {}", networkLoad);
         return networkLoad;
     }
 
     /**
-     * Collect network information from the specified monitor and store it in
-     * nicLoad.
+     * Collect network information from the specified monitor and add it to
+     * nicTotals.
      * 
      * @param controller
      *            used to create the flow
+     * @param nicName
+     *            the name of the interface being monitored
      * @param nicAddress
      *            the address of the interface being monitored
      * @param monitor
      *            the monitor to read information from
-     * @param nicLoad
-     *            where to store the data
+     * @param trafficFrame
+     *            used to hold the frame read from the monitor
+     * @param nicTotals
+     *            flow -> service -> [tx, rx] in Mbps, where to store the data
      */
     /* package */ void gatherNetworkInformation(final Controller controller,
+            final String nicName,
             final InetAddress nicAddress,
             final BaseIftopProcessor monitor,
-            final Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>> nicLoad) {
-        final List<IftopTrafficData> trafficFrame = monitor.getLastIftopFrames();
-        if (null != trafficFrame) {
+            final FlowTable trafficFrame,
+            final Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, double[]>> nicTotals) {
+        if (monitor.copyLastFrame(trafficFrame)) {
 
             log.trace("Load for nic with address {} -> {}", nicAddress, trafficFrame);
 
-            for (IftopTrafficData trafficData1 : trafficFrame) {
-                log.trace("traffic data {}", trafficData1);
-
+            for (int i = 0; i < trafficFrame.size(); ++i) {
                 try {
-                    final IftopTrafficData correctedTrafficData = fixLocalRemote(nicAddress, trafficData1);
-
-                    log.trace("corrected traffic data {}", correctedTrafficData);
+                    final FlowIdentityCache.FlowIdentity identity = getFlowIdentity(nicAddress, nicName,
+                            trafficFrame, i);
+                    final boolean flip = identity.isFlip();
+
+                    final long localAddress = flip ? trafficFrame.getRemoteAddress(i)
+                            : trafficFrame.getLocalAddress(i);
+                    final int localPort = flip ? trafficFrame.getRemotePort(i) : trafficFrame.getLocalPort(i);
+                    final long remoteAddress = flip ? trafficFrame.getLocalAddress(i)
+                            : trafficFrame.getRemoteAddress(i);
+                    final int remotePort = flip ? trafficFrame.getLocalPort(i) : trafficFrame.getRemotePort(i);
+                    final long bitsSent = flip ? trafficFrame.getBitsReceived(i) : trafficFrame.getBitsSent(i);
+                    final long bitsReceived = flip ? trafficFrame.getBitsSent(i) : trafficFrame.getBitsReceived(i);
 
                     final Pair<NodeNetworkFlow, ServiceIdentifier<?>> flowResult = createNetworkFlow(apPort,
-                            correctedTrafficData, controller);
+                            localAddress, localPort, remoteAddress, remotePort, identity, controller);
 
                     log.trace("computeNetworkLoadPerNic: flowResult: {}", flowResult);
 
                     final NodeNetworkFlow flow = flowResult.getLeft();
                     final ServiceIdentifier<?> service = flowResult.getRight();
 
-                    final Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>> sourceLoad = nicLoad
-                            .computeIfAbsent(flow, k -> new HashMap<>());
-
-                    final long bitsSent = correctedTrafficData.getLast2sBitsSent();
                     final double tx = UnitConversions.bitsPerSecondToMegabitsPerSecond(bitsSent);
-
-                    final long bitsReceived = correctedTrafficData.getLast2sBitsReceived();
                     final double rx = UnitConversions.bitsPerSecondToMegabitsPerSecond(bitsReceived);
 
                     log.trace("Nic{}: Adding network load for remote machine '{}': rx = {}, tx = {}", nicAddress,
                             flow.getDestination().getName(), rx, tx);
-                    addNetworkLoad(sourceLoad, tx, rx, service);
+
+                    final double[] totals = nicTotals.computeIfAbsent(flow, k -> new HashMap<>())
+                            .computeIfAbsent(service, k -> new double[2]);
+                    totals[TX_INDEX] += tx;
+                    totals[RX_INDEX] += rx;
 
                 } catch (final UnknownHostException e) {
                     log.error("Unable to lookup host from traffic data: {}", e.getMessage(), e);
                 }
-            } // foreach data element
+            } // foreach flow
         } // if there is a traffic frame
         else {
             log.trace("No network information for {}", nicAddress);
         }
     }
 
-    /**
-     * Ensure that the correct link attributes are used and summed properly.
-     * 
-     * @param sourceLoad
-     *            the load to add the values to
-     * @param tx
-     *            the transmit value
-     * @param rx
-     *            the receive value
-     * @param service
-     *            the service
-     */
-    private static void addNetworkLoad(final Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>> sourceLoad,
-            final double tx,
-            final double rx,
-            final ServiceIdentifier<?> service) {
-        final Map<LinkAttribute, Double> serviceLoad = sourceLoad.computeIfAbsent(service, k -> new HashMap<>());
-
-        serviceLoad.merge(LinkAttribute.DATARATE_RX, rx, Double::sum);
-        serviceLoad.merge(LinkAttribute.DATARATE_TX, tx, Double::sum);
-    }
-
     private void startPolling() {
         startNetworkMonitoring();
 
@@ -822,7 +1007,13 @@ public class NCPResourceMonitor {
                 }
 
                 synchronized (routingTableLock) {
-                    routingTable = table;
+                    // keep the existing table when nothing changed so that its
+                    // route cache stays valid
+                    if (!table.equals(routingTable)) {
+                        table.compile();
+                        networkTopologyVersion.incrementAndGet();
+                        routingTable = table;
+                    }
                 }
 
                 log.debug("Updated routing table:\n{}", routingTable);
@@ -1027,23 +1218,21 @@ public class NCPResourceMonitor {
      * @param nic
      *            the name of the NIC
      * @return the physical NIC names within nic if nic is a bridge or null
-     *         otherwise
+     *         otherwise, the set is not modifiable
      */
     public Set<String> getPysicalNICNamesForBridge(final String nic) {
-        Set<String> physicalNICNames = null;
-
-        for (Map.Entry<NetworkInterface, Collection<NetworkInterface>> entry : bridgeInfo.getLeft().entrySet()) {
-            if (entry.getKey().getName().equals(nic)) {
-                physicalNICNames = new HashSet<>();
-
-                for (NetworkInterface bridgeNic : entry.getValue())
-                    physicalNICNames.add(bridgeNic.getName());
-
-                break;
-            }
-        }
+        return bridgeMemberNames.get(nic);
+    }
 
-        return physicalNICNames;
+    /**
+     * Used to tell when information derived from the routing table or bridge
+     * membership needs to be recomputed.
+     * 
+     * @return a value that changes when the routing table or bridge membership
+     *         changes
+     */
+    public long getNetworkTopologyVersion() {
+        return networkTopologyVersion.get();
     }
 
     /**
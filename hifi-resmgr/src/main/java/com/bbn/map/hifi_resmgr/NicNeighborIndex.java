@@ -0,0 +1,201 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+
+import com.bbn.protelis.networkresourcemanagement.InterfaceIdentifier;
+import com.bbn.protelis.networkresourcemanagement.NodeIdentifier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Maintains the mapping between network interfaces and the neighbors reached
+ * through them in both directions. Neighbors are only resolved to an
+ * interface when they are first seen or when the network topology version
+ * changes, so the per report work is proportional to the changes rather than
+ * the number of neighbors. The {@link InterfaceIdentifier} for an interface
+ * is only recreated when its set of neighbors changes.
+ * 
+ * @author jschewe
+ *
+ */
+/* package */ final class NicNeighborIndex {
+
+    private final Object lock = new Object();
+
+    private final Map<NodeIdentifier, String> neighborToNic = new HashMap<>();
+    private final Map<String, Set<NodeIdentifier>> nicToNeighbors = new HashMap<>();
+    private final Set<String> monitoredNics = new HashSet<>();
+
+    /**
+     * Interfaces that need their {@link InterfaceIdentifier} recreated.
+     */
+    private final Set<String> dirtyNics = new HashSet<>();
+    private final Map<String, InterfaceIdentifier> interfaces = new HashMap<>();
+    private ImmutableMap<String, InterfaceIdentifier> snapshot = ImmutableMap.of();
+
+    private long topologyVersion = Long.MIN_VALUE;
+
+    /**
+     * Bring the index up to date.
+     * 
+     * @param currentMonitoredNics
+     *            the interfaces being monitored, these are always included in
+     *            the result even if they have no neighbors
+     * @param currentNeighbors
+     *            the current neighbors
+     * @param currentTopologyVersion
+     *            when this differs from the previous call all neighbors are
+     *            resolved again
+     * @param resolver
+     *            finds the interface for a neighbor, returns null if it cannot
+     *            be determined. A neighbor that cannot be resolved is tried
+     *            again on the next update.
+     * @return interface name to identifier, the same object as the previous
+     *         call if nothing changed
+     */
+    @Nonnull
+    /* package */ ImmutableMap<String, InterfaceIdentifier> update(@Nonnull final Set<String> currentMonitoredNics,
+            @Nonnull final Set<NodeIdentifier> currentNeighbors,
+            final long currentTopologyVersion,
+            @Nonnull final Function<NodeIdentifier, String> resolver) {
+        synchronized (lock) {
+            if (currentTopologyVersion != topologyVersion) {
+                dirtyNics.addAll(nicToNeighbors.keySet());
+                neighborToNic.clear();
+                nicToNeighbors.clear();
+                topologyVersion = currentTopologyVersion;
+            }
+
+            boolean changed = false;
+            if (!monitoredNics.equals(currentMonitoredNics)) {
+                monitoredNics.clear();
+                monitoredNics.addAll(currentMonitoredNics);
+                changed = true;
+            }
+
+            // remove neighbors that are gone
+            final Iterator<Map.Entry<NodeIdentifier, String>> iter = neighborToNic.entrySet().iterator();
+            while (iter.hasNext()) {
+                final Map.Entry<NodeIdentifier, String> entry = iter.next();
+                if (!currentNeighbors.contains(entry.getKey())) {
+                    iter.remove();
+                    removeFromNic(entry.getValue(), entry.getKey());
+                }
+            }
+
+            // add new neighbors
+            for (final NodeIdentifier neighbor : currentNeighbors) {
+                if (!neighborToNic.containsKey(neighbor)) {
+                    final String nic = resolver.apply(neighbor);
+                    if (null != nic) {
+                        neighborToNic.put(neighbor, nic);
+                        nicToNeighbors.computeIfAbsent(nic, k -> new HashSet<>()).add(neighbor);
+                        dirtyNics.add(nic);
+                    }
+                }
+            }
+
+            if (changed || !dirtyNics.isEmpty()) {
+                rebuildSnapshot();
+            }
+            return snapshot;
+        }
+    }
+
+    private void removeFromNic(final String nic, final NodeIdentifier neighbor) {
+        final Set<NodeIdentifier> nicNeighbors = nicToNeighbors.get(nic);
+        if (null != nicNeighbors) {
+            nicNeighbors.remove(neighbor);
+            if (nicNeighbors.isEmpty()) {
+                nicToNeighbors.remove(nic);
+            }
+        }
+        dirtyNics.add(nic);
+    }
+
+    private void rebuildSnapshot() {
+        final Set<String> nics = new HashSet<>(monitoredNics);
+        nics.addAll(nicToNeighbors.keySet());
+
+        interfaces.keySet().retainAll(nics);
+        for (final String nic : nics) {
+            if (dirtyNics.contains(nic) || !interfaces.containsKey(nic)) {
+                final Set<NodeIdentifier> nicNeighbors = nicToNeighbors.getOrDefault(nic, Collections.emptySet());
+                interfaces.put(nic, new InterfaceIdentifier(nic, ImmutableSet.copyOf(nicNeighbors)));
+            }
+        }
+        dirtyNics.clear();
+
+        snapshot = ImmutableMap.copyOf(interfaces);
+    }
+
+    /**
+     * @param nic
+     *            the network interface name
+     * @return the neighbors reached through the interface as of the last
+     *         update
+     */
+    @Nonnull
+    /* package */ Set<NodeIdentifier> getNeighborsAttachedToNic(@Nonnull final String nic) {
+        synchronized (lock) {
+            final Set<NodeIdentifier> nicNeighbors = nicToNeighbors.get(nic);
+            if (null == nicNeighbors) {
+                return Collections.emptySet();
+            } else {
+                return ImmutableSet.copyOf(nicNeighbors);
+            }
+        }
+    }
+
+    /**
+     * @param neighbor
+     *            the neighbor
+     * @return the interface the neighbor is reached through as of the last
+     *         update, null if not known
+     */
+    /* package */ String getNicForNeighbor(@Nonnull final NodeIdentifier neighbor) {
+        synchronized (lock) {
+            return neighborToNic.get(neighbor);
+        }
+    }
+
+}
@@ -33,11 +33,11 @@ package com.bbn.map.hifi_resmgr;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Objects;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import org.apache.commons.net.util.SubnetUtils;
 import org.apache.logging.log4j.LogManager;
@@ -71,6 +71,7 @@ public class RoutingTable {
     public void addRow(String nic, String destination, String gateway, int metric, String mask) {
         RoutingTableRow row = new RoutingTableRow(nic, destination, gateway, metric, mask);
         routingTableRows.add(row);
+        trie = null;
         log.debug("add row: {}", row);
     }
 
@@ -91,6 +92,55 @@ public class RoutingTable {
         }
     };
 
+    /**
+     * Number of entries in {@link #routeCache}, must be a power of 2.
+     */
+    private static final int ROUTE_CACHE_SIZE = 256;
+
+    /**
+     * The rows compiled into a prefix trie, null until {@link #compile()} is
+     * called or when rows have been added since.
+     */
+    private volatile Ipv4PrefixTrie<RoutingTableRow> trie = null;
+
+    private final Object compileLock = new Object();
+
+    /**
+     * Recent lookups indexed by a hash of the address. Entries are immutable
+     * so that concurrent lookups see either the old or the new entry.
+     */
+    private final RouteCacheEntry[] routeCache = new RouteCacheEntry[ROUTE_CACHE_SIZE];
+
+    /**
+     * Build the structures used by {@link #route(String)}. Called when the
+     * table is loaded, otherwise done on the first lookup.
+     */
+    public void compile() {
+        compileIfNeeded();
+    }
+
+    private Ipv4PrefixTrie<RoutingTableRow> compileIfNeeded() {
+        Ipv4PrefixTrie<RoutingTableRow> current = trie;
+        if (null == current) {
+            synchronized (compileLock) {
+                current = trie;
+                if (null == current) {
+                    // each prefix keeps its best row, the longest matching
+                    // prefix has the most specific mask so it is preferred
+                    final Ipv4PrefixTrie.Builder<RoutingTableRow> builder = Ipv4PrefixTrie
+                            .builder(routingComparator);
+                    for (final RoutingTableRow row : routingTableRows) {
+                        builder.add(row.getNetworkAddress(), row.getMaskSize(), row);
+                    }
+                    current = builder.build();
+                    Arrays.fill(routeCache, null);
+                    trie = current;
+                }
+            }
+        }
+        return current;
+    }
+
     /**
      * 
      * @param address
@@ -110,21 +160,60 @@ public class RoutingTable {
      *         InetAddress address are routed to or null
      */
     public String route(final String address) {
-        List<RoutingTableRow> routingTableRowsForAddress = routingTableRows.stream()
-                .filter(row -> row.matchesSubnet(address)).collect(Collectors.toList());
-        Optional<RoutingTableRow> selectedRoutingTableRowForAddress = routingTableRowsForAddress.stream()
-                .max(routingComparator);
-
-        log.debug(
-                "route: address = {}, routingTableRows = {}, routingTableRowsForAddress: {}, "
-                        + "selectedRoutingTableRowForAddress: {}",
-                address, routingTableRows, routingTableRowsForAddress, selectedRoutingTableRowForAddress);
-
-        if (!selectedRoutingTableRowForAddress.isPresent()) {
-            log.error("route: No NIC found for address {} in routing table with entries {}", address, routingTableRows);
+        final long parsed = FlowTable.parseIpv4(address, 0, address.length());
+        if (parsed < 0) {
+            log.error("route: {} is not an IPv4 address", address);
             return null;
+        }
+        return route((int) parsed);
+    }
+
+    /**
+     * 
+     * @param address
+     *            the IPv4 address as an integer
+     * @return the name of the NIC that packets destined for the address are
+     *         routed to or null
+     */
+    public String route(final int address) {
+        final Ipv4PrefixTrie<RoutingTableRow> current = compileIfNeeded();
+
+        final int cacheIndex = cacheIndex(address);
+        final RouteCacheEntry cached = routeCache[cacheIndex];
+        if (null != cached && cached.trie == current && cached.address == address) {
+            return cached.nic;
+        }
+
+        final RoutingTableRow row = current.lookup(address);
+        final String nic;
+        if (null == row) {
+            log.error("route: No NIC found for address {} in routing table with entries {}",
+                    FlowTable.decodeAddress(Integer.toUnsignedLong(address)), routingTableRows);
+            nic = null;
         } else {
-            return selectedRoutingTableRowForAddress.get().getNic();
+            log.trace("route: address = {} selected row: {}", address, row);
+            nic = row.getNic();
+        }
+
+        routeCache[cacheIndex] = new RouteCacheEntry(current, address, nic);
+        return nic;
+    }
+
+    private static int cacheIndex(final int address) {
+        // spread the low bits, hosts in the same subnet differ in the low bits
+        final int hash = address ^ (address >>> (Integer.SIZE / 2));
+        return hash & (ROUTE_CACHE_SIZE - 1);
+    }
+
+    private static final class RouteCacheEntry {
+        private final Ipv4PrefixTrie<RoutingTableRow> trie;
+        private final int address;
+        private final String nic;
+
+        RouteCacheEntry(final Ipv4PrefixTrie<RoutingTableRow> trie, final int address, final String nic) {
+            this.trie = trie;
+            this.address = address;
+            this.nic = nic;
         }
     }
 
@@ -136,6 +225,7 @@ public class RoutingTable {
         private int metric;
         private String mask;
         private int maskSize;
+        private int networkAddress;
         private SubnetUtils subnetUtils;
 
         RoutingTableRow(String nic, String destination, String gateway, int metric, String mask) {
@@ -150,6 +240,7 @@ public class RoutingTable {
             // broadcast and network address
             // https://issues.apache.org/jira/browse/NET-675
             subnetUtils.setInclusiveHostCount(true);
+            networkAddress = subnetUtils.getInfo().asInteger(subnetUtils.getInfo().getNetworkAddress());
         }
 
         boolean matchesSubnet(final String hostAddress) {
@@ -200,6 +291,13 @@ public class RoutingTable {
             return maskSize;
         }
 
+        /**
+         * @return the destination with the mask applied
+         */
+        public int getNetworkAddress() {
+            return networkAddress;
+        }
+
         public SubnetUtils getSubnetUtils() {
             return subnetUtils;
         }
@@ -209,6 +307,41 @@ public class RoutingTable {
             return (nic + ", " + destination + ", " + gateway + ", " + metric + ", " + mask + " (size: " + getMaskSize()
                     + ")");
         }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(nic, destination, gateway, metric, mask);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            } else if (null == o || getClass() != o.getClass()) {
+                return false;
+            } else {
+                final RoutingTableRow other = (RoutingTableRow) o;
+                return metric == other.metric && Objects.equals(nic, other.nic)
+                        && Objects.equals(destination, other.destination) && Objects.equals(gateway, other.gateway)
+                        && Objects.equals(mask, other.mask);
+            }
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return routingTableRows.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        } else if (null == o || getClass() != o.getClass()) {
+            return false;
+        } else {
+            return routingTableRows.equals(((RoutingTable) o).routingTableRows);
+        }
     }
 
     @Override
@@ -31,23 +31,14 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 BBN_LICENSE_END*/
 package com.bbn.map.hifi_resmgr;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.InterfaceAddress;
-import java.net.MalformedURLException;
 import java.net.NetworkInterface;
 import java.net.SocketException;
-import java.net.URL;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -67,7 +58,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
@@ -86,6 +83,7 @@ import com.bbn.map.common.value.ApplicationSpecification;
 import com.bbn.map.hifi.FileRegionLookupService;
 import com.bbn.map.hifi.util.DnsUtils;
 import com.bbn.map.hifi.util.SimAppUtils;
+import com.bbn.map.hifi_resmgr.DockerApiClient.Response;
 import com.bbn.map.simulator.HardwareConfiguration;
 import com.bbn.map.simulator.NetworkDemandTracker;
 import com.bbn.map.simulator.Simulation;
@@ -111,7 +109,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -126,11 +124,22 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
     private static final Logger LOGGER = LogManager.getLogger(SimpleDockerResourceManager.class);
 
     private static final String DOCKER_REST_API_BASE_URL_VERSION_SUFFIX = "/v1.32";
-    private static final String DOCKER_REST_API_BASE_URL = "http://localhost:5010"
-            + DOCKER_REST_API_BASE_URL_VERSION_SUFFIX;
+    private static final String DOCKER_REST_API_HOST = "localhost";
+    private static final int DOCKER_REST_API_PORT = 5010;
 
     private static final int DOCKER_STOP_TIMEOUT_SECONDS = 120;
 
+    // Docker request timeouts, image pulls, logs and commands run in a
+    // container can take arbitrarily long and are not limited
+    private static final long DOCKER_REQUEST_TIMEOUT_MS = Duration.ofMinutes(1).toMillis();
+    private static final long DOCKER_STOP_REQUEST_TIMEOUT_MS = Duration.ofSeconds(DOCKER_STOP_TIMEOUT_SECONDS)
+            .plus(Duration.ofMinutes(1)).toMillis();
+
+    /**
+     * Used for all Docker requests.
+     */
+    private final DockerApiClient dockerClient;
+
     // Hard coded service container defaults
     /* package */ static final String DEFAULT_DOCKER_IMAGE_TAG = "latest";
     private static final double DEFAULT_DOCKER_CONTAINER_CPUS = 1.0F;
@@ -157,19 +166,21 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
     private static final int DOCKER_RESPONSE_CODE_STOP_CONTAINER_NO_ERROR = 204;
     private static final int DOCKER_RESPONSE_CODE_REMOVE_CONTAINER_NO_ERROR = 204;
     private static final int DOCKER_RESPONSE_CODE_CREATE_EXEC_INSTANCE_NO_ERROR = 201;
-    private static final int DOCKER_RESPONSE_CODE_GET_LOGS_NO_ERROR = 200;
+    /* package */ static final int DOCKER_RESPONSE_CODE_GET_LOGS_NO_ERROR = 200;
+    private static final int DOCKER_RESPONSE_CODE_INSPECT_CONTAINER_NO_ERROR = 200;
+    private static final int DOCKER_RESPONSE_CODE_UPDATE_CONTAINER_NO_ERROR = 200;
 
     private static final int DOCKER_START_CONTAINER_ATTEMPTS = 3;
     private static final int DOCKER_START_CONTAINER_MAX_RETRY_DELAY = 100; // milliseconds
     private static final int DOCKER_START_CONTAINER_MIN_RETRY_DELAY = 20; // milliseconds
     private static final int DOCKER_RESPONSE_CODE_LIST_IMAGES = 200;
 
-    private static final String HTTP_GET = "GET";
+    /* package */ static final String HTTP_GET = "GET";
     private static final String HTTP_POST = "POST";
     private static final String HTTP_DELETE = "DELETE";
 
     // resource monitoring
-    private ContainerResourceMonitor containerResourceMonitor = new ContainerResourceMonitor(DOCKER_REST_API_BASE_URL);
+    private final ContainerResourceMonitor containerResourceMonitor;
 
     // null until init() is called
     private NCPResourceMonitor ncpResourceMonitor;
@@ -191,6 +202,59 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
     }
 
     private final Map<NodeIdentifier, MapContainer> runningContainers = new ConcurrentHashMap<>();
+
+    /**
+     * Number of containers that can be in the process of starting at the
+     * same time.
+     */
+    private static final int CONTAINER_START_THREADS = 4;
+    private final ExecutorService containerStartExecutor = Executors.newFixedThreadPool(CONTAINER_START_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("Container start-%d").setDaemon(true).build());
+
+    /**
+     * Containers that have a name reserved and are not yet monitored.
+     */
+    private final Set<NodeIdentifier> startingContainers = new HashSet<>();
+
+    private final ContainerNicResolver nicResolver = new ContainerNicResolver();
+
+    /**
+     * Name of the container log file in the container output directory,
+     * without the compression suffix.
+     */
+    private static final String CONTAINER_LOG_BASE_NAME = "logs.txt";
+
+    /**
+     * Uncompressed bytes of container log to write to a file before rotating.
+     */
+    private static final long CONTAINER_LOG_MAX_FILE_BYTES = 10L * 1024 * 1024;
+
+    /**
+     * Number of container log files to keep per container.
+     */
+    private static final int CONTAINER_LOG_MAX_FILES = 5;
+
+    /**
+     * How long to wait for the log stream of a stopped container to end.
+     */
+    private static final long CONTAINER_LOG_FINISH_TIMEOUT_MS = Duration.ofSeconds(10).toMillis();
+
+    private final Map<NodeIdentifier, ContainerLogCapture> logCaptures = new ConcurrentHashMap<>();
+
+    /**
+     * How far back to look at service starts when sizing the warm pool.
+     */
+    private static final long WARM_POOL_DEMAND_WINDOW_MS = Duration.ofMinutes(10).toMillis();
+    private static final long WARM_POOL_MAINTENANCE_INTERVAL_MS = Duration.ofSeconds(10).toMillis();
+    /**
+     * Fraction of the node memory in use above which the warm pool is
+     * emptied.
+     */
+    private static final double WARM_POOL_MEMORY_PRESSURE = 0.9;
+
+    // both are null if the warm pool is disabled
+    private final ContainerWarmPool<ContainerStart> warmPool;
+    private final ScheduledExecutorService warmPoolExecutor;
     private Controller node;
     private final VirtualClock clock;
     private final ImmutableMap<NodeIdentifier, InetAddress> containerNames;
@@ -214,6 +278,8 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
 
     private final ImmutableCollection<SubnetUtils.SubnetInfo> testbedControlSubnets;
 
+    private final boolean conntrackFlowAccounting;
+
     private final DockerImageManager imageManager;
 
     private final Path serviceConfigurationFile;
@@ -226,36 +292,6 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
         return apPort;
     }
 
-    /**
-     * 
-     * @param nic
-     *            the network interface to find neighbors on
-     * @return the neighbors attached to the specified network interface
-     * @see #getNeighborsAttachedToNic(String)
-     * @see NetworkInterface#getName()
-     */
-    /* package */ static Collection<NodeIdentifier> getNeighborsAttachedToNic(
-            final Map<NodeIdentifier, String> neighborToNICMap,
-            final NetworkInterface nic) {
-        return getNeighborsAttachedToNic(neighborToNICMap, nic.getName());
-    }
-
-    /**
-     * 
-     * @param nicName
-     *            the name of the network interface to find neighbors on
-     * @return the neighbors attached to the specified network interface
-     */
-    private static Collection<NodeIdentifier> getNeighborsAttachedToNic(
-            final Map<NodeIdentifier, String> neighborToNICMap,
-            final String nicName) {
-        // if there are a lot of neighbors this can get expensive. If this
-        // becomes the case, then we should store the inverse of
-        // neighborToNICMap
-        return neighborToNICMap.entrySet().stream().filter(e -> nicName.equals(e.getValue())).map(Map.Entry::getKey)
-                .collect(Collectors.toList());
-    }
-
     private static ImmutableMap<NodeIdentifier, InetAddress> limitContainersToMatchHardwareConfig(
             final ImmutableMap<NodeIdentifier, InetAddress> origContainerNames,
             final HardwareConfiguration hardwareConfig) {
@@ -325,14 +361,28 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
         public HardwareConfiguration hardwareConfig;
         /**
          * passed to
-         * {@link NCPResourceMonitor#NCPResourceMonitor(long, RegionIdentifier, FileRegionLookupService, int, ImmutableCollection)}.
+         * {@link NCPResourceMonitor#NCPResourceMonitor(long, RegionIdentifier, FileRegionLookupService, int, ImmutableCollection, boolean)}.
          */
         public ImmutableCollection<SubnetUtils.SubnetInfo> testbedControlSubnets;
         /**
          * passed to {@link DockerImageManager#DockerImageManager(String)}.
          */
         public String imageFetcherClassname;
-
+        /**
+         * passed to
+         * {@link ContainerResourceMonitor#ContainerResourceMonitor(DockerApiClient, boolean)}.
+         */
+        public boolean cgroupContainerMonitor;
+        /**
+         * passed to {@link NCPResourceMonitor}.
+         */
+        public boolean conntrackFlowAccounting;
+        /**
+         * The maximum number of containers to create ahead of time for each
+         * service. The number kept follows the recent starts of the service.
+         * 0 disables the warm pool.
+         */
+        public int warmContainerPoolSize;
         /**
          * Path to the service configurations file. This is copied into service
          * containers.
@@ -365,8 +415,21 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
         this.ipToDelay = Objects.requireNonNull(params.ipToDelay);
         this.hardwareConfig = Objects.requireNonNull(params.hardwareConfig);
         this.testbedControlSubnets = Objects.requireNonNull(params.testbedControlSubnets);
+        this.conntrackFlowAccounting = params.conntrackFlowAccounting;
         this.containerNames = limitContainersToMatchHardwareConfig(params.containerNames, params.hardwareConfig);
-        this.imageManager = new DockerImageManager(Objects.requireNonNull(params.imageFetcherClassname));
+        this.dockerClient = DockerApiClient.forTcp(DOCKER_REST_API_HOST, DOCKER_REST_API_PORT,
+                DOCKER_REST_API_BASE_URL_VERSION_SUFFIX);
+        this.imageManager = new DockerImageManager(Objects.requireNonNull(params.imageFetcherClassname),
+                dockerClient);
+        this.containerResourceMonitor = new ContainerResourceMonitor(dockerClient, params.cgroupContainerMonitor);
+        if (params.warmContainerPoolSize > 0) {
+            this.warmPool = new ContainerWarmPool<>(params.warmContainerPoolSize, WARM_POOL_DEMAND_WINDOW_MS);
+            this.warmPoolExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("Container warm pool").setDaemon(true).build());
+        } else {
+            this.warmPool = null;
+            this.warmPoolExecutor = null;
+        }
         this.serviceConfigurationFile = Objects.requireNonNull(params.serviceConfigurationFile);
         this.serviceDependencyFile = Objects.requireNonNull(params.serviceDependencyFile);
 
@@ -387,7 +450,7 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
         this.longResourceReport = ResourceReport.getNullReport(node.getNodeIdentifier(), EstimationWindow.LONG);
 
         ncpResourceMonitor = new NCPResourceMonitor(pollingInterval, node.getRegionIdentifier(), regionLookupService,
-                apPort, testbedControlSubnets);
+                apPort, testbedControlSubnets, conntrackFlowAccounting);
 
         // start polling and updating resource reports
         start();
@@ -411,6 +474,11 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
         updateResourceReportsThread.setName("updateResourceReports");
         updateResourceReportsThread.start();
 
+        if (null != warmPoolExecutor) {
+            warmPoolExecutor.scheduleWithFixedDelay(this::maintainWarmPool, WARM_POOL_MAINTENANCE_INTERVAL_MS,
+                    WARM_POOL_MAINTENANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
         runningContainers.forEach((id, sim) -> {
             sim.start();
         });
@@ -504,179 +572,504 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
     @Override
     public NodeIdentifier startService(@Nonnull final ServiceIdentifier<?> service,
             @Nonnull final ContainerParameters parameters) {
+        try {
+            return startServiceAsync(service, parameters).get();
+        } catch (final InterruptedException e) {
+            LOGGER.warn("Interrupted waiting for service {} to start", service, e);
+            return null;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                LOGGER.error("Error starting service {}", service, e.getCause());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Start a container for a service without waiting for it. The image wait,
+     * directory setup, container creation and network interface lookup run
+     * on a small pool of threads so that several containers can be started
+     * at once.
+     * 
+     * @param service
+     *            the service to start
+     * @param parameters
+     *            the container parameters
+     * @return the id of the new container, the value is null if the
+     *         container could not be started
+     * @see #startService(ServiceIdentifier, ContainerParameters)
+     */
+    public CompletableFuture<NodeIdentifier> startServiceAsync(@Nonnull final ServiceIdentifier<?> service,
+            @Nonnull final ContainerParameters parameters) {
         Objects.requireNonNull(service);
         Objects.requireNonNull(parameters);
 
         LOGGER.info("**** Start service: start service {} with compute capacity {} and network capacity {}", service,
                 parameters.getComputeCapacity(), parameters.getNetworkCapacity());
 
+        final ContainerStart start = new ContainerStart(service, parameters);
+        final CompletableFuture<NodeIdentifier> result = CompletableFuture
+                .supplyAsync(() -> prepareContainer(start), containerStartExecutor)
+                .thenApplyAsync(prepared -> prepared && createContainer(start), containerStartExecutor)
+                .thenApplyAsync(created -> created ? registerContainer(start) : null, containerStartExecutor);
+
+        return result.whenComplete((containerId, e) -> {
+            if (null != start.containerId) {
+                releaseContainerName(start.containerId);
+            }
+            if (null != e) {
+                LOGGER.error("Error starting service {}", service, e);
+            }
+        });
+    }
+
+    /**
+     * State for a container while it is being started. This is also the
+     * information kept for containers in the warm pool.
+     */
+    private static final class ContainerStart {
+        private final ServiceIdentifier<?> service;
+        private final ContainerParameters parameters;
+        private NodeIdentifier containerId = null;
+        private InetAddress containerAddress = null;
+        private double cpus;
+        private long memory;
+        private final Map<String, String> mountMappings = new HashMap<>();
+        private Path hostMountTimeFolder = null;
+        private Path hostMountContainerAppMetricsFolder = null;
+
+        // set when the container has already been created
+        private String dockerId = null;
+        private double createdCpus;
+        private long createdMemory;
+
+        ContainerStart(final ServiceIdentifier<?> service, final ContainerParameters parameters) {
+            this.service = service;
+            this.parameters = parameters;
+        }
+
+        /**
+         * Use a pre-created container for this start.
+         */
+        void claim(final ContainerStart pooled) {
+            containerId = pooled.containerId;
+            containerAddress = pooled.containerAddress;
+            mountMappings.putAll(pooled.mountMappings);
+            hostMountTimeFolder = pooled.hostMountTimeFolder;
+            hostMountContainerAppMetricsFolder = pooled.hostMountContainerAppMetricsFolder;
+            dockerId = pooled.dockerId;
+            createdCpus = pooled.cpus;
+            createdMemory = pooled.memory;
+        }
+    }
+
+    /**
+     * Information about a service that is the same for all of its
+     * containers. This is created when the image is fetched so that it is
+     * ready when the service is started.
+     */
+    private static final class PreparedService {
+        private final String dockerImage;
+        private final String mountName;
+        private final Path hostServiceDataFolder;
+
+        PreparedService(final String dockerImage, final String mountName, final Path hostServiceDataFolder) {
+            this.dockerImage = dockerImage;
+            this.mountName = mountName;
+            this.hostServiceDataFolder = hostServiceDataFolder;
+        }
+    }
+
+    private final Map<ServiceIdentifier<?>, PreparedService> preparedServices = new ConcurrentHashMap<>();
+
+    private PreparedService prepareService(final ServiceIdentifier<?> service) throws IOException {
+        final PreparedService existing = preparedServices.get(service);
+        if (null != existing) {
+            return existing;
+        }
+
+        // create host paths for container paths to mount to
+        final String serviceNameForMountPath;
+        if (service instanceof ApplicationCoordinates) {
+            ApplicationCoordinates serviceAppCoordinates = ((ApplicationCoordinates) service);
+            serviceNameForMountPath = serviceAppCoordinates.getGroup() + "." + serviceAppCoordinates.getArtifact()
+                    + "_" + serviceAppCoordinates.getVersion();
+        } else {
+            serviceNameForMountPath = service.toString();
+        }
+
+        final String hostServiceMountBasePath = HOST_SERVICE_SHARED_BASE_FOLDER_PATH.replaceAll("\\|/",
+                File.separator);
+        final Path hostServiceDataFolder = Paths.get(hostServiceMountBasePath).resolve(serviceNameForMountPath);
+        Files.createDirectories(hostServiceDataFolder);
+
+        final PreparedService prepared = new PreparedService(getImageForService(service), serviceNameForMountPath,
+                hostServiceDataFolder);
+        final PreparedService previous = preparedServices.putIfAbsent(service, prepared);
+        return null == previous ? prepared : previous;
+    }
+
+    /**
+     * Wait for the image, pick the container and create the host directories
+     * and files for the container. A pre-created container from the warm
+     * pool is used if there is one.
+     * 
+     * @return true on success
+     */
+    private boolean prepareContainer(final ContainerStart start) {
+        final ServiceIdentifier<?> service = start.service;
+
+        final PreparedService prepared;
+        try {
+            prepared = prepareService(service);
+        } catch (final IOException e) {
+            LOGGER.error("Unable to create mounted host directory for service '{}'", service, e);
+            return false;
+        }
+
         if (!waitForImage(service)) {
             LOGGER.warn("Image fetch failed for service {}", service);
-            return null;
+            return false;
         }
 
-        // get next available container name
-        final Map.Entry<NodeIdentifier, InetAddress> availableContainer = getAvailableContainerName();
+        if (null != warmPool) {
+            warmPool.recordStart(service);
 
-        if (availableContainer != null) {
-            final NodeIdentifier containerId = availableContainer.getKey();
-            final String containerName = containerId.getName();
+            final ContainerStart pooled = warmPool.take(service);
+            if (null != pooled) {
+                start.claim(pooled);
+                setContainerResources(start);
 
-            final InetAddress containerAddress = availableContainer.getValue();
+                LOGGER.info("**** Start service: Using pre-created container '{}' with IP '{}'.",
+                        start.containerId.getName(), start.containerAddress);
 
-            LOGGER.info("**** Start service: Obtained container name '{}' and IP '{}'.", containerName,
-                    containerAddress);
+                writeContainerMetadata(start.hostMountTimeFolder, service, start.parameters);
+                return true;
+            }
+        }
 
-            // get parameter values
-            final Double cpus = parameters.getComputeCapacity().getOrDefault(NodeAttribute.CPU,
-                    DEFAULT_DOCKER_CONTAINER_CPUS);
-            final Long memory = gigaBytesToBytes(parameters.getComputeCapacity().getOrDefault(NodeAttribute.MEMORY,
-                    DEFAULT_DOCKER_CONTAINER_MEMORY_GB));
+        // get next available container name
+        final Map.Entry<NodeIdentifier, InetAddress> availableContainer = reserveContainerNameForStart();
+        if (null == availableContainer) {
+            LOGGER.error("Failed to start container because there are no more available container IDs.");
+            return false;
+        }
 
-            // create host paths for container paths to mount to
-            // final String imageNameForMountPath =
-            // dockerImage.replaceFirst("\\A.*(/|\\\\)", "");
-            String serviceNameForMountPath;
+        start.containerId = availableContainer.getKey();
+        start.containerAddress = availableContainer.getValue();
+        setContainerResources(start);
 
-            if (service instanceof ApplicationCoordinates) {
-                ApplicationCoordinates serviceAppCoordinates = ((ApplicationCoordinates) service);
-                serviceNameForMountPath = serviceAppCoordinates.getGroup() + "." + serviceAppCoordinates.getArtifact()
-                        + "_" + serviceAppCoordinates.getVersion();
-            } else {
-                serviceNameForMountPath = service.toString();
-            }
+        LOGGER.info("**** Start service: Obtained container name '{}' and IP '{}'.", start.containerId.getName(),
+                start.containerAddress);
 
-            final String hostServiceMountBasePath = HOST_SERVICE_SHARED_BASE_FOLDER_PATH.replaceAll("\\|/",
-                    File.separator);
+        if (!createContainerDirectories(start, prepared)) {
+            return false;
+        }
 
-            final Path hostServiceDataFolder = Paths.get(hostServiceMountBasePath).resolve(serviceNameForMountPath);
+        writeContainerMetadata(start.hostMountTimeFolder, service, start.parameters);
 
-            final Path hostMountBaseFolder = Paths
-                    .get(HOST_CONTAINER_SHARED_BASE_FOLDER_PATH.replaceAll("\\|/", File.separator));
+        return true;
+    }
 
-            final Path hostMountServiceFolder = hostMountBaseFolder.resolve(serviceNameForMountPath);
+    private static void setContainerResources(final ContainerStart start) {
+        // get parameter values
+        start.cpus = start.parameters.getComputeCapacity().getOrDefault(NodeAttribute.CPU,
+                DEFAULT_DOCKER_CONTAINER_CPUS);
+        start.memory = gigaBytesToBytes(start.parameters.getComputeCapacity().getOrDefault(NodeAttribute.MEMORY,
+                DEFAULT_DOCKER_CONTAINER_MEMORY_GB));
+    }
 
-            final Path hostMountContainerNameFolder = hostMountServiceFolder.resolve(containerName);
+    /**
+     * Create the host directories that are mounted into the container and
+     * write the instance data.
+     * 
+     * @return true on success
+     */
+    private boolean createContainerDirectories(final ContainerStart start, final PreparedService prepared) {
+        final ServiceIdentifier<?> service = start.service;
+        final NodeIdentifier containerId = start.containerId;
 
-            final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd_HHmmssSSSS");
-            final Path hostMountTimeFolder = hostMountContainerNameFolder.resolve(dateFormat.format(new Date()));
+        final Path hostMountBaseFolder = Paths
+                .get(HOST_CONTAINER_SHARED_BASE_FOLDER_PATH.replaceAll("\\|/", File.separator));
 
-            final Path hostMountContainerAppMetricsFolder = hostMountTimeFolder.resolve(SimAppUtils.APP_METRICS_FOLDER);
+        final Path hostMountServiceFolder = hostMountBaseFolder.resolve(prepared.mountName);
 
-            final Path hostMountContainerInstanceDataFolder = hostMountTimeFolder
-                    .resolve(SimAppUtils.HOST_CONTAINER_DATA_LOCATION);
+        final Path hostMountContainerNameFolder = hostMountServiceFolder.resolve(containerId.getName());
 
-            // add mount mappings
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd_HHmmssSSSS");
+        start.hostMountTimeFolder = hostMountContainerNameFolder.resolve(dateFormat.format(new Date()));
 
-            // mount mappings: host source path -> container target path
-            final Map<String, String> mountMappings = new HashMap<>();
+        start.hostMountContainerAppMetricsFolder = start.hostMountTimeFolder
+                .resolve(SimAppUtils.APP_METRICS_FOLDER);
 
-            try {
-                Files.createDirectories(hostServiceDataFolder);
-            } catch (final IOException e) {
-                LOGGER.error("Unable to create mounted host directory for service '{}': {}", service,
-                        hostServiceDataFolder, e);
-                return null;
-            }
-            mountMappings.put(hostServiceDataFolder.toAbsolutePath().toString(), CONTAINER_SERVICE_DATA_LOCATION);
+        final Path hostMountContainerInstanceDataFolder = start.hostMountTimeFolder
+                .resolve(SimAppUtils.HOST_CONTAINER_DATA_LOCATION);
 
-            LOGGER.debug("Adding mounted host directory for service '{}' to container '{}': {}", service, containerId,
-                    hostServiceDataFolder);
+        // mount mappings: host source path -> container target path
+        start.mountMappings.put(prepared.hostServiceDataFolder.toAbsolutePath().toString(),
+                CONTAINER_SERVICE_DATA_LOCATION);
+        LOGGER.debug("Adding mounted host directory for service '{}' to container '{}': {}", service, containerId,
+                prepared.hostServiceDataFolder);
 
-            try {
-                Files.createDirectories(hostMountContainerAppMetricsFolder);
-            } catch (final IOException e) {
-                LOGGER.error("Unable to create mounted host directory for service '{}': {}", service,
-                        hostMountContainerAppMetricsFolder, e);
-                return null;
-            }
-            mountMappings.put(hostMountContainerAppMetricsFolder.toAbsolutePath().toString(),
-                    SimAppUtils.CONTAINER_APP_METRICS_PATH.toAbsolutePath().toString());
-            LOGGER.debug("Adding mounted host directory for service '{}' to container '{}': {}", service, containerId,
-                    hostMountContainerAppMetricsFolder);
+        try {
+            Files.createDirectories(start.hostMountContainerAppMetricsFolder);
+        } catch (final IOException e) {
+            LOGGER.error("Unable to create mounted host directory for service '{}': {}", service,
+                    start.hostMountContainerAppMetricsFolder, e);
+            return false;
+        }
+        start.mountMappings.put(start.hostMountContainerAppMetricsFolder.toAbsolutePath().toString(),
+                SimAppUtils.CONTAINER_APP_METRICS_PATH.toAbsolutePath().toString());
+        LOGGER.debug("Adding mounted host directory for service '{}' to container '{}': {}", service, containerId,
+                start.hostMountContainerAppMetricsFolder);
 
-            try {
-                Files.createDirectories(hostMountContainerInstanceDataFolder);
-            } catch (final IOException e) {
-                LOGGER.error("Unable to create mounted host directory for service '{}': {}", service,
-                        hostMountContainerInstanceDataFolder, e);
-                return null;
-            }
-            mountMappings.put(hostMountContainerInstanceDataFolder.toAbsolutePath().toString(),
-                    CONTAINER_DATA_TARGET_LOCATION);
-            LOGGER.debug("Adding mounted host directory for service '{}' to container '{}': {}", service, containerId,
-                    hostMountContainerInstanceDataFolder);
+        try {
+            Files.createDirectories(hostMountContainerInstanceDataFolder);
+        } catch (final IOException e) {
+            LOGGER.error("Unable to create mounted host directory for service '{}': {}", service,
+                    hostMountContainerInstanceDataFolder, e);
+            return false;
+        }
+        start.mountMappings.put(hostMountContainerInstanceDataFolder.toAbsolutePath().toString(),
+                CONTAINER_DATA_TARGET_LOCATION);
+        LOGGER.debug("Adding mounted host directory for service '{}' to container '{}': {}", service, containerId,
+                hostMountContainerInstanceDataFolder);
 
-            writeContainerInstanceData(hostMountContainerInstanceDataFolder, service);
+        writeContainerInstanceData(hostMountContainerInstanceDataFolder, service);
 
-            writeContainerMetadata(hostMountTimeFolder, service, parameters);
+        return true;
+    }
 
-            // attempt to run Docker container
-            final String dockerImage = getImageForService(service);
-            final boolean runResult = runDockerContainer(containerName, dockerImage, cpus, memory,
-                    DEFAULT_DOCKER_SHARED_NETWORK_NAME, containerAddress.getHostAddress(), mountMappings);
+    /**
+     * Create and start the Docker container. A pre-created container only
+     * needs its resource limits updated and to be started.
+     * 
+     * @return true on success
+     */
+    private boolean createContainer(final ContainerStart start) {
+        final String containerName = start.containerId.getName();
+
+        if (null != start.dockerId) {
+            final boolean sameLimits = Double.compare(start.cpus, start.createdCpus) == 0
+                    && start.memory == start.createdMemory;
+            if (sameLimits || updateDockerContainerResources(containerName, start.cpus, start.memory)) {
+                final boolean startResult = startDockerContainer(containerName, start.dockerId);
+                LOGGER.info("Attempting to start pre-created container with name {} success result: {}",
+                        containerName, startResult);
+                if (startResult) {
+                    return true;
+                }
 
-            // keep track of how many CPUs we've allocated
-            allocatedCpus.put(containerId, cpus);
+                LOGGER.warn("Unable to start pre-created container {}, creating a new container", containerName);
+            } else {
+                LOGGER.warn("Unable to update the limits of pre-created container {}, creating a new container",
+                        containerName);
+            }
+            removeDockerContainer(containerName);
+        }
 
-            LOGGER.info("Attempting to run container with name " + containerName + " success result: " + runResult);
+        // attempt to run Docker container
+        final String dockerImage = preparedServices.get(start.service).dockerImage;
+        final boolean runResult = runDockerContainer(containerName, dockerImage, start.cpus, start.memory,
+                DEFAULT_DOCKER_SHARED_NETWORK_NAME, start.containerAddress.getHostAddress(), start.mountMappings);
 
-            // return null if there was an issue running the container
-            if (!runResult) {
-                return null;
+        LOGGER.info("Attempting to run container with name " + containerName + " success result: " + runResult);
+
+        return runResult;
+    }
+
+    /**
+     * Reserve a container name for a service start. If all names are in use
+     * pre-created containers are removed to free a name.
+     */
+    private Map.Entry<NodeIdentifier, InetAddress> reserveContainerNameForStart() {
+        Map.Entry<NodeIdentifier, InetAddress> available = reserveContainerName();
+        while (null == available && null != warmPool) {
+            final ContainerStart evicted = warmPool.evictOne();
+            if (null == evicted) {
+                break;
             }
 
-            // starts monitoring of the container
-            LOGGER.info("Started container resource monitor for {}", containerName);
+            LOGGER.info("Removing pre-created container {} to free its name", evicted.containerId);
+            removePooledContainer(evicted);
+            available = reserveContainerName();
+        }
+        return available;
+    }
 
-            // container isn't running, add to running
-            final ImmutableMap<LinkAttribute, Double> genericNetworkCapacity = parameters.getNetworkCapacity();
+    /**
+     * Keep the warm pool at the size that recent demand calls for. The pool
+     * is emptied when the node is low on memory. Runs on the warm pool
+     * thread.
+     */
+    private void maintainWarmPool() {
+        try {
+            if (null == ncpResourceMonitor) {
+                return;
+            }
 
-            final String nicName = getContainerVirtualNicName(containerName);
-            if (null == nicName) {
-                LOGGER.error("Container likely didn't start if we can't get the virtual NIC name");
-                stopDockerContainer(containerName);
-                return null;
+            final double memoryCapacity = ncpResourceMonitor.getMemoryCapacity();
+            final double memoryUsage = ncpResourceMonitor.getMemoryUsage();
+            if (memoryCapacity > 0 && memoryUsage / memoryCapacity > WARM_POOL_MEMORY_PRESSURE) {
+                final List<ContainerStart> drained = warmPool.drainAll();
+                if (!drained.isEmpty()) {
+                    LOGGER.info("Memory usage is {} of {} GB, removing {} pre-created containers", memoryUsage,
+                            memoryCapacity, drained.size());
+                    drained.forEach(this::removePooledContainer);
+                }
+                return;
             }
-            LOGGER.info("Found virtual interface {} for container {}", nicName, containerName);
 
-            final NetworkInterface containerInterface;
-            try {
-                containerInterface = NetworkInterface.getByName(nicName);
-                if (null == containerInterface) {
-                    LOGGER.error("Unable to get network interface object for container {} interface {}", containerName,
-                            nicName);
-                    stopDockerContainer(containerName);
-                    return null;
+            warmPool.trimExcess().forEach(pooled -> {
+                LOGGER.info("Removing pre-created container {} that is no longer needed", pooled.containerId);
+                removePooledContainer(pooled);
+            });
+
+            for (final ServiceIdentifier<?> service : warmPool.reserveRefills()) {
+                ContainerStart created = null;
+                try {
+                    created = precreateContainer(service);
+                } finally {
+                    warmPool.refillFinished(service, created);
                 }
-            } catch (final SocketException se) {
-                LOGGER.error("Error finding network interface object for container {} interface {}", containerName,
-                        nicName, se);
-                stopDockerContainer(containerName);
-                return null;
             }
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error maintaining the warm container pool", e);
+        }
+    }
 
-            final MapContainer container = new MapContainer(this, service, containerId, nicName, genericNetworkCapacity,
-                    ImmutableMap.copyOf(mountMappings), containerInterface, hostMountTimeFolder, hostMountContainerAppMetricsFolder);
+    /**
+     * Create a container for the service without starting it. The default
+     * container parameters for the service are used.
+     * 
+     * @return the container or null if it could not be created
+     */
+    private ContainerStart precreateContainer(final ServiceIdentifier<?> service) {
+        final PreparedService prepared;
+        try {
+            prepared = prepareService(service);
+        } catch (final IOException e) {
+            LOGGER.warn("Unable to create mounted host directory for service '{}'", service, e);
+            return null;
+        }
 
-            runningContainers.put(containerId, container);
+        // pre-created containers are speculative, don't jump ahead of images
+        // needed by service starts
+        if (!waitForImage(service, ImageFetcher.Priority.PREFETCH)) {
+            return null;
+        }
 
-            if (updateResourceReportsThread != null) {
-                container.start();
-            }
+        final Map.Entry<NodeIdentifier, InetAddress> availableContainer = reserveContainerName();
+        if (null == availableContainer) {
+            LOGGER.debug("No container names are available to pre-create a container for {}", service);
+            return null;
+        }
 
-            // starts monitoring of the container
-            containerResourceMonitor.startMonitorForContainer(containerId, DEFAULT_DOCKER_CONTAINER_NIC);
+        final ContainerStart start = new ContainerStart(service,
+                AppMgrUtils.getContainerParameters((ApplicationCoordinates) service));
+        start.containerId = availableContainer.getKey();
+        start.containerAddress = availableContainer.getValue();
+        setContainerResources(start);
 
-            LOGGER.info("Started container for service '{}' with id '{}'.", service, containerId);
+        boolean created = false;
+        try {
+            if (createContainerDirectories(start, prepared)) {
+                start.dockerId = createDockerContainer(start.containerId.getName(), prepared.dockerImage, start.cpus,
+                        start.memory, DEFAULT_DOCKER_SHARED_NETWORK_NAME, start.containerAddress.getHostAddress(),
+                        start.mountMappings);
+                created = null != start.dockerId;
+            }
+        } finally {
+            if (!created) {
+                releaseContainerName(start.containerId);
+            }
+        }
 
-            return containerId;
+        if (created) {
+            LOGGER.info("Pre-created container {} for service {}", start.containerId, service);
+            return start;
         } else {
-            LOGGER.error("Failed to start container because there are no more available container IDs.");
             return null;
         }
     }
 
+    private void removePooledContainer(final ContainerStart pooled) {
+        removeDockerContainer(pooled.containerId.getName());
+        releaseContainerName(pooled.containerId);
+    }
+
+    /**
+     * Find the network interface of the running container and start tracking
+     * and monitoring it.
+     * 
+     * @return the container id or null on failure
+     */
+    private NodeIdentifier registerContainer(final ContainerStart start) {
+        final NodeIdentifier containerId = start.containerId;
+        final String containerName = containerId.getName();
+
+        // keep track of how many CPUs we've allocated
+        allocatedCpus.put(containerId, start.cpus);
+
+        // container isn't running, add to running
+        final ImmutableMap<LinkAttribute, Double> genericNetworkCapacity = start.parameters.getNetworkCapacity();
+
+        final String nicName = findContainerVirtualNicName(containerName);
+        if (null == nicName) {
+            LOGGER.error("Container likely didn't start if we can't get the virtual NIC name");
+            stopDockerContainer(containerName);
+            return null;
+        }
+        LOGGER.info("Found virtual interface {} for container {}", nicName, containerName);
+
+        final NetworkInterface containerInterface;
+        try {
+            containerInterface = NetworkInterface.getByName(nicName);
+            if (null == containerInterface) {
+                LOGGER.error("Unable to get network interface object for container {} interface {}", containerName,
+                        nicName);
+                stopDockerContainer(containerName);
+                return null;
+            }
+        } catch (final SocketException se) {
+            LOGGER.error("Error finding network interface object for container {} interface {}", containerName,
+                    nicName, se);
+            stopDockerContainer(containerName);
+            return null;
+        }
+
+        final MapContainer container = new MapContainer(this, start.service, containerId, nicName,
+                genericNetworkCapacity, ImmutableMap.copyOf(start.mountMappings), containerInterface,
+                start.hostMountTimeFolder, start.hostMountContainerAppMetricsFolder);
+
+        runningContainers.put(containerId, container);
+
+        // the logs of all containers are followed on the stats collector
+        // thread, if it isn't available the logs are fetched when the
+        // container stops
+        final ContainerStatsCollector logCollector = containerResourceMonitor.getCollector();
+        if (null != logCollector) {
+            final ContainerLogCapture logCapture = new ContainerLogCapture(containerName, start.hostMountTimeFolder,
+                    CONTAINER_LOG_BASE_NAME, CONTAINER_LOG_MAX_FILE_BYTES, CONTAINER_LOG_MAX_FILES);
+            logCaptures.put(containerId, logCapture);
+            logCapture.start(logCollector);
+        }
+
+        if (updateResourceReportsThread != null) {
+            container.start();
+        }
+
+        // starts monitoring of the container
+        containerResourceMonitor.startMonitorForContainer(containerId, DEFAULT_DOCKER_CONTAINER_NIC);
+        LOGGER.info("Started container resource monitor for {}", containerName);
+
+        LOGGER.info("Started container for service '{}' with id '{}'.", start.service, containerId);
+
+        return containerId;
+    }
+
     private void writeContainerInstanceData(final Path hostMountContainerInstanceDataFolder,
             final ServiceIdentifier<?> service) {
         final ObjectMapper jsonWriter = JsonUtils.getStandardMapObjectMapper();
@@ -717,6 +1110,60 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
     private static final int VIRTUAL_INTERFACE_RETRY_LIMIT = 10;
     private static final Duration VIRTUAL_INTERFACE_WAIT = Duration.ofSeconds(1);
 
+    /**
+     * Find the host side of the container's virtual interface. The
+     * container's process id is fetched from Docker and the interface is
+     * matched through the interface indices in sysfs. This works as soon as
+     * Docker has started the container. If it fails get_container_veth.sh is
+     * used.
+     * 
+     * @param containerName
+     * @return the interface name or null on an error
+     */
+    private String findContainerVirtualNicName(final String containerName) {
+        final int pid = getContainerPid(containerName);
+        if (pid > 0) {
+            try {
+                final String nic = nicResolver.resolve(pid, DEFAULT_DOCKER_CONTAINER_NIC);
+                if (null != nic) {
+                    return nic;
+                }
+            } catch (final IOException e) {
+                LOGGER.warn("Unable to find the virtual interface for container {} from sysfs", containerName, e);
+            }
+        }
+
+        LOGGER.debug("Falling back to get_container_veth.sh for container {}", containerName);
+        return getContainerVirtualNicName(containerName);
+    }
+
+    /**
+     * @param containerName
+     *            the container
+     * @return the process id of the container's main process or 0 if it
+     *         cannot be found
+     */
+    private int getContainerPid(final String containerName) {
+        try {
+            return dockerClient.request(HTTP_GET, "/containers/" + containerName + "/json", null,
+                    DOCKER_REQUEST_TIMEOUT_MS, (code, body) -> {
+                        if (code != DOCKER_RESPONSE_CODE_INSPECT_CONTAINER_NO_ERROR) {
+                            LOGGER.warn("Failed to inspect container {} (response code {})", containerName, code);
+                            return 0;
+                        }
+                        final JsonNode state = JsonUtils.getStandardMapObjectMapper().readTree(body).get("State");
+                        if (null == state || null == state.get("Pid")) {
+                            return 0;
+                        } else {
+                            return state.get("Pid").asInt();
+                        }
+                    });
+        } catch (final IOException e) {
+            LOGGER.warn("Error inspecting container {}", containerName, e);
+            return 0;
+        }
+    }
+
     /**
      * 
      * @param containerName
@@ -780,24 +1227,40 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
         return Math.round(gigaBytes * KB_TO_BYTES * KB_TO_BYTES * KB_TO_BYTES);
     }
 
-    // returns an available name for a new container
-    private Map.Entry<NodeIdentifier, InetAddress> getAvailableContainerName() {
+    // returns an available name for a new container and reserves it until
+    // the start finishes
+    private Map.Entry<NodeIdentifier, InetAddress> reserveContainerName() {
+        synchronized (startingContainers) {
+            final Set<NodeIdentifier> runningContainerNames = getRunningContainerIDs();
+            final Map.Entry<NodeIdentifier, InetAddress> nextContainerName = containerNames.entrySet().stream() //
+                    .filter(entry -> !runningContainerNames.contains(entry.getKey())) //
+                    .filter(entry -> !startingContainers.contains(entry.getKey())) //
+                    .findFirst().orElse(null);
 
-        final Set<NodeIdentifier> runningContainerNames = getRunningContainerIDs();
-        final Map.Entry<NodeIdentifier, InetAddress> nextContainerName = containerNames.entrySet().stream() //
-                .filter(entry -> !runningContainerNames.contains(entry.getKey())) //
-                .findFirst().orElse(null);
+            LOGGER.info(
+                    "Available container names: {} Running container names: {} Starting container names: {} Next container name: {}",
+                    containerNames, runningContainerNames, startingContainers, nextContainerName);
 
-        LOGGER.info("Available container names: {} Running container names: {} Next container name: {}", containerNames,
-                runningContainerNames, nextContainerName);
+            if (null != nextContainerName) {
+                startingContainers.add(nextContainerName.getKey());
+            }
+            return nextContainerName;
+        }
+    }
 
-        return nextContainerName;
+    private void releaseContainerName(final NodeIdentifier containerId) {
+        synchronized (startingContainers) {
+            startingContainers.remove(containerId);
+        }
     }
 
     private Map<NodeIdentifier, Double> allocatedCpus = new ConcurrentHashMap<>();
 
+    // a container is added before its name is released from
+    // startingContainers and removed after the docker container is removed,
+    // so a name is never free while the container still exists
     private Set<NodeIdentifier> getRunningContainerIDs() {
-        return containerResourceMonitor.getMonitoredContainerIDs();
+        return runningContainers.keySet();
     }
 
     @Override
@@ -825,12 +1288,26 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
         // stop the container
         boolean stopResult = stopDockerContainer(containerId.getName());
         LOGGER.debug("Stopping container {} success result: {}", containerId.getName(), stopResult);
+        if (stopResult) {
+            containerResourceMonitor.refreshContainerInformation(containerId);
+        }
 
         // remove the container if it was stopped successfully
         if (stopResult) {
-            // grab the logs
-            final Path logOutput = container.getBaseOutputPath().resolve("logs.txt");
-            final boolean getLogsResult = getDockerContainerLogs(containerId.getName(), logOutput);
+            // the log stream ends when the container stops, only need to wait
+            // for the last log file to be closed
+            final ContainerLogCapture logCapture = logCaptures.remove(containerId);
+            boolean getLogsResult = null != logCapture && logCapture.finish(CONTAINER_LOG_FINISH_TIMEOUT_MS);
+            if (!getLogsResult) {
+                // not followed or the capture is incomplete, fetch the whole
+                // log from docker before the container is removed
+                if (null != logCapture) {
+                    LOGGER.warn("Log capture for {} is incomplete, fetching the logs from docker",
+                            containerId.getName());
+                }
+                final Path logOutput = container.getBaseOutputPath().resolve(CONTAINER_LOG_BASE_NAME);
+                getLogsResult = getDockerContainerLogs(containerId.getName(), logOutput);
+            }
             if (!getLogsResult) {
                 LOGGER.warn("Trouble getting logs from docker container {}. Continuing with remove.",
                         containerId.getName());
@@ -888,10 +1365,11 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
      * returns true if the pull was successful or if the current image is
      * already up to date and false otherwise.
      */
-    /* package */ static boolean pullDockerImage(final String image, final String tag) {
+    /* package */ static boolean pullDockerImage(final DockerApiClient client, final String image, final String tag) {
         try {
             // request to create an image (by pulling)
-            Response response = request("/images/create?fromImage=" + image + "&tag=" + tag, HTTP_POST, null);
+            Response response = request(client, "/images/create?fromImage=" + image + "&tag=" + tag, HTTP_POST,
+                    null, DockerApiClient.NO_TIMEOUT);
             LOGGER.debug("Response " + response.getCode() + ": " + response.getResponseString());
 
             if (response.getCode() == DOCKER_RESPONSE_CODE_CREATE_IMAGE_NO_ERROR) {
@@ -908,7 +1386,7 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
     }
 
     /** attempts to remove a Docker image with the given name */
-    /* package */ static boolean removeDockerImage(String image) {
+    /* package */ boolean removeDockerImage(String image) {
         try {
             Response response = request("/images/" + image, HTTP_DELETE, null);
             LOGGER.debug("Response " + response.getCode() + ": " + response.getResponseString());
@@ -966,7 +1444,7 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
      *            an environment to for the command
      * @return the response string of the command
      */
-    /* package */ static String runCommandInContainer(String containerId,
+    /* package */ String runCommandInContainer(String containerId,
             String[] command,
             Map<String, String> environment) {
         final CreateContainerData createData = new CreateContainerData();
@@ -988,7 +1466,7 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
 
                     final StartContainerData startData = new StartContainerData();
                     Response startExecInstanceResponse = request("/exec/" + execInstanceId + "/start", HTTP_POST,
-                            jsonParser.writeValueAsString(startData));
+                            jsonParser.writeValueAsString(startData), DockerApiClient.NO_TIMEOUT);
                     LOGGER.debug("Start exec for container '{}' had response code {} and returned: {}", containerId,
                             startExecInstanceResponse.getCode(), startExecInstanceResponse.getResponseString());
 
@@ -1071,7 +1549,21 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
     // CHECKSTYLE:ON
 
     // attempts to create and run a Docker containers with the given image
-    /* package */ static boolean runDockerContainer(String name,
+    /* package */ boolean runDockerContainer(String name,
+            String image,
+            double cpus,
+            long memoryBytes,
+            String dockerNetwork,
+            String containerIP,
+            Map<String, String> mountMappings) {
+        final String containerID = createDockerContainer(name, image, cpus, memoryBytes, dockerNetwork, containerIP,
+                mountMappings);
+        return null != containerID && startDockerContainer(name, containerID);
+    }
+
+    // creates a Docker container without starting it, returns the container
+    // id or null on an error
+    /* package */ String createDockerContainer(String name,
             String image,
             double cpus,
             long memoryBytes,
@@ -1120,55 +1612,97 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
                 if (containerCreateResponse.getCode() == DOCKER_RESPONSE_CODE_CREATED_CONTAINER_SUCCESSFULLY) {
                     final JsonNode jsonCreateExecResponse = jsonParser
                             .readTree(containerCreateResponse.getResponseString());
-                    final String containerID = jsonCreateExecResponse.get("Id").asText();
-
-                    for (int attemptN = 0; attemptN < DOCKER_START_CONTAINER_ATTEMPTS; attemptN++) {
-                        final Response containerStartResponse = request("/containers/" + containerID + "/start",
-                                HTTP_POST, null);
-                        LOGGER.debug("Start container attempt {} response {}: {}", attemptN,
-                                containerStartResponse.getCode(), containerStartResponse.getResponseString());
-
-                        if (containerStartResponse.getCode() == DOCKER_RESPONSE_CODE_START_CONTAINER_NO_ERROR) {
-                            LOGGER.info("Started container with name '{}' and Id {} (response {}). Attempt {}", name,
-                                    containerID, containerStartResponse.getCode(), attemptN);
-                            return true;
-                        }
-
-                        final long retryDelay = SimAppUtils.getRetryDelay(DOCKER_START_CONTAINER_MIN_RETRY_DELAY,
-                                DOCKER_START_CONTAINER_MAX_RETRY_DELAY);
-
-                        try {
-                            Thread.sleep(retryDelay);
-                        } catch (InterruptedException e) {
-                            LOGGER.debug("Failed to sleep between retries:", e);
-                        }
-                    }
-
-                    LOGGER.error("Failed to start container with id {} after {} attempts.", containerID,
-                            DOCKER_START_CONTAINER_ATTEMPTS);
-                    return false;
-
+                    return jsonCreateExecResponse.get("Id").asText();
                 } else {
-                    return false;
+                    return null;
                 }
             } catch (final JsonProcessingException e) {
                 LOGGER.error(
                         "Error parsing JSON response for the attempt to create a container. "
                                 + "Response had error code {} and JSON: {}",
                         containerCreateResponse.getCode(), containerCreateResponse.getResponseString(), e);
-                return false;
+                return null;
             }
         } catch (final IOException e) {
             LOGGER.error("Error sending container create response", e);
+            return null;
+        }
+    }
+
+    // starts a container that has been created
+    /* package */ boolean startDockerContainer(final String name, final String containerID) {
+        try {
+            for (int attemptN = 0; attemptN < DOCKER_START_CONTAINER_ATTEMPTS; attemptN++) {
+                final Response containerStartResponse = request("/containers/" + containerID + "/start", HTTP_POST,
+                        null);
+                LOGGER.debug("Start container attempt {} response {}: {}", attemptN, containerStartResponse.getCode(),
+                        containerStartResponse.getResponseString());
+
+                if (containerStartResponse.getCode() == DOCKER_RESPONSE_CODE_START_CONTAINER_NO_ERROR) {
+                    LOGGER.info("Started container with name '{}' and Id {} (response {}). Attempt {}", name,
+                            containerID, containerStartResponse.getCode(), attemptN);
+                    return true;
+                }
+
+                final long retryDelay = SimAppUtils.getRetryDelay(DOCKER_START_CONTAINER_MIN_RETRY_DELAY,
+                        DOCKER_START_CONTAINER_MAX_RETRY_DELAY);
+
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException e) {
+                    LOGGER.debug("Failed to sleep between retries:", e);
+                }
+            }
+
+            LOGGER.error("Failed to start container with id {} after {} attempts.", containerID,
+                    DOCKER_START_CONTAINER_ATTEMPTS);
+            return false;
+        } catch (final IOException e) {
+            LOGGER.error("Error sending container start request for {}", name, e);
+            return false;
+        }
+    }
+
+    // CHECKSTYLE:OFF data for updating a container
+    @SuppressWarnings("unused") // JSON serialization
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+    private static final class UpdateContainerData {
+        public long NanoCpus;
+        public long Memory;
+    }
+    // CHECKSTYLE:ON
+
+    // changes the CPU and memory limits of a container
+    /* package */ boolean updateDockerContainerResources(final String name,
+            final double cpus,
+            final long memoryBytes) {
+        final UpdateContainerData updateData = new UpdateContainerData();
+        updateData.NanoCpus = (long) Math.ceil(cpus * CPUS_TO_NANOCPUS);
+        updateData.Memory = memoryBytes;
+
+        try {
+            final ObjectMapper jsonParser = JsonUtils.getStandardMapObjectMapper();
+            final Response response = request("/containers/" + name + "/update", HTTP_POST,
+                    jsonParser.writeValueAsString(updateData));
+            LOGGER.debug("Update container response {}: {}", response.getCode(), response.getResponseString());
+
+            if (response.getCode() == DOCKER_RESPONSE_CODE_UPDATE_CONTAINER_NO_ERROR) {
+                return true;
+            } else {
+                LOGGER.error("Failed to update container (response code {}): {}", response.getCode(), name);
+                return false;
+            }
+        } catch (final IOException e) {
+            LOGGER.warn("Error updating container {}", name, e);
             return false;
         }
     }
 
     // stops the Docker container with the given name
-    /* package */ static boolean stopDockerContainer(String name) {
+    /* package */ boolean stopDockerContainer(String name) {
         try {
             Response response = request("/containers/" + name + "/stop?t=" + DOCKER_STOP_TIMEOUT_SECONDS, HTTP_POST,
-                    null);
+                    null, DOCKER_STOP_REQUEST_TIMEOUT_MS);
             LOGGER.debug("Response " + response.getCode() + ": " + response.getResponseString());
 
             if (response.getCode() == DOCKER_RESPONSE_CODE_STOP_CONTAINER_NO_ERROR) {
@@ -1205,26 +1739,24 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
     }
 
     private boolean getDockerContainerLogs(final String name, final Path outputPath) {
-        // don't use request method so that one can write directly to the output
-        // file
+        // write the response directly to the output file, an error body is
+        // not log output
         try {
-            final URL url = new URL(DOCKER_REST_API_BASE_URL + "/containers/" + name + "/logs?stdout=true&stderr=true");
-            final HttpURLConnection httpConnection = (HttpURLConnection) url.openConnection();
-            httpConnection.setRequestMethod("GET");
-            try (InputStream response = httpConnection.getInputStream()) {
-                Files.copy(response, outputPath);
-            }
-            LOGGER.info("Wrote logs for {} to {}", name, outputPath);
+            final int code = dockerClient.request(HTTP_GET, "/containers/" + name + "/logs?stdout=true&stderr=true",
+                    null, DockerApiClient.NO_TIMEOUT, (responseCode, body) -> {
+                        if (responseCode == DOCKER_RESPONSE_CODE_GET_LOGS_NO_ERROR) {
+                            Files.copy(body, outputPath);
+                        }
+                        return responseCode;
+                    });
 
-            if (httpConnection.getResponseCode() != DOCKER_RESPONSE_CODE_GET_LOGS_NO_ERROR) {
-                LOGGER.error("Failed get logs (response code " + httpConnection.getResponseCode() + "): " + name);
+            if (code != DOCKER_RESPONSE_CODE_GET_LOGS_NO_ERROR) {
+                LOGGER.error("Failed get logs (response code " + code + "): " + name);
                 return false;
             } else {
+                LOGGER.info("Wrote logs for {} to {}", name, outputPath);
                 return true;
             }
-        } catch (MalformedURLException e) {
-            LOGGER.warn("Invalid URL getting logs", e);
-            return false;
         } catch (IOException e) {
             LOGGER.warn("Error getting container logs from {}", name, e);
             return false;
@@ -1232,197 +1764,166 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
     }
 
     // performs a Docker Rest API call
-    private static Response request(final String url, final String requestMethod, final String jsonContent)
+    private Response request(final String url, final String requestMethod, final String jsonContent)
             throws IOException {
-        try {
-            final URL url2 = new URL(DOCKER_REST_API_BASE_URL + url);
-
-            LOGGER.info("Making HTTP {} request with URL '{}'", requestMethod, url2);
-
-            final HttpURLConnection httpConnection = (HttpURLConnection) url2.openConnection();
-            httpConnection.setRequestMethod(requestMethod);
-
-            // optionally write content to the request
-            if (jsonContent != null) {
-                if (HTTP_GET.equals(requestMethod)) {
-                    throw new IllegalArgumentException("Cannot send a request body with GET request method");
-                }
-
-                httpConnection.setDoOutput(true);
-                httpConnection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-                httpConnection.setFixedLengthStreamingMode(jsonContent.length());
-
-                try (OutputStream out = httpConnection.getOutputStream()) {
-                    try (BufferedWriter writer = new BufferedWriter(
-                            new OutputStreamWriter(out, Charset.defaultCharset()))) {
-                        writer.write(jsonContent);
-                    }
-                }
-            }
-
-            final StringBuilder response = new StringBuilder();
-
-            // read http response
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(httpConnection.getInputStream(), Charset.defaultCharset()))) {
-                String line = reader.readLine();
-
-                while (line != null) {
-                    LOGGER.debug("request: read line: " + line);
-                    response.append(line + System.lineSeparator());
-                    line = reader.readLine();
-                }
+        return request(url, requestMethod, jsonContent, DOCKER_REQUEST_TIMEOUT_MS);
+    }
 
-                reader.close();
-            } catch (IOException e) {
-                LOGGER.error("Unable to open input stream to read response. Error response message '{}': ",
-                        httpConnection.getResponseMessage(), e);
-            }
+    private Response request(final String url,
+            final String requestMethod,
+            final String jsonContent,
+            final long timeoutMs) throws IOException {
+        return request(dockerClient, url, requestMethod, jsonContent, timeoutMs);
+    }
 
-            return new Response(httpConnection.getResponseCode(), response.toString());
+    private static Response request(final DockerApiClient client,
+            final String url,
+            final String requestMethod,
+            final String jsonContent,
+            final long timeoutMs) throws IOException {
+        LOGGER.info("Making HTTP {} request with URL '{}'", requestMethod, url);
 
-        } catch (MalformedURLException e) {
-            LOGGER.warn("Invalid URL {}", url, e);
-            return null;
-        }
+        return client.request(requestMethod, url, jsonContent, timeoutMs);
     }
 
-    private static final class Response {
-        private int code;
-        private String responseString;
-
-        private Response(int code, String json) {
-            this.code = code;
-            this.responseString = json;
-        }
+    private final Map<String, InterfaceIdentifier> interfaceIdentifiers = new HashMap<>();
 
-        private int getCode() {
-            return code;
-        }
+    /**
+     * Held while building resource reports. Guards the accumulators below,
+     * they are only used by {@link #updateResourceReports()}.
+     */
+    private final Object reportUpdateLock = new Object();
 
-        private String getResponseString() {
-            return responseString;
-        }
-    }
+    private final SnapshotMap<NodeIdentifier, ContainerResourceReport> longContainerReports = new SnapshotMap<>();
+    private final SnapshotMap<NodeIdentifier, ContainerResourceReport> shortContainerReports = new SnapshotMap<>();
+    private final SnapshotMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> reportNetworkCapacities = new SnapshotMap<>();
 
-    private final Map<String, InterfaceIdentifier> interfaceIdentifiers = new HashMap<>();
+    /**
+     * The network load that {@link #lastReportNetworkLoad} was created from.
+     */
+    private Map<InterfaceIdentifier, Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>>> lastNetworkLoadPerInterface = null;
+    private ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> lastReportNetworkLoad = ImmutableMap
+            .of();
 
     /**
      * Package visibility for testing. This allows me to force the creation of
      * the latest ResourceReports.
+     * 
+     * The container, network capacity and network load maps are kept between
+     * calls and only copied to new immutable maps when their contents change.
      */
-    @SuppressFBWarnings(value = "UC_USELESS_OBJECT", justification = "runningContainersCopy is in fact used with forEach")
     /* package */ void updateResourceReports() {
         try {
             try (CloseableThreadContext.Instance ctc = CloseableThreadContext
                     .push(node.getNodeIdentifier().getName())) {
-
-                // make a copy so that things don't change while we are creating
-                // the resource report
-                final Map<NodeIdentifier, MapContainer> runningContainersCopy = new HashMap<>(runningContainers);
-
-                final long now = getClock().getCurrentTime();
-
-                if (LOGGER.isTraceEnabled()) {
-                    LOGGER.trace("Updating resource reports time: {}", now);
-                }
-
-                synchronized (interfaceIdentifiers) {
-                    interfaceIdentifiers.clear();
-                    interfaceIdentifiers.putAll(createInterfaceIdentifiers());
+                synchronized (reportUpdateLock) {
+                    internalUpdateResourceReports();
                 }
+            } // logging thread context
+        } catch (RuntimeException e) {
+            LOGGER.error("updateResourceReports exception: {}", e);
+        }
+    }
 
-                final Map<NodeAttribute, Double> allocatedComputeCapacity = getAllocatedComputeCapacity();
-
-                // update all containers after the neighbor map is updated
-                // since it's used by the container to compute it's data
-                runningContainersCopy.forEach((id, container) -> {
-                    container.updateResourceReports(allocatedComputeCapacity);
-                });
-
-                // initialize long and short NodeIdentifier to
-                // ContainerResourceReport maps
-                final ImmutableMap.Builder<NodeIdentifier, ContainerResourceReport> longContainerReports = ImmutableMap
-                        .builder();
-                final ImmutableMap.Builder<NodeIdentifier, ContainerResourceReport> shortContainerReports = ImmutableMap
-                        .builder();
-
-                // add container reports
-                runningContainersCopy.forEach((id, sim) -> {
-                    final ContainerResourceReport longReport = sim
-                            .getContainerResourceReport(ResourceReport.EstimationWindow.LONG);
-                    longContainerReports.put(id, longReport);
-
-                    final ContainerResourceReport shortReport = sim
-                            .getContainerResourceReport(ResourceReport.EstimationWindow.SHORT);
-                    shortContainerReports.put(id, shortReport);
-                });
+    private void internalUpdateResourceReports() {
+        final long now = getClock().getCurrentTime();
 
-                final ImmutableMap<NodeAttribute, Double> nodeComputeCapacity = getComputeCapacity();
-
-                // compute network information
-                final Set<NodeIdentifier> connectedNeighbors = node.getConnectedNeighbors();
-                final ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> reportNetworkCapacity = getNetworkCapacities(
-                        interfaceIdentifiers, connectedNeighbors);
-                LOGGER.trace("Network capacities: {}", reportNetworkCapacity);
-
-                final Map<String, Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>>> networkLoadPerNic = ncpResourceMonitor
-                        .computeNetworkLoadPerNic(getNode());
-                final Map<InterfaceIdentifier, Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>>> networkLoadPerInterface = new HashMap<>();
-                networkLoadPerNic.forEach((nic, data) -> {
-                    final InterfaceIdentifier ii = interfaceIdentifiers.get(nic);
-                    if (null == ii) {
-                        LOGGER.warn("Interface {} found in network load NICs, but not found in interfaces map {}", nic,
-                                interfaceIdentifiers);
-                    } else {
-                        networkLoadPerInterface.put(ii, data);
-                    }
-                });
-                final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> reportNetworkLoad = ImmutableUtils
-                        .makeImmutableMap4(networkLoadPerInterface);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Updating resource reports time: {}", now);
+        }
 
-                networkDemandTracker.updateDemandValues(now, reportNetworkLoad);
+        final Map<String, InterfaceIdentifier> currentInterfaceIdentifiers = createInterfaceIdentifiers();
+        synchronized (interfaceIdentifiers) {
+            if (!interfaceIdentifiers.equals(currentInterfaceIdentifiers)) {
+                interfaceIdentifiers.clear();
+                interfaceIdentifiers.putAll(currentInterfaceIdentifiers);
+            }
+        }
 
-                final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> reportShortNetworkDemand = networkDemandTracker
-                        .computeNetworkDemand(ResourceReport.EstimationWindow.SHORT);
+        final Map<NodeAttribute, Double> allocatedComputeCapacity = getAllocatedComputeCapacity();
 
-                final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> reportLongNetworkDemand = networkDemandTracker
-                        .computeNetworkDemand(ResourceReport.EstimationWindow.LONG);
+        // update all containers after the neighbor map is updated
+        // since it's used by the container to compute it's data.
+        // The container reports are collected in the same pass so that the
+        // long and short reports contain the same containers.
+        longContainerReports.beginUpdate();
+        shortContainerReports.beginUpdate();
+        runningContainers.forEach((id, container) -> {
+            container.updateResourceReports(allocatedComputeCapacity);
 
-                final boolean skipNetworkData = AgentConfiguration.getInstance().getSkipNetworkData();
+            longContainerReports.put(id, container.getContainerResourceReport(ResourceReport.EstimationWindow.LONG));
+            shortContainerReports.put(id,
+                    container.getContainerResourceReport(ResourceReport.EstimationWindow.SHORT));
+        });
+        final ImmutableMap<NodeIdentifier, ContainerResourceReport> reportLongContainers = longContainerReports
+                .endUpdate();
+        final ImmutableMap<NodeIdentifier, ContainerResourceReport> reportShortContainers = shortContainerReports
+                .endUpdate();
+
+        final ImmutableMap<NodeAttribute, Double> nodeComputeCapacity = getComputeCapacity();
+
+        // compute network information
+        final Set<NodeIdentifier> connectedNeighbors = node.getConnectedNeighbors();
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> reportNetworkCapacity = getNetworkCapacities(
+                currentInterfaceIdentifiers, connectedNeighbors);
+        LOGGER.trace("Network capacities: {}", reportNetworkCapacity);
+
+        final Map<String, Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>>> networkLoadPerNic = ncpResourceMonitor
+                .computeNetworkLoadPerNic(getNode());
+        final Map<InterfaceIdentifier, Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>>> networkLoadPerInterface = new HashMap<>();
+        networkLoadPerNic.forEach((nic, data) -> {
+            final InterfaceIdentifier ii = currentInterfaceIdentifiers.get(nic);
+            if (null == ii) {
+                LOGGER.warn("Interface {} found in network load NICs, but not found in interfaces map {}", nic,
+                        currentInterfaceIdentifiers);
+            } else {
+                networkLoadPerInterface.put(ii, data);
+            }
+        });
+        if (!networkLoadPerInterface.equals(lastNetworkLoadPerInterface)) {
+            lastReportNetworkLoad = ImmutableUtils.makeImmutableMap4(networkLoadPerInterface);
+            lastNetworkLoadPerInterface = networkLoadPerInterface;
+        }
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> reportNetworkLoad = lastReportNetworkLoad;
 
-                synchronized (resourceReportLock) {
+        networkDemandTracker.updateDemandValues(now, reportNetworkLoad);
 
-                    LOGGER.trace("updateResourceReports: reportNetworkLoad: {}", reportNetworkLoad);
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> reportShortNetworkDemand = networkDemandTracker
+                .computeNetworkDemand(ResourceReport.EstimationWindow.SHORT);
 
-                    longResourceReport = new ResourceReport(node.getNodeIdentifier(), now,
-                            ResourceReport.EstimationWindow.LONG, nodeComputeCapacity, //
-                            skipNetworkData ? ImmutableMap.of() : reportNetworkCapacity,
-                            skipNetworkData ? ImmutableMap.of() : reportNetworkLoad,
-                            skipNetworkData ? ImmutableMap.of() : reportLongNetworkDemand, //
-                            longContainerReports.build(), containerNames.size(), runningContainersCopy.size());
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> reportLongNetworkDemand = networkDemandTracker
+                .computeNetworkDemand(ResourceReport.EstimationWindow.LONG);
 
-                    LOGGER.trace("updateResourceReports: longResourceReport.getNetworkLoad: {}",
-                            longResourceReport.getNetworkLoad());
+        final boolean skipNetworkData = AgentConfiguration.getInstance().getSkipNetworkData();
 
-                    shortResourceReport = new ResourceReport(node.getNodeIdentifier(), now,
-                            ResourceReport.EstimationWindow.SHORT, nodeComputeCapacity, //
-                            skipNetworkData ? ImmutableMap.of() : reportNetworkCapacity,
-                            skipNetworkData ? ImmutableMap.of() : reportNetworkLoad,
-                            skipNetworkData ? ImmutableMap.of() : reportShortNetworkDemand, //
-                            shortContainerReports.build(), containerNames.size(), runningContainersCopy.size());
+        synchronized (resourceReportLock) {
 
-                    if (LOGGER.isTraceEnabled()) {
-                        // output resource reports to logs
-                        LOGGER.trace("Long Resource Report: " + resourceReportToString(longResourceReport));
-                        LOGGER.trace("Short Resource Report: " + resourceReportToString(shortResourceReport));
-                    }
+            LOGGER.trace("updateResourceReports: reportNetworkLoad: {}", reportNetworkLoad);
+
+            longResourceReport = new ResourceReport(node.getNodeIdentifier(), now,
+                    ResourceReport.EstimationWindow.LONG, nodeComputeCapacity, //
+                    skipNetworkData ? ImmutableMap.of() : reportNetworkCapacity,
+                    skipNetworkData ? ImmutableMap.of() : reportNetworkLoad,
+                    skipNetworkData ? ImmutableMap.of() : reportLongNetworkDemand, //
+                    reportLongContainers, containerNames.size(), reportLongContainers.size());
+
+            LOGGER.trace("updateResourceReports: longResourceReport.getNetworkLoad: {}",
+                    longResourceReport.getNetworkLoad());
+
+            shortResourceReport = new ResourceReport(node.getNodeIdentifier(), now,
+                    ResourceReport.EstimationWindow.SHORT, nodeComputeCapacity, //
+                    skipNetworkData ? ImmutableMap.of() : reportNetworkCapacity,
+                    skipNetworkData ? ImmutableMap.of() : reportNetworkLoad,
+                    skipNetworkData ? ImmutableMap.of() : reportShortNetworkDemand, //
+                    reportShortContainers, containerNames.size(), reportShortContainers.size());
+
+            if (LOGGER.isTraceEnabled()) {
+                // output resource reports to logs
+                LOGGER.trace("Long Resource Report: " + resourceReportToString(longResourceReport));
+                LOGGER.trace("Short Resource Report: " + resourceReportToString(shortResourceReport));
+            }
 
-                } // end lock
-            } // logging thread context
-        } catch (RuntimeException e) {
-            LOGGER.error("updateResourceReports exception: {}", e);
-        }
+        } // end lock
     }
 
     // outputs a ResourceReport to the log
@@ -1635,9 +2136,7 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
         LOGGER.debug("getNetworkCapacities: Obtaining network capacity for node with ID {}, interfaces: {}",
                 node.getNodeIdentifier(), nicToInterfaceId);
 
-        final ImmutableMap.Builder<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> networkCapacity = ImmutableMap
-                .builder();
-
+        reportNetworkCapacities.beginUpdate();
         nicToInterfaceId.forEach((nic, ii) -> {
             final double hardwareBandwidth = ncpResourceMonitor.getNetworkBandwidth(nic);
             final double topologyBandwidth = getTopologyBandwidth(nic);
@@ -1647,6 +2146,13 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
             LOGGER.debug("getNetworkCapacities: hw bandwidth: {} topology bandwidth: {} bandwidth: {} delay: {}",
                     hardwareBandwidth, topologyBandwidth, bandwidth, linkDelay);
 
+            // reuse the capacity map from the last report if nothing changed
+            final ImmutableMap<LinkAttribute, Double> previous = reportNetworkCapacities.get(ii);
+            if (null != previous && sameLinkCapacity(previous, bandwidth, linkDelay)) {
+                reportNetworkCapacities.put(ii, previous);
+                return;
+            }
+
             final ImmutableMap.Builder<LinkAttribute, Double> linkCapacity = ImmutableMap.builder();
 
             // add nic bandwidth
@@ -1656,10 +2162,18 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
             linkCapacity.put(LinkAttribute.DELAY, linkDelay);
 
             LOGGER.debug("getNetworkCapacities: Add capacity for NIC {} with bandwidth {}", nic, bandwidth);
-            networkCapacity.put(ii, linkCapacity.build());
+            reportNetworkCapacities.put(ii, linkCapacity.build());
         }); // foreach nic
 
-        return networkCapacity.build();
+        return reportNetworkCapacities.endUpdate();
+    }
+
+    private static boolean sameLinkCapacity(final ImmutableMap<LinkAttribute, Double> capacity,
+            final double bandwidth,
+            final double linkDelay) {
+        return Double.valueOf(bandwidth).equals(capacity.get(LinkAttribute.DATARATE_TX))
+                && Double.valueOf(bandwidth).equals(capacity.get(LinkAttribute.DATARATE_RX))
+                && Double.valueOf(linkDelay).equals(capacity.get(LinkAttribute.DELAY));
     }
 
     /**
@@ -1701,51 +2215,49 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
         return physicalNicName;
     }
 
+    private final NicNeighborIndex nicNeighborIndex = new NicNeighborIndex();
+
     /**
      * Determine which neighbors are attached to which network interfaces.
+     * Only neighbors that are new since the last call are looked up unless
+     * the routes or bridges have changed.
      */
     private Map<String, InterfaceIdentifier> createInterfaceIdentifiers() {
-        final Collection<NodeIdentifier> neighbors = node.getNeighbors();
+        final Set<NodeIdentifier> neighbors = node.getNeighbors();
         LOGGER.trace("createInterfaceIdentifiers neighbors: {}", neighbors);
 
-        final Collection<String> networkInterfaceNames = ncpResourceMonitor.getMonitoredNetworkInterfaceNames();
+        final Set<String> networkInterfaceNames = ncpResourceMonitor.getMonitoredNetworkInterfaceNames();
         LOGGER.trace("createInterfaceIdentifiers interfaces: {}", networkInterfaceNames);
 
-        final Map<String, Set<NodeIdentifier>> nicToNeighbor = new HashMap<>();
-        // initialize with all monitored interfaces
-        networkInterfaceNames.forEach(n -> {
-            nicToNeighbor.put(n, new HashSet<>());
-        });
+        final Map<String, InterfaceIdentifier> interfaces = nicNeighborIndex.update(networkInterfaceNames, neighbors,
+                ncpResourceMonitor.getNetworkTopologyVersion(), this::findNicForNeighbor);
 
-        final RoutingTable table = ncpResourceMonitor.getRoutingTable();
+        LOGGER.trace("Computed NIC to neighbor map: {}", interfaces);
+        return interfaces;
+    }
 
-        neighbors.forEach(neighbor -> {
-            try {
-                // reverse DNS lookup of neighbor's domain name
-                final InetAddress neighborAddr = DnsUtils.getByName(neighbor.getName());
-                final String nicName = table.route(neighborAddr);
+    /**
+     * @return the physical network interface used to reach the neighbor or
+     *         null if it cannot be determined
+     */
+    private String findNicForNeighbor(final NodeIdentifier neighbor) {
+        try {
+            // reverse DNS lookup of neighbor's domain name
+            final InetAddress neighborAddr = DnsUtils.getByName(neighbor.getName());
+            final String nicName = ncpResourceMonitor.getRoutingTable().route(neighborAddr);
 
-                final String physicalNicName = getPhysicalNic(nicName);
+            final String physicalNicName = getPhysicalNic(nicName);
 
-                if (physicalNicName != null) {
-                    nicToNeighbor.computeIfAbsent(physicalNicName, k -> new HashSet<>()).add(neighbor);
-                    LOGGER.debug("createNeighborToNICMap: Mapped neighbor to NIC: {} -> {}", neighbor, physicalNicName);
-                } else {
-                    LOGGER.warn("createNeighborToNICMap: Failed to map neighbor '{}' to NIC.", neighbor);
-                }
-            } catch (final UnknownHostException e) {
-                LOGGER.error("Failed to obtain the InetAddress for neighbor '{}'.", neighbor.getName(), e);
+            if (physicalNicName != null) {
+                LOGGER.debug("createNeighborToNICMap: Mapped neighbor to NIC: {} -> {}", neighbor, physicalNicName);
+            } else {
+                LOGGER.warn("createNeighborToNICMap: Failed to map neighbor '{}' to NIC.", neighbor);
             }
-        });
-
-        LOGGER.trace("Computed new NIC to neighbor map: {}", nicToNeighbor);
-
-        final Map<String, InterfaceIdentifier> interfaces = new HashMap<>();
-        nicToNeighbor.forEach((name, n) -> {
-            final InterfaceIdentifier ii = new InterfaceIdentifier(name, ImmutableSet.copyOf(n));
-            interfaces.put(name, ii);
-        });
-        return interfaces;
+            return physicalNicName;
+        } catch (final UnknownHostException e) {
+            LOGGER.error("Failed to obtain the InetAddress for neighbor '{}'.", neighbor.getName(), e);
+            return null;
+        }
     }
 
     private class ContainerShutdownHook extends Thread {
@@ -1756,6 +2268,15 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
             LOGGER.info(
                     "--------------------------------- Running container shutdown hook. -----------------------------------");
 
+            if (null != warmPool) {
+                warmPoolExecutor.shutdownNow();
+                warmPool.drainAll().forEach(pooled -> {
+                    LOGGER.info("--------- Shutdown hook: removing pre-created container {} ---------",
+                            pooled.containerId);
+                    removePooledContainer(pooled);
+                });
+            }
+
             containerNames.forEach((id, addr) -> {
                 LOGGER.info("--------- Shutdown hook: running stopService({}) ---------", id);
                 stopService(id);
@@ -1772,13 +2293,24 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
         final String image = getImageForService(service);
 
         imageManager.fetchImage(image);
+
+        // get the service directories ready for when the service is started
+        try {
+            prepareService(service);
+        } catch (final IOException e) {
+            LOGGER.warn("Unable to prepare the host directories for service {}, will retry at start", service, e);
+        }
     }
 
     @Override
     public boolean waitForImage(@Nonnull final ServiceIdentifier<?> service) {
+        return waitForImage(service, ImageFetcher.Priority.START);
+    }
+
+    private boolean waitForImage(final ServiceIdentifier<?> service, final ImageFetcher.Priority priority) {
         try {
             final String image = getImageForService(service);
-            return imageManager.waitForImage(image);
+            return imageManager.waitForImage(image, priority);
         } catch (final InterruptedException e) {
             LOGGER.warn("Got interrupted waiting for image for service {}", service, e);
             return false;
@@ -1790,13 +2322,13 @@ public class SimpleDockerResourceManager implements ResourceManager<Controller>
      * @return the set of images currently loaded on this node
      */
     @Nonnull
-    /* package */ static Set<String> getCurrentImages() {
+    /* package */ static Set<String> getCurrentImages(final DockerApiClient client) {
 
         final Set<String> images = new HashSet<>();
 
         try {
             // request to create an image (by pulling)
-            final Response response = request("/images/json", HTTP_GET, null);
+            final Response response = request(client, "/images/json", HTTP_GET, null, DOCKER_REQUEST_TIMEOUT_MS);
             LOGGER.debug("List images response " + response.getCode() + ": " + response.getResponseString());
 
             if (response.getCode() == DOCKER_RESPONSE_CODE_LIST_IMAGES) {
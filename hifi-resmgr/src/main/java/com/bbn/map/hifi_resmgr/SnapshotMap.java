@@ -0,0 +1,131 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A mutable map that is filled in on each update pass and published as an
+ * {@link ImmutableMap}. A new immutable copy is only created when a value was
+ * added, changed or removed since the last pass, otherwise the previous
+ * snapshot is returned. This keeps periodic report generation from
+ * allocating new maps when nothing changed.
+ * 
+ * Usage: call {@link #beginUpdate()}, {@link #put(Object, Object)} every
+ * entry that should be in the map and then {@link #endUpdate()}. Entries not
+ * put during the pass are removed.
+ * 
+ * This class is not thread safe.
+ * 
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ * @author jschewe
+ *
+ */
+/* package */ final class SnapshotMap<K, V> {
+
+    private final Map<K, V> current = new HashMap<>();
+    private final Set<K> seen = new HashSet<>();
+    private ImmutableMap<K, V> snapshot = ImmutableMap.of();
+    private boolean changed = false;
+
+    /**
+     * Start an update pass.
+     */
+    /* package */ void beginUpdate() {
+        seen.clear();
+    }
+
+    /**
+     * Set the value for a key in this pass.
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     */
+    /* package */ void put(@Nonnull final K key, @Nonnull final V value) {
+        seen.add(key);
+        final V previous = current.put(key, value);
+        if (!Objects.equals(previous, value)) {
+            changed = true;
+        }
+    }
+
+    /**
+     * 
+     * @param key
+     *            the key
+     * @return the value from the last pass or the current pass if already
+     *         put, null if not present
+     */
+    /* package */ V get(@Nonnull final K key) {
+        return current.get(key);
+    }
+
+    /**
+     * Finish an update pass.
+     * 
+     * @return the snapshot, the same object as the previous pass if nothing
+     *         changed
+     */
+    @Nonnull
+    /* package */ ImmutableMap<K, V> endUpdate() {
+        if (current.keySet().retainAll(seen)) {
+            changed = true;
+        }
+        if (changed) {
+            snapshot = ImmutableMap.copyOf(current);
+            changed = false;
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the snapshot published by the last call to {@link #endUpdate()}
+     */
+    @Nonnull
+    /* package */ ImmutableMap<K, V> getSnapshot() {
+        return snapshot;
+    }
+
+}
@@ -0,0 +1,93 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.apache.commons.net.util.SubnetUtils;
+import org.junit.Test;
+
+import com.bbn.protelis.networkresourcemanagement.RegionIdentifier;
+import com.bbn.protelis.networkresourcemanagement.StringRegionIdentifier;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests for {@link FileRegionLookupService}.
+ * 
+ * @author jschewe
+ *
+ */
+public class FileRegionLookupServiceTest {
+
+    private static final RegionIdentifier REGION_A = new StringRegionIdentifier("A");
+    private static final RegionIdentifier REGION_B = new StringRegionIdentifier("B");
+    private static final RegionIdentifier REGION_C = new StringRegionIdentifier("C");
+
+    /**
+     * Check that the subnet lookup matches checking the subnets in order.
+     */
+    @Test
+    public void testLookup() {
+        final ImmutableMap<SubnetUtils.SubnetInfo, RegionIdentifier> subnetToRegion = ImmutableMap.of(//
+                new SubnetUtils("10.0.1.0/24").getInfo(), REGION_A, //
+                new SubnetUtils("10.0.0.0/16").getInfo(), REGION_B, //
+                new SubnetUtils("10.0.2.128/25").getInfo(), REGION_C);
+        final FileRegionLookupService service = new FileRegionLookupService(subnetToRegion);
+
+        for (final String address : new String[] { "10.0.1.1", "10.0.1.0", "10.0.1.255", "10.0.2.1",
+                "10.0.2.200", "10.0.255.254", "10.1.0.1", "192.168.1.1" }) {
+            final RegionIdentifier expected = subnetToRegion.entrySet().stream()
+                    .filter(e -> e.getKey().isInRange(address)).map(e -> e.getValue()).findFirst().orElse(null);
+            assertThat(address, service.lookupSubnet(address), is(expected));
+        }
+
+        assertThat(service.lookupSubnet("10.0.1.1"), is(REGION_A));
+        // earlier /16 wins over the later /25
+        assertThat(service.lookupSubnet("10.0.2.200"), is(REGION_B));
+        // network address of the /24 isn't in range, falls through to the /16
+        assertThat(service.lookupSubnet("10.0.1.0"), is(REGION_B));
+        assertThat(service.lookupSubnet("192.168.1.1"), is(nullValue()));
+    }
+
+    /**
+     * Check that invalid addresses are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidAddress() {
+        final FileRegionLookupService service = new FileRegionLookupService(
+                ImmutableMap.of(new SubnetUtils("10.0.1.0/24").getInfo(), REGION_A));
+        service.lookupSubnet("not-an-address");
+    }
+
+}
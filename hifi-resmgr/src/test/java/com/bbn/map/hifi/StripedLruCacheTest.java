@@ -0,0 +1,116 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link StripedLruCache}.
+ * 
+ * @author jschewe
+ *
+ */
+public class StripedLruCacheTest {
+
+    /**
+     * Check lookups, counters and the size bound.
+     */
+    @Test
+    public void testBoundedWithCounters() {
+        final int maxEntries = 32;
+        final StripedLruCache<String, Integer> cache = new StripedLruCache<>(maxEntries, 4);
+
+        assertThat(cache.get("a"), is(nullValue()));
+        cache.put("a", 1);
+        assertThat(cache.get("a"), is(1));
+        assertThat(cache.getHitCount(), is(1L));
+        assertThat(cache.getMissCount(), is(1L));
+
+        assertThat(cache.putIfAbsent("a", 2), is(false));
+        assertThat(cache.get("a"), is(1));
+        assertThat(cache.putIfAbsent("b", 2), is(true));
+
+        for (int i = 0; i < maxEntries * 10; ++i) {
+            cache.put("key" + i, i);
+        }
+        assertThat(cache.size(), lessThanOrEqualTo(maxEntries));
+    }
+
+    /**
+     * Check that concurrent use doesn't corrupt the cache.
+     * 
+     * @throws InterruptedException
+     *             test error
+     */
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        final int maxEntries = 64;
+        final int operations = 10000;
+        final StripedLruCache<Integer, Integer> cache = new StripedLruCache<>(maxEntries, 8);
+
+        final AtomicInteger wrongValues = new AtomicInteger(0);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            final int offset = t;
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < operations; ++i) {
+                    final int key = (i * 7 + offset) % (maxEntries * 2);
+                    final Integer value = cache.get(key);
+                    if (null == value) {
+                        cache.put(key, key);
+                    } else if (value != key) {
+                        wrongValues.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(wrongValues.get(), is(0));
+        assertThat(cache.size(), lessThanOrEqualTo(maxEntries));
+        assertThat(cache.getHitCount() + cache.getMissCount(), is((long) operations * threads.size()));
+    }
+
+}
@@ -0,0 +1,145 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.util;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+
+/**
+ * Tests for {@link DnsResultCache}.
+ * 
+ * @author jschewe
+ *
+ */
+public class DnsResultCacheTest {
+
+    private static final int TTL_SECONDS = 10;
+    private static final long TTL_MS = TTL_SECONDS * 1000L;
+
+    private static Record[] createRecords(final String name) throws Exception {
+        return new Record[] { new ARecord(Name.fromString(name + "."), DClass.IN, TTL_SECONDS,
+                InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 })) };
+    }
+
+    /**
+     * Check that records are returned until their TTL expires.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testExpiration() throws Exception {
+        final AtomicLong now = new AtomicLong(0);
+        final DnsResultCache cache = new DnsResultCache(2, 0, now::get);
+
+        cache.putRecords("nodeA.map.dcomp", createRecords("nodeA.map.dcomp"), TTL_SECONDS);
+        final DnsResultCache.Entry entry = cache.get("nodeA.map.dcomp");
+        assertThat(entry, is(notNullValue()));
+        assertThat(entry.isNegative(), is(false));
+        assertThat(entry.getRecords().length, is(1));
+
+        now.set(TTL_MS);
+        assertThat(cache.get("nodeA.map.dcomp"), is(nullValue()));
+
+        // a TTL of 0 isn't cached
+        cache.putRecords("nodeB.map.dcomp", createRecords("nodeB.map.dcomp"), 0);
+        assertThat(cache.get("nodeB.map.dcomp"), is(nullValue()));
+
+        final DnsResultCache.Statistics stats = cache.getStatistics();
+        assertThat(stats.getHits(), is(1L));
+        assertThat(stats.getMisses(), is(2L));
+        assertThat(stats.getExpirations(), is(1L));
+        assertThat(stats.getSize(), is(0));
+    }
+
+    /**
+     * Check that failures are only cached when negative caching is enabled
+     * and are dropped after the negative TTL.
+     */
+    @Test
+    public void testNegative() {
+        final AtomicLong now = new AtomicLong(0);
+
+        final DnsResultCache disabled = new DnsResultCache(2, 0, now::get);
+        disabled.putFailure("missing.map.dcomp", "Unknown host");
+        assertThat(disabled.get("missing.map.dcomp"), is(nullValue()));
+
+        final DnsResultCache cache = new DnsResultCache(2, TTL_SECONDS, now::get);
+        cache.putFailure("missing.map.dcomp", "Unknown host");
+        final DnsResultCache.Entry entry = cache.get("missing.map.dcomp");
+        assertThat(entry, is(notNullValue()));
+        assertThat(entry.isNegative(), is(true));
+        assertThat(entry.getFailureMessage(), is("Unknown host"));
+        assertThat(cache.getStatistics().getNegativeHits(), is(1L));
+
+        now.set(TTL_MS);
+        assertThat(cache.get("missing.map.dcomp"), is(nullValue()));
+    }
+
+    /**
+     * Check that the least recently used name is evicted when the cache is
+     * full.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testEviction() throws Exception {
+        final DnsResultCache cache = new DnsResultCache(2, 0, () -> 0);
+
+        cache.putRecords("nodeA", createRecords("nodeA"), TTL_SECONDS);
+        cache.putRecords("nodeB", createRecords("nodeB"), TTL_SECONDS);
+        // make nodeA the most recently used
+        assertThat(cache.get("nodeA"), is(notNullValue()));
+
+        cache.putRecords("nodeC", createRecords("nodeC"), TTL_SECONDS);
+        assertThat(cache.get("nodeB"), is(nullValue()));
+        assertThat(cache.get("nodeA"), is(notNullValue()));
+        assertThat(cache.get("nodeC"), is(notNullValue()));
+
+        final DnsResultCache.Statistics stats = cache.getStatistics();
+        assertThat(stats.getEvictions(), is(1L));
+        assertThat(stats.getSize(), is(2));
+    }
+
+}
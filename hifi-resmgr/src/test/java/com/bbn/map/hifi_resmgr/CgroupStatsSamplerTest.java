@@ -0,0 +1,164 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link CgroupStatsSampler}.
+ * 
+ * @author jschewe
+ *
+ */
+public class CgroupStatsSamplerTest {
+
+    /**
+     * Directory for the fake /proc and cgroup filesystems.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int PID = 1234;
+    private static final String CONTAINER_CGROUP = "/docker/abc123";
+
+    private static void write(final Path file, final String... lines) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    private Path createProc(final String stat) throws IOException {
+        final Path proc = folder.getRoot().toPath().resolve("proc");
+        write(proc.resolve("stat"), stat, "cpu0 50 0 50 400 0 0 0 0 0 0", "cpu1 50 0 50 400 0 0 0 0 0 0",
+                "intr 12345");
+        write(proc.resolve(String.valueOf(PID)).resolve("net").resolve("dev"),
+                "Inter-|   Receive                                                |  Transmit",
+                " face |bytes    packets errs drop fifo frame compressed multicast|bytes    packets errs drop fifo colls carrier compressed",
+                "    lo:       0       0    0    0    0     0          0         0        0       0    0    0    0     0       0          0",
+                "  eth0:    1500      10    0    0    0     0          0         0     2500      20    0    0    0     0       0          0");
+        return proc;
+    }
+
+    /**
+     * Check reading the counters from a cgroup v1 hierarchy.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testCgroupV1() throws Exception {
+        final Path proc = createProc("cpu  100 0 100 800 0 0 0 0 0 0");
+        final Path cgroupRoot = folder.getRoot().toPath().resolve("sys").resolve("fs").resolve("cgroup");
+        final Path cpuMount = cgroupRoot.resolve("cpu,cpuacct");
+        final Path memoryMount = cgroupRoot.resolve("memory");
+
+        write(proc.resolve("self").resolve("mountinfo"),
+                "25 20 0:22 / " + cgroupRoot + " ro,nosuid,nodev,noexec shared:9 - tmpfs tmpfs ro,mode=755",
+                "30 25 0:26 / " + cpuMount + " rw,nosuid,nodev,noexec,relatime shared:13 - cgroup cgroup rw,cpu,cpuacct",
+                "31 25 0:27 / " + memoryMount + " rw,nosuid,nodev,noexec,relatime shared:14 - cgroup cgroup rw,memory");
+        write(proc.resolve(String.valueOf(PID)).resolve("cgroup"), "5:memory:" + CONTAINER_CGROUP,
+                "4:cpu,cpuacct:" + CONTAINER_CGROUP, "1:name=systemd:" + CONTAINER_CGROUP);
+        write(cpuMount.resolve("docker").resolve("abc123").resolve("cpuacct.usage"), "5000000");
+        write(memoryMount.resolve("docker").resolve("abc123").resolve("memory.usage_in_bytes"), "4096");
+
+        final CgroupStatsSampler sampler = new CgroupStatsSampler(proc);
+        sampler.beginRound();
+        final CgroupStatsSampler.Container container = sampler.resolve(PID);
+        assertThat(container, is(notNullValue()));
+
+        final ContainerStatsParser.Sample sample = new ContainerStatsParser.Sample();
+        sampler.sample(container, "eth0", sample);
+
+        assertThat(sample.totalUsage, is(5_000_000L));
+        // 1000 ticks at 100 ticks per second
+        assertThat(sample.systemCpuUsage, is(10_000_000_000L));
+        assertThat(sample.onlineCpus, is(2L));
+        assertThat(sample.preTotalUsage, is(ContainerStatsParser.MISSING));
+        assertThat(sample.memoryUsage, is(4096L));
+        assertThat(sample.rxBytes, is(1500L));
+        assertThat(sample.txBytes, is(2500L));
+
+        // second sample has the previous values
+        write(cpuMount.resolve("docker").resolve("abc123").resolve("cpuacct.usage"), "7000000");
+        write(proc.resolve("stat"), "cpu  200 0 200 1600 0 0 0 0 0 0", "cpu0 1", "cpu1 1");
+        sampler.beginRound();
+        sampler.sample(container, "eth0", sample);
+        assertThat(sample.totalUsage, is(7_000_000L));
+        assertThat(sample.preTotalUsage, is(5_000_000L));
+        assertThat(sample.systemCpuUsage, is(20_000_000_000L));
+        assertThat(sample.preSystemCpuUsage, is(10_000_000_000L));
+    }
+
+    /**
+     * Check reading the counters from a cgroup v2 hierarchy.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testCgroupV2() throws Exception {
+        final Path proc = createProc("cpu  100 0 100 800 0 0 0 0 0 0");
+        final Path cgroupRoot = folder.getRoot().toPath().resolve("sys").resolve("fs").resolve("cgroup");
+        final Path containerDirectory = cgroupRoot.resolve("system.slice").resolve("docker-abc123.scope");
+
+        write(proc.resolve("self").resolve("mountinfo"),
+                "35 24 0:30 / " + cgroupRoot + " rw,nosuid,nodev,noexec,relatime shared:9 - cgroup2 cgroup2 rw");
+        write(proc.resolve(String.valueOf(PID)).resolve("cgroup"), "0::/system.slice/docker-abc123.scope");
+        write(containerDirectory.resolve("cpu.stat"), "usage_usec 3000", "user_usec 2000", "system_usec 1000");
+        write(containerDirectory.resolve("memory.current"), "8192");
+
+        final CgroupStatsSampler sampler = new CgroupStatsSampler(proc);
+        sampler.beginRound();
+        final CgroupStatsSampler.Container container = sampler.resolve(PID);
+        assertThat(container, is(notNullValue()));
+
+        final ContainerStatsParser.Sample sample = new ContainerStatsParser.Sample();
+        sampler.sample(container, "eth0", sample);
+
+        assertThat(sample.totalUsage, is(3_000_000L));
+        assertThat(sample.memoryUsage, is(8192L));
+        assertThat(sample.rxBytes, is(1500L));
+        assertThat(sample.txBytes, is(2500L));
+    }
+
+}
@@ -0,0 +1,159 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ConntrackFlowSampler}.
+ * 
+ * @author jschewe
+ *
+ */
+public class ConntrackFlowSamplerTest {
+
+    private static final String TCP_LINE = "ipv4     2 tcp      6 431999 ESTABLISHED src=10.0.0.1 dst=10.0.1.2 "
+            + "sport=40000 dport=7000 packets=10 bytes=%d src=10.0.1.2 dst=10.0.0.1 sport=7000 dport=40000 "
+            + "packets=8 bytes=%d [ASSURED] mark=0 zone=0 use=2";
+
+    private static final String ICMP_LINE = "ipv4     2 icmp     1 29 src=10.0.0.1 dst=10.0.1.2 type=8 code=0 id=1 "
+            + "packets=1 bytes=84 src=10.0.1.2 dst=10.0.0.1 type=0 code=0 id=1 packets=1 bytes=84 mark=0 use=1";
+
+    private static final String NO_ACCOUNTING_LINE = "ipv4     2 tcp      6 431999 ESTABLISHED src=10.0.0.1 "
+            + "dst=10.0.1.2 sport=40000 dport=7000 src=10.0.1.2 dst=10.0.0.1 sport=7000 dport=40000 [ASSURED] "
+            + "mark=0 use=2";
+
+    private static ConntrackFlowSampler createSampler() {
+        return new ConntrackFlowSampler(ConntrackFlowSampler.DEFAULT_CONNTRACK_FILE, 1000,
+                address -> address.startsWith("10.0.1.") ? "eth1" : null);
+    }
+
+    /**
+     * Check that the original and reply counters are parsed.
+     */
+    @Test
+    public void testParseLine() {
+        final ConntrackFlowSampler sampler = createSampler();
+
+        final ConntrackFlowSampler.FlowCounters tcp = sampler.parseLine(String.format(TCP_LINE, 1000, 2000));
+        assertThat(tcp, is(notNullValue()));
+        assertThat(tcp.getTuple(),
+                is(new ConntrackFlowSampler.FlowTuple("tcp", "10.0.0.1", 40000, "10.0.1.2", 7000)));
+        assertThat(tcp.getOriginalBytes(), is(1000L));
+        assertThat(tcp.getReplyBytes(), is(2000L));
+
+        final ConntrackFlowSampler.FlowCounters icmp = sampler.parseLine(ICMP_LINE);
+        assertThat(icmp, is(notNullValue()));
+        assertThat(icmp.getTuple(), is(new ConntrackFlowSampler.FlowTuple("icmp", "10.0.0.1",
+                IftopProcessor.UNKNOWN_PORT, "10.0.1.2", IftopProcessor.UNKNOWN_PORT)));
+
+        assertThat(sampler.parseLine(NO_ACCOUNTING_LINE), is(nullValue()));
+        assertThat(sampler.parseLine(""), is(nullValue()));
+    }
+
+    /**
+     * Check that rates are computed from the change in the counters.
+     */
+    @Test
+    public void testComputeRates() {
+        final ConntrackFlowSampler sampler = createSampler();
+
+        // first sample only establishes the baseline
+        final List<ConntrackFlowSampler.FlowRate> first = sampler.computeRates(1000,
+                Collections.singletonList(sampler.parseLine(String.format(TCP_LINE, 1000, 2000))));
+        assertThat(first, hasSize(0));
+
+        final List<ConntrackFlowSampler.FlowRate> second = sampler.computeRates(3000,
+                Collections.singletonList(sampler.parseLine(String.format(TCP_LINE, 3000, 6000))));
+        assertThat(second, hasSize(1));
+        final ConntrackFlowSampler.FlowRate rate = second.get(0);
+        // 2000 bytes over 2 seconds
+        assertThat(rate.getOriginalBitsPerSecond(), is(8000L));
+        assertThat(rate.getReplyBitsPerSecond(), is(16000L));
+        assertThat(rate.isOnNic("eth1"), is(true));
+        assertThat(rate.isOnNic("eth0"), is(false));
+
+        // no traffic, nothing reported
+        final List<ConntrackFlowSampler.FlowRate> third = sampler.computeRates(4000,
+                Collections.singletonList(sampler.parseLine(String.format(TCP_LINE, 3000, 6000))));
+        assertThat(third, hasSize(0));
+    }
+
+    /**
+     * Check that all of the bytes of a flow that starts after the first sample
+     * are counted.
+     */
+    @Test
+    public void testNewFlowAfterBaseline() {
+        final ConntrackFlowSampler sampler = createSampler();
+
+        final List<ConntrackFlowSampler.FlowRate> first = sampler.computeRates(1000,
+                Collections.singletonList(sampler.parseLine(String.format(TCP_LINE, 1000, 2000))));
+        assertThat(first, hasSize(0));
+
+        final List<ConntrackFlowSampler.FlowRate> second = sampler.computeRates(3000,
+                Arrays.asList(sampler.parseLine(String.format(TCP_LINE, 1000, 2000)), sampler.parseLine(ICMP_LINE)));
+        assertThat(second, hasSize(1));
+        final ConntrackFlowSampler.FlowRate rate = second.get(0);
+        assertThat(rate.getTuple(), is(new ConntrackFlowSampler.FlowTuple("icmp", "10.0.0.1",
+                IftopProcessor.UNKNOWN_PORT, "10.0.1.2", IftopProcessor.UNKNOWN_PORT)));
+        // 84 bytes over 2 seconds
+        assertThat(rate.getOriginalBitsPerSecond(), is(336L));
+        assertThat(rate.getReplyBitsPerSecond(), is(336L));
+    }
+
+    /**
+     * Check that flows that don't cross a monitored network interface are not
+     * reported.
+     */
+    @Test
+    public void testUnmonitoredFlow() {
+        final ConntrackFlowSampler sampler = createSampler();
+        final String unmonitored = TCP_LINE.replace("10.0.1.2", "10.0.0.2");
+
+        sampler.computeRates(1000, Collections.singletonList(sampler.parseLine(String.format(unmonitored, 1000, 2000))));
+        final List<ConntrackFlowSampler.FlowRate> second = sampler.computeRates(3000,
+                Collections.singletonList(sampler.parseLine(String.format(unmonitored, 3000, 6000))));
+        assertThat(second, hasSize(0));
+    }
+
+}
@@ -0,0 +1,214 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ContainerLogCapture}.
+ * 
+ * @author jschewe
+ *
+ */
+public class ContainerLogCaptureTest {
+
+    /**
+     * Directory for the log files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void writeFrame(final ByteArrayOutputStream stream, final int type, final String text) {
+        final byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        stream.write(type);
+        stream.write(0);
+        stream.write(0);
+        stream.write(0);
+        stream.write(data.length >>> 24);
+        stream.write(data.length >>> 16);
+        stream.write(data.length >>> 8);
+        stream.write(data.length);
+        stream.write(data, 0, data.length);
+    }
+
+    /**
+     * Check that frame headers are removed from a multiplexed stream and that
+     * a stream without headers is copied unchanged.
+     * 
+     * @throws IOException
+     *             test error
+     */
+    @Test
+    public void testDemultiplex() throws IOException {
+        final ByteArrayOutputStream multiplexed = new ByteArrayOutputStream();
+        writeFrame(multiplexed, 1, "hello\n");
+        writeFrame(multiplexed, 2, "error\n");
+        writeFrame(multiplexed, 1, "world\n");
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ContainerLogCapture.demultiplex(new ByteArrayInputStream(multiplexed.toByteArray()), output);
+        assertThat(new String(output.toByteArray(), StandardCharsets.UTF_8), is("hello\nerror\nworld\n"));
+
+        // the stream arrives in arbitrary pieces from the collector
+        final byte[] bytes = multiplexed.toByteArray();
+        final ByteArrayOutputStream pieces = new ByteArrayOutputStream();
+        final ContainerLogCapture.Demultiplexer demultiplexer = new ContainerLogCapture.Demultiplexer(pieces);
+        for (int i = 0; i < bytes.length; ++i) {
+            demultiplexer.write(bytes, i, 1);
+        }
+        assertThat(demultiplexer.end(), is(true));
+        assertThat(new String(pieces.toByteArray(), StandardCharsets.UTF_8), is("hello\nerror\nworld\n"));
+
+        final String raw = "plain text output\n";
+        final ByteArrayOutputStream rawOutput = new ByteArrayOutputStream();
+        ContainerLogCapture.demultiplex(new ByteArrayInputStream(raw.getBytes(StandardCharsets.UTF_8)), rawOutput);
+        assertThat(new String(rawOutput.toByteArray(), StandardCharsets.UTF_8), is(raw));
+    }
+
+    /**
+     * Check that the logs are followed on the collector thread and written to
+     * the file when the stream ends.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testCapture() throws Exception {
+        final ByteArrayOutputStream multiplexed = new ByteArrayOutputStream();
+        writeFrame(multiplexed, 1, "line one\n");
+        writeFrame(multiplexed, 2, "line two\n");
+        final byte[] body = multiplexed.toByteArray();
+
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final List<String> requestLines = new ArrayList<>();
+            final Thread fakeDocker = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    final BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    String line;
+                    while (null != (line = reader.readLine()) && !line.isEmpty()) {
+                        requestLines.add(line);
+                    }
+                    final OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                            + Integer.toHexString(body.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(body);
+                    out.write("\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            fakeDocker.start();
+
+            final ContainerStatsCollector collector = new ContainerStatsCollector(
+                    server.getInetAddress().getHostAddress(), server.getLocalPort(), "/v1.32");
+            try {
+                final Path directory = folder.getRoot().toPath();
+                final ContainerLogCapture capture = new ContainerLogCapture("nodeA_c00", directory, "logs.txt",
+                        1024, 2);
+                capture.start(collector);
+
+                assertThat(capture.finish(10_000), is(true));
+                fakeDocker.join();
+
+                assertThat(requestLines.get(0),
+                        is("GET /v1.32/containers/nodeA_c00/logs?stdout=true&stderr=true&follow=true HTTP/1.1"));
+                assertThat(readCompressed(directory.resolve("logs.txt.gz")), is("line one\nline two\n"));
+            } finally {
+                collector.shutdown();
+            }
+        }
+    }
+
+    private static String readCompressed(final Path file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read = in.read(buffer);
+            while (read >= 0) {
+                out.write(buffer, 0, read);
+                read = in.read(buffer);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Check that the output is rotated at the size limit and the oldest files
+     * are removed.
+     * 
+     * @throws IOException
+     *             test error
+     */
+    @Test
+    public void testRotation() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final ContainerLogCapture.RotatingOutputStream output = new ContainerLogCapture.RotatingOutputStream(
+                directory, "logs.txt", 4, 3);
+        try {
+            output.write("aaaabbbbcc".getBytes(StandardCharsets.UTF_8));
+            output.write("ccdddd".getBytes(StandardCharsets.UTF_8));
+            output.write('e');
+        } finally {
+            output.close();
+        }
+
+        assertThat(readCompressed(output.getFile(0)), is("e"));
+        assertThat(readCompressed(output.getFile(1)), is("dddd"));
+        assertThat(readCompressed(output.getFile(2)), is("cccc"));
+        assertThat(Files.exists(output.getFile(3)), is(false));
+    }
+
+}
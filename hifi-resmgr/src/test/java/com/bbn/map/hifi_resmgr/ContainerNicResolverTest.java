@@ -0,0 +1,112 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ContainerNicResolver}.
+ * 
+ * @author jschewe
+ *
+ */
+public class ContainerNicResolverTest {
+
+    /**
+     * Directory for the fake /proc and /sys/class/net.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int PID = 1234;
+
+    private static void write(final Path file, final String value) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, Collections.singletonList(value), StandardCharsets.US_ASCII);
+    }
+
+    private ContainerNicResolver createResolver() throws IOException {
+        final Path proc = folder.getRoot().toPath().resolve("proc");
+        final Path net = folder.getRoot().toPath().resolve("net");
+
+        write(proc.resolve(String.valueOf(PID)).resolve("root/sys/class/net/eth0/iflink"), "17");
+        write(proc.resolve(String.valueOf(PID)).resolve("root/sys/class/net/eth0/ifindex"), "2");
+
+        write(net.resolve("lo/ifindex"), "1");
+        write(net.resolve("eth0/ifindex"), "2");
+        write(net.resolve("veth1a2b3c/ifindex"), "15");
+        write(net.resolve("veth4d5e6f/ifindex"), "17");
+        Files.createDirectories(net.resolve("docker0"));
+
+        return new ContainerNicResolver(proc, net);
+    }
+
+    /**
+     * Check that the host interface that is paired with the container
+     * interface is found.
+     * 
+     * @throws IOException
+     *             test error
+     */
+    @Test
+    public void testResolve() throws IOException {
+        final ContainerNicResolver resolver = createResolver();
+        assertThat(resolver.resolve(PID, "eth0"), is("veth4d5e6f"));
+    }
+
+    /**
+     * Check that null is returned when the container or interface does not
+     * exist.
+     * 
+     * @throws IOException
+     *             test error
+     */
+    @Test
+    public void testMissing() throws IOException {
+        final ContainerNicResolver resolver = createResolver();
+        assertThat(resolver.resolve(PID + 1, "eth0"), is(nullValue()));
+        assertThat(resolver.resolve(PID, "eth1"), is(nullValue()));
+    }
+
+}
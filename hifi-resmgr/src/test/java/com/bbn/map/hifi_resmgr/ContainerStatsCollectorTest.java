@@ -0,0 +1,224 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ContainerStatsCollector} and the classes it uses to decode
+ * the Docker stats stream.
+ * 
+ * @author jschewe
+ *
+ */
+public class ContainerStatsCollectorTest {
+
+    private static final String NIC = "eth0";
+
+    private static final String STATS1 = "{\"read\":\"2020-01-01T00:00:00Z\",\"pids_stats\":{\"current\":3},"
+            + "\"networks\":{\"eth1\":{\"rx_bytes\":5,\"tx_bytes\":6},\"eth0\":{\"rx_bytes\":100,\"rx_packets\":2,\"tx_bytes\":200}},"
+            + "\"memory_stats\":{\"usage\":4096,\"stats\":{\"cache\":1}},"
+            + "\"cpu_stats\":{\"cpu_usage\":{\"total_usage\":2000,\"percpu_usage\":[1000,1000]},\"system_cpu_usage\":20000,\"online_cpus\":2},"
+            + "\"precpu_stats\":{\"cpu_usage\":{\"total_usage\":1000},\"system_cpu_usage\":10000}}";
+
+    private static final String STATS2 = "{\"networks\":{\"eth0\":{\"rx_bytes\":150,\"tx_bytes\":250}},"
+            + "\"memory_stats\":{\"usage\":null},\"cpu_stats\":{\"cpu_usage\":{\"total_usage\":3000}}}";
+
+    private static String chunk(final String data) {
+        final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return Integer.toHexString(bytes.length) + "\r\n" + data + "\r\n";
+    }
+
+    private static final String INVALID_STATS = "{\"networks\":[";
+
+    private static String createResponse() {
+        return createResponse(null);
+    }
+
+    /**
+     * @param between
+     *            a line to put between the two samples, may be null
+     */
+    private static String createResponse(final String between) {
+        // split the first object across chunks to check that lines are
+        // reassembled
+        final int split = STATS1.length() / 2;
+        return "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + chunk(STATS1.substring(0, split)) + chunk(STATS1.substring(split) + "\n")
+                + (null == between ? "" : chunk(between + "\n")) + chunk(STATS2 + "\n") + "0\r\n\r\n";
+    }
+
+    /**
+     * Feed the response to the decoder one byte at a time and check the
+     * parsed values.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testDecodeAndParse() throws Exception {
+        final ContainerStatsParser parser = new ContainerStatsParser();
+        final List<long[]> samples = new ArrayList<>();
+        final ContainerStatsParser.Sample sample = new ContainerStatsParser.Sample();
+        final HttpLineStreamDecoder decoder = new HttpLineStreamDecoder((buffer, offset, length) -> {
+            parser.parse(buffer, offset, length, NIC, sample);
+            samples.add(toArray(sample));
+        });
+
+        final byte[] response = createResponse().getBytes(StandardCharsets.UTF_8);
+        boolean more = true;
+        for (int i = 0; i < response.length && more; ++i) {
+            more = decoder.decode(ByteBuffer.wrap(response, i, 1));
+        }
+        assertThat(more, is(false));
+
+        assertThat(samples.size(), is(2));
+        assertThat(samples.get(0), is(new long[] { 2000, 20000, 2, 1000, 10000, 4096, 100, 200 }));
+
+        final long missing = ContainerStatsParser.MISSING;
+        assertThat(samples.get(1),
+                is(new long[] { 3000, missing, missing, missing, missing, missing, 150, 250 }));
+    }
+
+    /**
+     * Check that the container name and action are read from a Docker event.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testParseEvent() throws Exception {
+        final String json = "{\"status\":\"die\",\"id\":\"abc\",\"from\":\"registry/image\",\"Type\":\"container\","
+                + "\"Action\":\"die\",\"Actor\":{\"ID\":\"abc\",\"Attributes\":{\"exitCode\":\"0\",\"image\":\"registry/image\","
+                + "\"name\":\"nodeA_c00\"}},\"scope\":\"local\",\"time\":1577836800,\"timeNano\":1577836800000000000}";
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        final ContainerStatsParser.Event event = new ContainerStatsParser.Event();
+        new ContainerStatsParser().parseEvent(bytes, 0, bytes.length, event);
+
+        assertThat(event.type, is("container"));
+        assertThat(event.action, is("die"));
+        assertThat(event.containerName, is("nodeA_c00"));
+    }
+
+    private static long[] toArray(final ContainerStatsParser.Sample sample) {
+        return new long[] { sample.totalUsage, sample.systemCpuUsage, sample.onlineCpus, sample.preTotalUsage,
+                sample.preSystemCpuUsage, sample.memoryUsage, sample.rxBytes, sample.txBytes };
+    }
+
+    /**
+     * Check that the collector requests the stats for a container, passes
+     * each sample to the stream and skips invalid samples without closing the
+     * stream.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testCollector() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final List<String> requestLines = new ArrayList<>();
+            final Thread fakeDocker = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    final BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    String line;
+                    while (null != (line = reader.readLine()) && !line.isEmpty()) {
+                        requestLines.add(line);
+                    }
+                    final OutputStream out = socket.getOutputStream();
+                    out.write(createResponse(INVALID_STATS).getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            fakeDocker.start();
+
+            final ContainerStatsCollector collector = new ContainerStatsCollector(
+                    server.getInetAddress().getHostAddress(), server.getLocalPort(), "/v1.32");
+            try {
+                final List<Long> memory = new ArrayList<>();
+                final CountDownLatch closed = new CountDownLatch(1);
+                collector.add(new ContainerStatsCollector.StatsStream() {
+                    @Override
+                    public String getContainerName() {
+                        return "nodeA_c00";
+                    }
+
+                    @Override
+                    public String getNic() {
+                        return NIC;
+                    }
+
+                    @Override
+                    public void handleSample(final ContainerStatsParser.Sample sample) {
+                        memory.add(sample.memoryUsage);
+                    }
+
+                    @Override
+                    public void handleClosed() {
+                        closed.countDown();
+                    }
+                });
+
+                assertTrue("Stream was not closed", closed.await(10, TimeUnit.SECONDS));
+                fakeDocker.join();
+
+                assertThat(requestLines.get(0), is("GET /v1.32/containers/nodeA_c00/stats HTTP/1.1"));
+                assertThat(memory.size(), is(2));
+                assertThat(memory.get(0), is(4096L));
+            } finally {
+                collector.shutdown();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.bbn.map.common.value.ApplicationCoordinates;
+import com.bbn.protelis.networkresourcemanagement.ServiceIdentifier;
+
+/**
+ * Tests for {@link ContainerWarmPool}.
+ * 
+ * @author jschewe
+ *
+ */
+public class ContainerWarmPoolTest {
+
+    private static final long WINDOW_MS = 60 * 1000;
+
+    private static final ApplicationCoordinates SERVICE1 = new ApplicationCoordinates("com.bbn", "app1", "1");
+    private static final ApplicationCoordinates SERVICE2 = new ApplicationCoordinates("com.bbn", "app2", "1");
+
+    /**
+     * Check that the pool follows the number of recent starts and is limited
+     * to the maximum size.
+     */
+    @Test
+    public void testSizing() {
+        final AtomicLong now = new AtomicLong(0);
+        final ContainerWarmPool<String> pool = new ContainerWarmPool<>(2, WINDOW_MS, now::get);
+
+        assertThat(pool.reserveRefills(), is(empty()));
+
+        pool.recordStart(SERVICE1);
+        List<ServiceIdentifier<?>> refills = pool.reserveRefills();
+        assertThat(refills, contains(SERVICE1));
+
+        // the pending container is counted
+        assertThat(pool.reserveRefills(), is(empty()));
+        pool.refillFinished(SERVICE1, "c1");
+        assertThat(pool.size(), is(1));
+
+        // limited to 2
+        pool.recordStart(SERVICE1);
+        pool.recordStart(SERVICE1);
+        refills = pool.reserveRefills();
+        assertThat(refills, contains(SERVICE1));
+        pool.refillFinished(SERVICE1, "c2");
+
+        assertThat(pool.take(SERVICE1), is("c1"));
+        assertThat(pool.take(SERVICE2), is(nullValue()));
+
+        // a failed refill is retried
+        refills = pool.reserveRefills();
+        assertThat(refills, contains(SERVICE1));
+        pool.refillFinished(SERVICE1, null);
+        assertThat(pool.reserveRefills(), contains(SERVICE1));
+    }
+
+    /**
+     * Check that containers are removed once the starts fall out of the
+     * demand window.
+     */
+    @Test
+    public void testTrim() {
+        final AtomicLong now = new AtomicLong(0);
+        final ContainerWarmPool<String> pool = new ContainerWarmPool<>(2, WINDOW_MS, now::get);
+
+        pool.recordStart(SERVICE1);
+        pool.recordStart(SERVICE2);
+        for (final ServiceIdentifier<?> service : pool.reserveRefills()) {
+            pool.refillFinished(service, service.toString());
+        }
+        assertThat(pool.size(), is(2));
+        assertThat(pool.trimExcess(), is(empty()));
+
+        now.set(WINDOW_MS / 2);
+        pool.recordStart(SERVICE2);
+
+        now.set(WINDOW_MS + 1);
+        assertThat(pool.trimExcess(), contains(SERVICE1.toString()));
+        assertThat(pool.size(), is(1));
+
+        assertThat(pool.drainAll(), contains(SERVICE2.toString()));
+        assertThat(pool.size(), is(0));
+        assertThat(pool.evictOne(), is(nullValue()));
+    }
+
+}
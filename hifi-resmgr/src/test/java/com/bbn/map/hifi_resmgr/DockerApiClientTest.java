@@ -0,0 +1,297 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for {@link DockerApiClient}.
+ * 
+ * @author jschewe
+ *
+ */
+public class DockerApiClientTest {
+
+    private static final long TIMEOUT_MS = 10 * 1000;
+
+    /**
+     * Read one request from the connection.
+     * 
+     * @return the request line or null if the connection was closed
+     */
+    private static String readRequest(final InputStream in) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                final String text = new String(line.toByteArray(), StandardCharsets.US_ASCII).trim();
+                line.reset();
+                if (text.isEmpty()) {
+                    break;
+                }
+                lines.add(text);
+            } else {
+                line.write(b);
+            }
+        }
+        if (lines.isEmpty()) {
+            return null;
+        }
+
+        for (final String header : lines) {
+            if (header.toLowerCase(Locale.ROOT).startsWith("content-length:")) {
+                final int length = Integer.parseInt(header.substring(header.indexOf(':') + 1).trim());
+                for (int i = 0; i < length; ++i) {
+                    in.read();
+                }
+            }
+        }
+        return lines.get(0);
+    }
+
+    private static void write(final Socket socket, final String response) throws IOException {
+        final OutputStream out = socket.getOutputStream();
+        out.write(response.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * Check that several requests with different response framing are made
+     * over one connection and that the body can be parsed directly from the
+     * connection.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testKeepAlive() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+            final Thread fakeDocker = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    final InputStream in = socket.getInputStream();
+
+                    requests.add(readRequest(in));
+                    final String created = "{\"Id\":\"abc123\",\"Warnings\":[]}\n";
+                    write(socket, "HTTP/1.1 201 Created\r\nContent-Type: application/json\r\nContent-Length: "
+                            + created.length() + "\r\n\r\n" + created);
+
+                    requests.add(readRequest(in));
+                    write(socket, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" + "5\r\n[\"a\",\r\n"
+                            + "4\r\n\"b\"]\r\n" + "0\r\n\r\n");
+
+                    requests.add(readRequest(in));
+                    write(socket, "HTTP/1.1 204 No Content\r\n\r\n");
+
+                    // wait for the client to go away
+                    readRequest(in);
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            fakeDocker.start();
+
+            final DockerApiClient client = DockerApiClient.forTcp(server.getInetAddress().getHostAddress(),
+                    server.getLocalPort(), "/v1.32");
+            final ObjectMapper mapper = new ObjectMapper();
+
+            final String id = client.request("POST", "/containers/create?name=nodeA_c00", "{\"Image\":\"test\"}",
+                    TIMEOUT_MS, (code, body) -> {
+                        assertThat(code, is(201));
+                        final JsonNode node = mapper.readTree(body);
+                        return node.get("Id").asText();
+                    });
+            assertThat(id, is("abc123"));
+
+            final DockerApiClient.Response list = client.request("GET", "/images/json", null, TIMEOUT_MS);
+            assertThat(list.getCode(), is(200));
+            assertThat(list.getResponseString(), is("[\"a\",\"b\"]"));
+
+            final DockerApiClient.Response start = client.request("POST", "/containers/" + id + "/start", null,
+                    TIMEOUT_MS);
+            assertThat(start.getCode(), is(204));
+            assertThat(start.getResponseString(), is(""));
+
+            client.closeIdleConnections();
+            fakeDocker.join(TIMEOUT_MS);
+
+            assertThat(requests.get(0), is("POST /v1.32/containers/create?name=nodeA_c00 HTTP/1.1"));
+            assertThat(requests.get(1), is("GET /v1.32/images/json HTTP/1.1"));
+            assertThat(requests.get(2), is("POST /v1.32/containers/abc123/start HTTP/1.1"));
+
+            assertThat(client.getStatistics(), hasKey("POST /containers/create"));
+            assertThat(client.getStatistics(), hasKey("POST /containers/{id}/start"));
+            assertThat(client.getStatistics().get("GET /images/json").getCount(), is(1L));
+        }
+    }
+
+    /**
+     * Check that a request is retried on a new connection when Docker has
+     * closed the pooled connection.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testReconnect() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final Thread fakeDocker = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2; ++i) {
+                        try (Socket socket = server.accept()) {
+                            readRequest(socket.getInputStream());
+                            write(socket, "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\n" + i);
+                        }
+                    }
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            fakeDocker.start();
+
+            final DockerApiClient client = DockerApiClient.forTcp(server.getInetAddress().getHostAddress(),
+                    server.getLocalPort(), "");
+
+            assertThat(client.request("GET", "/info", null, TIMEOUT_MS).getResponseString(), is("0"));
+            assertThat(client.request("GET", "/info", null, TIMEOUT_MS).getResponseString(), is("1"));
+
+            fakeDocker.join(TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Check that a request with side effects isn't sent again when the pooled
+     * connection is closed after the request was written, since Docker may
+     * have acted on it.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test
+    public void testNoRetryAfterWrite() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final AtomicInteger connections = new AtomicInteger(0);
+            final Thread fakeDocker = new Thread(() -> {
+                try {
+                    while (true) {
+                        try (Socket socket = server.accept()) {
+                            connections.incrementAndGet();
+                            readRequest(socket.getInputStream());
+                            write(socket, "HTTP/1.1 204 No Content\r\n\r\n");
+                        }
+                    }
+                } catch (final IOException e) {
+                    // server closed
+                }
+            });
+            fakeDocker.setDaemon(true);
+            fakeDocker.start();
+
+            final DockerApiClient client = DockerApiClient.forTcp(server.getInetAddress().getHostAddress(),
+                    server.getLocalPort(), "");
+
+            assertThat(client.request("POST", "/containers/a/stop", null, TIMEOUT_MS).getCode(), is(204));
+
+            // the connection was closed after the response
+            try {
+                client.request("POST", "/containers/a/stop", null, TIMEOUT_MS);
+                fail("Expected the request to fail");
+            } catch (final SocketTimeoutException e) {
+                throw e;
+            } catch (final IOException e) {
+                // expected
+            }
+            assertThat(connections.get(), is(1));
+        }
+    }
+
+    /**
+     * Check that a request that gets no response times out.
+     * 
+     * @throws Exception
+     *             test error
+     */
+    @Test(expected = SocketTimeoutException.class)
+    public void testTimeout() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final DockerApiClient client = DockerApiClient.forTcp(server.getInetAddress().getHostAddress(),
+                    server.getLocalPort(), "");
+
+            // the connection is queued by the OS, nothing ever answers
+            client.request("GET", "/info", null, 200);
+        }
+    }
+
+    /**
+     * Check the names used for the latency statistics.
+     */
+    @Test
+    public void testEndpointName() {
+        assertThat(DockerApiClient.endpointName("POST", "/containers/nodeA_c00/stop?t=120"),
+                is("POST /containers/{id}/stop"));
+        assertThat(DockerApiClient.endpointName("GET", "/containers/nodeA_c00/json"),
+                is("GET /containers/{id}/json"));
+        assertThat(DockerApiClient.endpointName("POST", "/containers/create?name=nodeA_c00"),
+                is("POST /containers/create"));
+        assertThat(DockerApiClient.endpointName("POST", "/exec/1234/start"), is("POST /exec/{id}/start"));
+        assertThat(DockerApiClient.endpointName("DELETE", "/images/registry:5000/map/app"),
+                is("DELETE /images/{id}"));
+        assertThat(DockerApiClient.endpointName("GET", "/images/map/app/json"), is("GET /images/{id}/json"));
+        assertThat(DockerApiClient.endpointName("POST", "/images/create?fromImage=app&tag=latest"),
+                is("POST /images/create"));
+    }
+
+}
@@ -0,0 +1,145 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link DockerFetcher}.
+ * 
+ * @author jschewe
+ *
+ */
+public class DockerFetcherTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * Check that images needed for a start are pulled before queued prefetch
+     * images.
+     * 
+     * @throws InterruptedException
+     *             if interrupted waiting for the pulls
+     */
+    @Test
+    public void testStartPriority() throws InterruptedException {
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final List<String> pulled = Collections.synchronizedList(new LinkedList<>());
+
+        final DockerFetcher fetcher = new DockerFetcher(1, image -> {
+            pulled.add(image);
+            if ("first".equals(image)) {
+                firstStarted.countDown();
+                try {
+                    releaseFirst.await();
+                } catch (final InterruptedException e) {
+                    return false;
+                }
+            }
+            return true;
+        }, 1, Duration.ZERO, Duration.ZERO);
+
+        final CountDownLatch done = new CountDownLatch(4);
+        final ImageFetcher.Callback callback = (image, result) -> done.countDown();
+
+        fetcher.fetchImage("first", ImageFetcher.Priority.PREFETCH, callback);
+        assertTrue(firstStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // queued while the only pull slot is busy
+        fetcher.fetchImage("prefetch", ImageFetcher.Priority.PREFETCH, callback);
+        fetcher.fetchImage("raised", ImageFetcher.Priority.PREFETCH, callback);
+        fetcher.fetchImage("start", ImageFetcher.Priority.START, callback);
+        fetcher.setPriority("raised", ImageFetcher.Priority.START);
+
+        releaseFirst.countDown();
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertThat(pulled, contains("first", "start", "raised", "prefetch"));
+    }
+
+    /**
+     * Check that concurrent requests for the same image share a single pull
+     * and that failed pulls are retried.
+     * 
+     * @throws InterruptedException
+     *             if interrupted waiting for the pulls
+     */
+    @Test
+    public void testDuplicatesAndRetry() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger attempts = new AtomicInteger(0);
+
+        final DockerFetcher fetcher = new DockerFetcher(2, image -> {
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                return false;
+            }
+            // the first attempt fails
+            return attempts.incrementAndGet() > 1;
+        }, 3, Duration.ofMillis(1), Duration.ofMillis(2));
+
+        final Map<Integer, Boolean> results = new ConcurrentHashMap<>();
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; ++i) {
+            final int index = i;
+            fetcher.fetchImage("image", (image, result) -> {
+                results.put(index, result);
+                done.countDown();
+            });
+        }
+
+        release.countDown();
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertThat(attempts.get(), is(2));
+        assertThat(results.size(), is(3));
+        assertTrue(results.values().stream().allMatch(Boolean::booleanValue));
+    }
+
+}
@@ -0,0 +1,111 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.bbn.protelis.networkresourcemanagement.DnsNameIdentifier;
+import com.bbn.protelis.networkresourcemanagement.NodeIdentifier;
+
+/**
+ * Tests for {@link FlowIdentityCache}.
+ * 
+ * @author jschewe
+ *
+ */
+public class FlowIdentityCacheTest {
+
+    private static final long MAX_AGE_MS = 1000;
+
+    private static final NodeIdentifier LOCAL = new DnsNameIdentifier("local");
+    private static final NodeIdentifier REMOTE = new DnsNameIdentifier("remote");
+
+    private static FlowIdentityCache.FlowKey key(final int localPort) {
+        return new FlowIdentityCache.FlowKey("10.0.0.1", localPort, "10.0.0.2", 7000, "eth0");
+    }
+
+    /**
+     * Check lookups, expiration and invalidation when the generation changes.
+     */
+    @Test
+    public void testExpiration() {
+        final AtomicLong now = new AtomicLong(0);
+        final FlowIdentityCache cache = new FlowIdentityCache(10, MAX_AGE_MS, now::get);
+        cache.checkGeneration(0);
+
+        assertThat(cache.get(key(1)), is(nullValue()));
+        final FlowIdentityCache.FlowIdentity identity = cache.put(key(1), true, LOCAL, REMOTE);
+        assertThat(cache.get(key(1)), sameInstance(identity));
+        assertThat(identity.isFlip(), is(true));
+        assertThat(identity.getLocalHost(), is(LOCAL));
+
+        // same generation keeps the entry
+        cache.checkGeneration(0);
+        assertThat(cache.get(key(1)), notNullValue());
+
+        now.set(MAX_AGE_MS + 1);
+        assertThat(cache.get(key(1)), is(nullValue()));
+
+        cache.put(key(1), false, LOCAL, REMOTE);
+        cache.checkGeneration(1);
+        assertThat(cache.get(key(1)), is(nullValue()));
+    }
+
+    /**
+     * Check that the least recently used flows are dropped when the cache is
+     * full.
+     */
+    @Test
+    public void testBounded() {
+        final FlowIdentityCache cache = new FlowIdentityCache(2, MAX_AGE_MS, () -> 0);
+        cache.put(key(1), false, LOCAL, REMOTE);
+        cache.put(key(2), false, LOCAL, REMOTE);
+
+        // make 1 the most recently used
+        assertThat(cache.get(key(1)), notNullValue());
+
+        cache.put(key(3), false, LOCAL, REMOTE);
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get(key(2)), is(nullValue()));
+        assertThat(cache.get(key(1)), notNullValue());
+        assertThat(cache.get(key(3)), notNullValue());
+    }
+
+}
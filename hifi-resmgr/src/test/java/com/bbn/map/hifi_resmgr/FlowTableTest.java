@@ -0,0 +1,142 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link FlowTable}.
+ * 
+ * @author jschewe
+ *
+ */
+public class FlowTableTest {
+
+    /**
+     * Check that addresses survive encoding and decoding.
+     */
+    @Test
+    public void testAddressEncoding() {
+        assertThat(FlowTable.encodeAddress("10.0.0.1"), is(0x0A000001L));
+        assertThat(FlowTable.decodeAddress(0x0A000001L), is("10.0.0.1"));
+        assertThat(FlowTable.decodeAddress(FlowTable.encodeAddress("255.255.255.255")), is("255.255.255.255"));
+
+        // parsing from the middle of a line
+        final String line = "10.0.0.1;80;192.168.1.20;4000";
+        assertThat(FlowTable.encodeAddress(line, line.indexOf(';', line.indexOf(';') + 1) + 1, line.lastIndexOf(';')),
+                is(FlowTable.encodeAddress("192.168.1.20")));
+
+        // not IPv4, interned
+        final long ipv6 = FlowTable.encodeAddress("fe80::1");
+        assertThat(ipv6 > 0xFFFFFFFFL, is(true));
+        assertThat(FlowTable.encodeAddress("fe80::1"), is(ipv6));
+        assertThat(FlowTable.decodeAddress(ipv6), is("fe80::1"));
+
+        final long badOctet = FlowTable.encodeAddress("10.0.0.256");
+        assertThat(badOctet, is(not(ipv6)));
+        assertThat(FlowTable.decodeAddress(badOctet), is("10.0.0.256"));
+        assertThat(FlowTable.decodeAddress(FlowTable.encodeAddress("10.0.0")), is("10.0.0"));
+    }
+
+    /**
+     * Check that only a limited number of addresses that are not IPv4 are
+     * remembered and that the least recently encoded one is forgotten first.
+     */
+    @Test
+    public void testInternedAddressLimit() {
+        final long oldest = FlowTable.encodeAddress("fe80::a");
+        final long recent = FlowTable.encodeAddress("fe80::b");
+        for (int i = 0; i < FlowTable.MAX_INTERNED_ADDRESSES; ++i) {
+            // keep using recent so that it isn't forgotten
+            assertThat(FlowTable.encodeAddress("fe80::b"), is(recent));
+            FlowTable.encodeAddress("2001:db8::" + Integer.toHexString(i));
+        }
+
+        assertThat(FlowTable.decodeAddress(recent), is("fe80::b"));
+        assertThat(FlowTable.decodeAddress(oldest), is(not("fe80::a")));
+
+        // a forgotten address gets a new code
+        final long again = FlowTable.encodeAddress("fe80::a");
+        assertThat(again, is(not(oldest)));
+        assertThat(FlowTable.decodeAddress(again), is("fe80::a"));
+    }
+
+    /**
+     * Check that the table grows, keeps ports unsigned and copies.
+     */
+    @Test
+    public void testAddAndCopy() {
+        final FlowTable table = new FlowTable();
+        final int count = 100;
+        for (int i = 0; i < count; ++i) {
+            table.add("10.0.0.1", 65000, "10.0.0.2", i, i * 10, i * 20);
+        }
+        assertThat(table.size(), is(count));
+        assertThat(table.getLocalPort(10), is(65000));
+        assertThat(table.getRemotePort(10), is(10));
+        assertThat(table.getBitsSent(10), is(100L));
+        assertThat(table.getBitsReceived(10), is(200L));
+
+        final FlowTable copy = new FlowTable();
+        copy.add("10.0.0.3", 1, "10.0.0.4", 2, 3, 4);
+        copy.copyFrom(table);
+        assertThat(copy.size(), is(count));
+        assertThat(copy.getRemotePort(count - 1), is(count - 1));
+        assertThat(copy.getLocalAddress(0), is(FlowTable.encodeAddress("10.0.0.1")));
+
+        table.clear();
+        assertThat(table.size(), is(0));
+        assertThat(copy.size(), is(count));
+    }
+
+    /**
+     * Check number parsing in place.
+     */
+    @Test
+    public void testParseLong() {
+        final String line = "a;12345;b";
+        assertThat(FlowTable.parseLong(line, 2, 7), is(12345L));
+    }
+
+    /**
+     * Check that a bad number is rejected.
+     */
+    @Test(expected = NumberFormatException.class)
+    public void testParseLongInvalid() {
+        FlowTable.parseLong("12a", 0, 3);
+    }
+
+}
@@ -0,0 +1,84 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link Ipv4PrefixTrie}.
+ * 
+ * @author jschewe
+ *
+ */
+public class Ipv4PrefixTrieTest {
+
+    private static final int NETWORK_10 = 0x0A000000;
+    private static final int NETWORK_10_0_1 = 0x0A000100;
+
+    /**
+     * Check that the value with the highest precedence among the matching
+     * prefixes is returned and that the filter is applied.
+     */
+    @Test
+    public void testLookup() {
+        // longer strings have a higher precedence
+        final Ipv4PrefixTrie<String> trie = Ipv4PrefixTrie.<String> builder(Comparator.comparingInt(String::length))
+                .add(0, 0, "0") //
+                .add(NETWORK_10, 8, "ten") //
+                .add(NETWORK_10_0_1, 24, "ten-zero-one") //
+                // tie at the same prefix keeps the first
+                .add(NETWORK_10, 8, "TEN") //
+                .build();
+
+        assertThat(trie.lookup(NETWORK_10_0_1 + 1), is("ten-zero-one"));
+        assertThat(trie.lookup(NETWORK_10 + 1), is("ten"));
+        assertThat(trie.lookup(0xC0A80001), is("0"));
+
+        assertThat(trie.lookup(NETWORK_10_0_1 + 1, value -> value.length() < 5), is("ten"));
+        assertThat(trie.lookup(NETWORK_10_0_1 + 1, value -> false), is(nullValue()));
+    }
+
+    /**
+     * Check that prefix lengths longer than an IPv4 address are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPrefixLength() {
+        Ipv4PrefixTrie.<String> builder(Comparator.naturalOrder()).add(0, 33, "invalid");
+    }
+
+}
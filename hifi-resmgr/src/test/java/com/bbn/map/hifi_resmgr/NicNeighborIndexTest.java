@@ -0,0 +1,151 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.bbn.protelis.networkresourcemanagement.DnsNameIdentifier;
+import com.bbn.protelis.networkresourcemanagement.InterfaceIdentifier;
+import com.bbn.protelis.networkresourcemanagement.NodeIdentifier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests for {@link NicNeighborIndex}.
+ * 
+ * @author jschewe
+ *
+ */
+public class NicNeighborIndexTest {
+
+    private static final NodeIdentifier NODE_A = new DnsNameIdentifier("nodeA");
+    private static final NodeIdentifier NODE_B = new DnsNameIdentifier("nodeB");
+    private static final NodeIdentifier NODE_C = new DnsNameIdentifier("nodeC");
+
+    private static final Set<String> NICS = ImmutableSet.of("eth0", "eth1");
+
+    /**
+     * Resolves neighbors from a map and counts the lookups.
+     */
+    private static final class CountingResolver implements Function<NodeIdentifier, String> {
+        private final Map<NodeIdentifier, String> routes = new HashMap<>();
+        private int lookups = 0;
+
+        @Override
+        public String apply(final NodeIdentifier neighbor) {
+            ++lookups;
+            return routes.get(neighbor);
+        }
+    }
+
+    /**
+     * Check that only new neighbors are resolved and that the result is
+     * reused when nothing changes.
+     */
+    @Test
+    public void testIncrementalUpdate() {
+        final CountingResolver resolver = new CountingResolver();
+        resolver.routes.put(NODE_A, "eth0");
+        resolver.routes.put(NODE_B, "eth1");
+        resolver.routes.put(NODE_C, "eth0");
+
+        final NicNeighborIndex index = new NicNeighborIndex();
+
+        final ImmutableMap<String, InterfaceIdentifier> first = index.update(NICS, ImmutableSet.of(NODE_A, NODE_B),
+                0, resolver);
+        assertThat(first.keySet(), containsInAnyOrder("eth0", "eth1"));
+        assertThat(resolver.lookups, is(2));
+        assertThat(index.getNeighborsAttachedToNic("eth0"), containsInAnyOrder(NODE_A));
+        assertThat(index.getNicForNeighbor(NODE_B), is("eth1"));
+
+        // nothing changed
+        assertThat(index.update(NICS, ImmutableSet.of(NODE_A, NODE_B), 0, resolver), sameInstance(first));
+        assertThat(resolver.lookups, is(2));
+
+        // new neighbor only changes eth0
+        final ImmutableMap<String, InterfaceIdentifier> second = index.update(NICS,
+                ImmutableSet.of(NODE_A, NODE_B, NODE_C), 0, resolver);
+        assertThat(resolver.lookups, is(3));
+        assertThat(index.getNeighborsAttachedToNic("eth0"), containsInAnyOrder(NODE_A, NODE_C));
+        assertThat(second.get("eth0"), not(sameInstance(first.get("eth0"))));
+        assertThat(second.get("eth1"), sameInstance(first.get("eth1")));
+
+        // removed neighbor
+        index.update(NICS, ImmutableSet.of(NODE_A, NODE_C), 0, resolver);
+        assertThat(resolver.lookups, is(3));
+        assertThat(index.getNeighborsAttachedToNic("eth1"), is(empty()));
+        assertThat(index.getNicForNeighbor(NODE_B), is(nullValue()));
+    }
+
+    /**
+     * Check that all neighbors are resolved again when the topology changes
+     * and that unresolved neighbors are retried.
+     */
+    @Test
+    public void testTopologyChange() {
+        final CountingResolver resolver = new CountingResolver();
+        resolver.routes.put(NODE_A, "eth0");
+
+        final NicNeighborIndex index = new NicNeighborIndex();
+
+        index.update(NICS, ImmutableSet.of(NODE_A, NODE_B), 0, resolver);
+        assertThat(resolver.lookups, is(2));
+        assertThat(index.getNicForNeighbor(NODE_B), is(nullValue()));
+
+        // NODE_B wasn't resolved, so it's looked up again
+        resolver.routes.put(NODE_B, "eth1");
+        index.update(NICS, ImmutableSet.of(NODE_A, NODE_B), 0, resolver);
+        assertThat(resolver.lookups, is(3));
+        assertThat(index.getNicForNeighbor(NODE_B), is("eth1"));
+
+        // route change
+        resolver.routes.put(NODE_A, "eth1");
+        index.update(NICS, ImmutableSet.of(NODE_A, NODE_B), 1, resolver);
+        assertThat(resolver.lookups, is(5));
+        assertThat(index.getNeighborsAttachedToNic("eth0"), is(empty()));
+        assertThat(index.getNeighborsAttachedToNic("eth1"), containsInAnyOrder(NODE_A, NODE_B));
+    }
+
+}
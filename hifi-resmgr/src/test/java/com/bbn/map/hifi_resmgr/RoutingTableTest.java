@@ -0,0 +1,98 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link RoutingTable}.
+ * 
+ * @author jschewe
+ *
+ */
+public class RoutingTableTest {
+
+    private static RoutingTable createTable() {
+        final RoutingTable table = new RoutingTable();
+        table.addRow("eth0", "0.0.0.0", "10.0.0.1", 0, "0.0.0.0");
+        table.addRow("eth0", "10.0.0.0", "0.0.0.0", 0, "255.255.255.0");
+        table.addRow("eth1", "10.0.1.0", "0.0.0.0", 0, "255.255.255.0");
+        table.addRow("eth2", "10.0.1.128", "0.0.0.0", 0, "255.255.255.128");
+        table.addRow("eth3", "10.0.1.200", "0.0.0.0", 0, "255.255.255.255");
+        // same prefix, lower metric wins
+        table.addRow("eth4", "192.168.0.0", "0.0.0.0", 10, "255.255.0.0");
+        table.addRow("eth5", "192.168.0.0", "0.0.0.0", 5, "255.255.0.0");
+        return table;
+    }
+
+    /**
+     * Check that the longest prefix wins.
+     */
+    @Test
+    public void testLongestPrefix() {
+        final RoutingTable table = createTable();
+
+        assertThat(table.route("10.0.0.5"), is("eth0"));
+        assertThat(table.route("10.0.1.5"), is("eth1"));
+        assertThat(table.route("10.0.1.130"), is("eth2"));
+        assertThat(table.route("10.0.1.200"), is("eth3"));
+        assertThat(table.route("10.0.1.201"), is("eth2"));
+        assertThat(table.route("192.168.4.4"), is("eth5"));
+        assertThat(table.route("8.8.8.8"), is("eth0"));
+
+        // cached result
+        assertThat(table.route("10.0.1.130"), is("eth2"));
+
+        assertThat(table.route("not an address"), is(nullValue()));
+    }
+
+    /**
+     * Check that adding a row after lookups is seen.
+     */
+    @Test
+    public void testAddAfterLookup() {
+        final RoutingTable table = new RoutingTable();
+        table.addRow("eth0", "10.0.0.0", "0.0.0.0", 0, "255.255.255.0");
+        table.compile();
+
+        assertThat(table.route("10.0.1.5"), is(nullValue()));
+
+        table.addRow("eth1", "10.0.1.0", "0.0.0.0", 0, "255.255.255.0");
+        assertThat(table.route("10.0.1.5"), is("eth1"));
+        assertThat(table.route("10.0.0.5"), is("eth0"));
+    }
+
+}
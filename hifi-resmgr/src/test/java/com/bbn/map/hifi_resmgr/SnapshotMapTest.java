@@ -0,0 +1,87 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi_resmgr;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests for {@link SnapshotMap}.
+ * 
+ * @author jschewe
+ *
+ */
+public class SnapshotMapTest {
+
+    /**
+     * Check that a new snapshot is only created when an entry is added,
+     * changed or removed.
+     */
+    @Test
+    public void testSnapshotReuse() {
+        final SnapshotMap<String, Integer> map = new SnapshotMap<>();
+
+        map.beginUpdate();
+        map.put("a", 1);
+        map.put("b", 2);
+        final ImmutableMap<String, Integer> first = map.endUpdate();
+        assertThat(first, is(ImmutableMap.of("a", 1, "b", 2)));
+
+        // same values
+        map.beginUpdate();
+        map.put("b", 2);
+        map.put("a", 1);
+        assertThat(map.endUpdate(), sameInstance(first));
+
+        // changed value
+        map.beginUpdate();
+        map.put("a", 1);
+        map.put("b", 3);
+        final ImmutableMap<String, Integer> changed = map.endUpdate();
+        assertThat(changed, not(sameInstance(first)));
+        assertThat(changed, is(ImmutableMap.of("a", 1, "b", 3)));
+
+        // removed entry
+        map.beginUpdate();
+        map.put("a", 1);
+        final ImmutableMap<String, Integer> removed = map.endUpdate();
+        assertThat(removed, is(ImmutableMap.of("a", 1)));
+        assertThat(map.getSnapshot(), sameInstance(removed));
+    }
+
+}
@@ -0,0 +1,363 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.map.hifi.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+
+import org.checkerframework.checker.lock.qual.GuardedBy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.Record;
+
+/**
+ * Bounded cache of name lookup results used by
+ * {@link DnsUtils#getByName(String)}. Successful lookups are kept for the TTL
+ * of the records that produced them. Failed lookups are kept for at most the
+ * negative TTL given to the constructor. When the cache is full the least
+ * recently used entry is evicted.
+ * 
+ * @author jschewe
+ *
+ */
+public final class DnsResultCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DnsResultCache.class);
+
+    /**
+     * How often statistics are written to the log.
+     */
+    private static final long STATISTICS_LOG_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int maxEntries;
+    private final long maxNegativeTtlMs;
+    private final LongSupplier clock;
+
+    private final Object lock = new Object();
+
+    @GuardedBy("lock")
+    private final LinkedHashMap<String, Entry> entries;
+
+    @GuardedBy("lock")
+    private long hits = 0;
+    @GuardedBy("lock")
+    private long negativeHits = 0;
+    @GuardedBy("lock")
+    private long misses = 0;
+    @GuardedBy("lock")
+    private long expirations = 0;
+    @GuardedBy("lock")
+    private long evictions = 0;
+    @GuardedBy("lock")
+    private long lastStatisticsLog;
+
+    /**
+     * @param maxEntries
+     *            the maximum number of names to keep, must be positive
+     * @param maxNegativeTtlSeconds
+     *            how long to keep failed lookups, 0 disables negative caching
+     */
+    public DnsResultCache(final int maxEntries, final int maxNegativeTtlSeconds) {
+        this(maxEntries, maxNegativeTtlSeconds, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor for testing that allows the clock to be specified.
+     * 
+     * @param clock
+     *            the current time in milliseconds
+     */
+    /* package */ DnsResultCache(final int maxEntries, final int maxNegativeTtlSeconds, final LongSupplier clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum entries must be positive: " + maxEntries);
+        }
+        if (maxNegativeTtlSeconds < 0) {
+            throw new IllegalArgumentException("Negative TTL cannot be negative: " + maxNegativeTtlSeconds);
+        }
+        this.maxEntries = maxEntries;
+        this.maxNegativeTtlMs = TimeUnit.SECONDS.toMillis(maxNegativeTtlSeconds);
+        this.clock = clock;
+        this.lastStatisticsLog = clock.getAsLong();
+        this.entries = new LinkedHashMap<String, Entry>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                if (size() > DnsResultCache.this.maxEntries) {
+                    ++evictions;
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the maximum number of names kept
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Find the cached result for a name.
+     * 
+     * @param name
+     *            the name that was looked up
+     * @return the cached result or null if there is no unexpired result
+     */
+    public Entry get(@Nonnull final String name) {
+        final long now = clock.getAsLong();
+        final Entry entry;
+        synchronized (lock) {
+            final Entry cached = entries.get(name);
+            if (null == cached) {
+                ++misses;
+                entry = null;
+            } else if (cached.expiration <= now) {
+                entries.remove(name);
+                ++expirations;
+                ++misses;
+                entry = null;
+            } else {
+                if (cached.isNegative()) {
+                    ++negativeHits;
+                } else {
+                    ++hits;
+                }
+                entry = cached;
+            }
+
+            if (now - lastStatisticsLog >= STATISTICS_LOG_INTERVAL_MS) {
+                lastStatisticsLog = now;
+                LOGGER.info("DNS result cache: {}", getStatisticsInternal());
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Store a successful lookup. Nothing is stored if the TTL is not positive.
+     * 
+     * @param name
+     *            the name that was looked up
+     * @param records
+     *            the records found
+     * @param ttlSeconds
+     *            the smallest TTL of the records used to answer the lookup,
+     *            including any aliases that were followed
+     */
+    public void putRecords(@Nonnull final String name, @Nonnull final Record[] records, final long ttlSeconds) {
+        if (ttlSeconds > 0) {
+            put(name, new Entry(records.clone(), null, clock.getAsLong() + TimeUnit.SECONDS.toMillis(ttlSeconds)));
+        }
+    }
+
+    /**
+     * Store a failed lookup. Nothing is stored if negative caching is
+     * disabled.
+     * 
+     * @param name
+     *            the name that was looked up
+     * @param failureMessage
+     *            the message to use when reporting the failure
+     */
+    public void putFailure(@Nonnull final String name, @Nonnull final String failureMessage) {
+        if (maxNegativeTtlMs > 0) {
+            put(name, new Entry(null, failureMessage, clock.getAsLong() + maxNegativeTtlMs));
+        }
+    }
+
+    private void put(final String name, final Entry entry) {
+        synchronized (lock) {
+            entries.put(name, entry);
+        }
+    }
+
+    /**
+     * Remove all entries. The statistics are not reset.
+     */
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return a snapshot of the cache statistics
+     */
+    @Nonnull
+    public Statistics getStatistics() {
+        synchronized (lock) {
+            return getStatisticsInternal();
+        }
+    }
+
+    @GuardedBy("lock")
+    private Statistics getStatisticsInternal() {
+        return new Statistics(hits, negativeHits, misses, expirations, evictions, entries.size());
+    }
+
+    /**
+     * A cached lookup result. Either the records or the failure message are
+     * set.
+     */
+    public static final class Entry {
+        private final Record[] records;
+        private final String failureMessage;
+        private final long expiration;
+
+        private Entry(final Record[] records, final String failureMessage, final long expiration) {
+            this.records = records;
+            this.failureMessage = failureMessage;
+            this.expiration = expiration;
+        }
+
+        /**
+         * @return true if this is a cached failure
+         */
+        public boolean isNegative() {
+            return null == records;
+        }
+
+        /**
+         * @return the records, null for a failed lookup
+         */
+        public Record[] getRecords() {
+            return null == records ? null : records.clone();
+        }
+
+        /**
+         * @return the failure message, null for a successful lookup
+         */
+        public String getFailureMessage() {
+            return failureMessage;
+        }
+    }
+
+    /**
+     * Counters for a {@link DnsResultCache}.
+     */
+    public static final class Statistics {
+        private final long hits;
+        private final long negativeHits;
+        private final long misses;
+        private final long expirations;
+        private final long evictions;
+        private final int size;
+
+        private Statistics(final long hits,
+                final long negativeHits,
+                final long misses,
+                final long expirations,
+                final long evictions,
+                final int size) {
+            this.hits = hits;
+            this.negativeHits = negativeHits;
+            this.misses = misses;
+            this.expirations = expirations;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        /**
+         * @return number of lookups answered with cached records
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return number of lookups answered with a cached failure
+         */
+        public long getNegativeHits() {
+            return negativeHits;
+        }
+
+        /**
+         * @return number of lookups that went to DNS
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return number of entries dropped because their TTL ran out
+         */
+        public long getExpirations() {
+            return expirations;
+        }
+
+        /**
+         * @return number of entries dropped to stay within the size bound
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return number of entries in the cache
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return fraction of lookups answered from the cache, 0 if there have
+         *         been no lookups
+         */
+        public double getHitRate() {
+            final long total = hits + negativeHits + misses;
+            if (0 == total) {
+                return 0;
+            } else {
+                return (double) (hits + negativeHits) / total;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "hits: %d negative hits: %d misses: %d hit rate: %.3f expirations: %d evictions: %d size: %d", hits,
+                    negativeHits, misses, getHitRate(), expirations, evictions, size);
+        }
+    }
+
+}
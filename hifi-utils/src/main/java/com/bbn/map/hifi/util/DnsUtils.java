@@ -54,8 +54,13 @@ import org.slf4j.LoggerFactory;
 import org.xbill.DNS.AAAARecord;
 import org.xbill.DNS.ARecord;
 import org.xbill.DNS.Address;
+import org.xbill.DNS.Credibility;
+import org.xbill.DNS.DClass;
 import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRset;
 import org.xbill.DNS.Record;
+import org.xbill.DNS.SetResponse;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 
@@ -224,6 +229,58 @@ public final class DnsUtils {
         }
     }
 
+    private static volatile DnsResultCache resultCache = null;
+
+    /**
+     * Cache the results of {@link #getByName(String)} in this process. This is
+     * off by default. Successful lookups are kept for the TTL of the records
+     * used to answer them, including any CNAME records that were followed.
+     * Lookups that fail because the name or address type does not exist are
+     * kept for {@code maxNegativeTtlSeconds}. Lookups that fail for other
+     * reasons, such as timeouts, are never cached. Calling this again replaces
+     * the existing cache.
+     * 
+     * @param maxEntries
+     *            the maximum number of names to cache, if less than 1 the cache
+     *            is disabled
+     * @param maxNegativeTtlSeconds
+     *            how long to remember that a name does not exist, 0 disables
+     *            negative caching
+     * @see #getResultCacheStatistics()
+     */
+    public static void enableResultCache(final int maxEntries, final int maxNegativeTtlSeconds) {
+        if (maxEntries < 1) {
+            disableResultCache();
+        } else {
+            LOGGER.info("Enabling DNS result cache with {} entries and negative TTL of {} seconds", maxEntries,
+                    maxNegativeTtlSeconds);
+            resultCache = new DnsResultCache(maxEntries, maxNegativeTtlSeconds);
+        }
+    }
+
+    /**
+     * Stop caching the results of {@link #getByName(String)}. Every lookup
+     * after this goes to DNS.
+     */
+    public static void disableResultCache() {
+        resultCache = null;
+    }
+
+    /**
+     * 
+     * @return the statistics for the result cache or null if the cache is not
+     *         enabled
+     * @see #enableResultCache(int, int)
+     */
+    public static DnsResultCache.Statistics getResultCacheStatistics() {
+        final DnsResultCache cache = resultCache;
+        if (null == cache) {
+            return null;
+        } else {
+            return cache.getStatistics();
+        }
+    }
+
     /**
      * 
      * @param appSpec
@@ -455,21 +512,44 @@ public final class DnsUtils {
     }
 
     private static Record[] lookupHostName(final String name, final boolean all) throws UnknownHostException {
+        final DnsResultCache cache = all ? null : resultCache;
+        if (null != cache) {
+            final DnsResultCache.Entry entry = cache.get(name);
+            if (null != entry) {
+                if (entry.isNegative()) {
+                    throw new UnknownHostException(entry.getFailureMessage());
+                } else {
+                    return entry.getRecords();
+                }
+            }
+        }
+
         try {
             final Lookup lookup = new Lookup(name, Type.A);
             final Record[] a = lookup.run();
             if (a == null) {
                 if (lookup.getResult() == Lookup.TYPE_NOT_FOUND) {
-                    final Record[] aaaa = new Lookup(name, Type.AAAA).run();
+                    final Lookup aaaaLookup = new Lookup(name, Type.AAAA);
+                    final Record[] aaaa = aaaaLookup.run();
                     if (aaaa != null) {
+                        if (null != cache) {
+                            cache.putRecords(name, aaaa, computeTtl(aaaaLookup, aaaa));
+                        }
                         return aaaa;
                     }
                 }
                 final String message = String.format("Unknown host: %s result: %d error string: %s", name,
                         lookup.getResult(), lookup.getErrorString());
+                if (null != cache && (lookup.getResult() == Lookup.HOST_NOT_FOUND
+                        || lookup.getResult() == Lookup.TYPE_NOT_FOUND)) {
+                    cache.putFailure(name, message);
+                }
                 throw new UnknownHostException(message);
             }
             if (!all) {
+                if (null != cache) {
+                    cache.putRecords(name, a, computeTtl(lookup, a));
+                }
                 return a;
             }
             final Record[] aaaa = new Lookup(name, Type.AAAA).run();
@@ -485,6 +565,31 @@ public final class DnsUtils {
         }
     }
 
+    /**
+     * The TTL for a lookup result is the smallest TTL of the answer records and
+     * of the CNAME records followed to get to them. The CNAME records are found
+     * in the dnsjava cache that the lookup used. If a CNAME record isn't there,
+     * it had a TTL of 0 and the result is not cacheable.
+     */
+    private static long computeTtl(final Lookup lookup, final Record[] records) {
+        long ttl = Long.MAX_VALUE;
+        for (final Record record : records) {
+            ttl = Math.min(ttl, record.getTTL());
+        }
+
+        for (final Name alias : lookup.getAliases()) {
+            final SetResponse response = Lookup.getDefaultCache(DClass.IN).lookupRecords(alias, Type.CNAME,
+                    Credibility.NORMAL);
+            if (null == response || !response.isSuccessful()) {
+                return 0;
+            }
+            for (final RRset rrset : response.answers()) {
+                ttl = Math.min(ttl, rrset.getTTL());
+            }
+        }
+        return ttl;
+    }
+
     private static InetAddress addrFromRecord(final String name, final Record r) throws UnknownHostException {
         InetAddress addr;
         if (r instanceof ARecord) {